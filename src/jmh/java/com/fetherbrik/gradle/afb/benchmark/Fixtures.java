@@ -0,0 +1,46 @@
+package com.fetherbrik.gradle.afb.benchmark;
+
+import com.fetherbrik.gradle.afb.domain.VersionInfo;
+import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configuration shared by the benchmarks: the release targets of the demo project, in the same order.
+ */
+final class Fixtures {
+
+  static final String BUILD_TYPE = "local-dev";
+
+  private Fixtures() {
+  }
+
+  static Map<String, ReleaseTarget> demoReleaseTargets() {
+    Map<String, ReleaseTarget> targets = new LinkedHashMap<>();
+    targets.put("pr", target("pr", "v.*", "PR"));
+    targets.put("production", target("production", "v.*-RELEASE$", "CICD"));
+    targets.put("stage", target("stage", "v.*-RC[\\d]*", null));
+    targets.put("dev", target("dev", "v.*", null));
+    return targets;
+  }
+
+  /**
+   * The first target matching the version, as BuildInfoTransform picks it.
+   */
+  static ReleaseTarget firstMatching(Map<String, ReleaseTarget> targets, VersionInfo version) {
+    for (ReleaseTarget target : targets.values()) {
+      if (target.matches(BUILD_TYPE, version.full)) {
+        return target;
+      }
+    }
+    throw new RuntimeException("Could not find matching release target for version '" + version.full + "'.");
+  }
+
+  private static ReleaseTarget target(String name, String versionMatches, String buildTypeMatches) {
+    ReleaseTarget target = new ReleaseTarget(name);
+    target.setVersionMatches(versionMatches);
+    target.setBuildTypeMatches(buildTypeMatches);
+    return target;
+  }
+}
@@ -0,0 +1,40 @@
+package com.fetherbrik.gradle.afb.benchmark;
+
+import com.fetherbrik.gradle.afb.domain.GitInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a GitInfo, which canonicalizes the git root and extracts the version and distance from the describe string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GitInfoBenchmark {
+
+  private static final String HASH = "e39786e0c0d7a4b5e3a3f1c2d4b6a8e0f1a2b3c4";
+
+  @Param({"v1.2.3-5-ge39786e", "e39786e"})
+  public String describe;
+
+  private String gitRoot;
+
+  @Setup
+  public void setUp() {
+    gitRoot = new File(".").getAbsolutePath();
+  }
+
+  @Benchmark
+  public GitInfo build() {
+    return new GitInfo.Builder().gitRoot(gitRoot).describe(describe).hash(HASH).branchName("master").build();
+  }
+}
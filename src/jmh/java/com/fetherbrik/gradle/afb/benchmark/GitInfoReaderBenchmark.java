@@ -0,0 +1,72 @@
+package com.fetherbrik.gradle.afb.benchmark;
+
+import com.fetherbrik.gradle.afb.domain.GitInfo;
+import com.fetherbrik.gradle.afb.domain.VersionInfo;
+import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
+import com.fetherbrik.gradle.afb.service.BuildInfoTransform;
+import com.fetherbrik.gradle.afb.service.GitDirtyDetector;
+import com.fetherbrik.gradle.afb.service.GitInfoReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end: read the git info of a synthetic working copy, parse its version and select the release target, as the
+ * extension does to produce its BuildInfo. Runs against histories of 1k, 10k and 100k tagged commits (see
+ * {@link SyntheticRepository}), describing with JGit or with the persistent tag index. The daemon cache is off, so
+ * every invocation reads the repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GitInfoReaderBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int size;
+
+  @Param({"jgit", "tagIndex"})
+  public String describe;
+
+  private File workingCopy;
+  private Repository repository;
+  private GitInfoReader reader;
+  private Map<String, ReleaseTarget> targets;
+
+  @Setup
+  public void setUp() throws Exception {
+    workingCopy = SyntheticRepository.workingCopy(size);
+    repository = new FileRepositoryBuilder().findGitDir(workingCopy).build();
+    File tagIndexFile = describe.equals("tagIndex") ? Files.createTempFile("afb-tag-index", ".bin").toFile() : null;
+    if (tagIndexFile != null) {
+      // An empty file is not a valid index; start from none, as a fresh checkout does.
+      Files.delete(tagIndexFile.toPath());
+    }
+    reader = new GitInfoReader(false, new GitDirtyDetector(false, false), tagIndexFile);
+    targets = Fixtures.demoReleaseTargets();
+  }
+
+  @TearDown
+  public void tearDown() {
+    repository.close();
+  }
+
+  @Benchmark
+  public ReleaseTarget resolve() {
+    GitInfo git = reader.read(repository, workingCopy.getPath());
+    VersionInfo version = BuildInfoTransform.getVersionInfo(git.versionString);
+    return Fixtures.firstMatching(targets, version);
+  }
+}
@@ -0,0 +1,64 @@
+package com.fetherbrik.gradle.afb.benchmark;
+
+import com.fetherbrik.gradle.afb.domain.VersionInfo;
+import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
+import com.fetherbrik.gradle.afb.service.BuildInfoTransform;
+import com.fetherbrik.gradle.afb.service.ReleaseTargetMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selecting the release target for a version: 'v1.2.3' falls through to the last target, 'v1.2.3-RC.4' matches the
+ * third. 'firstMatching' tries each ReleaseTarget in turn; 'matcher' is the precompiled, memoizing ReleaseTargetMatcher
+ * and 'matcherUncached' the same with a new matcher, and so freshly compiled patterns, each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReleaseTargetBenchmark {
+
+  @Param({"v1.2.3", "v1.2.3-RC.4"})
+  public String version;
+
+  private Map<String, ReleaseTarget> targets;
+  private ReleaseTarget dev;
+  private VersionInfo parsed;
+  private ReleaseTargetMatcher matcher;
+
+  @Setup
+  public void setUp() {
+    targets = Fixtures.demoReleaseTargets();
+    dev = targets.get("dev");
+    parsed = BuildInfoTransform.getVersionInfo(version);
+    matcher = ReleaseTargetMatcher.of(targets);
+  }
+
+  @Benchmark
+  public boolean matches() {
+    return dev.matches(Fixtures.BUILD_TYPE, parsed.full);
+  }
+
+  @Benchmark
+  public ReleaseTarget firstMatching() {
+    return Fixtures.firstMatching(targets, parsed);
+  }
+
+  @Benchmark
+  public ReleaseTarget matcher() {
+    return matcher.match(Fixtures.BUILD_TYPE, parsed).orElse(null);
+  }
+
+  @Benchmark
+  public ReleaseTarget matcherUncached() {
+    return ReleaseTargetMatcher.of(targets).match(Fixtures.BUILD_TYPE, parsed).orElse(null);
+  }
+}
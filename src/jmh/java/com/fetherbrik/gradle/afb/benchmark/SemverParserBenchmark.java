@@ -0,0 +1,75 @@
+package com.fetherbrik.gradle.afb.benchmark;
+
+import com.fetherbrik.gradle.afb.domain.SemverParser;
+import com.fetherbrik.gradle.afb.domain.VersionInfo;
+import com.fetherbrik.gradle.afb.service.BuildInfoTransform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * The hand written semver parser against the regex it replaced: SEMVER_PATTERN followed by Integer.parseInt of the match
+ * groups, as BuildInfoTransform did before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SemverParserBenchmark {
+
+  private static final int TAG_COUNT = 1000;
+
+  private String[] tags;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    tags = new String[TAG_COUNT];
+    for (int i = 0; i < TAG_COUNT; i++) {
+      String version = "v" + random.nextInt(20) + "." + random.nextInt(50) + "." + random.nextInt(100);
+      switch (i % 4) {
+        case 0:
+          tags[i] = version;
+          break;
+        case 1:
+          tags[i] = version + "-RC." + random.nextInt(20);
+          break;
+        case 2:
+          tags[i] = version + "-beta." + random.nextInt(5) + "+build." + random.nextInt(1000);
+          break;
+        default:
+          tags[i] = "release-" + i;
+      }
+    }
+  }
+
+  @Benchmark
+  public void regex(Blackhole blackhole) {
+    for (String tag : tags) {
+      Matcher matcher = BuildInfoTransform.SEMVER_PATTERN.matcher(tag);
+      if (matcher.matches()) {
+        blackhole.consume(new VersionInfo.Builder().prefix(matcher.group(1))
+                                                   .major(Integer.parseInt(matcher.group(2)))
+                                                   .minor(Integer.parseInt(matcher.group(3)))
+                                                   .patch(Integer.parseInt(matcher.group(4)))
+                                                   .preRelease(matcher.group(5))
+                                                   .build());
+      }
+    }
+  }
+
+  @Benchmark
+  public void parser(Blackhole blackhole) {
+    for (String tag : tags) {
+      blackhole.consume(SemverParser.tryParse(tag));
+    }
+  }
+}
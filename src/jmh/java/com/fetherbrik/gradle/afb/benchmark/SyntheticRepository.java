@@ -0,0 +1,104 @@
+package com.fetherbrik.gradle.afb.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Generates (once) a working copy with 'size' commits, each tagged with an annotated semver tag, followed by a few
+ * untagged commits, so that describe has to walk and the tag set is as large as the history.
+ * <p>
+ * Commits are written straight through an ObjectInserter, all sharing the tree of the initial commit, and the result is
+ * garbage collected so that objects and refs are packed as in a long-lived clone. Repositories are kept under the
+ * 'afb.benchmark.repositories' directory (build/benchmark-repositories by default) and re-used by later runs.
+ */
+final class SyntheticRepository {
+
+  static final int UNTAGGED_HEAD_COMMITS = 5;
+
+  private static final String COMPLETE_MARKER = "afb-benchmark-complete";
+  private static final long START_MILLIS = 1_600_000_000_000L;
+
+  private SyntheticRepository() {
+  }
+
+  static File workingCopy(int size) throws Exception {
+    File base = new File(System.getProperty("afb.benchmark.repositories", "build/benchmark-repositories"));
+    File dir = new File(base, "repo-" + size);
+    if (new File(dir, ".git/" + COMPLETE_MARKER).isFile()) {
+      return dir;
+    }
+    FileUtils.deleteDirectory(dir);
+    if (!dir.mkdirs()) {
+      throw new IOException("Could not create '" + dir + "'.");
+    }
+    System.out.println("AFB: Generating a synthetic repository with " + size + " tagged commits in '" + dir + "'.");
+    try (Git git = Git.init().setDirectory(dir).call()) {
+      FileUtils.writeStringToFile(new File(dir, "README.md"), "Synthetic benchmark repository\n", StandardCharsets.UTF_8);
+      git.add().addFilepattern("README.md").call();
+      RevCommit initial = git.commit().setMessage("Initial commit").setAuthor(ident(0)).setCommitter(ident(0)).call();
+      Repository repository = git.getRepository();
+
+      BatchRefUpdate tags = repository.getRefDatabase().newBatchUpdate();
+      ObjectId head = initial;
+      try (ObjectInserter inserter = repository.newObjectInserter()) {
+        for (int i = 1; i <= size + UNTAGGED_HEAD_COMMITS; i++) {
+          head = insertCommit(inserter, initial.getTree(), head, i);
+          if (i <= size) {
+            String name = "v" + (i / 10_000) + "." + (i / 100 % 100) + "." + (i % 100);
+            TagBuilder tag = new TagBuilder();
+            tag.setTag(name);
+            tag.setObjectId(head, Constants.OBJ_COMMIT);
+            tag.setTagger(ident(i));
+            tag.setMessage("Release " + name + "\n");
+            tags.addCommand(new ReceiveCommand(ObjectId.zeroId(), inserter.insert(tag), Constants.R_TAGS + name));
+          }
+        }
+        inserter.flush();
+      }
+      try (RevWalk walk = new RevWalk(repository)) {
+        tags.execute(walk, NullProgressMonitor.INSTANCE);
+      }
+      RefUpdate update = repository.updateRef(repository.getFullBranch());
+      update.setNewObjectId(head);
+      update.setForceUpdate(true);
+      update.update();
+
+      git.gc().call();
+    }
+    FileUtils.touch(new File(dir, ".git/" + COMPLETE_MARKER));
+    return dir;
+  }
+
+  private static ObjectId insertCommit(ObjectInserter inserter, ObjectId tree, ObjectId parent, int index) throws IOException {
+    CommitBuilder commit = new CommitBuilder();
+    commit.setTreeId(tree);
+    commit.setParentId(parent);
+    commit.setAuthor(ident(index));
+    commit.setCommitter(ident(index));
+    commit.setMessage("Commit " + index + "\n");
+    return inserter.insert(commit);
+  }
+
+  private static PersonIdent ident(int index) {
+    return new PersonIdent("AFB Benchmark", "benchmark@example.com", new Date(START_MILLIS + index * 60_000L), TimeZone.getTimeZone("UTC"));
+  }
+}
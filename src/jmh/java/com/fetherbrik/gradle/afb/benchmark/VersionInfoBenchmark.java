@@ -0,0 +1,53 @@
+package com.fetherbrik.gradle.afb.benchmark;
+
+import com.fetherbrik.gradle.afb.domain.VersionInfo;
+import com.fetherbrik.gradle.afb.service.BuildInfoTransform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a describe version string and computing the next versions from it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VersionInfoBenchmark {
+
+  @Param({"v1.2.3", "v1.2.3-RC.4", "v1.2.3-beta.2+build.103"})
+  public String version;
+
+  private VersionInfo parsed;
+
+  @Setup
+  public void setUp() {
+    parsed = BuildInfoTransform.getVersionInfo(version);
+  }
+
+  @Benchmark
+  public VersionInfo getVersionInfo() {
+    return BuildInfoTransform.getVersionInfo(version);
+  }
+
+  @Benchmark
+  public VersionInfo nextPreRelease() {
+    return parsed.nextPreRelease().build();
+  }
+
+  @Benchmark
+  public VersionInfo nextPreReleaseWithId() {
+    return parsed.nextPreRelease("RC").build();
+  }
+
+  @Benchmark
+  public VersionInfo nextPatch() {
+    return parsed.nextPatch();
+  }
+}
@@ -0,0 +1,184 @@
+package com.fetherbrik.gradle.afb;
+
+import com.fetherbrik.gradle.afb.domain.VersionInfo;
+import com.fetherbrik.gradle.afb.domain.configuration.ArtifactRepoConfig;
+import com.fetherbrik.gradle.afb.domain.configuration.DockerConfig;
+import com.fetherbrik.gradle.afb.domain.configuration.GitConfig;
+import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
+import com.fetherbrik.gradle.afb.service.ReleaseTargetMatcher;
+import groovy.lang.Closure;
+import org.gradle.api.Action;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.tasks.Input;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The 'afb { }' configuration, shared by the project extension and the settings extension.
+ */
+public abstract class AnotherFineBuildConfig {
+
+    private final DockerConfig docker = new DockerConfig();
+    private final GitConfig git = new GitConfig();
+    private final ArtifactRepoConfig artifacts = new ArtifactRepoConfig();
+    private final Map<String, ReleaseTarget> releaseTargets = new LinkedHashMap<>();
+    private ReleaseTargetMatcher releaseTargetMatcher;
+    private File versionInfoFilePath;
+    private String buildType;
+    private Map<String, String> versions;
+    private String dateStampMode = "clock";
+    private String dateStampDirtySuffix;
+    private boolean buildInfoResource;
+
+    /**
+     * The 'buildType' Gradle property, or else the 'BUILD_TYPE' system property.
+     */
+    public static Provider<String> defaultBuildType(ProviderFactory providers) {
+        return providers.gradleProperty("buildType").forUseAtConfigurationTime()
+                        .orElse(providers.systemProperty("BUILD_TYPE").forUseAtConfigurationTime());
+    }
+
+    /**
+     * The 'forceTarget' Gradle or system property: the name of the release target to use regardless of the version.
+     */
+    public static Provider<String> forceTarget(ProviderFactory providers) {
+        return providers.gradleProperty("forceTarget").forUseAtConfigurationTime()
+                        .orElse(providers.systemProperty("forceTarget").forUseAtConfigurationTime());
+    }
+
+    public File getVersionInfoFilePath() {
+        return versionInfoFilePath;
+    }
+
+    public void setVersionInfoFilePath(File versionInfoFilePath) {
+        this.versionInfoFilePath = versionInfoFilePath;
+    }
+
+    @Input
+    public Map<String, ReleaseTarget> getReleaseTargets() {
+        return releaseTargets;
+    }
+
+    public void setReleaseTargets(Map<String, Closure<ReleaseTarget>> targets) {
+        // this.releaseTargets = targets;
+        for (Map.Entry<String, Closure<ReleaseTarget>> entry : targets.entrySet()) {
+            ReleaseTarget t = new ReleaseTarget(entry.getKey().trim());
+            Closure<ReleaseTarget> value = entry.getValue();
+            value.setDelegate(t);
+            value.run();
+            releaseTargets.put(t.getName(), t);
+        }
+        releaseTargetMatcher = null;
+    }
+
+    /**
+     * The release targets, in declaration order, compiled for matching. Created on first use.
+     */
+    public ReleaseTargetMatcher getReleaseTargetMatcher() {
+        if (releaseTargetMatcher == null) {
+            releaseTargetMatcher = ReleaseTargetMatcher.of(releaseTargets);
+        }
+        return releaseTargetMatcher;
+    }
+
+    /**
+     * Find the release target of each version for the current build type, e.g. 'afb.resolveAll(afb.tags.all())'.
+     *
+     * @return The matching target of each version that has one, by full version, in the order of 'versions'.
+     */
+    public Map<String, ReleaseTarget> resolveAll(Collection<VersionInfo> versions) {
+        return getReleaseTargetMatcher().resolveAll(getBuildType(), versions);
+    }
+
+    @Nullable
+    public DockerConfig getDocker() {
+        return docker;
+    }
+
+    public GitConfig getGit() {
+        return git;
+    }
+
+    public void git(Action<? super GitConfig> action) {
+        action.execute(git);
+    }
+
+    public void docker(Action<? super DockerConfig> action) {
+        action.execute(docker);
+    }
+
+    public void artifacts(Action<? super ArtifactRepoConfig> action) {
+        action.execute(artifacts);
+    }
+
+    public ArtifactRepoConfig artifacts() {
+        return artifacts;
+    }
+
+    public ArtifactRepoConfig getArtifacts() {
+        return artifacts;
+    }
+
+    /**
+     * @return The configured build type, or null when none was set.
+     */
+    public String getBuildType() {
+        return buildType;
+    }
+
+    public void setBuildType(String buildType) {
+        this.buildType = buildType;
+    }
+
+    public Map<String, String> getVersions() {
+        return versions;
+    }
+
+    public void setVersions(Map<String, String> versions) {
+        this.versions = versions;
+    }
+
+    public String getDateStampMode() {
+        return dateStampMode;
+    }
+
+    /**
+     * Where 'afb.info.dateStamp' comes from: 'clock' (the default) for the time of the build, or 'commit' for the
+     * committer time of HEAD. With 'commit', every build of a commit has the same stamp, so the tasks that use it (jar
+     * manifests, image labels, ...) stay up to date, and hit the build cache on other machines.
+     */
+    public void setDateStampMode(String dateStampMode) {
+        this.dateStampMode = dateStampMode;
+    }
+
+    public String getDateStampDirtySuffix() {
+        return dateStampDirtySuffix;
+    }
+
+    /**
+     * Appended to a 'commit' date stamp when the working copy has changes, e.g. '-dirty'. Not set by default.
+     */
+    public void setDateStampDirtySuffix(String dateStampDirtySuffix) {
+        this.dateStampDirtySuffix = dateStampDirtySuffix;
+    }
+
+    public boolean isBuildInfoResource() {
+        return buildInfoResource;
+    }
+
+    /**
+     * When true, the version and git metadata of java projects are only bound when the jar is written: 'generateBuildInfo'
+     * writes them to '/META-INF/afb/build-info.properties' in the jar, and the jar manifest gets 'Implementation-Version'
+     * and the git commit. Read them from there, rather than putting 'afb.info.version' into sources or resources, and a
+     * new version only rebuilds the jars: compilation and tests keep hitting the build cache. The date stamp is only
+     * included with dateStampMode 'commit', as a 'clock' stamp would rebuild the jars every time. Defaults to false.
+     */
+    public void setBuildInfoResource(boolean buildInfoResource) {
+        this.buildInfoResource = buildInfoResource;
+    }
+}
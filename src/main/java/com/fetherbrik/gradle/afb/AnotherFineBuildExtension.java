@@ -2,148 +2,95 @@ package com.fetherbrik.gradle.afb;
 
 import com.fetherbrik.gradle.afb.domain.BuildInfo;
 import com.fetherbrik.gradle.afb.domain.GitInfo;
-import com.fetherbrik.gradle.afb.domain.configuration.ArtifactRepoConfig;
-import com.fetherbrik.gradle.afb.domain.configuration.DockerConfig;
-import com.fetherbrik.gradle.afb.domain.configuration.GitConfig;
-import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
 import com.fetherbrik.gradle.afb.service.BuildInfoTransform;
-import groovy.lang.Closure;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.gradle.api.Action;
+import com.fetherbrik.gradle.afb.service.GitInfoValueSource;
+import com.fetherbrik.gradle.afb.service.GitRepositoryService;
+import com.fetherbrik.gradle.afb.service.GitTagNamesValueSource;
+import com.fetherbrik.gradle.afb.service.VersionTagIndex;
 import org.gradle.api.Project;
-import org.gradle.api.tasks.Input;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
 
-import javax.annotation.Nullable;
-import java.io.File;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Optional;
 
-public class AnotherFineBuildExtension {
+public class AnotherFineBuildExtension extends AnotherFineBuildConfig {
 
     private final Project project;
-    private final DockerConfig docker = new DockerConfig();
-    private final GitConfig git = new GitConfig();
-    private final ArtifactRepoConfig artifacts = new ArtifactRepoConfig();
-    private final Map<String, ReleaseTarget> releaseTargets = new HashMap<>();
-    private File versionInfoFilePath;
-    private String buildType;
     private BuildInfo info;
-    private Map<String, String> versions;
+    private final Provider<GitRepositoryService> repositories;
+    private final Provider<GitInfo> gitInfo;
+    private final Provider<ArrayList<String>> tagNames;
+    private VersionTagIndex tags;
+    private final Provider<String> forceTarget;
+    private final Provider<String> defaultBuildType;
 
     public AnotherFineBuildExtension(Project project) {
         this.project = project;
+        ProviderFactory providers = project.getProviders();
+        this.repositories = GitRepositoryService.register(project.getGradle());
+        this.gitInfo = GitInfoValueSource.of(providers, getGit(), repositories, project.getRootDir());
+        this.tagNames = providers.of(GitTagNamesValueSource.class, spec -> {
+            spec.getParameters().getGitRoot().set(project.provider(() -> getGit().getGitRoot()));
+            spec.getParameters().getRepositories().set(repositories);
+        });
+        this.forceTarget = forceTarget(providers);
+        this.defaultBuildType = defaultBuildType(providers);
     }
 
-    public File getVersionInfoFilePath() {
-        return versionInfoFilePath;
-    }
-
-    public void setVersionInfoFilePath(File versionInfoFilePath) {
-        this.versionInfoFilePath = versionInfoFilePath;
-    }
-
-    @Input
-    public Map<String, ReleaseTarget> getReleaseTargets() {
-        return releaseTargets;
-    }
-
-    public void setReleaseTargets(Map<String, Closure<ReleaseTarget>> targets) {
-        // this.releaseTargets = targets;
-        for (Map.Entry<String, Closure<ReleaseTarget>> entry : targets.entrySet()) {
-            ReleaseTarget t = new ReleaseTarget(entry.getKey().trim());
-            Closure<ReleaseTarget> value = entry.getValue();
-            value.setDelegate(t);
-            value.run();
-            releaseTargets.put(t.getName(), t);
+    public BuildInfo getInfo() {
+        if (info == null) {
+            info = new BuildInfoTransform(this, gitInfo.get(), getBuildType(), Optional.ofNullable(forceTarget.getOrNull())).apply(project);
         }
+        return info;
     }
 
-    @Nullable
-    public DockerConfig getDocker() {
-        return docker;
-    }
-
-    public GitConfig getGit() {
-        return git;
-    }
-
-    public void git(Action<? super GitConfig> action) {
-        action.execute(git);
-    }
-
-    public void docker(Action<? super DockerConfig> action) {
-        action.execute(docker);
+    /**
+     * The build info, computed on first query.
+     */
+    public Provider<BuildInfo> getInfoProvider() {
+        return project.provider(this::getInfo);
     }
 
-    public void artifacts(Action<? super ArtifactRepoConfig> action) {
-        action.execute(artifacts);
+    /**
+     * The git state of the configured git root, as a configuration cache input.
+     */
+    public Provider<GitInfo> getGitInfo() {
+        return gitInfo;
     }
 
-    public ArtifactRepoConfig artifacts() {
-        return artifacts;
+    /**
+     * Every semver tag in the repository, sorted by precedence, e.g. 'afb.tags.latest(matching: "1.4.x")'.
+     */
+    public VersionTagIndex getTags() {
+        if (tags == null) {
+            tags = VersionTagIndex.of(tagNames.get());
+        }
+        return tags;
     }
 
-    public ArtifactRepoConfig getArtifacts() {
-        return artifacts;
+    public Provider<VersionTagIndex> getTagsProvider() {
+        return project.provider(this::getTags);
     }
 
-    public BuildInfo getInfo() {
-        if (info == null) {
-            GitInfo git = hydrateVersionInfo(this);
-            info = new BuildInfoTransform(this, git).apply(project);
-        }
-        return info;
+    /**
+     * The build-scoped holder of the open git repositories.
+     */
+    public Provider<GitRepositoryService> getRepositories() {
+        return repositories;
     }
 
     public void setInfo(BuildInfo buildInfo) {
         this.info = buildInfo;
     }
 
+    /**
+     * @return The configured build type, falling back to the 'buildType' Gradle property or 'BUILD_TYPE' system property
+     * when none was set.
+     */
+    @Override
     public String getBuildType() {
-        return buildType;
-    }
-
-    public void setBuildType(String buildType) {
-        this.buildType = buildType;
-    }
-
-    public Map<String, String> getVersions() {
-        return versions;
-    }
-
-    public void setVersions(Map<String, String> versions) {
-        this.versions = versions;
-    }
-
-    private GitInfo hydrateVersionInfo(AnotherFineBuildExtension extension) {
-        try {
-            FileRepositoryBuilder builder = new FileRepositoryBuilder();
-            Repository repository = builder.findGitDir(new File(extension.getGit().getGitRoot())).readEnvironment() // scan environment GIT_* variables
-                                           .findGitDir() // scan up the file system tree
-                                           .build();
-            if (repository == null || repository.isBare()) {
-                throw new RuntimeException("Another Fine Build requires a project that is part of a working git repository.");
-            }
-            if (repository.resolve("HEAD") == null) {
-                throw new RuntimeException("Another Fine Build requires a project that is part of a working git repository. Have you made any commits?");
-            }
-            String hash = repository.resolve("HEAD").name();
-            Git git = new Git(repository);
-            String describe = git.describe().setLong(true).setAlways(true).call();
-            project.getLogger().info("AFB: Found git describe string '" + describe + "'.");
-            return new GitInfo.Builder()
-                    .gitRoot(extension.getGit().getGitRoot())
-                    .hash(hash)
-                    .isDirty(!git.status().call().isClean())
-                    .describe(describe)
-                    .branchName(repository.getBranch())
-                    .build();
-        } catch (IOException | GitAPIException e) {
-            throw new RuntimeException(e);
-        }
+        String buildType = super.getBuildType();
+        return buildType != null ? buildType : defaultBuildType.getOrNull();
     }
 }
@@ -1,43 +1,74 @@
 package com.fetherbrik.gradle.afb;
 
+import com.fetherbrik.gradle.afb.domain.BuildInfo;
+import com.fetherbrik.gradle.afb.domain.DockerInfo;
 import com.fetherbrik.gradle.afb.service.AfbSemanticTasks;
+import com.fetherbrik.gradle.afb.service.AfbBuildInfoTasks;
 import com.fetherbrik.gradle.afb.service.AfbCoreTasks;
 import com.fetherbrik.gradle.afb.service.AfbDockerTasks;
+import com.fetherbrik.gradle.afb.service.AfbOciTasks;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
 
 import java.io.File;
 
+/**
+ * Tasks are registered lazily, and read the build info (and so git) through a provider only when they run or when the
+ * task graph needs it: configuring a build that does not use them never touches git.
+ */
 public class AnotherFineBuildPlugin implements Plugin<Project> {
 
   public static final String GROUP = "afb";
 
   @Override
   public void apply(final Project project) {
+    if (project.getExtensions().findByType(AnotherFineBuildProjectExtension.class) != null) {
+      throw new RuntimeException("AFB: Another Fine Build is already applied to every project by the settings plugin. Remove the '"
+                                 + project.getPath() + "' project plugin, and configure 'afb' in settings.gradle instead.");
+    }
     AnotherFineBuildExtension extension = project.getExtensions().create("afb", AnotherFineBuildExtension.class, project);
     extension.getGit().setGitRoot(project.getRootDir().getAbsolutePath());
+    Provider<BuildInfo> info = extension.getInfoProvider();
     project.getTasks().register("afb", AnotherFineBuildTask.class, latestArtifactVersion -> {
-      try {
-        extension.getInfo();
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
+      latestArtifactVersion.getTags().set(extension.getTagsProvider());
     });
+    AfbSemanticTasks semanticTasks = new AfbSemanticTasks(project, info, extension.getRepositories());
+    if (project == project.getRootProject()) {
+      AfbDockerTasks.addDockerBakeTask(project, extension.getDocker());
+    }
     project.afterEvaluate(p -> {
-      if (extension.getInfo() != null) {
-        AfbSemanticTasks semanticTasks = new AfbSemanticTasks(p, extension.getInfo());
-        if (extension.getInfo().dockerEnabled() && new File(project.getProjectDir(), extension.getInfo().docker.dockerFile).exists()) {
-          AfbDockerTasks afbDocker = new AfbDockerTasks(project, extension.getInfo().docker);
-        }
-        AfbCoreTasks coreTasks = new AfbCoreTasks(p, extension.getInfo());
-        p.getChildProjects().forEach((String k, Project cp) -> {
-          //noinspection OptionalGetWithoutIsPresent
-          if (extension.getInfo().dockerEnabled() &&  new File(cp.getProjectDir(), extension.getInfo().docker.dockerFile).exists()) {
-            AfbDockerTasks childDocker = new AfbDockerTasks(cp, extension.getInfo().docker);
-          }
-          AfbCoreTasks childCoreTasks = new AfbCoreTasks(cp, extension.getInfo());
-        });
+      // Release targets are only known once the build script has run.
+      if (hasDocker(project, extension)) {
+        AfbDockerTasks afbDocker = new AfbDockerTasks(project, info, extension.getDocker());
+      }
+      if (extension.getDocker().isOciImage()) {
+        project.getPluginManager().withPlugin("application", plugin -> new AfbOciTasks(project, info, extension.getDocker()));
       }
+      AfbCoreTasks coreTasks = new AfbCoreTasks(p, info);
+      if (extension.isBuildInfoResource()) {
+        project.getPluginManager().withPlugin("java", plugin -> new AfbBuildInfoTasks(project, info, extension.getDateStampMode()));
+      }
+      p.getChildProjects().forEach((String k, Project cp) -> {
+        if (new File(cp.getProjectDir(), DockerInfo.DOCKER_FILE).exists()) {
+          AfbDockerTasks childDocker = new AfbDockerTasks(cp, info, extension.getDocker());
+        } else if (extension.getDocker().isGenerateDockerfile()) {
+          // Child projects are evaluated after the root.
+          cp.getPluginManager().withPlugin("application", plugin -> new AfbDockerTasks(cp, info, extension.getDocker()));
+        }
+        if (extension.getDocker().isOciImage()) {
+          cp.getPluginManager().withPlugin("application", plugin -> new AfbOciTasks(cp, info, extension.getDocker()));
+        }
+        AfbCoreTasks childCoreTasks = new AfbCoreTasks(cp, info);
+        if (extension.isBuildInfoResource()) {
+          cp.getPluginManager().withPlugin("java", plugin -> new AfbBuildInfoTasks(cp, info, extension.getDateStampMode()));
+        }
+      });
     });
   }
+
+  private static boolean hasDocker(Project project, AnotherFineBuildExtension extension) {
+    return new File(project.getProjectDir(), DockerInfo.DOCKER_FILE).exists()
+           || AfbDockerTasks.generatesDockerfile(project, extension.getDocker());
+  }
 }
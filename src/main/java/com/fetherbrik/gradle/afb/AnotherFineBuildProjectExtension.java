@@ -0,0 +1,37 @@
+package com.fetherbrik.gradle.afb;
+
+import com.fetherbrik.gradle.afb.domain.BuildInfo;
+import org.gradle.api.provider.Provider;
+
+/**
+ * The 'afb' extension of each project when Another Fine Build is applied as a settings plugin: read access to the
+ * build info, as seen by this project. Configuration happens in settings.gradle.
+ */
+public class AnotherFineBuildProjectExtension {
+
+    private final AnotherFineBuildConfig config;
+    private final Provider<BuildInfo> info;
+
+    public AnotherFineBuildProjectExtension(AnotherFineBuildConfig config, Provider<BuildInfo> info) {
+        this.config = config;
+        this.info = info;
+    }
+
+    /**
+     * The configuration from settings.gradle.
+     */
+    public AnotherFineBuildConfig getConfig() {
+        return config;
+    }
+
+    public BuildInfo getInfo() {
+        return info.get();
+    }
+
+    /**
+     * The build info, computed on first query.
+     */
+    public Provider<BuildInfo> getInfoProvider() {
+        return info;
+    }
+}
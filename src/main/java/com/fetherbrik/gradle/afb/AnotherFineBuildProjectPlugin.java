@@ -0,0 +1,76 @@
+package com.fetherbrik.gradle.afb;
+
+import com.fetherbrik.gradle.afb.domain.BuildInfo;
+import com.fetherbrik.gradle.afb.domain.DockerInfo;
+import com.fetherbrik.gradle.afb.domain.GitInfo;
+import com.fetherbrik.gradle.afb.service.AfbBuildInfoTasks;
+import com.fetherbrik.gradle.afb.service.AfbCoreTasks;
+import com.fetherbrik.gradle.afb.service.AfbDockerTasks;
+import com.fetherbrik.gradle.afb.service.AfbOciTasks;
+import com.fetherbrik.gradle.afb.service.AfbSemanticTasks;
+import com.fetherbrik.gradle.afb.service.BuildInfoService;
+import com.fetherbrik.gradle.afb.service.BuildInfoTransform;
+import com.fetherbrik.gradle.afb.service.GitInfoValueSource;
+import com.fetherbrik.gradle.afb.service.GitRepositoryService;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+
+import java.io.File;
+import java.util.Optional;
+
+/**
+ * Wires the tasks of a single project for {@link AnotherFineBuildSettingsPlugin}. Only looks at its own project: the
+ * shared build info comes from the {@link BuildInfoService}, so projects can be configured in any order, or in
+ * parallel.
+ */
+public class AnotherFineBuildProjectPlugin implements Plugin<Project> {
+
+  private final AnotherFineBuildConfig config;
+
+  public AnotherFineBuildProjectPlugin(AnotherFineBuildConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void apply(Project project) {
+    Provider<GitRepositoryService> repositories = GitRepositoryService.register(project.getGradle());
+    Provider<BuildInfoService> buildInfoService = BuildInfoService.register(project.getGradle());
+    Supplier<BuildInfo> info = Suppliers.memoize(() -> {
+      BuildInfo shared = buildInfoService.get().getInfo(() -> computeSharedInfo(project, repositories));
+      return BuildInfoTransform.forProject(shared, config.getDocker(), project);
+    });
+    Provider<BuildInfo> infoProvider = project.provider(info::get);
+    project.getExtensions().create("afb", AnotherFineBuildProjectExtension.class, config, infoProvider);
+
+    if (project.getParent() == null) {
+      AfbSemanticTasks semanticTasks = new AfbSemanticTasks(project, infoProvider, repositories);
+      AfbDockerTasks.addDockerBakeTask(project, config.getDocker());
+    }
+    // Release targets are configured in settings.gradle, which has been evaluated by now.
+    if (new File(project.getProjectDir(), DockerInfo.DOCKER_FILE).exists()) {
+      AfbDockerTasks dockerTasks = new AfbDockerTasks(project, infoProvider, config.getDocker());
+    } else if (config.getDocker().isGenerateDockerfile()) {
+      // The build script, which applies the 'application' plugin, has not run yet.
+      project.getPluginManager().withPlugin("application", plugin -> new AfbDockerTasks(project, infoProvider, config.getDocker()));
+    }
+    if (config.getDocker().isOciImage()) {
+      project.getPluginManager().withPlugin("application", plugin -> new AfbOciTasks(project, infoProvider, config.getDocker()));
+    }
+    AfbCoreTasks coreTasks = new AfbCoreTasks(project, infoProvider);
+    if (config.isBuildInfoResource()) {
+      project.getPluginManager().withPlugin("java", plugin -> new AfbBuildInfoTasks(project, infoProvider, config.getDateStampMode()));
+    }
+  }
+
+  private BuildInfo computeSharedInfo(Project project, Provider<GitRepositoryService> repositories) {
+    ProviderFactory providers = project.getProviders();
+    GitInfo git = GitInfoValueSource.of(providers, config.getGit(), repositories, project.getRootDir()).get();
+    String buildType = config.getBuildType() != null ? config.getBuildType() : AnotherFineBuildConfig.defaultBuildType(providers).getOrNull();
+    Optional<String> forceTarget = Optional.ofNullable(AnotherFineBuildConfig.forceTarget(providers).getOrNull());
+    return new BuildInfoTransform(config, git, buildType, forceTarget).shared();
+  }
+}
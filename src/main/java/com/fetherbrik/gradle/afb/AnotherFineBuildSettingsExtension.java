@@ -0,0 +1,8 @@
+package com.fetherbrik.gradle.afb;
+
+/**
+ * The 'afb { }' block of settings.gradle, when Another Fine Build is applied as a settings plugin. It configures every
+ * project of the build.
+ */
+public class AnotherFineBuildSettingsExtension extends AnotherFineBuildConfig {
+}
@@ -0,0 +1,27 @@
+package com.fetherbrik.gradle.afb;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.initialization.Settings;
+
+/**
+ * Applies Another Fine Build to every project of the build from settings.gradle:
+ * <pre>
+ *   plugins {
+ *     id 'com.fetherbrik.another-fine-build.settings' version '...'
+ *   }
+ *   afb {
+ *     releaseTargets = [ ... ]
+ *   }
+ * </pre>
+ * The build info is computed once for the whole build and shared through a build service; each project then wires
+ * its own tasks (see {@link AnotherFineBuildProjectPlugin}), without looking at any other project.
+ */
+public class AnotherFineBuildSettingsPlugin implements Plugin<Settings> {
+
+  @Override
+  public void apply(Settings settings) {
+    AnotherFineBuildSettingsExtension extension = settings.getExtensions().create("afb", AnotherFineBuildSettingsExtension.class);
+    extension.getGit().setGitRoot(settings.getRootDir().getAbsolutePath());
+    settings.getGradle().beforeProject(project -> new AnotherFineBuildProjectPlugin(extension).apply(project));
+  }
+}
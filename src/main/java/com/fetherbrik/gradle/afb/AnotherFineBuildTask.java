@@ -1,25 +1,35 @@
 package com.fetherbrik.gradle.afb;
 
+import com.fetherbrik.gradle.afb.service.VersionTagIndex;
 import groovy.lang.Closure;
-import org.gradle.api.Action;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.Task;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.TaskAction;
 
 public class AnotherFineBuildTask extends DefaultTask {
     private final Property<String> serverUrl;
+    private final Property<VersionTagIndex> tags;
 
     public AnotherFineBuildTask() {
         serverUrl = getProject().getObjects().property(String.class);
+        tags = getProject().getObjects().property(VersionTagIndex.class);
     }
 
     @Input
+    @Optional
     public Property<String> getServerUrl() {
         return serverUrl;
     }
 
+    @Internal
+    public Property<VersionTagIndex> getTags() {
+        return tags;
+    }
+
     @Override
     public Task configure(Closure closure) {
         return super.configure(closure);
@@ -27,9 +37,15 @@ public class AnotherFineBuildTask extends DefaultTask {
 
     @TaskAction
     public void resolveLatestVersion() {
-        // Access the raw value during the execution phase of the build lifecycle
-        System.out.println("Retrieving latest artifact version from URL " + serverUrl.get());
+        VersionTagIndex index = tags.get();
+        String latest = index.latest().map(v -> v.full).orElse("none");
+        getLogger().quiet("AFB: Latest released version tag: " + latest + " (" + index.all().size() + " version tags).");
+
+        if (serverUrl.isPresent()) {
+            // Access the raw value during the execution phase of the build lifecycle
+            System.out.println("Retrieving latest artifact version from URL " + serverUrl.get());
 
-        // do additional work
+            // do additional work
+        }
     }
 }
@@ -10,6 +10,9 @@ import java.util.Optional;
 
 public final class DockerInfo {
 
+  public static final String DOCKER_FILE = "Dockerfile";
+  public static final String BUILD_DIR = "docker";
+
   public final String host;
   public final String repo;
   public final Optional<String> org;
@@ -1,5 +1,6 @@
 package com.fetherbrik.gradle.afb.domain;
 
+import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
 import org.apache.commons.lang3.StringUtils;
 
 public class DockerTag {
@@ -13,6 +14,13 @@ public class DockerTag {
     this.tag = tag;
   }
 
+  /**
+   * The tag that images built for 'target' receive, e.g. 'release' or 'stage'.
+   */
+  public static DockerTag forTarget(ReleaseTarget target) {
+    return new DockerTag(target.getDockerTag(), "Tag image with '" + target.getDockerTag() + "'", target.getDockerTag());
+  }
+
   public String capitalizedShortName() {
     return StringUtils.capitalize(shortName);
   }
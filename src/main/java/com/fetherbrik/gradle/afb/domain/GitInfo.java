@@ -2,10 +2,14 @@ package com.fetherbrik.gradle.afb.domain;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public final class GitInfo {
+public final class GitInfo implements Serializable {
+
+  private static final long serialVersionUID = 2L;
 
   /**
    * The long describe: 'git describe --long --always'
@@ -14,6 +18,10 @@ public final class GitInfo {
   public final String describe;
   public final String branchName;
   public final String hash;
+  /**
+   * The committer time of HEAD, in seconds since the epoch.
+   */
+  public final long commitTime;
   public final boolean isDirty;
   public final int distanceToLastTag;
   public final String versionString;
@@ -23,6 +31,7 @@ public final class GitInfo {
     describe = builder.describe;
     branchName = builder.branchName;
     hash = builder.hash;
+    commitTime = builder.commitTime;
     isDirty = builder.isDirty;
     distanceToLastTag = distanceToLastTagFromDescribe(describe);
     versionString = determineVersionString(describe, hash);
@@ -32,6 +41,28 @@ public final class GitInfo {
     return hash.substring(0, 7);
   }
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    GitInfo gitInfo = (GitInfo) o;
+    return isDirty == gitInfo.isDirty
+           && commitTime == gitInfo.commitTime
+           && Objects.equals(gitRoot, gitInfo.gitRoot)
+           && Objects.equals(describe, gitInfo.describe)
+           && Objects.equals(branchName, gitInfo.branchName)
+           && Objects.equals(hash, gitInfo.hash);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(gitRoot, describe, branchName, hash, commitTime, isDirty);
+  }
+
   private String determineVersionString(String describe, String hash) {
     String result = "";
     Matcher matcher = Pattern.compile("(v.*)-([\\d]*)-[\\p{Alnum}]{8}").matcher(describe);
@@ -65,6 +96,7 @@ public final class GitInfo {
     private String describe;
     private String branchName;
     private String hash;
+    private long commitTime;
     private Boolean isDirty = false;
     private Integer distanceToLastTag = 0;
     private String versionString;
@@ -100,6 +132,11 @@ public final class GitInfo {
       return this;
     }
 
+    public Builder commitTime(long commitTime) {
+      this.commitTime = commitTime;
+      return this;
+    }
+
     public Builder isDirty(boolean isDirty) {
       this.isDirty = isDirty;
       return this;
@@ -120,6 +157,7 @@ public final class GitInfo {
       describe = copy.describe;
       branchName = copy.branchName;
       hash = copy.hash;
+      commitTime = copy.commitTime;
       isDirty = copy.isDirty;
       distanceToLastTag = copy.distanceToLastTag;
       versionString = copy.versionString;
@@ -132,6 +170,7 @@ public final class GitInfo {
       copy.describe(this.describe);
       copy.branchName(this.branchName);
       copy.hash(this.hash);
+      copy.commitTime(this.commitTime);
       copy.isDirty(this.isDirty);
       copy.distanceToLastTag(this.distanceToLastTag);
       copy.versionString(this.versionString);
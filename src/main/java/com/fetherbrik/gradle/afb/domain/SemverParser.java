@@ -0,0 +1,151 @@
+package com.fetherbrik.gradle.afb.domain;
+
+/**
+ * Single pass parser for semver (https://semver.org) versions, with an optional 'v' or '=' prefix, e.g. 'v1.2.3-RC.4+103'.
+ * <p>
+ * Accepts exactly the language of {@code BuildInfoTransform.SEMVER_REGEX}, except for major, minor or patch numbers too
+ * large for an int, but without a backtracking regex, match groups or intermediate strings: the only allocations are
+ * the pre-release and build metadata substrings and the resulting {@link VersionInfo}.
+ */
+public final class SemverParser {
+
+  private SemverParser() {
+  }
+
+  /**
+   * @throws IllegalArgumentException If 'text' is not a semver version.
+   */
+  public static VersionInfo parse(String text) {
+    VersionInfo result = tryParse(text);
+    if (result == null) {
+      throw new IllegalArgumentException("'" + text + "' is not a semver version.");
+    }
+    return result;
+  }
+
+  /**
+   * @return The version, or null if 'text' is not a semver version.
+   */
+  public static VersionInfo tryParse(String text) {
+    int length = text.length();
+    int pos = 0;
+    String prefix = null;
+    if (length > 0 && (text.charAt(0) == 'v' || text.charAt(0) == '=')) {
+      prefix = text.charAt(0) == 'v' ? "v" : "=";
+      pos = 1;
+    }
+
+    int end = numberEnd(text, pos);
+    int major = toInt(text, pos, end);
+    if (major < 0 || end >= length || text.charAt(end) != '.') {
+      return null;
+    }
+    pos = end + 1;
+    end = numberEnd(text, pos);
+    int minor = toInt(text, pos, end);
+    if (minor < 0 || end >= length || text.charAt(end) != '.') {
+      return null;
+    }
+    pos = end + 1;
+    end = numberEnd(text, pos);
+    int patch = toInt(text, pos, end);
+    if (patch < 0) {
+      return null;
+    }
+    pos = end;
+
+    String preRelease = null;
+    if (pos < length && text.charAt(pos) == '-') {
+      end = identifiersEnd(text, pos + 1, true);
+      if (end < 0) {
+        return null;
+      }
+      preRelease = text.substring(pos + 1, end);
+      pos = end;
+    }
+    String meta = null;
+    if (pos < length && text.charAt(pos) == '+') {
+      end = identifiersEnd(text, pos + 1, false);
+      if (end < 0) {
+        return null;
+      }
+      meta = text.substring(pos + 1, end);
+      pos = end;
+    }
+    if (pos != length) {
+      return null;
+    }
+
+    VersionInfo.Builder builder = new VersionInfo.Builder().prefix(prefix).major(major).minor(minor).patch(patch).preRelease(preRelease);
+    builder.meta(meta);
+    return builder.build();
+  }
+
+  /**
+   * @return The end of the run of digits starting at 'start'.
+   */
+  private static int numberEnd(String text, int start) {
+    int pos = start;
+    while (pos < text.length() && isDigit(text.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * @return The value of the digits in [start, end), or -1 if empty, zero-padded or too large for an int.
+   */
+  private static int toInt(String text, int start, int end) {
+    if (start == end || (end - start > 1 && text.charAt(start) == '0')) {
+      return -1;
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      value = value * 10 + (text.charAt(i) - '0');
+      if (value > Integer.MAX_VALUE) {
+        return -1;
+      }
+    }
+    return (int) value;
+  }
+
+  /**
+   * Scan dot-separated identifiers of [0-9A-Za-z-] starting at 'start'. Numeric pre-release identifiers may not be
+   * zero-padded.
+   *
+   * @return The index after the last identifier ('+' or the end of the text), or -1 if the identifiers are not valid.
+   */
+  private static int identifiersEnd(String text, int start, boolean preRelease) {
+    int length = text.length();
+    int pos = start;
+    while (true) {
+      int identifierStart = pos;
+      boolean numeric = true;
+      while (pos < length && isIdentifierChar(text.charAt(pos))) {
+        numeric &= isDigit(text.charAt(pos));
+        pos++;
+      }
+      if (pos == identifierStart) {
+        return -1;
+      }
+      if (preRelease && numeric && pos - identifierStart > 1 && text.charAt(identifierStart) == '0') {
+        return -1;
+      }
+      if (pos == length || (preRelease && text.charAt(pos) == '+')) {
+        return pos;
+      }
+      if (text.charAt(pos) != '.') {
+        return -1;
+      }
+      pos++;
+    }
+  }
+
+  static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isIdentifierChar(char c) {
+    return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-';
+  }
+}
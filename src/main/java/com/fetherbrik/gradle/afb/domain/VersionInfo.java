@@ -1,11 +1,10 @@
 package com.fetherbrik.gradle.afb.domain;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A version according to https://github.com/npm/node-semver#functions, but specific to enabling NPM-like `version {target}`
@@ -19,12 +18,19 @@ import java.util.regex.Pattern;
  * <p>
  * While Semver allows for an arbitrary list of dot-separated pre-release values, `npm version prerelease` just adds a
  * counter at the end of the pre-release chain.
+ * <p>
+ * Versions are ordered by semver precedence (https://semver.org/#spec-item-11), which ignores build metadata.
  */
-public final class VersionInfo {
-  public static final String PRE_RELEASE_OR_META_REGEX = "^(.*?[\\W])(\\d+)$";
-  public static final Pattern PRE_RELEASE_OR_META_PATTERN = Pattern.compile(PRE_RELEASE_OR_META_REGEX);
+public final class VersionInfo implements Comparable<VersionInfo> {
+  private static final Logger LOG = Logging.getLogger(VersionInfo.class);
   public final String full;
   public final String maven;
+  /**
+   * The version as semver writes it, with build metadata after '+': v1.2.3-DEV+20210130T0830. 'full' and 'maven' put
+   * the metadata after '-' (v1.2.3-DEV-20210130T0830), which docker tags, release target patterns and the tags written
+   * by 'version*' tasks rely on.
+   */
+  public final String semver;
   public final Optional<String> prefix;
   public final int major;
   public final int minor;
@@ -39,19 +45,20 @@ public final class VersionInfo {
     prefix = Optional.ofNullable(builder.prefix);
     preRelease = Optional.ofNullable(builder.preRelease);
     meta = Optional.ofNullable(builder.meta);
-    StringBuilder sb = new StringBuilder(String.format("%s.%s.%s", major, minor, patch));
-    preRelease.ifPresent(s -> {
-      if (!s.isBlank()) {
-        sb.append("-").append(s);
-      }
-    });
-    meta.ifPresent(s -> {
-      if (!s.isBlank()) {
-        sb.append("-").append(s);
-      }
-    });
-    maven = sb.toString();
-    full = "v" + sb.toString();
+    StringBuilder sb = new StringBuilder(32).append('v').append(major).append('.').append(minor).append('.').append(patch);
+    if (builder.preRelease != null && !builder.preRelease.isBlank()) {
+      sb.append('-').append(builder.preRelease);
+    }
+    if (builder.meta != null && !builder.meta.isBlank()) {
+      int metaStart = sb.length();
+      sb.append('+').append(builder.meta);
+      semver = sb.toString();
+      sb.setCharAt(metaStart, '-');
+    } else {
+      semver = sb.toString();
+    }
+    full = sb.toString();
+    maven = full.substring(1);
   }
 
   public Builder copy() {
@@ -70,62 +77,187 @@ public final class VersionInfo {
     return new Builder().from(this).major(major + 1).minor(0).patch(0).preRelease(null).build();
   }
 
+  /**
+   * The next pre-release with 'preId', continuing the counter of the current pre-release when it has the same id:
+   * v1.2.3-RC.4 becomes v1.2.3-RC.5, but v1.2.3-alpha.7 becomes v1.2.3-RC.1. The separator before the counter doesn't
+   * count as part of the id, so 'RC-' continues 'RC.4' as 'RC-5'.
+   */
   public Builder nextPreRelease(String preId) {
     int currentCount = 0;
-    if(preRelease.isPresent()){
-      Pair<Optional<String>, Optional<Integer>> preReleasePair = getPreReleaseOrMetaPair(preRelease.get());
-      currentCount = preReleasePair.getRight().orElse(0);
+    if (hasPreRelease()) {
+      String text = preRelease.get();
+      int counterStart = counterStart(text);
+      if (counterStart > 0 && withoutSeparator(text.substring(0, counterStart)).equals(withoutSeparator(preId))) {
+        currentCount = Integer.parseInt(text.substring(counterStart));
+      }
     }
     return nextPreRelease(preId, currentCount);
   }
 
   public Builder nextPreRelease(String releaseText, int currentCount) {
     int nextCount = currentCount + 1;
-    if (!releaseText.matches("[\\w]+[\\W]$")) {
+    if (!endsWithSeparator(releaseText)) {
       releaseText = releaseText + ".";
     }
     return copy().preRelease(releaseText + nextCount);
 
   }
 
+  /**
+   * The next pre-release, keeping the text of the current one and counting up its counter: v1.2.3-beta-12 becomes
+   * v1.2.3-beta-13.
+   */
   public Builder nextPreRelease() {
     String releaseText = "";
     int currentCount = 0;
-    if (preRelease.isPresent()) {
-      Pair<Optional<String>, Optional<Integer>> preReleasePair = getPreReleaseOrMetaPair(preRelease.get());
-      if (preReleasePair.getLeft().isPresent()) {
-        releaseText = preReleasePair.getLeft().get();
-        System.out.printf("Found existing pre-release text of %s", releaseText);
-      }
-      if (preReleasePair.getRight().isPresent()) {
-        currentCount = preReleasePair.getRight().get();
-        System.out.printf("Found existing pre-release count of %s", currentCount);
+    if (hasPreRelease()) {
+      String text = preRelease.get();
+      int counterStart = counterStart(text);
+      if (counterStart > 0) {
+        releaseText = text.substring(0, counterStart);
+        currentCount = Integer.parseInt(text.substring(counterStart));
+        LOG.info("AFB: Found existing pre-release text of '{}' and count of {}.", releaseText, currentCount);
       }
     }
     return nextPreRelease(releaseText, currentCount);
   }
 
-  private Pair<Optional<String>, Optional<Integer>> getPreReleaseOrMetaPair(String text) {
-    Matcher matcher = PRE_RELEASE_OR_META_PATTERN.matcher(text);
-    Optional<String> body = Optional.empty();
-    Optional<Integer> counter = Optional.empty();
-    if (matcher.matches()) {
-      String value = matcher.group(1);
-      if (StringUtils.isNotBlank(value)) {
-        body = Optional.of(value);
-      }
-      value = matcher.groupCount() > 2 ? matcher.group(2) : null;
-      if (StringUtils.isNotBlank(value)) {
-        counter = Optional.of(Integer.parseInt(value));
+  /**
+   * Find the counter that ends a pre-release such as 'RC.4' or 'beta-12': the trailing digits, when they follow a
+   * non-word character. Nine digits at most, so that the counter fits an int.
+   *
+   * @return The index of the first digit of the counter, or -1 when there is no counter.
+   */
+  private static int counterStart(String text) {
+    int start = text.length();
+    while (start > 0 && SemverParser.isDigit(text.charAt(start - 1))) {
+      start--;
+    }
+    if (start == text.length() || start == 0 || isWordChar(text.charAt(start - 1)) || text.length() - start > 9) {
+      return -1;
+    }
+    return start;
+  }
+
+  /**
+   * @return True when 'text' ends with a separator after some word character, e.g. 'RC.' or 'alpha.1.'.
+   */
+  private static boolean endsWithSeparator(String text) {
+    int last = text.length() - 1;
+    if (last < 1 || isWordChar(text.charAt(last))) {
+      return false;
+    }
+    for (int i = 0; i < last; i++) {
+      if (isWordChar(text.charAt(i))) {
+        return true;
       }
     }
-    return Pair.of(body, counter);
+    return false;
+  }
+
+  /**
+   * @return 'text' without the non-word characters it ends with, e.g. 'RC' for 'RC.' or 'RC-'.
+   */
+  private static String withoutSeparator(String text) {
+    int end = text.length();
+    while (end > 0 && !isWordChar(text.charAt(end - 1))) {
+      end--;
+    }
+    return text.substring(0, end);
   }
 
-  private boolean hasPreRelease() {
+  private static boolean isWordChar(char c) {
+    return SemverParser.isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+
+  public boolean hasPreRelease() {
     return preRelease.isPresent() && StringUtils.isNotBlank(preRelease.get());
   }
 
+  @Override
+  public int compareTo(VersionInfo other) {
+    int result = Integer.compare(major, other.major);
+    if (result == 0) {
+      result = Integer.compare(minor, other.minor);
+    }
+    if (result == 0) {
+      result = Integer.compare(patch, other.patch);
+    }
+    if (result == 0) {
+      if (!hasPreRelease()) {
+        result = other.hasPreRelease() ? 1 : 0;
+      } else if (!other.hasPreRelease()) {
+        result = -1;
+      } else {
+        result = comparePreRelease(preRelease.get(), other.preRelease.get());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Compare dot-separated identifiers left to right: numeric identifiers numerically, others in ASCII order, numeric
+   * before alphanumeric; a shorter list of otherwise equal identifiers comes first. Works on the strings in place.
+   */
+  private static int comparePreRelease(String left, String right) {
+    int l = 0;
+    int r = 0;
+    while (l < left.length() && r < right.length()) {
+      int lEnd = identifierEnd(left, l);
+      int rEnd = identifierEnd(right, r);
+      boolean lNumeric = isNumeric(left, l, lEnd);
+      boolean rNumeric = isNumeric(right, r, rEnd);
+      int result;
+      if (lNumeric && rNumeric) {
+        // Semver forbids leading zeros, so the longer number is the larger one.
+        result = Integer.compare(lEnd - l, rEnd - r);
+        if (result == 0) {
+          result = compareAscii(left, l, lEnd, right, r, rEnd);
+        }
+      } else if (lNumeric != rNumeric) {
+        result = lNumeric ? -1 : 1;
+      } else {
+        result = compareAscii(left, l, lEnd, right, r, rEnd);
+      }
+      if (result != 0) {
+        return result;
+      }
+      l = lEnd + 1;
+      r = rEnd + 1;
+    }
+    boolean leftDone = l >= left.length();
+    boolean rightDone = r >= right.length();
+    return leftDone == rightDone ? 0 : (leftDone ? -1 : 1);
+  }
+
+  private static int identifierEnd(String text, int start) {
+    int end = text.indexOf('.', start);
+    return end < 0 ? text.length() : end;
+  }
+
+  private static boolean isNumeric(String text, int start, int end) {
+    if (start == end) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (!SemverParser.isDigit(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int compareAscii(String left, int l, int lEnd, String right, int r, int rEnd) {
+    int length = Math.min(lEnd - l, rEnd - r);
+    for (int i = 0; i < length; i++) {
+      int result = Character.compare(left.charAt(l + i), right.charAt(r + i));
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(lEnd - l, rEnd - r);
+  }
+
   public static final class Builder {
     private Integer major = 0;
     private Integer minor = 0;
@@ -193,7 +325,7 @@ public final class VersionInfo {
 
     private void averPrefixValid() {
       if (prefix != null) {
-        if (!prefix.toLowerCase().equals("v") && !prefix.equals("=")) {
+        if (!prefix.equalsIgnoreCase("v") && !prefix.equals("=")) {
           throw new IllegalArgumentException(String.format("Semver prefix may only be 'v' or '='. Found '%s'", prefix));
         }
       }
@@ -2,12 +2,33 @@ package com.fetherbrik.gradle.afb.domain.configuration;
 
 import groovy.lang.Closure;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 public class DockerConfig {
     private String repoHost;
     private String repoOrg;
     private Closure<String> repoName;
     private String username;
     private String apiToken;
+    private int pushConcurrency = 4;
+    private String backend = "auto";
+    private boolean streamContext = false;
+    private boolean reproducibleContext = false;
+    private File imageArchiveDir;
+    private boolean checkRegistry = true;
+    private String buildCache;
+    private File buildCacheDir;
+    private String buildxBuilder = "afb";
+    private boolean generateDockerfile = false;
+    private String baseImage = "adoptopenjdk/openjdk11:jre";
+    private boolean ociImage = false;
+    private String platform = "linux/amd64";
+    private boolean nativePush = false;
+    private List<String> mountFrom = new ArrayList<>();
+    private int uploadChunkSizeMb = 8;
+    private int uploadConcurrency = 4;
 
     public boolean hasData(){
       return this.repoHost != null && this.repoName != null && this.username != null;
@@ -52,4 +73,227 @@ public class DockerConfig {
     public void setRepoOrg(String repoOrg) {
         this.repoOrg = repoOrg;
     }
+
+    public int getPushConcurrency() {
+        return pushConcurrency;
+    }
+
+    /**
+     * The most images a project's 'dockerPushTags' pushes at once, each in a worker of its own; Gradle's max workers
+     * bound the pushes of all projects together. Defaults to 4.
+     */
+    public void setPushConcurrency(int pushConcurrency) {
+        this.pushConcurrency = pushConcurrency;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    /**
+     * How to talk to the docker daemon: 'engine' calls the Engine API over the socket named by DOCKER_HOST (default
+     * unix:///var/run/docker.sock), 'cli' runs the docker command, and 'auto' (the default) uses the Engine API when the
+     * daemon answers, else the CLI.
+     * <p>
+     * The Engine API is tcp-only on this plugin's Gradle (6.6.1, Java 8 to 15): the unix socket needs Java 16 or newer,
+     * so with the default DOCKER_HOST 'engine' fails and 'auto' always uses the CLI (and says so). To use the Engine
+     * API there, expose the daemon on tcp and point DOCKER_HOST at it, e.g. 'tcp://localhost:2375'.
+     */
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    public boolean isStreamContext() {
+        return streamContext;
+    }
+
+    /**
+     * When true, 'dockerBuild' streams its context to the daemon straight from the project's files: the Dockerfile and,
+     * for application projects, the 'distTar' archive under 'build/distributions'. Add more with
+     * <code>dockerBuild { context('.', fileTree(projectDir) { include 'etc/**' }) }</code>. 'dockerAssemble' is not used.
+     * Images with a streamed context can't be built by the root 'dockerBake', which reads contexts from disk. Defaults
+     * to false: the context is copied to build/docker by 'dockerAssemble'.
+     */
+    public void setStreamContext(boolean streamContext) {
+        this.streamContext = streamContext;
+    }
+
+    public boolean isReproducibleContext() {
+        return reproducibleContext;
+    }
+
+    /**
+     * When true, the same sources give a byte-identical docker context, and so the same layer digests, on every machine
+     * and build: the files of the context get the time of the HEAD commit and mode 0755 (directories and executable
+     * files) or 0644, and the archives that feed the context ('distTar', or 'jar' with a generated Dockerfile, and any
+     * archive task passed to dockerBuild.context(...)) are written with sorted entries, normalized modes and Gradle's
+     * fixed entry time. Other archives are left alone. Defaults to false.
+     */
+    public void setReproducibleContext(boolean reproducibleContext) {
+        this.reproducibleContext = reproducibleContext;
+    }
+
+    public File getImageArchiveDir() {
+        return imageArchiveDir;
+    }
+
+    /**
+     * When set, 'dockerBuild' saves each image it builds here, and loads it back when the docker daemon no longer has
+     * it (e.g. on a fresh CI agent that restores this directory from its cache). Not set by default.
+     */
+    public void setImageArchiveDir(File imageArchiveDir) {
+        this.imageArchiveDir = imageArchiveDir;
+    }
+
+    public boolean isCheckRegistry() {
+        return checkRegistry;
+    }
+
+    /**
+     * When true (the default), 'dockerPushTags' asks the registry for the manifest of each tag before pushing, and
+     * skips images the registry already has. Set to false for registries that don't support the v2 manifest API.
+     */
+    public void setCheckRegistry(boolean checkRegistry) {
+        this.checkRegistry = checkRegistry;
+    }
+
+    public String getBuildCache() {
+        return buildCache;
+    }
+
+    /**
+     * Use a BuildKit layer cache for 'dockerBuild' and the project's 'dockerBake' target: 'local' for a directory (see
+     * buildCacheDir), or a registry reference such as 'registry.example.org/org/app:buildcache'. Builds then run with
+     * 'docker buildx build', importing the cache and, if the release target's exportBuildCache is true, exporting it
+     * again. Not set by default.
+     */
+    public void setBuildCache(String buildCache) {
+        this.buildCache = buildCache;
+    }
+
+    public File getBuildCacheDir() {
+        return buildCacheDir;
+    }
+
+    /**
+     * The directory of the 'local' build cache. Defaults to a directory per project under
+     * &lt;Gradle user home&gt;/caches/afb-buildkit, which CI can persist along with the rest of the Gradle caches.
+     */
+    public void setBuildCacheDir(File buildCacheDir) {
+        this.buildCacheDir = buildCacheDir;
+    }
+
+    public String getBuildxBuilder() {
+        return buildxBuilder;
+    }
+
+    /**
+     * The buildx builder that runs cached builds. It is created with the 'docker-container' driver if it does not
+     * exist, as the default 'docker' driver can't export a cache. Defaults to 'afb'.
+     */
+    public void setBuildxBuilder(String buildxBuilder) {
+        this.buildxBuilder = buildxBuilder;
+    }
+
+    public boolean isGenerateDockerfile() {
+        return generateDockerfile;
+    }
+
+    /**
+     * When true, 'application' projects without a Dockerfile get one generated by the 'dockerfile' task. The runtime
+     * classpath is split into layers: released dependencies ('libs'), snapshot dependencies ('snapshot-libs'), and the
+     * jars of the application and its project dependencies ('app'), so a code change only rebuilds and pushes the last
+     * layer. Add instructions with <code>tasks.named('dockerfile') { instructions.add('EXPOSE 8080') }</code>.
+     * Defaults to false.
+     */
+    public void setGenerateDockerfile(boolean generateDockerfile) {
+        this.generateDockerfile = generateDockerfile;
+    }
+
+    public String getBaseImage() {
+        return baseImage;
+    }
+
+    /**
+     * The image generated Dockerfiles build on. It must have 'java' on the path. Defaults to
+     * 'adoptopenjdk/openjdk11:jre'.
+     */
+    public void setBaseImage(String baseImage) {
+        this.baseImage = baseImage;
+    }
+
+    public boolean isOciImage() {
+        return ociImage;
+    }
+
+    /**
+     * When true, 'application' projects get tasks that build and push their image without a docker daemon: a cacheable
+     * 'ociLayer...' task per layer (as for generateDockerfile), 'ociImage', which writes an OCI image layout on top of
+     * baseImage to build/afb/ociImage, and 'ociPush', which pushes it to the registry. Defaults to false.
+     */
+    public void setOciImage(boolean ociImage) {
+        this.ociImage = ociImage;
+    }
+
+    public String getPlatform() {
+        return platform;
+    }
+
+    /**
+     * The platform of the image 'ociImage' builds: the one taken from a multi-platform baseImage. Defaults to
+     * 'linux/amd64'.
+     */
+    public void setPlatform(String platform) {
+        this.platform = platform;
+    }
+
+    public boolean isNativePush() {
+        return nativePush;
+    }
+
+    /**
+     * When true, 'dockerPushTags' pushes through the registry API instead of the docker daemon: each image is saved,
+     * and its layers are mounted from other repositories of the registry where possible, else uploaded in parallel,
+     * resumable chunks. A layer shared by several images of the build is uploaded once and mounted into the other
+     * repositories. Defaults to false.
+     */
+    public void setNativePush(boolean nativePush) {
+        this.nativePush = nativePush;
+    }
+
+    public List<String> getMountFrom() {
+        return mountFrom;
+    }
+
+    /**
+     * Repositories to mount layers from before uploading them, for native pushes and 'ociPush': e.g. the repository of
+     * the base image. Names without an organization, e.g. 'base', are taken to be in repoOrg. Repositories earlier
+     * pushes put a layer in are tried anyway. Empty by default.
+     */
+    public void setMountFrom(List<String> mountFrom) {
+        this.mountFrom = mountFrom;
+    }
+
+    public int getUploadChunkSizeMb() {
+        return uploadChunkSizeMb;
+    }
+
+    /**
+     * The size of the chunks layers are uploaded in, in MiB, for native pushes and 'ociPush'. Only a failed chunk is
+     * sent again. Defaults to 8.
+     */
+    public void setUploadChunkSizeMb(int uploadChunkSizeMb) {
+        this.uploadChunkSizeMb = uploadChunkSizeMb;
+    }
+
+    public int getUploadConcurrency() {
+        return uploadConcurrency;
+    }
+
+    /**
+     * The most layers of an image to upload at once, for native pushes and 'ociPush'. Defaults to 4.
+     */
+    public void setUploadConcurrency(int uploadConcurrency) {
+        this.uploadConcurrency = uploadConcurrency;
+    }
 }
@@ -4,6 +4,10 @@ public class GitConfig {
     private String username;
     private String apiKey;
     private String gitRoot = ".";
+    private boolean daemonCache = true;
+    private boolean ignoreUntracked;
+    private boolean ignoreSubmodules;
+    private boolean tagIndex = true;
 
     public String getUsername() {
         return username;
@@ -28,4 +32,50 @@ public class GitConfig {
     public void setGitRoot(String gitRoot) {
         this.gitRoot = gitRoot;
     }
+
+    public boolean isDaemonCache() {
+        return daemonCache;
+    }
+
+    /**
+     * Keep the git describe result in memory across builds run by the same Gradle daemon, until the repository's refs
+     * change. Defaults to true.
+     */
+    public void setDaemonCache(boolean daemonCache) {
+        this.daemonCache = daemonCache;
+    }
+
+    public boolean isIgnoreUntracked() {
+        return ignoreUntracked;
+    }
+
+    /**
+     * Do not count untracked (and not ignored) files when deciding if the working copy is dirty. Defaults to false.
+     */
+    public void setIgnoreUntracked(boolean ignoreUntracked) {
+        this.ignoreUntracked = ignoreUntracked;
+    }
+
+    public boolean isIgnoreSubmodules() {
+        return ignoreSubmodules;
+    }
+
+    /**
+     * Do not inspect submodules when deciding if the working copy is dirty. Defaults to false.
+     */
+    public void setIgnoreSubmodules(boolean ignoreSubmodules) {
+        this.ignoreSubmodules = ignoreSubmodules;
+    }
+
+    public boolean isTagIndex() {
+        return tagIndex;
+    }
+
+    /**
+     * Answer 'git describe' from an index of the repository's semver tags kept under '.gradle/afb/', updated
+     * incrementally as tags are added. Defaults to true.
+     */
+    public void setTagIndex(boolean tagIndex) {
+        this.tagIndex = tagIndex;
+    }
 }
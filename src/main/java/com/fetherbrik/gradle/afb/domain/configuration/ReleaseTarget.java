@@ -1,5 +1,7 @@
 package com.fetherbrik.gradle.afb.domain.configuration;
 
+import java.util.regex.Pattern;
+
 public class ReleaseTarget {
     private String name;
     private String versionMatches;
@@ -8,6 +10,7 @@ public class ReleaseTarget {
     private boolean isSnapshot;
     private boolean docker;
     private String dockerTag;
+    private boolean exportBuildCache = true;
 
     public ReleaseTarget(String name) {
         this.name = name;
@@ -82,11 +85,38 @@ public class ReleaseTarget {
         this.dockerTag = dockerTag;
     }
 
+    public boolean isExportBuildCache() {
+        return exportBuildCache;
+    }
+
+    /**
+     * When DockerConfig.buildCache is set, builds for this target read the cache, and write it back only if this is
+     * true (the default). E.g. set it to false for pull request targets, so that they don't churn the shared cache.
+     */
+    public void setExportBuildCache(boolean exportBuildCache) {
+        this.exportBuildCache = exportBuildCache;
+    }
+
+    /**
+     * Compiles the patterns on each call. To match many versions against all targets, see ReleaseTargetMatcher.
+     */
     public boolean matches(String buildType, String version) {
-        boolean matches = false;
-        if(version.matches(this.versionMatches)){
-            matches = this.buildTypeMatches == null || buildType.matches(buildTypeMatches);
+        return matches(compile(versionMatches), compile(buildTypeMatches), buildType, version);
+    }
+
+    /**
+     * @param versionPattern   The compiled 'versionMatches', or null if none is set: nothing matches then.
+     * @param buildTypePattern The compiled 'buildTypeMatches', or null if none is set: any build type matches then.
+     * @param buildType        The build type, or null if none is set: it never matches a 'buildTypePattern'.
+     */
+    public static boolean matches(Pattern versionPattern, Pattern buildTypePattern, String buildType, String version) {
+        if (versionPattern == null || !versionPattern.matcher(version).matches()) {
+            return false;
         }
-        return  matches;
+        return buildTypePattern == null || (buildType != null && buildTypePattern.matcher(buildType).matches());
+    }
+
+    public static Pattern compile(String regex) {
+        return regex == null ? null : Pattern.compile(regex);
     }
 }
@@ -0,0 +1,68 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.AnotherFineBuildPlugin;
+import com.fetherbrik.gradle.afb.domain.BuildInfo;
+import com.fetherbrik.gradle.afb.task.BuildInfoResourceTask;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.jvm.tasks.Jar;
+
+import java.util.Map;
+
+/**
+ * Late-bound build info for a java project (see AnotherFineBuildConfig.buildInfoResource): 'generateBuildInfo' writes
+ * the version and git metadata to a resource that only the jar picks up, and the jar manifest gets them when the jar
+ * is written. Compilation, tests and the jars of dependencies don't see the version, so they stay up to date, and keep
+ * hitting the build cache, across version bumps. The resource and the attributes are left out of the runtime classpath
+ * of the project, so the tests of the projects that use the jar don't rerun for a new version either.
+ */
+public class AfbBuildInfoTasks {
+  public final TaskProvider<BuildInfoResourceTask> generateBuildInfo;
+
+  /**
+   * @param dateStampMode AnotherFineBuildConfig.dateStampMode: only a 'commit' date stamp is written, as a 'clock' one
+   *                      would make the jar out of date on every build.
+   */
+  public AfbBuildInfoTasks(Project project, Provider<BuildInfo> info, String dateStampMode) {
+    boolean withDateStamp = "commit".equals(dateStampMode);
+    generateBuildInfo = project.getTasks().register("generateBuildInfo", BuildInfoResourceTask.class, task -> {
+      task.setGroup(AnotherFineBuildPlugin.GROUP);
+      task.setDescription("Write the version and git metadata to '" + BuildInfoResourceTask.RESOURCE + "'.");
+      task.getProperties().set(info.map(i -> BuildInfoResourceTask.properties(i, withDateStamp)));
+    });
+    Provider<Map<String, String>> attributes = info.map(i -> BuildInfoResourceTask.manifestAttributes(i, withDateStamp));
+    project.getTasks().named("jar", Jar.class, jar -> {
+      jar.from(generateBuildInfo);
+      // The attributes hold the same values as the build info resource, an input of the jar.
+      jar.doFirst(new ManifestAttributes(attributes));
+    });
+    project.getNormalization().runtimeClasspath(classpath -> {
+      classpath.ignore(BuildInfoResourceTask.RESOURCE);
+      classpath.metaInf(metaInf -> {
+        for (String attribute : BuildInfoResourceTask.MANIFEST_ATTRIBUTES) {
+          metaInf.ignoreAttribute(attribute);
+        }
+      });
+    });
+  }
+
+  /**
+   * Sets the manifest attributes when the jar is written, so that configuring the jar doesn't read git. A class rather
+   * than a lambda, which would keep the jar from being up to date.
+   */
+  private static final class ManifestAttributes implements Action<Task> {
+    private final Provider<Map<String, String>> attributes;
+
+    ManifestAttributes(Provider<Map<String, String>> attributes) {
+      this.attributes = attributes;
+    }
+
+    @Override
+    public void execute(Task task) {
+      ((Jar) task).getManifest().attributes(attributes.get());
+    }
+  }
+}
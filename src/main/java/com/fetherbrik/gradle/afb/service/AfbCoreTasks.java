@@ -5,21 +5,28 @@ import com.fetherbrik.gradle.afb.domain.BuildInfo;
 import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskProvider;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 public class AfbCoreTasks {
   public final TaskProvider<DefaultTask> buildCurrentTarget;
 
-  public AfbCoreTasks(Project project, BuildInfo info) {
+  public AfbCoreTasks(Project project, Provider<BuildInfo> info) {
     buildCurrentTarget = addBuildCurrentTargetTask(project, info);
   }
 
-  private TaskProvider<DefaultTask> addBuildCurrentTargetTask(Project project, BuildInfo info) {
+  /**
+   * The tasks that depend on the release target are only added when the task graph is built, so that configuring the
+   * task does not read git.
+   */
+  private TaskProvider<DefaultTask> addBuildCurrentTargetTask(Project project, Provider<BuildInfo> infoProvider) {
     return project.getTasks().register("buildCurrentTarget", DefaultTask.class, buildTask -> {
       buildTask.setGroup(AnotherFineBuildPlugin.GROUP);
       buildTask.setDescription("Builds the current target, based on the configuration specified in the afb task.");
-      ReleaseTarget target = info.target;
-      project.getLogger().quiet("AFB: checking for tasks to add to chain for target '" + target.getName() + "' on project '" + project.getName() + "'.");
       if (project.getPlugins().hasPlugin("application")) {
         project.getLogger().quiet("AFB: Adding distTar task to chain");
         buildTask.dependsOn("distTar");
@@ -30,14 +37,24 @@ public class AfbCoreTasks {
       } else if (project.getTasks().findByName("check") != null) {
         buildTask.dependsOn("check");
       }
-      if (target.isArtifacts() && project.getPlugins().hasPlugin("maven-publish")) {
-        project.getLogger().quiet("AFB: Adding publish task to chain");
-        buildTask.dependsOn("publish");
-      }
-      if (target.isDocker() && info.docker.hasDockerFile(project)) {
-        project.getLogger().quiet("AFB: Adding dockerBuild & Push tasks to chain");
-        buildTask.dependsOn("dockerPushTags");
-      }
+      buildTask.dependsOn((Callable<List<String>>) () -> {
+        BuildInfo info = infoProvider.get();
+        ReleaseTarget target = info.target;
+        project.getLogger().quiet("AFB: checking for tasks to add to chain for target '" + target.getName() + "' on project '" + project.getName() + "'.");
+        List<String> result = new ArrayList<>();
+        if (target.isArtifacts() && project.getPlugins().hasPlugin("maven-publish")) {
+          project.getLogger().quiet("AFB: Adding publish task to chain");
+          result.add("publish");
+        }
+        if (target.isDocker() && project.getTasks().getNames().contains("ociPush")) {
+          project.getLogger().quiet("AFB: Adding ociImage & Push tasks to chain");
+          result.add("ociPush");
+        } else if (target.isDocker() && project.getTasks().getNames().contains("dockerPushTags")) {
+          project.getLogger().quiet("AFB: Adding dockerBuild & Push tasks to chain");
+          result.add("dockerPushTags");
+        }
+        return result;
+      });
     });
   }
 }
@@ -1,64 +1,309 @@
 package com.fetherbrik.gradle.afb.service;
 
 import com.fetherbrik.gradle.afb.AnotherFineBuildPlugin;
+import com.fetherbrik.gradle.afb.domain.BuildInfo;
 import com.fetherbrik.gradle.afb.domain.DockerTag;
 import com.fetherbrik.gradle.afb.domain.DockerInfo;
+import com.fetherbrik.gradle.afb.domain.configuration.DockerConfig;
+import com.fetherbrik.gradle.afb.service.docker.DockerCredentials;
+import com.fetherbrik.gradle.afb.task.DockerBakeTask;
+import com.fetherbrik.gradle.afb.task.DockerBuildTask;
+import com.fetherbrik.gradle.afb.task.DockerLoginTask;
+import com.fetherbrik.gradle.afb.task.DockerPushTask;
+import com.fetherbrik.gradle.afb.task.DockerTagTask;
+import com.fetherbrik.gradle.afb.task.DockerfileTask;
 import org.gradle.api.Project;
-import org.gradle.api.Task;
+import org.gradle.api.file.FileCopyDetails;
+import org.gradle.api.plugins.JavaApplication;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Copy;
-import org.gradle.api.tasks.Exec;
 import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.bundling.AbstractArchiveTask;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
+/**
+ * The docker build, tag and push tasks. The build info (and so git) is only read when the tasks run or when the task
+ * graph is built. Each task talks to the daemon through the backend chosen by DockerConfig.backend: the Engine API over
+ * the daemon socket, or the docker CLI. 'dockerTag' applies all the tags of the current release target at once, and
+ * 'dockerPushTags' pushes them concurrently (see {@link DockerPushTask}). The root project's 'dockerBake' builds the
+ * images of all projects at once (see {@link DockerBakeTask}).
+ */
 public class AfbDockerTasks {
+  public static final String BAKE_TASK_NAME = "dockerBake";
+
   public final TaskProvider<Copy> dockerAssemble;
-  public final TaskProvider<Exec> dockerBuild;
-  public final TaskProvider<Task> dockerTag;
-  public final List<TaskProvider<Exec>> dockerTags;
-  public final Optional<TaskProvider<Task>> dockerLogin;
+  public final TaskProvider<DockerBuildTask> dockerBuild;
+  public final TaskProvider<DockerTagTask> dockerTag;
+  public final TaskProvider<DockerLoginTask> dockerLogin;
   // public final TaskProvider<Exec> dockerPush;
-  public final TaskProvider<Task> dockerPushAllTags;
-  public final List<TaskProvider<Exec>> dockerPushTags;
+  public final TaskProvider<DockerPushTask> dockerPushAllTags;
+  /**
+   * The 'dockerfile' task, when the Dockerfile is generated; else null.
+   */
+  public final TaskProvider<DockerfileTask> dockerfile;
+  private final ApplicationLayers layers;
 
-  public AfbDockerTasks(Project project, DockerInfo dockerInfo) {
+  public AfbDockerTasks(Project project, Provider<BuildInfo> info, DockerConfig dockerConfig) {
+      Provider<DockerInfo> dockerInfo = info.map(i -> i.docker);
+      Provider<String> backend = project.provider(dockerConfig::getBackend);
+      if (generatesDockerfile(project, dockerConfig)) {
+        layers = new ApplicationLayers(project);
+        dockerfile = addDockerfileTask(project, dockerConfig, layers);
+      } else {
+        layers = null;
+        dockerfile = null;
+      }
       dockerAssemble = addDockerAssembleTask(project, dockerInfo);
-      dockerBuild = addDockerBuildTask(project, dockerAssemble, dockerInfo);
-      dockerTags = addDockerTagTasks(project, dockerBuild, dockerInfo);
-      dockerTag = addDockerTagGroupTask(project, dockerTags, dockerBuild);
-      dockerLogin = addDockerLoginTask(project, dockerInfo);
+      dockerBuild = addDockerBuildTask(project, dockerAssemble, dockerConfig, backend, dockerInfo);
+      if (dockerConfig.isReproducibleContext()) {
+        configureReproducibleContext(project, dockerAssemble, dockerBuild, info.map(i -> i.git.commitTime));
+      }
+      configureBuildCache(project, dockerBuild, dockerConfig, info.map(i -> i.target.isExportBuildCache()));
+      addBakeTarget(project, dockerAssemble, dockerBuild, dockerConfig, dockerInfo, dockerfile != null);
+      dockerTag = addDockerTagTask(project, dockerBuild, backend, dockerInfo);
+      dockerLogin = addDockerLoginTask(project, backend, dockerInfo);
       // dockerPush = addDockerPushTask(project, dockerLogin, dockerTag, dockerInfo);
-      dockerPushTags = addDockerPushTagTasks(project, dockerInfo.tags, dockerTag, dockerLogin, dockerInfo);
-      dockerPushAllTags = addDockerPushTagsTask(project, dockerTag, dockerPushTags);
+      Provider<DockerPushService> pushService = DockerPushService.register(project.getGradle());
+      dockerPushAllTags = addDockerPushTagsTask(project, dockerTag, dockerLogin, pushService, dockerConfig, backend, dockerInfo);
+  }
+
+  /**
+   * @return True if the project's Dockerfile is generated: see DockerConfig.generateDockerfile. A hand-written
+   * Dockerfile always wins.
+   */
+  public static boolean generatesDockerfile(Project project, DockerConfig dockerConfig) {
+    return dockerConfig.isGenerateDockerfile()
+           && project.getPlugins().hasPlugin("application")
+           && !new File(project.getProjectDir(), DockerInfo.DOCKER_FILE).exists();
+  }
+
+  private static TaskProvider<DockerfileTask> addDockerfileTask(Project project, DockerConfig dockerConfig, ApplicationLayers layers) {
+    JavaApplication application = project.getExtensions().getByType(JavaApplication.class);
+    return project.getTasks().register("dockerfile", DockerfileTask.class, task -> {
+      task.setGroup(AnotherFineBuildPlugin.GROUP);
+      task.setDescription("Generate a layered Dockerfile for the application.");
+      task.getBaseImage().set(project.provider(dockerConfig::getBaseImage));
+      task.getMainClass().set(application.getMainClass());
+      task.getJvmArgs().set(project.provider(() -> {
+        List<String> args = new ArrayList<>();
+        application.getApplicationDefaultJvmArgs().forEach(args::add);
+        return args;
+      }));
+      task.getLayers().set(project.provider(layers::nonEmpty));
+    });
   }
 
+  /**
+   * Register the root project's 'dockerBake' task, which builds the images of every project at once. Each project adds
+   * its image to it as it is configured.
+   */
+  public static TaskProvider<DockerBakeTask> addDockerBakeTask(Project rootProject, DockerConfig dockerConfig) {
+    return rootProject.getTasks().register(BAKE_TASK_NAME, DockerBakeTask.class, bake -> {
+      bake.setGroup(AnotherFineBuildPlugin.GROUP);
+      bake.setDescription("Build the docker images of all projects with one 'docker buildx bake'.");
+      bake.getBuilder().set(rootProject.provider(() -> dockerConfig.getBuildCache() != null ? dockerConfig.getBuildxBuilder() : null));
+    });
+  }
 
-  private TaskProvider<Copy> addDockerAssembleTask(Project project, DockerInfo docker) {
+  /**
+   * Add this project's image to the root 'dockerBake', which replaces its 'dockerBuild' when both are run. Nothing to do
+   * when the root project has no 'dockerBake', i.e. when the plugin isn't applied to it.
+   */
+  private static void addBakeTarget(Project project,
+                                    TaskProvider<Copy> assembleTask,
+                                    TaskProvider<DockerBuildTask> dockerBuild,
+                                    DockerConfig dockerConfig,
+                                    Provider<DockerInfo> docker,
+                                    boolean generatedDockerfile) {
+    Project rootProject = project.getRootProject();
+    if (!rootProject.getTasks().getNames().contains(BAKE_TASK_NAME)) {
+      return;
+    }
+    TaskProvider<DockerBakeTask> bakeTask = rootProject.getTasks().named(BAKE_TASK_NAME, DockerBakeTask.class);
+    // Generated contexts are only laid out on disk by 'dockerAssemble'.
+    if (dockerConfig.isStreamContext() && !generatedDockerfile) {
+      bakeTask.configure(bake -> bake.streamedTarget(project.getPath()));
+      return;
+    }
+    File context = new File(project.getBuildDir(), DockerInfo.BUILD_DIR);
+    DockerBakeTask.Target target = new DockerBakeTask.Target(
+      project.getPath(),
+      DockerBakeTask.targetName(project.getPath(), rootProject.getName()),
+      project.provider(() -> context),
+      DockerInfo.DOCKER_FILE,
+      docker.map(d -> {
+        List<String> tags = new ArrayList<>();
+        tags.add(d.defaultTagPath());
+        tags.addAll(tagPaths(d));
+        return tags;
+      }),
+      dockerBuild.flatMap(DockerBuildTask::getBuildArgs),
+      docker.map(d -> d.enabled),
+      dockerBuild.flatMap(DockerBuildTask::getImageIdFile),
+      dockerBuild.flatMap(DockerBuildTask::getBuildKitCache),
+      List.of(taskPath(project, assembleTask.getName())));
+    bakeTask.configure(bake -> bake.target(target));
+    dockerBuild.configure(task -> {
+      task.mustRunAfter(bakeTask);
+      task.onlyIf(t -> !project.getGradle().getTaskGraph().hasTask(bakeTask.get()));
+    });
+  }
+
+  private static String taskPath(Project project, String name) {
+    return project.getPath().equals(":") ? ":" + name : project.getPath() + ":" + name;
+  }
+
+  /**
+   * @return The full references of the current release target's tags, e.g. 'registry.example.org/org/repo:release'.
+   */
+  static List<String> tagPaths(DockerInfo docker) {
+    List<String> paths = new ArrayList<>();
+    for (DockerTag tag : docker.tags) {
+      paths.add(docker.tagPath(tag));
+    }
+    return paths;
+  }
+
+  /**
+   * @return The user to push as, or no value for local docker hosts.
+   */
+  static Provider<String> registryUsername(Provider<DockerInfo> docker) {
+    return docker.map(d -> d.isLocal ? null : d.username);
+  }
+
+  private TaskProvider<Copy> addDockerAssembleTask(Project project, Provider<DockerInfo> docker) {
     return project.getTasks().register("dockerAssemble", Copy.class, assembleTask -> {
       assembleTask.setGroup(AnotherFineBuildPlugin.GROUP);
       assembleTask.setDescription("Assemble docker content for build.");
-      assembleTask.from(docker.dockerFile);
-      File dockerBuildDir = new File(project.getBuildDir(), docker.buildDir);
+      File dockerBuildDir = new File(project.getBuildDir(), DockerInfo.BUILD_DIR);
       assembleTask.into(dockerBuildDir);
-      assembleTask.with(project.copySpec());
-      assembleTask.getOutputs().file(new File(dockerBuildDir, docker.dockerFile));
-      if(project.getPlugins().hasPlugin("application")){
-        assembleTask.dependsOn("distTar");
+      assembleTask.getOutputs().file(new File(dockerBuildDir, DockerInfo.DOCKER_FILE));
+      assembleTask.onlyIf(t -> docker.get().enabled);
+      if (dockerfile != null) {
+        // Start from an empty directory, so that the jars of earlier versions don't end up on the classpath.
+        assembleTask.doFirst(t -> project.delete(dockerBuildDir));
+        assembleTask.from(dockerfile);
+        layers.layers().forEach((layer, files) -> assembleTask.from(files, spec -> spec.into(layer)));
+      } else {
+        assembleTask.from(DockerInfo.DOCKER_FILE);
+        assembleTask.with(project.copySpec());
+        if(project.getPlugins().hasPlugin("application")){
+          assembleTask.dependsOn("distTar");
+        }
       }
       assembleTask.dependsOn("build");
     });
   }
 
-  private TaskProvider<Exec> addDockerBuildTask(Project project, TaskProvider<Copy> assembleTask, DockerInfo docker) {
-    return project.getTasks().register("dockerBuild", Exec.class, dockerBuild -> {
+  /**
+   * Give the docker context of the project the same bytes whenever it has the same files (see
+   * DockerConfig.reproducibleContext): 'dockerAssemble' sets the times and modes of what it copies, a streamed context
+   * is sent with fixed times and modes, and the archives that feed the context are made reproducible: 'distTar', or
+   * 'jar' for a generated Dockerfile, and the archive tasks added with dockerBuild.context(...). Other archives of the
+   * project are left as they are.
+   */
+  private void configureReproducibleContext(Project project,
+                                            TaskProvider<Copy> assembleTask,
+                                            TaskProvider<DockerBuildTask> dockerBuild,
+                                            Provider<Long> commitTime) {
+    String contextArchive = dockerfile != null ? "jar" : "distTar";
+    if (project.getPlugins().hasPlugin("application")) {
+      project.getTasks().named(contextArchive, AbstractArchiveTask.class).configure(AfbDockerTasks::makeReproducible);
+    }
+    assembleTask.configure(task -> {
+      task.getInputs().property("afbContextTime", commitTime);
+      task.setDirMode(0755);
+      task.eachFile(AfbDockerTasks::normalizeMode);
+      task.doLast(t -> setTimes(task.getDestinationDir(), commitTime.get()));
+    });
+    dockerBuild.configure(task -> {
+      task.getContextTime().set(commitTime);
+      task.eachContextArchive(AfbDockerTasks::makeReproducible);
+    });
+  }
+
+  private static void makeReproducible(AbstractArchiveTask archive) {
+    archive.setPreserveFileTimestamps(false);
+    archive.setReproducibleFileOrder(true);
+    archive.setDirMode(0755);
+    archive.eachFile(AfbDockerTasks::normalizeMode);
+  }
+
+  private static void normalizeMode(FileCopyDetails details) {
+    details.setMode((details.getMode() & 0100) != 0 ? 0755 : 0644);
+  }
+
+  /**
+   * Set the time of 'dir' and everything below it to 'seconds' since the epoch.
+   */
+  private static void setTimes(File dir, long seconds) {
+    FileTime time = FileTime.from(seconds, TimeUnit.SECONDS);
+    try (Stream<Path> paths = Files.walk(dir.toPath())) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        Files.setLastModifiedTime(path, time);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not set the times of the docker context '" + dir + "': " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * The local cache defaults to a directory per project under the Gradle user home, so that builds of every checkout
+   * share it, and CI can persist it with the Gradle caches.
+   */
+  private static void configureBuildCache(Project project,
+                                          TaskProvider<DockerBuildTask> dockerBuild,
+                                          DockerConfig dockerConfig,
+                                          Provider<Boolean> export) {
+    dockerBuild.configure(task -> {
+      File defaultDir = new File(project.getGradle().getGradleUserHomeDir(),
+                                 "caches/afb-buildkit/" + project.getRootProject().getName() + project.getPath().replace(':', '/'));
+      task.getBuildCache().set(project.provider(dockerConfig::getBuildCache));
+      task.getBuildCacheDir().fileProvider(project.provider(() -> dockerConfig.getBuildCacheDir() != null ? dockerConfig.getBuildCacheDir() : defaultDir));
+      task.getExportBuildCache().set(export);
+      task.getBuildxBuilder().set(project.provider(dockerConfig::getBuildxBuilder));
+    });
+  }
+
+  /**
+   * With 'streamContext', the context is sent straight from the project's files instead of the 'dockerAssemble' copy.
+   */
+  private TaskProvider<DockerBuildTask> addDockerBuildTask(Project project,
+                                                           TaskProvider<Copy> assembleTask,
+                                                           DockerConfig dockerConfig,
+                                                           Provider<String> backend,
+                                                           Provider<DockerInfo> docker) {
+    return project.getTasks().register("dockerBuild", DockerBuildTask.class, dockerBuild -> {
       dockerBuild.setGroup(AnotherFineBuildPlugin.GROUP);
       dockerBuild.setDescription("Build the primary docker image");
-      dockerBuild.setWorkingDir(new File(project.getBuildDir(), docker.buildDir));
-      dockerBuild.setCommandLine("docker", "build", "--tag", docker.defaultTagPath(), ".");
-      dockerBuild.dependsOn(assembleTask);
+      dockerBuild.getBackend().set(backend);
+      dockerBuild.getDockerFile().set(DockerInfo.DOCKER_FILE);
+      dockerBuild.getTags().add(docker.map(DockerInfo::defaultTagPath));
+      dockerBuild.getArchiveDir().fileProvider(project.provider(dockerConfig::getImageArchiveDir));
+      dockerBuild.onlyIf(t -> docker.get().enabled);
+      if (dockerConfig.isStreamContext() && dockerfile != null) {
+        dockerBuild.context(".", dockerfile);
+        layers.layers().forEach(dockerBuild::context);
+        dockerBuild.dependsOn("build");
+      } else if (dockerConfig.isStreamContext()) {
+        dockerBuild.context(".", project.file(DockerInfo.DOCKER_FILE));
+        if (project.getPlugins().hasPlugin("application")) {
+          dockerBuild.context("build/distributions", project.getTasks().named("distTar"));
+        }
+        dockerBuild.dependsOn("build");
+      } else {
+        dockerBuild.getContextDir().set(new File(project.getBuildDir(), DockerInfo.BUILD_DIR));
+        dockerBuild.dependsOn(assembleTask);
+      }
     });
   }
 
@@ -75,105 +320,79 @@ public class AfbDockerTasks {
   // }
 
   /**
-   * Create a single task that we can target for all the tags on the image. This task will 'dependOn' each 'tag' task.
-   */
-  private TaskProvider<Task> addDockerTagGroupTask(Project project, List<TaskProvider<Exec>> dockerTags, TaskProvider<Exec> dockerBuild) {
-    return project.getTasks().register("dockerTag", Task.class, dockerTag -> {
-      dockerTag.setGroup(AnotherFineBuildPlugin.GROUP);
-      dockerTag.setDescription("Apply all configured tag tasks.");
-      dockerTag.dependsOn(dockerBuild);
-      for (TaskProvider<Exec> tag : dockerTags) {
-        dockerTag.dependsOn(tag);
-      }
-    });
-  }
-
-  /**
-   * Create the Tag task (the one that actually tags the image). Tag depends on the dockerBuild.
+   * Apply all the tags of the current release target to the image, in one task. Tag depends on the dockerBuild.
    */
-  private List<TaskProvider<Exec>> addDockerTagTasks(Project project, TaskProvider<Exec> dockerBuild, DockerInfo docker) {
-    List<TaskProvider<Exec>> result = new ArrayList<>();
-    for (DockerTag tag : docker.tags) {
-      result.add(addDockerTagTask(project, dockerBuild, docker, tag));
-    }
-    return result;
-  }
-
-  private TaskProvider<Exec> addDockerTagTask(Project project, TaskProvider<Exec> dockerBuild, DockerInfo docker, DockerTag tag) {
-    return project.getTasks().register("dockerTag" + tag.capitalizedShortName(), Exec.class, (tagTask -> {
+  private TaskProvider<DockerTagTask> addDockerTagTask(Project project,
+                                                       TaskProvider<DockerBuildTask> dockerBuild,
+                                                       Provider<String> backend,
+                                                       Provider<DockerInfo> docker) {
+    return project.getTasks().register("dockerTag", DockerTagTask.class, tagTask -> {
       tagTask.setGroup(AnotherFineBuildPlugin.GROUP);
-      tagTask.setDescription(tag.description);
-      tagTask.setWorkingDir(new File(project.getBuildDir(), docker.buildDir));
-      tagTask.setCommandLine("docker", "tag", docker.defaultTagPath(), docker.tagPath(tag));
+      tagTask.setDescription("Apply all configured tags.");
+      tagTask.getBackend().set(backend);
+      tagTask.getImage().set(docker.map(DockerInfo::defaultTagPath));
+      tagTask.getTargets().set(docker.map(AfbDockerTasks::tagPaths));
+      tagTask.onlyIf(t -> docker.get().enabled);
       tagTask.dependsOn(dockerBuild);
-    }));
+    });
   }
 
   /**
-   * Create a single task that we can target for all the tags on the image. This task will 'dependOn' each push task.
+   * Create a single task that pushes all the tags of the current release target, concurrently.
    */
-  private TaskProvider<Task> addDockerPushTagsTask(Project project, TaskProvider<Task> dockerTag, List<TaskProvider<Exec>> dockerPushTags) {
-    return project.getTasks().register("dockerPushTags", Task.class, pushTagsTask -> {
+  private TaskProvider<DockerPushTask> addDockerPushTagsTask(Project project,
+                                                             TaskProvider<DockerTagTask> dockerTag,
+                                                             TaskProvider<DockerLoginTask> dockerLogin,
+                                                             Provider<DockerPushService> pushService,
+                                                             DockerConfig dockerConfig,
+                                                             Provider<String> backend,
+                                                             Provider<DockerInfo> docker) {
+    return project.getTasks().register("dockerPushTags", DockerPushTask.class, pushTagsTask -> {
       pushTagsTask.setGroup(AnotherFineBuildPlugin.GROUP);
-      pushTagsTask.setDescription("Push all configured tags, after pushing the main tag.");
-      for (TaskProvider<Exec> tag : dockerPushTags) {
-        pushTagsTask.dependsOn(tag);
-      }
+      pushTagsTask.setDescription("Push all configured tags, concurrently.");
+      pushTagsTask.onlyIf(t -> docker.get().enabled);
+      pushTagsTask.getImages().set(docker.map(AfbDockerTasks::tagPaths));
+      pushTagsTask.getPushService().set(pushService);
+      pushTagsTask.getPushConcurrency().set(project.provider(dockerConfig::getPushConcurrency));
+      pushTagsTask.usesService(pushService);
+      pushTagsTask.getBackend().set(backend);
+      pushTagsTask.getServerAddress().set(docker.map(d -> DockerCredentials.serverAddress(d.host, d.isHub)));
+      pushTagsTask.getUsername().set(registryUsername(docker));
+      pushTagsTask.getApiToken().set(docker.map(d -> d.apiToken));
+      pushTagsTask.getCheckRegistry().set(project.provider(dockerConfig::isCheckRegistry));
+      pushTagsTask.getNativePush().set(project.provider(dockerConfig::isNativePush));
+      pushTagsTask.getMountFrom().set(docker.map(d -> mountFrom(d, dockerConfig)));
+      pushTagsTask.getUploadChunkSize().set(project.provider(() -> dockerConfig.getUploadChunkSizeMb() * 1024L * 1024L));
+      pushTagsTask.getUploadConcurrency().set(project.provider(dockerConfig::getUploadConcurrency));
+      pushTagsTask.getLayerCacheDir().set(new File(project.getGradle().getGradleUserHomeDir(), "caches/afb-oci/layers"));
+      pushTagsTask.dependsOn(dockerTag);
+      pushTagsTask.dependsOn(dockerLogin);
     });
   }
 
   /**
-   * Create one "Push this tag" Task for each registered Docker Tag Task.
+   * @return DockerConfig.mountFrom, with the names that have no organization placed in that of 'docker'.
    */
-  private List<TaskProvider<Exec>> addDockerPushTagTasks(Project project,
-                                                         List<DockerTag> tags,
-                                                         TaskProvider<Task> dockerTag,
-                                                         Optional<TaskProvider<Task>> dockerLogin,
-                                                         DockerInfo docker) {
-    List<TaskProvider<Exec>> tasks = new ArrayList<>();
-    for (DockerTag tag : tags) {
-      tasks.add(addDockerPushTagTask(project, tag, dockerTag, dockerLogin, docker));
+  static List<String> mountFrom(DockerInfo docker, DockerConfig dockerConfig) {
+    List<String> repositories = new ArrayList<>();
+    for (String repository : dockerConfig.getMountFrom()) {
+      repositories.add(repository.contains("/") || !docker.org.isPresent() ? repository : docker.org.get() + "/" + repository);
     }
-    return tasks;
-  }
-
-  private TaskProvider<Exec> addDockerPushTagTask(Project project,
-                                                  DockerTag tag,
-                                                  TaskProvider<Task> dockerTag,
-                                                  Optional<TaskProvider<Task>> dockerLogin,
-                                                  DockerInfo docker) {
-    return project.getTasks().register("dockerPush" + tag.capitalizedShortName(), Exec.class, pushTagTask -> {
-      pushTagTask.setGroup(AnotherFineBuildPlugin.GROUP);
-      pushTagTask.setDescription("Push the image tag '" + tag.tag + "': " + tag.description);
-      pushTagTask.setWorkingDir(new File(project.getBuildDir(), docker.buildDir));
-      pushTagTask.setCommandLine("docker", "push", docker.tagPath(tag));
-      pushTagTask.dependsOn(dockerTag);
-      dockerLogin.ifPresent(pushTagTask::dependsOn);
-    });
+    return repositories;
   }
 
-  private Optional<TaskProvider<Task>> addDockerLoginTask(Project project, DockerInfo docker) {
-    Optional<TaskProvider<Task>> result = Optional.empty();
-    if (!docker.isLocal) {
-      TaskProvider<Task> dockerLogin = project.getTasks().register("dockerLogin", Task.class, task -> {
-        task.setGroup(AnotherFineBuildPlugin.GROUP);
-        task.setDescription("Login to docker");
-        task.doLast(t -> {
-          if (!project.getRootProject().getExtensions().getExtraProperties().has("afb.dockerLoginHasRun")) {
-            project.exec(execSpec -> {
-              execSpec.executable("docker");
-              if (docker.host.contains("hub.docker.com")) {
-                execSpec.args("login", "-u", docker.username, "-p", docker.apiToken);
-              } else {
-                execSpec.args("login", "-u", docker.username, "-p", docker.apiToken, docker.host);
-              }
-            });
-            project.getRootProject().getExtensions().getExtraProperties().set("afb.dockerLoginHasRun", true);
-          }
-        });
-      });
-      result = Optional.of(dockerLogin);
-    }
-    return result;
+  /**
+   * Skipped for local docker hosts.
+   */
+  private TaskProvider<DockerLoginTask> addDockerLoginTask(Project project, Provider<String> backend, Provider<DockerInfo> dockerInfo) {
+    return project.getTasks().register("dockerLogin", DockerLoginTask.class, task -> {
+      task.setGroup(AnotherFineBuildPlugin.GROUP);
+      task.setDescription("Login to docker");
+      task.onlyIf(t -> dockerInfo.get().enabled && !dockerInfo.get().isLocal);
+      task.getBackend().set(backend);
+      task.getServerAddress().set(dockerInfo.map(d -> DockerCredentials.serverAddress(d.host, d.isHub)));
+      task.getUsername().set(dockerInfo.map(d -> d.username));
+      task.getApiToken().set(dockerInfo.map(d -> d.apiToken));
+    });
   }
 }
@@ -0,0 +1,95 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.AnotherFineBuildPlugin;
+import com.fetherbrik.gradle.afb.domain.BuildInfo;
+import com.fetherbrik.gradle.afb.domain.DockerInfo;
+import com.fetherbrik.gradle.afb.domain.configuration.DockerConfig;
+import com.fetherbrik.gradle.afb.task.DockerfileTask;
+import com.fetherbrik.gradle.afb.task.OciImageTask;
+import com.fetherbrik.gradle.afb.task.OciLayerTask;
+import com.fetherbrik.gradle.afb.task.OciPushTask;
+import org.gradle.api.Project;
+import org.gradle.api.plugins.JavaApplication;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskProvider;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The daemonless image tasks of an application project (see DockerConfig.ociImage): a cacheable layer task for each of
+ * the {@link ApplicationLayers}, 'ociImage', which writes an OCI image layout, and 'ociPush', which pushes it to the
+ * registry of the current release target. Layers are placed under /app, as in generated Dockerfiles.
+ */
+public class AfbOciTasks {
+  public final List<TaskProvider<OciLayerTask>> ociLayers = new ArrayList<>();
+  public final TaskProvider<OciImageTask> ociImage;
+  public final TaskProvider<OciPushTask> ociPush;
+
+  public AfbOciTasks(Project project, Provider<BuildInfo> info, DockerConfig dockerConfig) {
+    Provider<DockerInfo> dockerInfo = info.map(i -> i.docker);
+    ApplicationLayers layers = new ApplicationLayers(project);
+    layers.layers().forEach((layer, files) -> ociLayers.add(project.getTasks().register(layerTaskName(layer), OciLayerTask.class, task -> {
+      task.setGroup(AnotherFineBuildPlugin.GROUP);
+      task.setDescription("Write the '" + layer + "' image layer.");
+      task.getFiles().from(files);
+      task.getDirectory().set(DockerfileTask.APP_DIR.substring(1) + "/" + layer);
+    })));
+    ociImage = addOciImageTask(project, dockerConfig, layers, dockerInfo);
+    ociPush = addOciPushTask(project, dockerConfig, dockerInfo);
+  }
+
+  /**
+   * @return e.g. 'ociLayerSnapshotLibs' for 'snapshot-libs'.
+   */
+  private static String layerTaskName(String layer) {
+    StringBuilder name = new StringBuilder("ociLayer");
+    for (String part : layer.split("-")) {
+      name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+    }
+    return name.toString();
+  }
+
+  private TaskProvider<OciImageTask> addOciImageTask(Project project,
+                                                     DockerConfig dockerConfig,
+                                                     ApplicationLayers layers,
+                                                     Provider<DockerInfo> docker) {
+    JavaApplication application = project.getExtensions().getByType(JavaApplication.class);
+    return project.getTasks().register("ociImage", OciImageTask.class, task -> {
+      task.setGroup(AnotherFineBuildPlugin.GROUP);
+      task.setDescription("Write the application image as an OCI image layout, without a docker daemon.");
+      ociLayers.forEach(layer -> task.getLayers().from(layer));
+      task.getBaseImage().set(project.provider(dockerConfig::getBaseImage));
+      task.getPlatform().set(project.provider(dockerConfig::getPlatform));
+      task.getEntrypoint().set(project.provider(() -> {
+        List<String> jvmArgs = new ArrayList<>();
+        application.getApplicationDefaultJvmArgs().forEach(jvmArgs::add);
+        return ApplicationLayers.javaCommand(jvmArgs, DockerfileTask.APP_DIR, new ArrayList<>(layers.layers().keySet()),
+                                             application.getMainClass().get());
+      }));
+      task.getWorkingDir().set(DockerfileTask.APP_DIR);
+      task.getTags().set(docker.map(AfbDockerTasks::tagPaths));
+      task.getBlobCacheDir().set(new File(project.getGradle().getGradleUserHomeDir(), "caches/afb-oci/blobs"));
+      task.onlyIf(t -> docker.get().enabled);
+    });
+  }
+
+  private TaskProvider<OciPushTask> addOciPushTask(Project project, DockerConfig dockerConfig, Provider<DockerInfo> docker) {
+    Provider<DockerPushService> pushService = DockerPushService.register(project.getGradle());
+    return project.getTasks().register("ociPush", OciPushTask.class, task -> {
+      task.setGroup(AnotherFineBuildPlugin.GROUP);
+      task.setDescription("Push the OCI image to the registry under all configured tags, without a docker daemon.");
+      task.getLayoutDir().set(ociImage.flatMap(OciImageTask::getLayoutDir));
+      task.getImages().set(docker.map(AfbDockerTasks::tagPaths));
+      task.getUsername().set(AfbDockerTasks.registryUsername(docker));
+      task.getApiToken().set(docker.map(d -> d.apiToken));
+      task.getPushService().set(pushService);
+      task.usesService(pushService);
+      task.getMountFrom().set(docker.map(d -> AfbDockerTasks.mountFrom(d, dockerConfig)));
+      task.getUploadChunkSize().set(project.provider(() -> dockerConfig.getUploadChunkSizeMb() * 1024L * 1024L));
+      task.getUploadConcurrency().set(project.provider(dockerConfig::getUploadConcurrency));
+      task.onlyIf(t -> docker.get().enabled);
+    });
+  }
+}
@@ -6,9 +6,10 @@ import com.fetherbrik.gradle.afb.domain.VersionInfo;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskProvider;
 
 import java.io.File;
 import java.io.IOException;
@@ -17,19 +18,31 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Optional;
 
+/**
+ * The version bump tasks. They are registered lazily and only resolve the build info (and so read git) when they run.
+ */
 public class AfbSemanticTasks {
-  public AfbSemanticTasks(Project project, BuildInfo info) {
-    addVersionPreReleaseTask(project, info);
-    addVersionPatchTask(project, info);
-    addVersionMinorTask(project, info);
-    addVersionMajorTask(project, info);
+  private final Provider<GitRepositoryService> repositories;
+  public final TaskProvider<DefaultTask> versionPrerelease;
+  public final TaskProvider<DefaultTask> versionPatch;
+  public final TaskProvider<DefaultTask> versionMinor;
+  public final TaskProvider<DefaultTask> versionMajor;
+
+  public AfbSemanticTasks(Project project, Provider<BuildInfo> info, Provider<GitRepositoryService> repositories) {
+    this.repositories = repositories;
+    versionPrerelease = addVersionPreReleaseTask(project, info);
+    versionPatch = addVersionPatchTask(project, info);
+    versionMinor = addVersionMinorTask(project, info);
+    versionMajor = addVersionMajorTask(project, info);
   }
 
-  private DefaultTask addVersionPreReleaseTask(Project project, BuildInfo info) {
-    return project.getTasks().create("versionPrerelease", DefaultTask.class, buildTask -> {
+  private TaskProvider<DefaultTask> addVersionPreReleaseTask(Project project, Provider<BuildInfo> infoProvider) {
+    return project.getTasks().register("versionPrerelease", DefaultTask.class, buildTask -> {
       buildTask.setGroup(AnotherFineBuildPlugin.GROUP);
       buildTask.setDescription("Update the prerelease and commit. Requires clean git workspace. Use -Ppreid=newPrereleaseId to specify new pre-release.");
+      buildTask.usesService(repositories);
       buildTask.getActions().add((task) -> {
+        BuildInfo info = infoProvider.get();
         try {
           VersionInfo next;
           File versionFile = checkVersionFileCanBeCreated(info.versionInfoFilePath);
@@ -49,11 +62,13 @@ public class AfbSemanticTasks {
     });
   }
 
-  private DefaultTask addVersionPatchTask(Project project, BuildInfo info) {
-    return project.getTasks().create("versionPatch", DefaultTask.class, buildTask -> {
+  private TaskProvider<DefaultTask> addVersionPatchTask(Project project, Provider<BuildInfo> infoProvider) {
+    return project.getTasks().register("versionPatch", DefaultTask.class, buildTask -> {
       buildTask.setGroup(AnotherFineBuildPlugin.GROUP);
       buildTask.setDescription("Update the Patch revision and commit. Requires clean git workspace.");
+      buildTask.usesService(repositories);
       buildTask.getActions().add((task) -> {
+        BuildInfo info = infoProvider.get();
         try {
           VersionInfo next;
           File versionFile = checkVersionFileCanBeCreated(info.versionInfoFilePath);
@@ -66,12 +81,14 @@ public class AfbSemanticTasks {
     });
   }
 
-  private DefaultTask addVersionMinorTask(Project project, BuildInfo info) {
-    return project.getTasks().create("versionMinor", DefaultTask.class, buildTask -> {
+  private TaskProvider<DefaultTask> addVersionMinorTask(Project project, Provider<BuildInfo> infoProvider) {
+    return project.getTasks().register("versionMinor", DefaultTask.class, buildTask -> {
       buildTask.setGroup(AnotherFineBuildPlugin.GROUP);
       buildTask.setDescription(
         "Update the Minor revision number, setting patch to '0', and commit. Requires clean git workspace.");
+      buildTask.usesService(repositories);
       buildTask.getActions().add((task) -> {
+        BuildInfo info = infoProvider.get();
         try {
           VersionInfo next;
           File versionFile = checkVersionFileCanBeCreated(info.versionInfoFilePath);
@@ -84,12 +101,14 @@ public class AfbSemanticTasks {
     });
   }
 
-  private DefaultTask addVersionMajorTask(Project project, BuildInfo info) {
-    return project.getTasks().create("versionMajor", DefaultTask.class, buildTask -> {
+  private TaskProvider<DefaultTask> addVersionMajorTask(Project project, Provider<BuildInfo> infoProvider) {
+    return project.getTasks().register("versionMajor", DefaultTask.class, buildTask -> {
       buildTask.setGroup(AnotherFineBuildPlugin.GROUP);
       buildTask.setDescription(
         "Update the Major revision number, setting minor and patch to '0', and commit. Requires clean git workspace.");
+      buildTask.usesService(repositories);
       buildTask.getActions().add((task) -> {
+        BuildInfo info = infoProvider.get();
         try {
           VersionInfo next;
           File versionFile = checkVersionFileCanBeCreated(info.versionInfoFilePath);
@@ -104,9 +123,9 @@ public class AfbSemanticTasks {
 
   private void applyNextVersion(Project project, BuildInfo info, VersionInfo next, File versionFile) throws IOException, GitAPIException {
     System.out.printf("Updating project version to %s%n", next.full);
-    Repository repository = new FileRepositoryBuilder().findGitDir(new File(info.git.gitRoot)).build();
+    Repository repository = repositories.get().repository(info.git.gitRoot);
     Git git = new Git(repository);
-    if (!git.status().call().isClean()) {
+    if (new GitDirtyDetector(false, false).isDirty(repository)) {
       throw new RuntimeException("Your git workspace must be clean to perform a version update.");
     }
 
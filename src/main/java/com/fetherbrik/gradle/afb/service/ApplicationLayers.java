@@ -0,0 +1,81 @@
+package com.fetherbrik.gradle.afb.service;
+
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.specs.Spec;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the runtime classpath of an application project into image layers, from the least to the most likely to
+ * change: released third-party jars ('libs'), snapshot jars ('snapshot-libs'), and the jars of the application and of
+ * the projects it depends on ('app'). The files are resolved lazily, and carry the tasks that build them.
+ */
+public final class ApplicationLayers {
+
+  public static final String LIBS = "libs";
+  public static final String SNAPSHOT_LIBS = "snapshot-libs";
+  public static final String APP = "app";
+
+  private final Map<String, FileCollection> layers = new LinkedHashMap<>();
+
+  public ApplicationLayers(Project project) {
+    Configuration runtime = project.getConfigurations().getByName("runtimeClasspath");
+    layers.put(LIBS, artifacts(runtime, id -> !(id instanceof ProjectComponentIdentifier) && !isSnapshot(id)));
+    layers.put(SNAPSHOT_LIBS, artifacts(runtime, ApplicationLayers::isSnapshot));
+    layers.put(APP, project.files(project.getTasks().named("jar"), artifacts(runtime, id -> id instanceof ProjectComponentIdentifier)));
+  }
+
+  /**
+   * @return The files of each layer, in layer order.
+   */
+  public Map<String, FileCollection> layers() {
+    return layers;
+  }
+
+  /**
+   * @return The names of the layers that have files. Resolves the runtime classpath.
+   */
+  public List<String> nonEmpty() {
+    List<String> names = new ArrayList<>();
+    layers.forEach((name, files) -> {
+      if (!files.isEmpty()) {
+        names.add(name);
+      }
+    });
+    return names;
+  }
+
+  /**
+   * @param appDir The directory of the layers in the image, e.g. '/app'.
+   * @return The command that runs 'mainClass' with the jars of 'layers' on the classpath, later layers first.
+   */
+  public static List<String> javaCommand(List<String> jvmArgs, String appDir, List<String> layers, String mainClass) {
+    List<String> classpath = new ArrayList<>();
+    for (String layer : layers) {
+      classpath.add(0, appDir + "/" + layer + "/*");
+    }
+    List<String> command = new ArrayList<>();
+    command.add("java");
+    command.addAll(jvmArgs);
+    command.add("-cp");
+    command.add(String.join(":", classpath));
+    command.add(mainClass);
+    return command;
+  }
+
+  private static FileCollection artifacts(Configuration configuration, Spec<ComponentIdentifier> filter) {
+    return configuration.getIncoming().artifactView(view -> view.componentFilter(filter)).getFiles();
+  }
+
+  private static boolean isSnapshot(ComponentIdentifier id) {
+    return id instanceof ModuleComponentIdentifier && ((ModuleComponentIdentifier) id).getVersion().endsWith("-SNAPSHOT");
+  }
+}
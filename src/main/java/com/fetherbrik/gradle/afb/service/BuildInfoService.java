@@ -0,0 +1,35 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.domain.BuildInfo;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds the build info shared by every project of a build, so that git is read and the release target resolved once,
+ * by whichever project asks first, however many projects there are and whichever threads configure them.
+ */
+public abstract class BuildInfoService implements BuildService<BuildServiceParameters.None> {
+
+  public static final String NAME = "afbBuildInfo";
+
+  private BuildInfo info;
+
+  public static Provider<BuildInfoService> register(Gradle gradle) {
+    return gradle.getSharedServices().registerIfAbsent(NAME, BuildInfoService.class, spec -> {
+    });
+  }
+
+  /**
+   * @param compute Computes the shared build info (see {@link BuildInfoTransform#shared()}) if no project did yet.
+   */
+  public synchronized BuildInfo getInfo(Supplier<BuildInfo> compute) {
+    if (info == null) {
+      info = compute.get();
+    }
+    return info;
+  }
+}
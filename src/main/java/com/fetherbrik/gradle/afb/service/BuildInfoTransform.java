@@ -1,57 +1,97 @@
 package com.fetherbrik.gradle.afb.service;
 
-import com.fetherbrik.gradle.afb.AnotherFineBuildExtension;
+import com.fetherbrik.gradle.afb.AnotherFineBuildConfig;
 import com.fetherbrik.gradle.afb.domain.BuildInfo;
 import com.fetherbrik.gradle.afb.domain.GitInfo;
 import com.fetherbrik.gradle.afb.domain.configuration.DockerConfig;
 import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
 import com.fetherbrik.gradle.afb.domain.DockerInfo;
 import com.fetherbrik.gradle.afb.domain.DockerTag;
+import com.fetherbrik.gradle.afb.domain.SemverParser;
 import com.fetherbrik.gradle.afb.domain.VersionInfo;
 import com.google.common.collect.Lists;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.math.NumberUtils;
 import org.gradle.api.Project;
 
+import java.time.Instant;
 import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class BuildInfoTransform {
 
-  private final AnotherFineBuildExtension extension;
+  private final AnotherFineBuildConfig config;
   private final GitInfo git;
+  private final String buildType;
+  private final Optional<String> forceTarget;
   // see semver.org and https://regex101.com/r/vkijKf/1/
+  // Versions are parsed by SemverParser, which accepts the same language; the pattern is kept as the reference grammar.
   public static final String SEMVER_REGEX =
     "^([=v]?)(0|[1-9]\\d*)\\.(0|[1-9]\\d*)\\.(0|[1-9]\\d*)(?:-((?:0|[1-9]\\d*|\\d*[a-zA-Z-][0-9a-zA-Z-]*)(?:\\.(?:0|[1-9]\\d*|\\d*[a-zA-Z-][0-9a-zA-Z-]*))*))?(?:\\+([0-9a-zA-Z-]+(?:\\.[0-9a-zA-Z-]+)*))?$";
   public static final Pattern SEMVER_PATTERN = Pattern.compile(SEMVER_REGEX);
+  private static final DateTimeFormatter DATE_STAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'z'").withZone(ZoneOffset.UTC);
 
-  public BuildInfoTransform(AnotherFineBuildExtension extension, GitInfo git) {
-    this.extension = extension;
+  /**
+   * @param buildType   The build type to match release targets against; null if there is none.
+   * @param forceTarget The value of the 'forceTarget' project or system property, if any. Passed in rather than read
+   *                    from the project so that it is tracked as a configuration input.
+   */
+  public BuildInfoTransform(AnotherFineBuildConfig config, GitInfo git, String buildType, Optional<String> forceTarget) {
+    this.config = config;
     this.git = git;
-  } 
+    this.buildType = buildType;
+    this.forceTarget = forceTarget;
+  }
 
   public BuildInfo apply(Project project) {
-    String dateStamp = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'z'"));
+    return forProject(shared(), config.getDocker(), project);
+  }
+
+  /**
+   * The part of the build info that is the same for every project of the build: everything but the docker info.
+   */
+  public BuildInfo shared() {
+    String dateStamp = dateStamp(config.getDateStampMode(), config.getDateStampDirtySuffix(), git, Instant.now());
     VersionInfo info = getVersionInfo(git.versionString);
-    ReleaseTarget target = getReleaseTarget(project, extension.getReleaseTargets(), info);
-    DockerInfo dockerInfo = getDockerInfo(project, extension.getDocker(), target, info, dateStamp);
+    ReleaseTarget target = getReleaseTarget(config.getReleaseTargets(), info);
     return new BuildInfo.Builder()
-      .versionInfoFilePath(extension.getVersionInfoFilePath())
+      .versionInfoFilePath(config.getVersionInfoFilePath())
       .dateStamp(dateStamp)
       .version(info)
       .target(target)
       .git(git)
-      .docker(dockerInfo)
+      .docker(DockerInfo.disabled())
       .build();
   }
 
-  private DockerInfo getDockerInfo(Project project, DockerConfig docker, ReleaseTarget target, VersionInfo version, String dateStamp) {
+  /**
+   * @param mode 'clock' to stamp 'now', or 'commit' to stamp the commit time of 'git' (see
+   *             AnotherFineBuildConfig.dateStampMode).
+   * @param dirtySuffix Appended to a 'commit' stamp when the working copy is dirty; may be null.
+   * @return e.g. '20201001T120000z'.
+   */
+  public static String dateStamp(String mode, String dirtySuffix, GitInfo git, Instant now) {
+    if (mode == null || mode.equals("clock")) {
+      return DATE_STAMP.format(now.truncatedTo(ChronoUnit.SECONDS));
+    }
+    if (!mode.equals("commit")) {
+      throw new RuntimeException("AFB: Unknown dateStampMode '" + mode + "': use 'clock' or 'commit'.");
+    }
+    String stamp = DATE_STAMP.format(Instant.ofEpochSecond(git.commitTime));
+    return git.isDirty && dirtySuffix != null ? stamp + dirtySuffix : stamp;
+  }
+
+  /**
+   * Complete the shared build info with the docker info of 'project', whose repository name may depend on the project.
+   */
+  public static BuildInfo forProject(BuildInfo shared, DockerConfig docker, Project project) {
+    DockerInfo dockerInfo = getDockerInfo(project, docker, shared.target, shared.version, shared.dateStamp);
+    return new BuildInfo.Builder().from(shared).docker(dockerInfo).build();
+  }
+
+  private static DockerInfo getDockerInfo(Project project, DockerConfig docker, ReleaseTarget target, VersionInfo version, String dateStamp) {
     DockerInfo result = DockerInfo.disabled();
     if(target.isDocker()) {
       String host = docker.getRepoHost();
@@ -65,34 +105,28 @@ public class BuildInfoTransform {
         .host(host)
         .org(docker.getRepoOrg())
         .repo(docker.getRepoName().call(project))
-        .buildDir("docker")
-        .dockerFile("Dockerfile")
+        .buildDir(DockerInfo.BUILD_DIR)
+        .dockerFile(DockerInfo.DOCKER_FILE)
         .username(docker.getUsername())
         .apiToken(docker.getApiToken());
       if (target.getDockerTag() != null) {
-        DockerTag placeholder = new DockerTag(target.getDockerTag(), "Tag image with '" + target.getDockerTag() + "'", target.getDockerTag());
-        builder.tags(Lists.newArrayList(placeholder));
+        builder.tags(Lists.newArrayList(DockerTag.forTarget(target)));
       }
       result = builder.build();
     }
     return result;
   }
 
-  private ReleaseTarget getReleaseTarget(Project project, Map<String, ReleaseTarget> releaseTargets, VersionInfo versionInfo) {
+  private ReleaseTarget getReleaseTarget(Map<String, ReleaseTarget> releaseTargets, VersionInfo versionInfo) {
     ReleaseTarget result = null;
-    Optional<String> forceTargetTo = getForceTargetKey(project);
+    Optional<String> forceTargetTo = forceTarget;
     if (forceTargetTo.isPresent()) {
       result = releaseTargets.get(forceTargetTo.get());
       if (result == null) {
         throw new RuntimeException("Cannot find target with key '" + forceTargetTo.get() + "'. Cannot force target to non-existing configuration.");
       }
     } else {
-      for (Map.Entry<String, ReleaseTarget> entry : releaseTargets.entrySet()) {
-        if (entry.getValue().matches(extension.getBuildType(), versionInfo.full)) {
-          result = entry.getValue();
-          break;
-        }
-      }
+      result = config.getReleaseTargetMatcher().match(buildType, versionInfo).orElse(null);
     }
     if (result == null) {
       throw new RuntimeException("Could not find matching release target for version '" + versionInfo.full + "'.");
@@ -100,63 +134,12 @@ public class BuildInfoTransform {
     return result;
   }
 
-  private Optional<String> getForceTargetKey(Project project) {
-    Optional<String> result = Optional.empty();
-    if (project.hasProperty("forceTarget")) {
-      result = Optional.of((String) project.getProperties().get("forceTarget"));
-    } else if (System.getProperties().containsKey("forceTarget")) {
-      result = Optional.of(System.getProperty("forceTarget"));
-    }
-    return result;
-  }
-
-  private VersionInfo getVersionInfo(String version) {
-    Matcher matcher = SEMVER_PATTERN.matcher(version);
-    if (!matcher.matches()) {
-      throw new RuntimeException("Could not parse version from value provided by Git describe: '" + version + "': Pattern does not match '" + SEMVER_REGEX
-                                 + "'.");
-    } else if (matcher.groupCount() < 5) { // don't forget group 0 is always the whole match.
-      throw new RuntimeException("Could not parse version from value provided by Git describe: '"
-                                 + version
-                                 + "': Too few match groups ("
-                                 + matcher.groupCount()
-                                 + ").");
-    } else if (matcher.groupCount() > 6) {
-      throw new RuntimeException("Could not parse version from value provided by Git describe: '"
-                                 + version
-                                 + "': Too many match groups ("
-                                 + matcher.groupCount()
-                                 + ").");
-    } else if (!NumberUtils.isCreatable(matcher.group(2)) || !NumberUtils.isCreatable(matcher.group(3)) || !NumberUtils.isCreatable(matcher.group(4))) {
-      throw new RuntimeException(String.format(
-        "Could not parse version from value provided by Git describe: '%s': Major ('%s'), minor ('%s') and patch ('%s') values must be integral values.",
-        version,
-        matcher.group(2),
-        matcher.group(3),
-        matcher.group(4)));
-    }
-    /* Mostly creating all these variables to get line numbers if there's an exception thrown. */
-    String prefix = matcher.group(1);
-    int major = Integer.parseInt(matcher.group(2));
-    int minor = Integer.parseInt(matcher.group(3));
-    int patch = Integer.parseInt(matcher.group(4));
-    VersionInfo.Builder info = new VersionInfo.Builder();
-    if(StringUtils.isNotBlank(prefix)){
-      info.prefix(prefix);
-    }
-    info.major(major).minor(minor).patch(patch);
-    if (matcher.groupCount() > 5) {
-      String group = matcher.group(5);
-      if(StringUtils.isNotBlank(group)) {
-        info.preRelease(group);
-      }
-    }
-    if (matcher.groupCount() > 6) {
-      String group = matcher.group(6);
-      if(StringUtils.isNotBlank(group)) {
-        info.meta(group);
-      }
+  public static VersionInfo getVersionInfo(String version) {
+    VersionInfo info = SemverParser.tryParse(version);
+    if (info == null) {
+      throw new RuntimeException("Could not parse version from value provided by Git describe: '" + version
+                                 + "': Not a semver version (see semver.org), e.g. 'v1.2.3-RC.4'.");
     }
-    return info.build();
+    return info;
   }
 }
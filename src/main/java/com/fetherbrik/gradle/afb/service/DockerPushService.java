@@ -0,0 +1,144 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.service.oci.BlobLedger;
+import com.fetherbrik.gradle.afb.service.oci.OciLayout;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Hands out the images of each push task to its workers, one at a time, and collects the outcome of each push for the
+ * task. Pushes through the registry API also share the {@link BlobLedger} (saved at the end of the
+ * build) and the OCI layouts of the images they have converted.
+ */
+public abstract class DockerPushService implements BuildService<DockerPushService.Parameters>, AutoCloseable {
+
+  public static final String NAME = "afbDockerPush";
+
+  public interface Parameters extends BuildServiceParameters {
+    RegularFileProperty getBlobLedger();
+  }
+
+  private final Map<String, Queue<String>> pending = new ConcurrentHashMap<>();
+  private final Map<String, Queue<PushResult>> results = new ConcurrentHashMap<>();
+  private final Map<String, FutureTask<OciLayout>> layouts = new ConcurrentHashMap<>();
+  private BlobLedger blobLedger;
+
+  public static Provider<DockerPushService> register(Gradle gradle) {
+    return gradle.getSharedServices().registerIfAbsent(NAME, DockerPushService.class, spec -> {
+      spec.getParameters().getBlobLedger().set(gradle.getRootProject().getLayout().getBuildDirectory().file("afb/blob-ledger.properties"));
+    });
+  }
+
+  public synchronized BlobLedger blobLedger() {
+    if (blobLedger == null) {
+      blobLedger = BlobLedger.load(getParameters().getBlobLedger().getAsFile().getOrNull());
+    }
+    return blobLedger;
+  }
+
+  /**
+   * @return The OCI layout of the image 'imageId': made by 'converter' the first time it is asked for, by any task.
+   */
+  public OciLayout layout(String imageId, Callable<OciLayout> converter) {
+    FutureTask<OciLayout> layout = layouts.computeIfAbsent(imageId, id -> new FutureTask<>(converter));
+    layout.run();
+    try {
+      return layout.get();
+    } catch (ExecutionException e) {
+      layouts.remove(imageId, layout);
+      throw e.getCause() instanceof RuntimeException
+            ? (RuntimeException) e.getCause()
+            : new RuntimeException("AFB: Could not convert image '" + imageId + "': " + e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("AFB: Interrupted while converting image '" + imageId + "'.", e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (blobLedger != null) {
+      blobLedger.save();
+    }
+  }
+
+  /**
+   * Forget earlier results of 'taskPath', and queue 'images' for its workers, before it submits them.
+   */
+  public void start(String taskPath, List<String> images) {
+    results.put(taskPath, new ConcurrentLinkedQueue<>());
+    pending.put(taskPath, new ConcurrentLinkedQueue<>(images));
+  }
+
+  /**
+   * @return The next image 'taskPath' has to push, or null when every image has been taken.
+   */
+  public String nextImage(String taskPath) {
+    Queue<String> images = pending.get(taskPath);
+    return images == null ? null : images.poll();
+  }
+
+  public void record(String taskPath, PushResult result) {
+    results.computeIfAbsent(taskPath, path -> new ConcurrentLinkedQueue<>()).add(result);
+  }
+
+  /**
+   * @return The results recorded for 'taskPath' since {@link #start(String, List)}, in completion order.
+   */
+  public List<PushResult> results(String taskPath) {
+    pending.remove(taskPath);
+    Queue<PushResult> queue = results.remove(taskPath);
+    return queue == null ? new ArrayList<>() : new ArrayList<>(queue);
+  }
+
+  public static final class PushResult {
+    public final String image;
+    public final long millis;
+    /**
+     * How long the image was queued before a worker took it: while the workers pushed the images before it.
+     */
+    public final long queuedMillis;
+    public final int exitValue;
+    public final String output;
+    /**
+     * How the image got to the registry: 'PUSHED', 'SKIPPED' or 'TAGGED' (see ImagePusher.Action); null if it failed.
+     */
+    public final String action;
+    /**
+     * The ledger entry ('&lt;image id&gt; &lt;manifest digest&gt;') to record for the image, or null.
+     */
+    public final String ledgerEntry;
+
+    public PushResult(String image, long millis, long queuedMillis, int exitValue, String output) {
+      this(image, millis, queuedMillis, exitValue, output, null, null);
+    }
+
+    public PushResult(String image, long millis, long queuedMillis, int exitValue, String output, String action, String ledgerEntry) {
+      this.image = image;
+      this.millis = millis;
+      this.queuedMillis = queuedMillis;
+      this.exitValue = exitValue;
+      this.output = output;
+      this.action = action;
+      this.ledgerEntry = ledgerEntry;
+    }
+
+    public boolean failed() {
+      return exitValue != 0;
+    }
+  }
+}
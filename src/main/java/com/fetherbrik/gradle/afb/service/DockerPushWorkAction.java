@@ -0,0 +1,172 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.service.docker.DockerBackend;
+import com.fetherbrik.gradle.afb.service.docker.DockerBackends;
+import com.fetherbrik.gradle.afb.service.docker.DockerCredentials;
+import com.fetherbrik.gradle.afb.service.docker.Digests;
+import com.fetherbrik.gradle.afb.service.docker.DockerProgressListener;
+import com.fetherbrik.gradle.afb.service.docker.ImagePusher;
+import com.fetherbrik.gradle.afb.service.docker.RegistryClient;
+import com.fetherbrik.gradle.afb.service.oci.BlobPusher;
+import com.fetherbrik.gradle.afb.service.oci.DockerArchive;
+import com.fetherbrik.gradle.afb.service.oci.OciLayout;
+import com.fetherbrik.gradle.afb.service.oci.OciPusher;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.process.ExecOperations;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes images of a push task through the configured docker backend, one after the other, taking the next one from the
+ * {@link DockerPushService} until none are left; the task submits as many of these as it pushes images at once.
+ * With 'checkRegistry', the push is skipped when the registry already has the image (see {@link ImagePusher}). With
+ * 'nativePush', the image is pushed through the registry API instead of 'docker push': it is saved and converted to an
+ * OCI layout once per build (see {@link DockerArchive}), and its blobs are mounted or uploaded in parallel chunks (see
+ * {@link BlobPusher}). Failures are recorded rather than thrown, so that the submitting task can report every push of the batch.
+ */
+public abstract class DockerPushWorkAction implements WorkAction<DockerPushWorkAction.Parameters> {
+
+  private static final Logger logger = Logging.getLogger(DockerPushWorkAction.class);
+
+  public interface Parameters extends WorkParameters {
+    Property<String> getTaskPath();
+
+    /**
+     * When the task queued its images, from System.nanoTime(): how long each image was queued before a worker took it
+     * is reported.
+     */
+    Property<Long> getSubmitted();
+
+    Property<DockerPushService> getPushService();
+
+    Property<String> getBackend();
+
+    /**
+     * Used by the Engine API backend; unset for registries that don't authenticate.
+     */
+    Property<String> getServerAddress();
+
+    Property<String> getUsername();
+
+    Property<String> getApiToken();
+
+    Property<Boolean> getCheckRegistry();
+
+    /**
+     * Earlier pushes: image reference to '&lt;image id&gt; &lt;manifest digest&gt;'.
+     */
+    MapProperty<String, String> getLedger();
+
+    Property<Boolean> getNativePush();
+
+    /**
+     * Repositories of the registry to mount blobs from, e.g. 'org/base'.
+     */
+    ListProperty<String> getMountFrom();
+
+    Property<Long> getUploadChunkSize();
+
+    Property<Integer> getUploadConcurrency();
+
+    /**
+     * Where native pushes keep the OCI layouts of the images.
+     */
+    DirectoryProperty getWorkDir();
+
+    /**
+     * Where native pushes keep compressed layers, by diff id.
+     */
+    DirectoryProperty getLayerCacheDir();
+  }
+
+  private final ExecOperations execOperations;
+
+  @Inject
+  public DockerPushWorkAction(ExecOperations execOperations) {
+    this.execOperations = execOperations;
+  }
+
+  @Override
+  public void execute() {
+    Parameters parameters = getParameters();
+    DockerPushService service = parameters.getPushService().get();
+    String taskPath = parameters.getTaskPath().get();
+    ImagePusher pusher = null;
+    for (String image = service.nextImage(taskPath); image != null; image = service.nextImage(taskPath)) {
+      long start = System.nanoTime();
+      long queued = TimeUnit.NANOSECONDS.toMillis(start - parameters.getSubmitted().get());
+      try {
+        if (pusher == null) {
+          DockerBackend docker = backend();
+          boolean nativePush = parameters.getNativePush().getOrElse(false);
+          RegistryClient registry = parameters.getCheckRegistry().getOrElse(true) || nativePush ? new RegistryClient(credentials()) : null;
+          ImagePusher.Uploader uploader = nativePush ? nativeUploader(service, docker, registry) : null;
+          pusher = new ImagePusher(docker, parameters.getCheckRegistry().getOrElse(true) ? registry : null, uploader, logger);
+        }
+        ImagePusher.Outcome outcome = pusher.push(image,
+                                                  credentials(),
+                                                  parameters.getLedger().getOrElse(new HashMap<>()),
+                                                  DockerProgressListener.logging(logger));
+        service.record(taskPath,
+                       new DockerPushService.PushResult(image,
+                                                        millisSince(start),
+                                                        queued,
+                                                        0,
+                                                        outcome.digest == null ? "" : outcome.digest,
+                                                        outcome.action.name(),
+                                                        outcome.ledgerEntry()));
+      } catch (RuntimeException e) {
+        service.record(taskPath, new DockerPushService.PushResult(image, millisSince(start), queued, -1, String.valueOf(e.getMessage())));
+      }
+    }
+  }
+
+  protected DockerBackend backend() {
+    return DockerBackends.create(getParameters().getBackend().getOrElse(DockerBackends.AUTO), execOperations, logger);
+  }
+
+  private DockerCredentials credentials() {
+    Parameters parameters = getParameters();
+    return parameters.getUsername().isPresent()
+           ? new DockerCredentials(parameters.getUsername().get(), parameters.getApiToken().getOrElse(""), parameters.getServerAddress().get())
+           : null;
+  }
+
+  private ImagePusher.Uploader nativeUploader(DockerPushService service, DockerBackend docker, RegistryClient registry) {
+    Parameters parameters = getParameters();
+    BlobPusher blobPusher = new BlobPusher(registry,
+                                           service.blobLedger(),
+                                           parameters.getMountFrom().get(),
+                                           parameters.getUploadChunkSize().get(),
+                                           parameters.getUploadConcurrency().get(),
+                                           logger);
+    return (image, imageId, reference) -> {
+      File layoutDir = parameters.getWorkDir().dir(Digests.encoded(imageId)).get().getAsFile();
+      OciLayout layout = service.layout(imageId, () -> DockerArchive.save(docker, image, layoutDir, parameters.getLayerCacheDir().get().getAsFile()));
+      try {
+        OciPusher.Result result = new OciPusher(registry, blobPusher, logger).push(layout, List.of(image));
+        logger.lifecycle("AFB: Sent " + result.uploaded + " of " + result.blobs + " blobs of '" + image + "' (" + result.uploadedBytes
+                         + " bytes), mounted " + result.mounted + ".");
+        return result.digest;
+      } catch (IOException e) {
+        throw new RuntimeException("AFB: Could not push '" + image + "': " + e.getMessage(), e);
+      }
+    };
+  }
+
+  private static long millisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
@@ -0,0 +1,112 @@
+package com.fetherbrik.gradle.afb.service;
+
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.IOException;
+
+/**
+ * Answers 'is the working copy dirty?' without computing a full status.
+ * <p>
+ * HEAD, the index and the working tree are walked side by side and the walk stops at the first difference. Working tree
+ * files are compared to their index entry by the index stat data (size and modification time) first; content is only
+ * hashed when that data is inconclusive. Ignored directories are never entered.
+ * <p>
+ * A submodule is dirty when it has another commit checked out than the index records, but changes inside it are not
+ * looked at: as <code>git status --ignore-submodules=dirty</code>.
+ */
+public class GitDirtyDetector {
+
+  private static final Logger LOG = Logging.getLogger(GitDirtyDetector.class);
+
+  private final boolean ignoreUntracked;
+  private final boolean ignoreSubmodules;
+
+  /**
+   * @param ignoreUntracked  When true, files that are neither tracked nor ignored do not make the working copy dirty.
+   * @param ignoreSubmodules When true, submodules are not inspected at all.
+   */
+  public GitDirtyDetector(boolean ignoreUntracked, boolean ignoreSubmodules) {
+    this.ignoreUntracked = ignoreUntracked;
+    this.ignoreSubmodules = ignoreSubmodules;
+  }
+
+  public boolean isDirty(Repository repository) throws IOException {
+    try (TreeWalk walk = new TreeWalk(repository)) {
+      ObjectId headTree = repository.resolve(Constants.HEAD + "^{tree}");
+      int head = headTree != null ? walk.addTree(headTree) : walk.addTree(new EmptyTreeIterator());
+      int index = walk.addTree(new DirCacheIterator(repository.readDirCache()));
+      FileTreeIterator workingTree = new FileTreeIterator(repository);
+      int work = walk.addTree(workingTree);
+      // Lets the working tree iterator reuse the object ids recorded in the index instead of hashing content.
+      workingTree.setDirCacheIterator(walk, index);
+      walk.setRecursive(false);
+
+      while (walk.next()) {
+        String reason = difference(walk, head, index, work);
+        if (reason != null) {
+          LOG.info("AFB: Working copy is dirty: '" + walk.getPathString() + "' is " + reason + ".");
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Why the current entry makes the working copy dirty, or null when it does not.
+   */
+  private String difference(TreeWalk walk, int head, int index, int work) throws IOException {
+    DirCacheIterator indexEntry = walk.getTree(index, DirCacheIterator.class);
+    WorkingTreeIterator workEntry = walk.getTree(work, WorkingTreeIterator.class);
+    boolean inHead = walk.getRawMode(head) != FileMode.MISSING.getBits();
+    boolean inIndex = indexEntry != null;
+
+    if (ignoreSubmodules && isGitLink(walk, head, index, work)) {
+      return null;
+    }
+    if (walk.isSubtree()) {
+      boolean untracked = !inHead && !inIndex;
+      if (!untracked || (!ignoreUntracked && !workEntry.isEntryIgnored())) {
+        walk.enterSubtree();
+      }
+      return null;
+    }
+    if (inIndex && indexEntry.getDirCacheEntry().getStage() != DirCacheEntry.STAGE_0) {
+      return "unmerged";
+    }
+    if (inHead != inIndex || (inHead && (!walk.idEqual(head, index) || walk.getRawMode(head) != walk.getRawMode(index)))) {
+      return "staged";
+    }
+    if (inIndex && workEntry == null) {
+      return "missing";
+    }
+    if (!inIndex) {
+      return workEntry == null || ignoreUntracked || workEntry.isEntryIgnored() ? null : "untracked";
+    }
+    if (isGitLink(walk, index, work)) {
+      // The stat data of a submodule says nothing about its commit: compare the commit it has checked out.
+      return walk.getObjectId(index).equals(walk.getObjectId(work)) ? null : "a submodule at another commit";
+    }
+    return workEntry.isModified(indexEntry.getDirCacheEntry(), true, walk.getObjectReader()) ? "modified" : null;
+  }
+
+  private boolean isGitLink(TreeWalk walk, int... trees) {
+    for (int tree : trees) {
+      if (walk.getRawMode(tree) == FileMode.GITLINK.getBits()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,160 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.domain.GitInfo;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Caches the ref-derived part of a {@link GitInfo} (describe, HEAD hash and branch) for the lifetime of the JVM, which
+ * for a Gradle daemon spans many builds.
+ * <p>
+ * An entry is dropped as soon as a {@link WatchService} reports a change to '.git/HEAD', '.git/packed-refs',
+ * '.git/index' or anything under '.git/refs'. The working tree itself is not watched, so callers must still determine
+ * the clean/dirty state on every build.
+ */
+public final class GitInfoCache {
+
+  private static final Logger LOG = Logging.getLogger(GitInfoCache.class);
+  private static final GitInfoCache INSTANCE = new GitInfoCache();
+  private static final Set<String> WATCHED_FILES = Set.of("HEAD", "packed-refs", "index");
+
+  private final Map<File, Entry> entries = new ConcurrentHashMap<>();
+
+  private GitInfoCache() {
+  }
+
+  public static GitInfoCache instance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param gitDir  The '.git' directory of the repository.
+   * @param compute Computes the value when there is no valid cached entry.
+   */
+  public GitInfo get(File gitDir, Supplier<GitInfo> compute) {
+    Entry entry = entries.get(gitDir);
+    if (entry != null) {
+      if (!entry.isStale()) {
+        LOG.info("AFB: Using cached git info for '" + gitDir + "'.");
+        return entry.info;
+      }
+      entries.remove(gitDir, entry);
+      entry.close();
+    }
+    // Start watching before computing, so that a change made while computing invalidates the new entry.
+    WatchService watcher = watch(gitDir);
+    GitInfo info;
+    try {
+      info = compute.get();
+    } catch (RuntimeException | Error e) {
+      // Nothing to cache: don't leave the watcher open for the life of the daemon.
+      if (watcher != null) {
+        close(watcher);
+      }
+      throw e;
+    }
+    if (watcher != null) {
+      Entry previous = entries.put(gitDir, new Entry(info, watcher, gitDir.toPath()));
+      if (previous != null) {
+        previous.close();
+      }
+    }
+    return info;
+  }
+
+  public void invalidate(File gitDir) {
+    Entry entry = entries.remove(gitDir);
+    if (entry != null) {
+      entry.close();
+    }
+  }
+
+  private static WatchService watch(File gitDir) {
+    WatchService watcher = null;
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+      register(watcher, gitDir.toPath());
+      Path refs = gitDir.toPath().resolve("refs");
+      if (Files.isDirectory(refs)) {
+        try (Stream<Path> dirs = Files.walk(refs)) {
+          for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+            register(watcher, dir);
+          }
+        }
+      }
+      return watcher;
+    } catch (IOException | UnsupportedOperationException e) {
+      LOG.info("AFB: Cannot watch '" + gitDir + "' for changes, git info will not be cached: " + e.getMessage());
+      if (watcher != null) {
+        close(watcher);
+      }
+      return null;
+    }
+  }
+
+  private static void close(WatchService watcher) {
+    try {
+      watcher.close();
+    } catch (IOException e) {
+      LOG.debug("AFB: Failed to close git directory watcher.", e);
+    }
+  }
+
+  private static void register(WatchService watcher, Path dir) throws IOException {
+    dir.register(watcher,
+                 StandardWatchEventKinds.ENTRY_CREATE,
+                 StandardWatchEventKinds.ENTRY_MODIFY,
+                 StandardWatchEventKinds.ENTRY_DELETE);
+  }
+
+  private static final class Entry {
+    private final GitInfo info;
+    private final WatchService watcher;
+    private final Path gitDir;
+    private boolean stale;
+
+    private Entry(GitInfo info, WatchService watcher, Path gitDir) {
+      this.info = info;
+      this.watcher = watcher;
+      this.gitDir = gitDir;
+    }
+
+    synchronized boolean isStale() {
+      WatchKey key;
+      while (!stale && (key = watcher.poll()) != null) {
+        boolean isGitDir = gitDir.equals(key.watchable());
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW || !isGitDir) {
+            // Anything at all under refs/ can move a branch or a tag.
+            stale = true;
+          } else if (WATCHED_FILES.contains(String.valueOf(event.context()))) {
+            stale = true;
+          }
+        }
+        if (!key.reset()) {
+          stale = true;
+        }
+      }
+      return stale;
+    }
+
+    void close() {
+      GitInfoCache.close(watcher);
+    }
+  }
+}
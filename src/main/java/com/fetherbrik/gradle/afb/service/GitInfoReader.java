@@ -0,0 +1,164 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.domain.GitInfo;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the state of the git working copy ('git describe --long --always', HEAD and its commit time, branch and
+ * clean/dirty status) into a {@link GitInfo}. The individual reads are independent, so they run concurrently on a small executor.
+ */
+public class GitInfoReader {
+
+  private static final Logger LOG = Logging.getLogger(GitInfoReader.class);
+
+  private final boolean useDaemonCache;
+  private final GitDirtyDetector dirtyDetector;
+  private final File tagIndexFile;
+
+  /**
+   * @param useDaemonCache Re-use the describe, hash and branch computed by an earlier build in this JVM until the
+   *                       repository's refs change. See {@link GitInfoCache}.
+   * @param dirtyDetector  Determines the clean/dirty state of the working copy.
+   * @param tagIndexFile   Where to keep the {@link GitTagIndex} used to answer describe, or null to use JGit's describe.
+   */
+  public GitInfoReader(boolean useDaemonCache, GitDirtyDetector dirtyDetector, @Nullable File tagIndexFile) {
+    this.useDaemonCache = useDaemonCache;
+    this.dirtyDetector = dirtyDetector;
+    this.tagIndexFile = tagIndexFile;
+  }
+
+  public GitInfo read(Repository repository, String gitRoot) {
+    if (repository.isBare()) {
+      throw new RuntimeException("Another Fine Build requires a project that is part of a working git repository.");
+    }
+    long start = System.nanoTime();
+    Queue<String> timings = new ConcurrentLinkedQueue<>();
+    Executor executor = SharedExecutor.INSTANCE;
+    // The status scan is working tree I/O, describe is object database I/O: neither waits on the other.
+    CompletableFuture<Boolean> isDirty = supplyTimed("status", () -> dirtyDetector.isDirty(repository), timings, executor);
+    GitInfo refState = useDaemonCache
+                       ? GitInfoCache.instance().get(repository.getDirectory(), () -> readRefState(repository, gitRoot, timings, executor))
+                       : readRefState(repository, gitRoot, timings, executor);
+    GitInfo result = new GitInfo.Builder().from(refState).isDirty(join(isDirty)).build();
+    LOG.info("AFB: Read git info in " + elapsedMillis(start) + "ms (" + String.join(", ", timings) + ").");
+    return result;
+  }
+
+  private GitInfo readRefState(Repository repository, String gitRoot, Queue<String> timings, Executor executor) {
+    CompletableFuture<String> describe = supplyTimed("describe", () -> describe(repository), timings, executor);
+    CompletableFuture<String> hash = supplyTimed("HEAD", () -> {
+      ObjectId head = repository.resolve("HEAD");
+      if (head == null) {
+        throw new RuntimeException("Another Fine Build requires a project that is part of a working git repository. Have you made any commits?");
+      }
+      return head.name();
+    }, timings, executor);
+    CompletableFuture<String> branchName = supplyTimed("branch", repository::getBranch, timings, executor);
+    CompletableFuture<Integer> commitTime = hash.thenApplyAsync(head -> {
+      try (RevWalk walk = new RevWalk(repository)) {
+        return walk.parseCommit(ObjectId.fromString(head)).getCommitTime();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, executor);
+
+    String hashValue = join(hash);
+    String describeValue = join(describe);
+    LOG.info("AFB: Found git describe string '" + describeValue + "'.");
+    return new GitInfo.Builder()
+      .gitRoot(gitRoot)
+      .hash(hashValue)
+      .commitTime(join(commitTime))
+      .describe(describeValue)
+      .branchName(join(branchName))
+      .build();
+  }
+
+  private String describe(Repository repository) throws IOException, GitAPIException {
+    if (tagIndexFile != null) {
+      try {
+        GitTagIndex index = GitTagIndex.load(tagIndexFile, repository);
+        String describe = index.describe(repository, repository.resolve("HEAD"));
+        index.save();
+        return describe;
+      } catch (IOException e) {
+        LOG.info("AFB: Could not use the git tag index '" + tagIndexFile + "', falling back to git describe: " + e.getMessage());
+      }
+    }
+    return new Git(repository).describe().setLong(true).setAlways(true).call();
+  }
+
+  private static <T> CompletableFuture<T> supplyTimed(String name, Callable<T> step, Queue<String> timings, Executor executor) {
+    return CompletableFuture.supplyAsync(() -> {
+      long start = System.nanoTime();
+      try {
+        return step.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      } finally {
+        timings.add(name + " " + elapsedMillis(start) + "ms on " + Thread.currentThread().getName());
+      }
+    }, executor);
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * The executor of every read in this JVM, created on first use: a daemon runs many builds, and creating threads for
+   * each read would cost part of what running the reads concurrently saves. Only the caller joins on the steps, so
+   * concurrent reads can share the threads. Idle threads go away after a minute.
+   */
+  private static final class SharedExecutor {
+    static final ExecutorService INSTANCE = create();
+
+    private static ExecutorService create() {
+      AtomicInteger count = new AtomicInteger();
+      ThreadFactory threads = runnable -> {
+        Thread thread = new Thread(runnable, "afb-git-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(3, 3, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threads);
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.domain.GitInfo;
+import com.fetherbrik.gradle.afb.domain.configuration.GitConfig;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+
+import java.io.File;
+
+/**
+ * Hydrates the {@link GitInfo} for a git root as a Gradle {@link ValueSource}.
+ * <p>
+ * Gradle treats every value source obtained during configuration as an input to the configuration cache: on the next
+ * build the source is obtained again and the cached configuration is only reused if HEAD, the refs and the working tree
+ * state still produce an equal {@link GitInfo}.
+ */
+public abstract class GitInfoValueSource implements ValueSource<GitInfo, GitInfoValueSource.Parameters> {
+
+  public interface Parameters extends ValueSourceParameters {
+    Property<String> getGitRoot();
+
+    Property<GitRepositoryService> getRepositories();
+
+    Property<Boolean> getDaemonCache();
+
+    Property<Boolean> getIgnoreUntracked();
+
+    Property<Boolean> getIgnoreSubmodules();
+
+    /**
+     * Where to keep the {@link GitTagIndex}. Absent to use JGit's describe instead.
+     */
+    Property<File> getTagIndexFile();
+  }
+
+  /**
+   * @param git     Read when the value is first obtained, so it may still be configured after this call.
+   * @param rootDir The root directory of the build, which holds the tag index.
+   */
+  public static Provider<GitInfo> of(ProviderFactory providers, GitConfig git, Provider<GitRepositoryService> repositories, File rootDir) {
+    return providers.of(GitInfoValueSource.class, spec -> {
+      spec.getParameters().getGitRoot().set(providers.provider(git::getGitRoot));
+      spec.getParameters().getRepositories().set(repositories);
+      spec.getParameters().getDaemonCache().set(providers.provider(git::isDaemonCache));
+      spec.getParameters().getIgnoreUntracked().set(providers.provider(git::isIgnoreUntracked));
+      spec.getParameters().getIgnoreSubmodules().set(providers.provider(git::isIgnoreSubmodules));
+      spec.getParameters().getTagIndexFile().set(providers.provider(() -> git.isTagIndex() ? new File(rootDir, ".gradle/afb/tag-index.bin") : null));
+    });
+  }
+
+  @Override
+  public GitInfo obtain() {
+    Parameters parameters = getParameters();
+    String gitRoot = parameters.getGitRoot().get();
+    GitDirtyDetector dirtyDetector = new GitDirtyDetector(parameters.getIgnoreUntracked().getOrElse(false),
+                                                          parameters.getIgnoreSubmodules().getOrElse(false));
+    return new GitInfoReader(parameters.getDaemonCache().getOrElse(true), dirtyDetector, parameters.getTagIndexFile().getOrNull())
+      .read(parameters.getRepositories().get().repository(gitRoot), gitRoot);
+  }
+}
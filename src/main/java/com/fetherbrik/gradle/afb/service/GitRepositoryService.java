@@ -0,0 +1,69 @@
+package com.fetherbrik.gradle.afb.service;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Owns one JGit {@link Repository} per git directory for the lifetime of a build, so that opening the repository,
+ * loading the pack indexes and scanning the refs is paid for once no matter how many projects (or included builds) ask
+ * for it. Gradle closes the service, and with it every repository, when the build finishes.
+ */
+public abstract class GitRepositoryService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+
+  public static final String NAME = "afbGitRepositories";
+
+  private final Map<File, Repository> repositories = new ConcurrentHashMap<>();
+
+  /**
+   * Register the service on the outermost build, so that every included build of a composite shares the same
+   * repositories.
+   */
+  public static Provider<GitRepositoryService> register(Gradle gradle) {
+    Gradle root = gradle;
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    return root.getSharedServices().registerIfAbsent(NAME, GitRepositoryService.class, spec -> {
+    });
+  }
+
+  /**
+   * @param gitRoot A directory inside a git working copy.
+   * @return The shared repository for the working copy containing 'gitRoot'. Callers must not close it.
+   */
+  public Repository repository(String gitRoot) {
+    FileRepositoryBuilder builder = new FileRepositoryBuilder().findGitDir(new File(gitRoot)) // scan up the file system tree
+                                                               .readEnvironment(); // scan environment GIT_* variables
+    if (builder.getGitDir() == null) {
+      throw new RuntimeException("Another Fine Build requires a project that is part of a working git repository.");
+    }
+    File gitDir;
+    try {
+      gitDir = builder.getGitDir().getCanonicalFile();
+    } catch (IOException e) {
+      throw new RuntimeException("Could not determine canonical path for git directory '" + builder.getGitDir() + "'", e);
+    }
+    return repositories.computeIfAbsent(gitDir, dir -> {
+      try {
+        return builder.build();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  @Override
+  public void close() {
+    repositories.values().forEach(Repository::close);
+    repositories.clear();
+  }
+}
@@ -0,0 +1,449 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.domain.SemverParser;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevFlagSet;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * An on-disk index of the repository's annotated semver tags, used to answer 'git describe --long --always' without
+ * walking and matching the whole history.
+ * <p>
+ * The index holds every tag ref with the commit it peels to, and remembers the describe result of recently described
+ * commits. On load, only tags whose ref is new or has moved since the index was written are peeled again, and only the
+ * remembered results those tags can change are dropped. Describing a commit walks back only until it reaches tagged or
+ * remembered commits, across merges too: a remembered commit stands for its tag, at its distance.
+ */
+public final class GitTagIndex {
+
+  private static final Logger LOG = Logging.getLogger(GitTagIndex.class);
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAX_CANDIDATES = 10;
+  private static final int MAX_REMEMBERED = 64;
+
+  private final File file;
+  private final Map<String, Tag> tagsByRef;
+  private final Map<ObjectId, Tag> tagsByCommit = new HashMap<>();
+  private final Map<ObjectId, Described> described;
+  private boolean modified;
+
+  private GitTagIndex(File file, Map<String, Tag> tagsByRef, Map<ObjectId, Described> described) {
+    this.file = file;
+    this.tagsByRef = tagsByRef;
+    this.described = described;
+  }
+
+  /**
+   * Read the index from 'file' (if present) and bring it up to date with the tags currently in the repository.
+   */
+  public static GitTagIndex load(File file, Repository repository) throws IOException {
+    GitTagIndex index = file.isFile() ? read(file) : new GitTagIndex(file, new LinkedHashMap<>(), newDescribedMap());
+    index.update(repository);
+    return index;
+  }
+
+  /**
+   * Equivalent to 'git describe --long --always' considering annotated semver tags only.
+   */
+  public String describe(Repository repository, ObjectId target) throws IOException {
+    try (RevWalk walk = new RevWalk(repository)) {
+      ObjectReader reader = walk.getObjectReader();
+      RevCommit head = walk.parseCommit(target);
+      Described result = described.get(head);
+      if (result == null) {
+        result = describe(walk, head);
+        if (result != null) {
+          described.put(head.copy(), result);
+          modified = true;
+        }
+      }
+      String abbreviated = reader.abbreviate(head).name();
+      return result == null ? abbreviated : String.format("%s-%d-g%s", result.tagName, result.distance, abbreviated);
+    }
+  }
+
+  /**
+   * Write the index back to disk, if anything changed since it was loaded.
+   */
+  public void save() throws IOException {
+    if (!modified) {
+      return;
+    }
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory '" + parent + "'.");
+    }
+    File temp = File.createTempFile(file.getName(), ".tmp", parent);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(tagsByRef.size());
+      for (Tag tag : tagsByRef.values()) {
+        out.writeUTF(tag.refName);
+        writeId(out, tag.refId);
+        writeId(out, tag.commit);
+        out.writeLong(tag.taggerTime);
+      }
+      out.writeInt(described.size());
+      for (Map.Entry<ObjectId, Described> entry : described.entrySet()) {
+        writeId(out, entry.getKey());
+        out.writeUTF(entry.getValue().tagName);
+        out.writeInt(entry.getValue().distance);
+      }
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    modified = false;
+  }
+
+  private static GitTagIndex read(File file) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        return new GitTagIndex(file, new LinkedHashMap<>(), newDescribedMap());
+      }
+      int tagCount = in.readInt();
+      Map<String, Tag> tags = new LinkedHashMap<>();
+      for (int i = 0; i < tagCount; i++) {
+        Tag tag = new Tag(in.readUTF(), readId(in), readId(in), in.readLong());
+        tags.put(tag.refName, tag);
+      }
+      int describedCount = in.readInt();
+      Map<ObjectId, Described> described = newDescribedMap();
+      for (int i = 0; i < describedCount; i++) {
+        described.put(readId(in), new Described(in.readUTF(), in.readInt()));
+      }
+      return new GitTagIndex(file, tags, described);
+    } catch (IOException e) {
+      LOG.info("AFB: Discarding unreadable git tag index '" + file + "': " + e.getMessage());
+      return new GitTagIndex(file, new LinkedHashMap<>(), newDescribedMap());
+    }
+  }
+
+  private void update(Repository repository) throws IOException {
+    List<Ref> refs = repository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS);
+    Map<String, Tag> current = new LinkedHashMap<>();
+    List<Tag> added = new ArrayList<>();
+    try (RevWalk walk = new RevWalk(repository)) {
+      for (Ref ref : refs) {
+        Tag known = tagsByRef.get(ref.getName());
+        if (known != null && known.refId.equals(ref.getObjectId())) {
+          current.put(ref.getName(), known);
+        } else {
+          Tag tag = peel(walk, ref);
+          current.put(ref.getName(), tag);
+          added.add(tag);
+        }
+      }
+    }
+    List<Tag> removed = new ArrayList<>();
+    for (Tag tag : tagsByRef.values()) {
+      if (current.get(tag.refName) != tag) {
+        removed.add(tag);
+      }
+    }
+    for (Tag tag : current.values()) {
+      if (tag.commit != null && isSemver(tag.tagName())) {
+        tagsByCommit.merge(tag.commit, tag, (a, b) -> a.taggerTime >= b.taggerTime ? a : b);
+      }
+    }
+    if (!added.isEmpty() || !removed.isEmpty()) {
+      tagsByRef.clear();
+      tagsByRef.putAll(current);
+      int remembered = described.size();
+      forget(repository, added, removed);
+      LOG.info("AFB: Git tag index updated: " + added.size() + " new or moved tags, " + current.size() + " tags in total, "
+               + (remembered - described.size()) + " of " + remembered + " remembered results dropped.");
+      modified = true;
+    }
+  }
+
+  /**
+   * Drop the remembered results that changed tags can make wrong: those naming a tag that was removed or has moved, and
+   * those of commits that reach the commit of a new tag without passing another tagged commit (a tag behind another
+   * tagged commit is never nearer). The other results still hold.
+   */
+  private void forget(Repository repository, List<Tag> added, List<Tag> removed) throws IOException {
+    Set<String> removedNames = new HashSet<>();
+    for (Tag tag : removed) {
+      removedNames.add(tag.tagName());
+    }
+    described.values().removeIf(result -> removedNames.contains(result.tagName));
+    Set<ObjectId> addedCommits = new HashSet<>();
+    for (Tag tag : added) {
+      if (tag.commit != null && isSemver(tag.tagName())) {
+        addedCommits.add(tag.commit);
+      }
+    }
+    if (addedCommits.isEmpty() || described.isEmpty()) {
+      return;
+    }
+    Map<ObjectId, Boolean> reaches = new HashMap<>();
+    try (RevWalk walk = new RevWalk(repository)) {
+      for (ObjectId commit : new ArrayList<>(described.keySet())) {
+        if (reachesAny(walk, commit, addedCommits, reaches)) {
+          described.remove(commit);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param decided Whether each remembered commit checked so far reaches one of 'targets'; updated with 'start'.
+   * @return Whether 'start' reaches one of 'targets' without passing a tagged commit that is not one of them.
+   */
+  private boolean reachesAny(RevWalk walk, ObjectId start, Set<ObjectId> targets, Map<ObjectId, Boolean> decided) throws IOException {
+    Deque<RevCommit> pending = new ArrayDeque<>();
+    Set<ObjectId> visited = new HashSet<>();
+    pending.push(walk.parseCommit(start));
+    boolean result = false;
+    while (!result && !pending.isEmpty()) {
+      RevCommit commit = pending.pop();
+      if (!visited.add(commit)) {
+        continue;
+      }
+      Boolean known = commit.equals(start) ? null : decided.get(commit);
+      if (targets.contains(commit)) {
+        result = true;
+      } else if (known != null) {
+        // A remembered commit checked before: the walk from it has been done.
+        result = known;
+      } else if (!tagsByCommit.containsKey(commit)) {
+        walk.parseHeaders(commit);
+        for (RevCommit parent : commit.getParents()) {
+          pending.push(parent);
+        }
+      }
+    }
+    decided.put(start.copy(), result);
+    return result;
+  }
+
+  /**
+   * @return The tag, with a null commit if it is a lightweight tag or does not peel to a commit.
+   */
+  private static Tag peel(RevWalk walk, Ref ref) throws IOException {
+    RevObject object = walk.parseAny(ref.getObjectId());
+    if (!(object instanceof RevTag)) {
+      return new Tag(ref.getName(), ref.getObjectId(), null, 0);
+    }
+    PersonIdent tagger = ((RevTag) object).getTaggerIdent();
+    RevObject target = walk.peel(object);
+    return new Tag(ref.getName(),
+                   ref.getObjectId(),
+                   target instanceof RevCommit ? target.copy() : null,
+                   tagger == null ? 0 : tagger.getWhen().getTime());
+  }
+
+  private Described describe(RevWalk walk, RevCommit head) throws IOException {
+    // Linear history back to a tagged or already described commit: the distance simply adds up.
+    RevCommit commit = head;
+    int steps = 0;
+    while (true) {
+      Tag tag = tagsByCommit.get(commit);
+      if (tag != null) {
+        return new Described(tag.tagName(), steps);
+      }
+      Described known = described.get(commit);
+      if (known != null) {
+        return new Described(known.tagName, known.distance + steps);
+      }
+      if (commit.getParentCount() != 1) {
+        break;
+      }
+      commit = walk.parseCommit(commit.getParent(0));
+      steps++;
+    }
+    if (commit.getParentCount() == 0) {
+      return null;
+    }
+    // No commit above the merge is tagged, so each of them adds one to the distance of the merge. Remember the merge
+    // too: the next describe of this branch will likely pass it.
+    Described merge = describeAcrossMerges(walk, commit);
+    if (merge == null) {
+      return null;
+    }
+    if (!commit.equals(head)) {
+      described.put(commit.copy(), merge);
+    }
+    return new Described(merge.tagName, merge.distance + steps);
+  }
+
+  /**
+   * As 'git describe': walk back from 'head', newest commits first, taking each tagged commit that no candidate found so
+   * far reaches as a candidate, and count the commits 'head' reaches but the candidate doesn't ('git rev-list --count
+   * candidate..head'). The candidate with the fewest wins; on a tie, the one with the newest tagged commit, which is the
+   * one 'git describe' finds first. One walk counts for every candidate, and it stops as soon as every commit left to
+   * walk is reached by all of them.
+   * <p>
+   * A remembered commit is a candidate as well, for its tag: the commits between that tag and 'head' are those between
+   * the remembered commit and 'head', plus those between the tag and the remembered commit.
+   */
+  private Described describeAcrossMerges(RevWalk walk, RevCommit head) throws IOException {
+    RevFlag seen = walk.newFlag("seen");
+    RevFlagSet candidateFlags = new RevFlagSet();
+    List<Candidate> candidates = new ArrayList<>();
+    PriorityQueue<RevCommit> queue = new PriorityQueue<>(Comparator.comparingInt(RevCommit::getCommitTime).reversed());
+    head.add(seen);
+    queue.add(head);
+    int walked = 0;
+    while (!queue.isEmpty() && (candidates.isEmpty() || !allReached(queue, candidateFlags))) {
+      RevCommit commit = queue.poll();
+      if (candidates.size() < MAX_CANDIDATES && !commit.hasAny(candidateFlags)) {
+        Tag tag = tagsByCommit.get(commit);
+        Described known = tag != null ? new Described(tag.tagName(), 0) : described.get(commit);
+        if (known != null) {
+          // Every commit walked so far is newer, so this one doesn't reach them.
+          int tagTime = tag != null ? commit.getCommitTime() : tagCommitTime(walk, known.tagName);
+          Candidate candidate = new Candidate(known, tagTime, walk.newFlag("candidate" + candidates.size()), walked);
+          commit.add(candidate.flag);
+          candidateFlags.add(candidate.flag);
+          candidates.add(candidate);
+        }
+      }
+      for (Candidate candidate : candidates) {
+        if (!commit.has(candidate.flag)) {
+          candidate.commits++;
+        }
+      }
+      walked++;
+      for (RevCommit parent : commit.getParents()) {
+        for (Candidate candidate : candidates) {
+          if (commit.has(candidate.flag)) {
+            parent.add(candidate.flag);
+          }
+        }
+        if (!parent.has(seen)) {
+          walk.parseHeaders(parent);
+          parent.add(seen);
+          queue.add(parent);
+        }
+      }
+    }
+    Described best = null;
+    int bestTagTime = 0;
+    for (Candidate candidate : candidates) {
+      int distance = candidate.commits + candidate.known.distance;
+      if (best == null || distance < best.distance || (distance == best.distance && candidate.tagTime > bestTagTime)) {
+        best = new Described(candidate.known.tagName, distance);
+        bestTagTime = candidate.tagTime;
+      }
+    }
+    return best;
+  }
+
+  private int tagCommitTime(RevWalk walk, String tagName) throws IOException {
+    Tag tag = tagsByRef.get(Constants.R_TAGS + tagName);
+    return tag == null || tag.commit == null ? 0 : walk.parseCommit(tag.commit).getCommitTime();
+  }
+
+  private static boolean allReached(PriorityQueue<RevCommit> queue, RevFlagSet flags) {
+    for (RevCommit commit : queue) {
+      if (!commit.hasAll(flags)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSemver(String tagName) {
+    return SemverParser.tryParse(tagName) != null;
+  }
+
+  private static Map<ObjectId, Described> newDescribedMap() {
+    return new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ObjectId, Described> eldest) {
+        return size() > MAX_REMEMBERED;
+      }
+    };
+  }
+
+  private static void writeId(DataOutputStream out, ObjectId id) throws IOException {
+    out.writeBoolean(id != null);
+    if (id != null) {
+      byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+      id.copyRawTo(raw, 0);
+      out.write(raw);
+    }
+  }
+
+  private static ObjectId readId(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    in.readFully(raw);
+    return ObjectId.fromRaw(raw);
+  }
+
+  private static final class Tag {
+    private final String refName;
+    private final ObjectId refId;
+    private final ObjectId commit;
+    private final long taggerTime;
+
+    private Tag(String refName, ObjectId refId, ObjectId commit, long taggerTime) {
+      this.refName = refName;
+      this.refId = refId;
+      this.commit = commit;
+      this.taggerTime = taggerTime;
+    }
+
+    String tagName() {
+      return Repository.shortenRefName(refName);
+    }
+  }
+
+  private static final class Candidate {
+    private final Described known;
+    private final int tagTime;
+    private final RevFlag flag;
+    private int commits;
+
+    private Candidate(Described known, int tagTime, RevFlag flag, int commits) {
+      this.known = known;
+      this.tagTime = tagTime;
+      this.flag = flag;
+      this.commits = commits;
+    }
+  }
+
+  private static final class Described {
+    private final String tagName;
+    private final int distance;
+
+    private Described(String tagName, int distance) {
+      this.tagName = tagName;
+      this.distance = distance;
+    }
+  }
+}
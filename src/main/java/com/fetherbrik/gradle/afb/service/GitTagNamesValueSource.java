@@ -0,0 +1,39 @@
+package com.fetherbrik.gradle.afb.service;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The short names of every tag in the repository, as a configuration cache input.
+ */
+public abstract class GitTagNamesValueSource implements ValueSource<ArrayList<String>, GitTagNamesValueSource.Parameters> {
+
+  public interface Parameters extends ValueSourceParameters {
+    Property<String> getGitRoot();
+
+    Property<GitRepositoryService> getRepositories();
+  }
+
+  @Override
+  public ArrayList<String> obtain() {
+    Repository repository = getParameters().getRepositories().get().repository(getParameters().getGitRoot().get());
+    try {
+      List<Ref> refs = repository.getRefDatabase().getRefsByPrefix(Constants.R_TAGS);
+      ArrayList<String> names = new ArrayList<>(refs.size());
+      for (Ref ref : refs) {
+        names.add(ref.getName().substring(Constants.R_TAGS.length()));
+      }
+      return names;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.service.oci.OciLayer;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes one image layer (see {@link OciLayer}). Layers are written through the Worker API so that the layers of a
+ * project are compressed in parallel.
+ */
+public abstract class OciLayerWorkAction implements WorkAction<OciLayerWorkAction.Parameters> {
+
+  private static final Logger logger = Logging.getLogger(OciLayerWorkAction.class);
+
+  public interface Parameters extends WorkParameters {
+    ConfigurableFileCollection getFiles();
+
+    Property<String> getDirectory();
+
+    Property<Long> getModificationTime();
+
+    DirectoryProperty getLayerDir();
+  }
+
+  @Override
+  public void execute() {
+    Parameters parameters = getParameters();
+    File layerDir = parameters.getLayerDir().get().getAsFile();
+    long start = System.currentTimeMillis();
+    try {
+      OciLayer layer = OciLayer.write(parameters.getDirectory().get(), parameters.getFiles().getFiles(), parameters.getModificationTime().get(), layerDir);
+      logger.info("AFB: Wrote layer '" + layer.directory + "' " + layer.digest + " (" + layer.size + " bytes) in "
+                  + (System.currentTimeMillis() - start) + "ms.");
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not write the image layer to '" + layerDir + "': " + e.getMessage(), e);
+    }
+  }
+}
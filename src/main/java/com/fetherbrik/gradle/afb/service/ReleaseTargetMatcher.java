@@ -0,0 +1,119 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.domain.VersionInfo;
+import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the release target for a version: the first target, in declaration order, whose 'versionMatches' pattern
+ * matches the full version (e.g. 'v1.2.3-RC.4') and whose 'buildTypeMatches' pattern, if any, matches the build type.
+ * <p>
+ * The patterns are compiled once, when the matcher is created from the configured targets; later changes to the
+ * targets are not seen. Results are remembered per (build type, version), so classifying the same versions again
+ * costs a map lookup.
+ */
+public final class ReleaseTargetMatcher {
+
+  private final ImmutableList<CompiledTarget> targets;
+  private final Map<Key, Optional<ReleaseTarget>> results = new ConcurrentHashMap<>();
+
+  private ReleaseTargetMatcher(ImmutableList<CompiledTarget> targets) {
+    this.targets = targets;
+  }
+
+  /**
+   * @param targets The release targets, in the order they should be tried.
+   */
+  public static ReleaseTargetMatcher of(Map<String, ReleaseTarget> targets) {
+    ImmutableList.Builder<CompiledTarget> compiled = ImmutableList.builder();
+    for (ReleaseTarget target : targets.values()) {
+      compiled.add(new CompiledTarget(target));
+    }
+    return new ReleaseTargetMatcher(compiled.build());
+  }
+
+  /**
+   * @param buildType The build type, or null if none is set: targets with a 'buildTypeMatches' pattern then never match.
+   * @param version   The full version, e.g. 'v1.2.3-RC.4'.
+   * @return The first matching target.
+   */
+  public Optional<ReleaseTarget> match(String buildType, String version) {
+    return results.computeIfAbsent(new Key(buildType, version), key -> {
+      for (CompiledTarget target : targets) {
+        if (target.matches(buildType, version)) {
+          return Optional.of(target.target);
+        }
+      }
+      return Optional.empty();
+    });
+  }
+
+  public Optional<ReleaseTarget> match(String buildType, VersionInfo version) {
+    return match(buildType, version.full);
+  }
+
+  /**
+   * Classify many versions at once, e.g. every tag of the repository: 'afb.resolveAll(afb.tags.all())'.
+   *
+   * @return The matching target of each version that has one, by full version (e.g. 'v1.2.3-RC.4'), in the order of
+   * 'versions'.
+   */
+  public Map<String, ReleaseTarget> resolveAll(String buildType, Collection<VersionInfo> versions) {
+    Map<String, ReleaseTarget> result = new LinkedHashMap<>();
+    for (VersionInfo version : versions) {
+      match(buildType, version).ifPresent(target -> result.put(version.full, target));
+    }
+    return result;
+  }
+
+  private static final class CompiledTarget {
+    private final ReleaseTarget target;
+    private final Pattern versionMatches;
+    private final Pattern buildTypeMatches;
+
+    private CompiledTarget(ReleaseTarget target) {
+      this.target = target;
+      this.versionMatches = ReleaseTarget.compile(target.getVersionMatches());
+      this.buildTypeMatches = ReleaseTarget.compile(target.getBuildTypeMatches());
+    }
+
+    private boolean matches(String buildType, String version) {
+      return ReleaseTarget.matches(versionMatches, buildTypeMatches, buildType, version);
+    }
+  }
+
+  private static final class Key {
+    private final String buildType;
+    private final String version;
+
+    private Key(String buildType, String version) {
+      this.buildType = buildType;
+      this.version = version;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return Objects.equals(buildType, key.buildType) && version.equals(key.version);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(buildType, version);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package com.fetherbrik.gradle.afb.service;
+
+import com.fetherbrik.gradle.afb.domain.SemverParser;
+import com.fetherbrik.gradle.afb.domain.VersionInfo;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Every semver tag of the repository, parsed and sorted by semver precedence, with 'latest version' style queries.
+ * <p>
+ * From a build script:
+ * <pre>
+ *   afb.tags.latest()                              // highest release version
+ *   afb.tags.latest(matching: '1.4.x')             // highest 1.4 release
+ *   afb.tags.latest(matching: '2.x', preRelease: true)
+ *   afb.tags.latestPreRelease('RC')                // highest '-RC.n' version
+ * </pre>
+ */
+public final class VersionTagIndex {
+
+  private final List<VersionInfo> versions;
+
+  private VersionTagIndex(List<VersionInfo> versions) {
+    this.versions = versions;
+  }
+
+  /**
+   * @param tagNames Short tag names, e.g. 'v1.2.3'. Names that are not semver versions are skipped.
+   */
+  public static VersionTagIndex of(Collection<String> tagNames) {
+    List<VersionInfo> versions = new ArrayList<>(tagNames.size());
+    for (String name : tagNames) {
+      VersionInfo version = SemverParser.tryParse(name);
+      if (version != null) {
+        versions.add(version);
+      }
+    }
+    versions.sort(null);
+    return new VersionTagIndex(ImmutableList.copyOf(versions));
+  }
+
+  /**
+   * @return All versions, lowest precedence first.
+   */
+  public List<VersionInfo> all() {
+    return versions;
+  }
+
+  /**
+   * @return The highest version that is not a pre-release.
+   */
+  public Optional<VersionInfo> latest() {
+    return last(version -> !version.hasPreRelease());
+  }
+
+  /**
+   * @param range An X-range such as '1.4.x', '1.x', '1.4.*' or '1.4'.
+   * @return The highest version within the range that is not a pre-release.
+   */
+  public Optional<VersionInfo> latest(String range) {
+    Predicate<VersionInfo> inRange = rangePredicate(range);
+    return last(version -> !version.hasPreRelease() && inRange.test(version));
+  }
+
+  /**
+   * Groovy named argument form: 'latest(matching: "1.4.x", preRelease: true)'. Both arguments are optional.
+   */
+  public Optional<VersionInfo> latest(Map<String, ?> args) {
+    Object range = args.get("matching");
+    Predicate<VersionInfo> inRange = range == null ? version -> true : rangePredicate(range.toString());
+    boolean includePreRelease = Boolean.TRUE.equals(args.get("preRelease"));
+    return last(version -> (includePreRelease || !version.hasPreRelease()) && inRange.test(version));
+  }
+
+  /**
+   * @param preId The pre-release id, e.g. 'RC' matches 'v1.2.3-RC.4' and 'v1.2.3-RC4', but not 'v1.2.3-RCX'.
+   * @return The highest pre-release version with that id.
+   */
+  public Optional<VersionInfo> latestPreRelease(String preId) {
+    return last(version -> version.hasPreRelease() && hasPreReleaseId(version.preRelease.get(), preId));
+  }
+
+  /**
+   * @return All versions in the X-range, including pre-releases, lowest precedence first.
+   */
+  public List<VersionInfo> matching(String range) {
+    Predicate<VersionInfo> inRange = rangePredicate(range);
+    List<VersionInfo> result = new ArrayList<>();
+    for (VersionInfo version : versions) {
+      if (inRange.test(version)) {
+        result.add(version);
+      }
+    }
+    return result;
+  }
+
+  private Optional<VersionInfo> last(Predicate<VersionInfo> predicate) {
+    for (int i = versions.size() - 1; i >= 0; i--) {
+      if (predicate.test(versions.get(i))) {
+        return Optional.of(versions.get(i));
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static boolean hasPreReleaseId(String preRelease, String preId) {
+    if (!preRelease.startsWith(preId)) {
+      return false;
+    }
+    if (preRelease.length() == preId.length()) {
+      return true;
+    }
+    char next = preRelease.charAt(preId.length());
+    return next == '.' || Character.isDigit(next);
+  }
+
+  private static Predicate<VersionInfo> rangePredicate(String range) {
+    String trimmed = range.trim();
+    if (trimmed.startsWith("v") || trimmed.startsWith("=")) {
+      trimmed = trimmed.substring(1);
+    }
+    String[] parts = trimmed.split("\\.");
+    if (parts.length > 3) {
+      throw new IllegalArgumentException("Version range '" + range + "' has more than three parts.");
+    }
+    Integer major = rangePart(parts, 0, range);
+    Integer minor = rangePart(parts, 1, range);
+    Integer patch = rangePart(parts, 2, range);
+    return version -> (major == null || version.major == major)
+                      && (minor == null || version.minor == minor)
+                      && (patch == null || version.patch == patch);
+  }
+
+  /**
+   * @return The value of the part, or null if it is a wildcard or missing.
+   */
+  private static Integer rangePart(String[] parts, int index, String range) {
+    if (index >= parts.length) {
+      return null;
+    }
+    String part = parts[index];
+    if (part.equals("x") || part.equals("X") || part.equals("*") || part.isEmpty()) {
+      return null;
+    }
+    try {
+      return Integer.parseInt(part);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Version range '" + range + "' must be made of numbers or 'x' wildcards.");
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts the build steps that came from the layer cache, from the build output passed through it: BuildKit's plain
+ * progress ('#5 [2/4] RUN ...', '#5 CACHED') or the classic builder's ('Step 2/4 : RUN ...', ' ---> Using cache').
+ * Base image steps (FROM) are not counted.
+ */
+public class BuildCacheStats implements DockerProgressListener {
+
+  private static final Pattern BUILDKIT_STEP = Pattern.compile("^#(\\d+) \\[[^\\]]*\\d+/\\d+\\] (\\w+)");
+  private static final Pattern BUILDKIT_CACHED = Pattern.compile("^#(\\d+) CACHED");
+  private static final Pattern CLASSIC_STEP = Pattern.compile("^Step \\d+/\\d+ : (\\w+)");
+
+  private final DockerProgressListener delegate;
+  private final Set<String> steps = new HashSet<>();
+  private final Set<String> cached = new HashSet<>();
+  private int classicSteps;
+  private int classicCached;
+
+  public BuildCacheStats(DockerProgressListener delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void onMessage(Map<String, Object> message) {
+    Object stream = message.get("stream");
+    if (stream != null) {
+      for (String line : String.valueOf(stream).split("\\n")) {
+        count(line.trim());
+      }
+    }
+    delegate.onMessage(message);
+  }
+
+  private synchronized void count(String line) {
+    Matcher step = BUILDKIT_STEP.matcher(line);
+    if (step.find()) {
+      if (!step.group(2).equalsIgnoreCase("FROM")) {
+        steps.add(step.group(1));
+      }
+      return;
+    }
+    Matcher hit = BUILDKIT_CACHED.matcher(line);
+    if (hit.find()) {
+      cached.add(hit.group(1));
+      return;
+    }
+    Matcher classic = CLASSIC_STEP.matcher(line);
+    if (classic.find()) {
+      if (!classic.group(1).equalsIgnoreCase("FROM")) {
+        classicSteps++;
+      }
+    } else if (line.equals("---> Using cache")) {
+      classicCached++;
+    }
+  }
+
+  public synchronized int steps() {
+    return steps.size() + classicSteps;
+  }
+
+  public synchronized int cachedSteps() {
+    int hits = classicCached;
+    for (String step : cached) {
+      if (steps.contains(step)) {
+        hits++;
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * @return E.g. '3 of 4 steps cached (75%)'.
+   */
+  public String summary() {
+    int total = steps();
+    int hits = cachedSteps();
+    return hits + " of " + total + " steps cached (" + (total == 0 ? 0 : Math.round(100.0 * hits / total)) + "%)";
+  }
+}
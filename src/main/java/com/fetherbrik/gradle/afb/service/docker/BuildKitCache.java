@@ -0,0 +1,98 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The BuildKit layer cache of an image: 'local', a directory, or the reference of a registry cache, e.g.
+ * 'registry.example.org/org/app:buildcache'. Gives the '--cache-from' and '--cache-to' values of 'docker buildx build'
+ * (and of the targets of 'docker buildx bake').
+ * <p>
+ * BuildKit adds to a local cache without ever pruning it, so a local cache is exported to a fresh directory next to
+ * it, and {@link #exported()} replaces the old one with it once the build is done.
+ */
+public final class BuildKitCache {
+
+  public final String ref;
+  /**
+   * The directory of a 'local' cache.
+   */
+  public final File dir;
+  /**
+   * When false, the cache is only imported.
+   */
+  public final boolean export;
+
+  public BuildKitCache(String ref, File dir, boolean export) {
+    this.ref = ref;
+    this.dir = dir;
+    this.export = export;
+  }
+
+  public boolean isLocal() {
+    return "local".equals(ref);
+  }
+
+  /**
+   * @return The caches to import: none for a local cache that hasn't been exported yet.
+   */
+  public List<String> cacheFrom() {
+    List<String> from = new ArrayList<>();
+    if (!isLocal()) {
+      from.add("type=registry,ref=" + ref);
+    } else if (new File(dir, "index.json").isFile()) {
+      from.add("type=local,src=" + dir);
+    }
+    return from;
+  }
+
+  /**
+   * @return The cache export, or null when the cache is only imported.
+   */
+  public String cacheTo() {
+    if (!export) {
+      return null;
+    }
+    return isLocal() ? "type=local,dest=" + nextDir() + ",mode=max" : "type=registry,ref=" + ref + ",mode=max";
+  }
+
+  /**
+   * Replace a local cache with the one just exported, which only holds the layers of this build.
+   */
+  public void exported() {
+    if (!isLocal() || !export) {
+      return;
+    }
+    Path current = dir.toPath();
+    try {
+      deleteRecursively(current);
+      Files.createDirectories(current.getParent());
+      Files.move(nextDir().toPath(), current, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not move the exported build cache to '" + current + "'.", e);
+    }
+  }
+
+  private File nextDir() {
+    return new File(dir.getParentFile(), dir.getName() + ".new");
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(dir)) {
+      List<Path> sorted = new ArrayList<>();
+      paths.forEach(sorted::add);
+      for (int i = sorted.size() - 1; i >= 0; i--) {
+        Files.delete(sorted.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests, as registries and image layouts name content: 'sha256:&lt;hex&gt;'.
+ */
+public final class Digests {
+
+  private Digests() {
+  }
+
+  public static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * @return The digest of 'digest', e.g. 'sha256:e39786e...'.
+   */
+  public static String of(MessageDigest digest) {
+    return "sha256:" + hex(digest.digest());
+  }
+
+  public static String sha256(byte[] content) {
+    MessageDigest digest = newSha256();
+    digest.update(content);
+    return of(digest);
+  }
+
+  public static String sha256(File file) throws IOException {
+    MessageDigest digest = newSha256();
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return of(digest);
+  }
+
+  /**
+   * @return The hex part of 'digest': 'sha256:abc' gives 'abc'.
+   */
+  public static String encoded(String digest) {
+    return digest.substring(digest.indexOf(':') + 1);
+  }
+}
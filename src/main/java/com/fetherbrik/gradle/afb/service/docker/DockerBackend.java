@@ -0,0 +1,68 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The docker operations the plugin needs. {@link DockerEngineBackend} calls the Engine API over the daemon socket;
+ * {@link DockerCliBackend} runs the 'docker' command, and is used when the socket can't be reached. Failures are
+ * thrown as RuntimeExceptions.
+ */
+public interface DockerBackend {
+
+  /**
+   * Build an image, tagging it with each of the request's tags.
+   *
+   * @return The id of the image, e.g. 'sha256:e39786e...'.
+   */
+  String build(DockerBuildRequest request, DockerProgressListener listener);
+
+  /**
+   * Apply every tag of 'targets' to 'image', in one call.
+   */
+  void tag(String image, List<String> targets);
+
+  /**
+   * Check (and, for the CLI, store) the credentials.
+   */
+  void login(DockerCredentials credentials);
+
+  /**
+   * @param credentials May be null for registries that don't require authentication.
+   */
+  void push(String image, DockerCredentials credentials, DockerProgressListener listener);
+
+  /**
+   * @return The id of 'image', or empty if the daemon doesn't have it.
+   */
+  Optional<String> imageId(String image);
+
+  /**
+   * @return The registry digests docker knows for 'image', e.g. 'registry.example.org/org/app@sha256:...', from earlier
+   * pushes and pulls.
+   */
+  List<String> repoDigests(String image);
+
+  /**
+   * @return The id of an image labelled 'label=value', or empty if there is none.
+   */
+  Optional<String> findImage(String label, String value);
+
+  /**
+   * Write 'image' to 'archive', in the 'docker save' format.
+   */
+  void save(String image, File archive);
+
+  /**
+   * Load an archive written by {@link #save}.
+   *
+   * @return The id of the loaded image.
+   */
+  String load(File archive, DockerProgressListener listener);
+
+  /**
+   * @return A short description for log messages, e.g. 'Docker Engine API at unix:///var/run/docker.sock'.
+   */
+  String describe();
+}
@@ -0,0 +1,73 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.process.ExecOperations;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Chooses the docker backend named by DockerConfig.backend.
+ */
+public final class DockerBackends {
+
+  public static final String AUTO = "auto";
+  public static final String ENGINE = "engine";
+  public static final String CLI = "cli";
+
+  private static final AtomicBoolean unsupportedLogged = new AtomicBoolean();
+
+  private DockerBackends() {
+  }
+
+  public static DockerBackend create(String kind, ExecOperations execOperations, Logger logger) {
+    return create(kind, System.getenv(), execOperations, logger);
+  }
+
+  /**
+   * 'engine' uses the Engine API at DOCKER_HOST (default: the unix socket), 'cli' runs the docker command, and 'auto'
+   * uses the Engine API when the daemon answers, else the CLI. The unix socket needs Java 16 or newer: on older
+   * runtimes 'engine' fails and 'auto' says once, at lifecycle level, that it uses the CLI.
+   */
+  public static DockerBackend create(String kind, Map<String, String> environment, ExecOperations execOperations, Logger logger) {
+    String backend = kind == null ? AUTO : kind;
+    switch (backend) {
+      case CLI:
+        return new DockerCliBackend(execOperations);
+      case ENGINE: {
+        DockerTransport transport = DockerTransport.fromEnvironment(environment);
+        transport.unsupportedReason().ifPresent(reason -> {
+          throw new RuntimeException("AFB: Can't use the 'engine' docker backend. " + reason);
+        });
+        return new DockerEngineBackend(new DockerEngineClient(transport));
+      }
+      case AUTO:
+        DockerTransport transport;
+        try {
+          transport = DockerTransport.fromEnvironment(environment);
+        } catch (RuntimeException e) {
+          logger.info(e.getMessage() + " Using the docker CLI.");
+          return new DockerCliBackend(execOperations);
+        }
+        Optional<String> unsupported = transport.unsupportedReason();
+        if (unsupported.isPresent()) {
+          if (unsupportedLogged.compareAndSet(false, true)) {
+            logger.lifecycle("AFB: " + unsupported.get() + " Using the docker CLI.");
+          } else {
+            logger.info("AFB: " + unsupported.get() + " Using the docker CLI.");
+          }
+          return new DockerCliBackend(execOperations);
+        }
+        DockerEngineBackend engine = new DockerEngineBackend(new DockerEngineClient(transport));
+        if (engine.ping()) {
+          logger.info("AFB: Using the " + engine.describe());
+          return engine;
+        }
+        logger.info("AFB: The " + engine.describe() + " is not reachable, using the docker CLI.");
+        return new DockerCliBackend(execOperations);
+      default:
+        throw new RuntimeException("AFB: Unknown docker backend '" + kind + "'. Expected one of 'auto', 'engine' or 'cli'.");
+    }
+  }
+}
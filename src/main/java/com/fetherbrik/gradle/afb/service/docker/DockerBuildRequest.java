@@ -0,0 +1,173 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public final class DockerBuildRequest {
+
+  /**
+   * The image label that holds the {@link #fingerprint()} of the request the image was built from.
+   */
+  public static final String FINGERPRINT_LABEL = "com.fetherbrik.afb.fingerprint";
+
+  public final DockerContext context;
+  public final String dockerFile;
+  public final List<String> tags;
+  public final Map<String, String> buildArgs;
+  public final Map<String, String> labels;
+  /**
+   * BuildKit cache sources, e.g. 'type=local,src=/path' or 'type=registry,ref=registry.example.org/org/app:cache'.
+   */
+  public final List<String> cacheFrom;
+  /**
+   * The BuildKit cache export, e.g. 'type=local,dest=/path,mode=max', or null.
+   */
+  public final String cacheTo;
+  /**
+   * The buildx builder for builds that use a BuildKit cache.
+   */
+  public final String builder;
+
+  private DockerBuildRequest(Builder builder) {
+    context = builder.context;
+    dockerFile = builder.dockerFile;
+    tags = ImmutableList.copyOf(builder.tags);
+    buildArgs = ImmutableMap.copyOf(builder.buildArgs);
+    labels = ImmutableMap.copyOf(builder.labels);
+    cacheFrom = ImmutableList.copyOf(builder.cacheFrom);
+    cacheTo = builder.cacheTo;
+    this.builder = builder.builder;
+  }
+
+  public boolean usesBuildKitCache() {
+    return !cacheFrom.isEmpty() || cacheTo != null;
+  }
+
+  /**
+   * A SHA-256 of what determines the image: the names, modes and content of the context files (but not their times),
+   * the Dockerfile path, the build args and the labels. Tags are not included: images that differ only by their tags
+   * have the same fingerprint. Neither are the images the Dockerfile starts FROM: a base image that changes under the
+   * same tag leaves the fingerprint as it was.
+   */
+  public String fingerprint() {
+    MessageDigest digest = Digests.newSha256();
+    try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      TarWriter tar = new TarWriter(out, 0L);
+      context.writeTo(tar);
+      tar.finish();
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not read the docker build context: " + e.getMessage(), e);
+    }
+    digest.update(("\ndockerfile=" + dockerFile).getBytes(StandardCharsets.UTF_8));
+    new TreeMap<>(buildArgs).forEach((key, value) -> digest.update(("\narg:" + key + "=" + value).getBytes(StandardCharsets.UTF_8)));
+    new TreeMap<>(labels).forEach((key, value) -> digest.update(("\nlabel:" + key + "=" + value).getBytes(StandardCharsets.UTF_8)));
+    return Digests.hex(digest.digest());
+  }
+
+  public static final class Builder {
+    private DockerContext context;
+    private String dockerFile = "Dockerfile";
+    private List<String> tags = new ArrayList<>();
+    private Map<String, String> buildArgs = new LinkedHashMap<>();
+    private Map<String, String> labels = new LinkedHashMap<>();
+    private List<String> cacheFrom = new ArrayList<>();
+    private String cacheTo;
+    private String builder;
+
+    public Builder() {
+    }
+
+    public Builder context(DockerContext context) {
+      this.context = context;
+      return this;
+    }
+
+    public Builder contextDir(File contextDir) {
+      return context(DockerContext.directory(contextDir));
+    }
+
+    /**
+     * The path of the Dockerfile in the context.
+     */
+    public Builder dockerFile(String dockerFile) {
+      this.dockerFile = dockerFile;
+      return this;
+    }
+
+    public Builder tags(List<String> tags) {
+      this.tags = new ArrayList<>(tags);
+      return this;
+    }
+
+    public Builder tag(String tag) {
+      this.tags.add(tag);
+      return this;
+    }
+
+    public Builder buildArgs(Map<String, String> buildArgs) {
+      this.buildArgs = new LinkedHashMap<>(buildArgs);
+      return this;
+    }
+
+    public Builder labels(Map<String, String> labels) {
+      this.labels = new LinkedHashMap<>(labels);
+      return this;
+    }
+
+    public Builder label(String key, String value) {
+      this.labels.put(key, value);
+      return this;
+    }
+
+    public Builder cacheFrom(List<String> cacheFrom) {
+      this.cacheFrom = new ArrayList<>(cacheFrom);
+      return this;
+    }
+
+    public Builder cacheTo(String cacheTo) {
+      this.cacheTo = cacheTo;
+      return this;
+    }
+
+    public Builder builder(String builder) {
+      this.builder = builder;
+      return this;
+    }
+
+    public Builder from(DockerBuildRequest copy) {
+      context = copy.context;
+      dockerFile = copy.dockerFile;
+      tags = new ArrayList<>(copy.tags);
+      buildArgs = new LinkedHashMap<>(copy.buildArgs);
+      labels = new LinkedHashMap<>(copy.labels);
+      cacheFrom = new ArrayList<>(copy.cacheFrom);
+      cacheTo = copy.cacheTo;
+      builder = copy.builder;
+      return this;
+    }
+
+    public Builder copy() {
+      return new Builder().context(context).dockerFile(dockerFile).tags(tags).buildArgs(buildArgs).labels(labels)
+                          .cacheFrom(cacheFrom).cacheTo(cacheTo).builder(builder);
+    }
+
+    public DockerBuildRequest build() {
+      if (context == null) {
+        throw new RuntimeException("AFB: A docker build requires a context.");
+      }
+      return new DockerBuildRequest(this);
+    }
+  }
+}
@@ -0,0 +1,312 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the 'docker' command. Each line of output is passed to the progress listener as a 'stream' message.
+ */
+public class DockerCliBackend implements DockerBackend {
+
+  private final ExecOperations execOperations;
+
+  public DockerCliBackend(ExecOperations execOperations) {
+    this.execOperations = execOperations;
+  }
+
+  @Override
+  public String build(DockerBuildRequest request, DockerProgressListener listener) {
+    File idFile;
+    try {
+      idFile = File.createTempFile("afb-docker-build", ".iid");
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not create a temporary file for the docker image id.", e);
+    }
+    try {
+      List<String> args = new ArrayList<>();
+      if (request.usesBuildKitCache()) {
+        ensureBuilder(request.builder);
+        args.addAll(List.of("buildx", "build", "--builder", request.builder, "--load", "--progress", "plain"));
+        for (String source : request.cacheFrom) {
+          args.add("--cache-from");
+          args.add(source);
+        }
+        if (request.cacheTo != null) {
+          args.add("--cache-to");
+          args.add(request.cacheTo);
+        }
+      } else {
+        args.add("build");
+      }
+      args.add("--iidfile");
+      args.add(idFile.getAbsolutePath());
+      for (String tag : request.tags) {
+        args.add("--tag");
+        args.add(tag);
+      }
+      for (Map.Entry<String, String> arg : request.buildArgs.entrySet()) {
+        args.add("--build-arg");
+        args.add(arg.getKey() + "=" + arg.getValue());
+      }
+      for (Map.Entry<String, String> label : request.labels.entrySet()) {
+        args.add("--label");
+        args.add(label.getKey() + "=" + label.getValue());
+      }
+      Optional<File> contextDir = request.context.directory();
+      if (contextDir.isPresent()) {
+        args.add("--file");
+        args.add(new File(contextDir.get(), request.dockerFile).getAbsolutePath());
+        args.add(contextDir.get().getAbsolutePath());
+        run("Docker build failed", args, null, listener);
+      } else {
+        // 'docker build -' reads the context as a tar stream; the Dockerfile is a path in it.
+        args.add("--file");
+        args.add(request.dockerFile);
+        args.add("-");
+        buildFromStream(args, request.context, listener);
+      }
+      return new String(Files.readAllBytes(idFile.toPath()), StandardCharsets.UTF_8).trim();
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not read the docker image id.", e);
+    } finally {
+      idFile.delete();
+    }
+  }
+
+  /**
+   * Create the buildx builder 'name' with the docker-container driver, which can export caches, if it doesn't exist.
+   */
+  private void ensureBuilder(String name) {
+    ExecResult inspect = execOperations.exec(spec -> {
+      spec.commandLine("docker", "buildx", "inspect", name);
+      spec.setStandardOutput(new ByteArrayOutputStream());
+      spec.setErrorOutput(new ByteArrayOutputStream());
+      spec.setIgnoreExitValue(true);
+    });
+    if (inspect.getExitValue() != 0) {
+      run("Could not create the buildx builder '" + name + "'",
+          List.of("buildx", "create", "--name", name, "--driver", "docker-container"),
+          null,
+          message -> { });
+    }
+  }
+
+  /**
+   * Write the context to the standard input of 'docker build -' from a second thread.
+   */
+  private void buildFromStream(List<String> args, DockerContext context, DockerProgressListener listener) throws IOException {
+    PipedOutputStream pipe = new PipedOutputStream();
+    PipedInputStream input = new PipedInputStream(pipe, 64 * 1024);
+    IOException[] writeFailure = new IOException[1];
+    Thread writer = new Thread(() -> {
+      try (OutputStream out = pipe) {
+        TarWriter tar = new TarWriter(out);
+        context.writeTo(tar);
+        tar.finish();
+      } catch (IOException e) {
+        writeFailure[0] = e;
+      }
+    }, "afb-docker-context");
+    writer.setDaemon(true);
+    writer.start();
+    try {
+      run("Docker build failed", args, input, listener);
+    } finally {
+      input.close();
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (writeFailure[0] != null) {
+      throw new RuntimeException("AFB: Could not write the docker build context: " + writeFailure[0].getMessage(), writeFailure[0]);
+    }
+  }
+
+  @Override
+  public void tag(String image, List<String> targets) {
+    for (String target : targets) {
+      run("Could not tag '" + image + "' as '" + target + "'", List.of("tag", image, target), null, message -> { });
+    }
+  }
+
+  @Override
+  public void login(DockerCredentials credentials) {
+    List<String> args = new ArrayList<>(List.of("login", "--username", credentials.username, "--password-stdin"));
+    if (!credentials.isHub()) {
+      args.add(credentials.serverAddress);
+    }
+    run("Could not log in to '" + credentials.serverAddress + "' as '" + credentials.username + "'",
+        args,
+        new ByteArrayInputStream(credentials.password.getBytes(StandardCharsets.UTF_8)),
+        message -> { });
+  }
+
+  /**
+   * The CLI pushes with the credentials stored by {@link #login}; 'credentials' is not used.
+   */
+  @Override
+  public void push(String image, DockerCredentials credentials, DockerProgressListener listener) {
+    run("Could not push '" + image + "'", List.of("push", image), null, listener);
+  }
+
+  @Override
+  public Optional<String> imageId(String image) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ExecResult result = execOperations.exec(spec -> {
+      spec.commandLine("docker", "image", "inspect", "--format", "{{.Id}}", image);
+      spec.setStandardOutput(output);
+      spec.setErrorOutput(new ByteArrayOutputStream());
+      spec.setIgnoreExitValue(true);
+    });
+    String id = output.toString(StandardCharsets.UTF_8).trim();
+    return result.getExitValue() == 0 && !id.isEmpty() ? Optional.of(id) : Optional.empty();
+  }
+
+  @Override
+  public List<String> repoDigests(String image) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ExecResult result = execOperations.exec(spec -> {
+      spec.commandLine("docker", "image", "inspect", "--format", "{{range .RepoDigests}}{{println .}}{{end}}", image);
+      spec.setStandardOutput(output);
+      spec.setErrorOutput(new ByteArrayOutputStream());
+      spec.setIgnoreExitValue(true);
+    });
+    if (result.getExitValue() != 0) {
+      return Collections.emptyList();
+    }
+    return output.toString(StandardCharsets.UTF_8).lines().map(String::trim).filter(digest -> !digest.isEmpty()).collect(Collectors.toList());
+  }
+
+  @Override
+  public Optional<String> findImage(String label, String value) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    execOperations.exec(spec -> {
+      spec.commandLine("docker", "images", "--quiet", "--no-trunc", "--filter", "label=" + label + "=" + value);
+      spec.setStandardOutput(output);
+    });
+    return output.toString(StandardCharsets.UTF_8).lines().map(String::trim).filter(id -> !id.isEmpty()).findFirst();
+  }
+
+  @Override
+  public void save(String image, File archive) {
+    run("Could not save '" + image + "' to '" + archive + "'", List.of("save", "--output", archive.getAbsolutePath(), image), null, message -> { });
+  }
+
+  @Override
+  public String load(File archive, DockerProgressListener listener) {
+    String[] loaded = new String[1];
+    run("Could not load '" + archive + "'", List.of("load", "--input", archive.getAbsolutePath()), null, message -> {
+      Object stream = message.get("stream");
+      if (stream != null && loaded[0] == null) {
+        loaded[0] = DockerEngineBackend.loadedImage(String.valueOf(stream));
+      }
+      listener.onMessage(message);
+    });
+    return DockerEngineBackend.resolveLoaded(this, archive, loaded[0]);
+  }
+
+  @Override
+  public String describe() {
+    return "docker CLI";
+  }
+
+  /**
+   * Build the 'targets' of a bake file with one 'docker buildx bake' run, loading the images into the daemon.
+   *
+   * @param builder      The buildx builder, created if it does not exist; or null for the current builder.
+   * @param metadataFile Where buildx writes the results of each target, e.g. its image id
+   *                     ('containerimage.config.digest').
+   */
+  public void bake(File bakeFile, List<String> targets, String builder, File metadataFile, DockerProgressListener listener) {
+    List<String> args = new ArrayList<>(List.of("buildx", "bake", "--file", bakeFile.getAbsolutePath(), "--load", "--progress", "plain"));
+    if (builder != null) {
+      ensureBuilder(builder);
+      args.add("--builder");
+      args.add(builder);
+    }
+    args.add("--metadata-file");
+    args.add(metadataFile.getAbsolutePath());
+    args.addAll(targets);
+    run("Could not bake " + targets, args, null, listener);
+  }
+
+  private void run(String what, List<String> args, InputStream input, DockerProgressListener listener) {
+    LineOutputStream output = new LineOutputStream(listener);
+    List<String> commandLine = new ArrayList<>();
+    commandLine.add("docker");
+    commandLine.addAll(args);
+    ExecResult result = execOperations.exec(spec -> {
+      spec.commandLine(commandLine);
+      spec.setStandardOutput(output);
+      spec.setErrorOutput(output);
+      if (input != null) {
+        spec.setStandardInput(input);
+      }
+      spec.setIgnoreExitValue(true);
+    });
+    output.flushLine();
+    if (result.getExitValue() != 0) {
+      throw new RuntimeException("AFB: " + what + " (exit value " + result.getExitValue() + "):\n" + output.tail());
+    }
+  }
+
+  /**
+   * Splits process output into lines, passing each to the listener, and keeps the last lines for error messages.
+   */
+  private static class LineOutputStream extends OutputStream {
+    private static final int TAIL_LINES = 20;
+
+    private final DockerProgressListener listener;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final List<String> tail = new ArrayList<>();
+
+    LineOutputStream(DockerProgressListener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      if (b == '\n') {
+        flushLine();
+      } else if (b != '\r') {
+        line.write(b);
+      }
+    }
+
+    synchronized void flushLine() {
+      if (line.size() == 0) {
+        return;
+      }
+      String text = line.toString(StandardCharsets.UTF_8);
+      line.reset();
+      tail.add(text);
+      if (tail.size() > TAIL_LINES) {
+        tail.remove(0);
+      }
+      listener.onMessage(Collections.singletonMap("stream", text));
+    }
+
+    synchronized String tail() {
+      return String.join("\n", tail);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * The files of a docker build, written as the tar stream the daemon expects.
+ */
+public interface DockerContext {
+
+  void writeTo(TarWriter tar) throws IOException;
+
+  /**
+   * @return The directory holding the context, if it is a single directory on disk. The CLI backend passes it to 'docker
+   * build' as is; other contexts are streamed to it on standard input.
+   */
+  Optional<File> directory();
+
+  static DockerContext directory(File dir) {
+    return new DockerContext() {
+      @Override
+      public void writeTo(TarWriter tar) throws IOException {
+        tar.addTree(dir);
+      }
+
+      @Override
+      public Optional<File> directory() {
+        return Optional.of(dir);
+      }
+
+      @Override
+      public String toString() {
+        return dir.toString();
+      }
+    };
+  }
+}
@@ -0,0 +1,60 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import com.fetherbrik.gradle.afb.domain.DockerInfo;
+import groovy.json.JsonOutput;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry credentials, in the form the Engine API expects them: a JSON body for '/auth' and the base64url encoded
+ * 'X-Registry-Auth' header for pushes.
+ */
+public final class DockerCredentials {
+
+  public static final String DOCKER_HUB = "https://index.docker.io/v1/";
+
+  public final String username;
+  public final String password;
+  public final String serverAddress;
+
+  public DockerCredentials(String username, String password, String serverAddress) {
+    this.username = username;
+    this.password = password;
+    this.serverAddress = serverAddress;
+  }
+
+  public static DockerCredentials of(DockerInfo docker) {
+    return new DockerCredentials(docker.username, docker.apiToken, serverAddress(docker.host, docker.isHub));
+  }
+
+  /**
+   * @return The address docker stores credentials for 'host' under: Docker Hub has a fixed address.
+   */
+  public static String serverAddress(String host, boolean isHub) {
+    return isHub || host == null || host.contains("docker.com") || host.equals("docker.io") ? DOCKER_HUB : host;
+  }
+
+  public boolean isHub() {
+    return DOCKER_HUB.equals(serverAddress);
+  }
+
+  public String toJson() {
+    Map<String, String> auth = new LinkedHashMap<>();
+    auth.put("username", username);
+    auth.put("password", password);
+    auth.put("serveraddress", serverAddress);
+    return JsonOutput.toJson(auth);
+  }
+
+  public String registryAuthHeader() {
+    return Base64.getUrlEncoder().encodeToString(toJson().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public String toString() {
+    return username + "@" + serverAddress;
+  }
+}
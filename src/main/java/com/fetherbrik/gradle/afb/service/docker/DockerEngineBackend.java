@@ -0,0 +1,308 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Talks to the Docker daemon through its HTTP API, over the unix socket or a 'tcp://' DOCKER_HOST.
+ */
+public class DockerEngineBackend implements DockerBackend {
+
+  private final DockerEngineClient client;
+
+  public DockerEngineBackend(DockerEngineClient client) {
+    this.client = client;
+  }
+
+  /**
+   * @return True if the daemon answers '/_ping'.
+   */
+  public boolean ping() {
+    try {
+      DockerEngineClient.Response response = client.get("/_ping");
+      return response.isSuccess();
+    } catch (IOException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public String build(DockerBuildRequest request, DockerProgressListener listener) {
+    if (request.usesBuildKitCache()) {
+      throw new RuntimeException("AFB: Builds with a BuildKit cache run with 'docker buildx', use the CLI backend.");
+    }
+    StringBuilder path = new StringBuilder("/build?rm=1&dockerfile=").append(encode(request.dockerFile));
+    for (String tag : request.tags) {
+      path.append("&t=").append(encode(tag));
+    }
+    if (!request.buildArgs.isEmpty()) {
+      path.append("&buildargs=").append(encode(JsonOutput.toJson(request.buildArgs)));
+    }
+    if (!request.labels.isEmpty()) {
+      path.append("&labels=").append(encode(JsonOutput.toJson(request.labels)));
+    }
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", "application/x-tar");
+    String[] imageId = new String[1];
+    ErrorCapture errors = new ErrorCapture(listener) {
+      @Override
+      public void onMessage(Map<String, Object> message) {
+        Object aux = message.get("aux");
+        if (aux instanceof Map && ((Map<?, ?>) aux).get("ID") != null) {
+          imageId[0] = String.valueOf(((Map<?, ?>) aux).get("ID"));
+        }
+        super.onMessage(message);
+      }
+    };
+    try {
+      client.postStream(path.toString(), headers, out -> {
+        TarWriter tar = new TarWriter(out);
+        request.context.writeTo(tar);
+        tar.finish();
+      }, errors);
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Docker build failed: " + e.getMessage(), e);
+    }
+    errors.throwIfFailed("AFB: Docker build failed");
+    if (imageId[0] == null) {
+      // Daemons that don't report the image id: look it up by the first tag.
+      imageId[0] = request.tags.isEmpty() ? null : imageId(request.tags.get(0)).orElse(null);
+    }
+    if (imageId[0] == null) {
+      throw new RuntimeException("AFB: The docker daemon did not report the id of the image it built.");
+    }
+    return imageId[0];
+  }
+
+  @Override
+  public void tag(String image, List<String> targets) {
+    for (String target : targets) {
+      String[] reference = splitReference(target);
+      String path = "/images/" + image + "/tag?repo=" + encode(reference[0]) + "&tag=" + encode(reference[1]);
+      DockerEngineClient.Response response = call(() -> client.post(path, new LinkedHashMap<>(), new byte[0]));
+      if (!response.isSuccess()) {
+        throw failure("Could not tag '" + image + "' as '" + target + "'", response);
+      }
+    }
+  }
+
+  @Override
+  public void login(DockerCredentials credentials) {
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", "application/json");
+    DockerEngineClient.Response response = call(() -> client.post("/auth", headers, credentials.toJson().getBytes(StandardCharsets.UTF_8)));
+    if (!response.isSuccess()) {
+      throw failure("Could not log in to '" + credentials.serverAddress + "' as '" + credentials.username + "'", response);
+    }
+  }
+
+  @Override
+  public void push(String image, DockerCredentials credentials, DockerProgressListener listener) {
+    String[] reference = splitReference(image);
+    Map<String, String> headers = new LinkedHashMap<>();
+    // The daemon requires the header, even for registries that don't authenticate.
+    headers.put("X-Registry-Auth", credentials != null ? credentials.registryAuthHeader() : "e30=");
+    ErrorCapture errors = new ErrorCapture(listener);
+    try {
+      client.postStream("/images/" + reference[0] + "/push?tag=" + encode(reference[1]), headers, null, errors);
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not push '" + image + "': " + e.getMessage(), e);
+    }
+    errors.throwIfFailed("AFB: Could not push '" + image + "'");
+  }
+
+  @Override
+  public Optional<String> imageId(String image) {
+    DockerEngineClient.Response response = call(() -> client.get("/images/" + image + "/json"));
+    if (response.status == 404) {
+      return Optional.empty();
+    }
+    if (!response.isSuccess()) {
+      throw failure("Could not inspect '" + image + "'", response);
+    }
+    Object id = ((Map<?, ?>) new JsonSlurper().parseText(response.text())).get("Id");
+    return Optional.ofNullable(id).map(String::valueOf);
+  }
+
+  @Override
+  public List<String> repoDigests(String image) {
+    DockerEngineClient.Response response = call(() -> client.get("/images/" + image + "/json"));
+    if (response.status == 404) {
+      return Collections.emptyList();
+    }
+    if (!response.isSuccess()) {
+      throw failure("Could not inspect '" + image + "'", response);
+    }
+    Object digests = ((Map<?, ?>) new JsonSlurper().parseText(response.text())).get("RepoDigests");
+    List<String> result = new ArrayList<>();
+    if (digests instanceof List) {
+      for (Object digest : (List<?>) digests) {
+        result.add(String.valueOf(digest));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Optional<String> findImage(String label, String value) {
+    String filters = JsonOutput.toJson(Collections.singletonMap("label", Collections.singletonList(label + "=" + value)));
+    DockerEngineClient.Response response = call(() -> client.get("/images/json?filters=" + encode(filters)));
+    if (!response.isSuccess()) {
+      throw failure("Could not list images", response);
+    }
+    for (Object image : (List<?>) new JsonSlurper().parseText(response.text())) {
+      Object id = ((Map<?, ?>) image).get("Id");
+      if (id != null) {
+        return Optional.of(String.valueOf(id));
+      }
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public void save(String image, File archive) {
+    DockerEngineClient.Response response;
+    try (OutputStream out = Files.newOutputStream(archive.toPath())) {
+      response = client.download("/images/get?names=" + encode(image), out);
+    } catch (IOException e) {
+      archive.delete();
+      throw new RuntimeException("AFB: Could not save '" + image + "' to '" + archive + "': " + e.getMessage(), e);
+    }
+    if (!response.isSuccess()) {
+      archive.delete();
+      throw failure("Could not save '" + image + "'", response);
+    }
+  }
+
+  @Override
+  public String load(File archive, DockerProgressListener listener) {
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", "application/x-tar");
+    String[] loaded = new String[1];
+    ErrorCapture errors = new ErrorCapture(listener) {
+      @Override
+      public void onMessage(Map<String, Object> message) {
+        Object stream = message.get("stream");
+        if (stream != null && loaded[0] == null) {
+          loaded[0] = loadedImage(String.valueOf(stream));
+        }
+        super.onMessage(message);
+      }
+    };
+    try {
+      client.postStream("/images/load?quiet=1", headers, out -> {
+        try (InputStream in = Files.newInputStream(archive.toPath())) {
+          in.transferTo(out);
+        }
+      }, errors);
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not load '" + archive + "': " + e.getMessage(), e);
+    }
+    errors.throwIfFailed("AFB: Could not load '" + archive + "'");
+    return resolveLoaded(this, archive, loaded[0]);
+  }
+
+  /**
+   * @return The image id or name in a 'Loaded image ID: sha256:...' or 'Loaded image: repo:tag' message, or null.
+   */
+  static String loadedImage(String message) {
+    for (String line : message.split("\n")) {
+      String text = line.trim();
+      if (text.startsWith("Loaded image ID:")) {
+        return text.substring("Loaded image ID:".length()).trim();
+      }
+      if (text.startsWith("Loaded image:")) {
+        return text.substring("Loaded image:".length()).trim();
+      }
+    }
+    return null;
+  }
+
+  static String resolveLoaded(DockerBackend backend, File archive, String loaded) {
+    if (loaded == null) {
+      throw new RuntimeException("AFB: The docker daemon did not report the image it loaded from '" + archive + "'.");
+    }
+    if (loaded.startsWith("sha256:")) {
+      return loaded;
+    }
+    return backend.imageId(loaded).orElseThrow(() -> new RuntimeException("AFB: Could not find '" + loaded + "', loaded from '" + archive + "'."));
+  }
+
+  @Override
+  public String describe() {
+    return "Docker Engine API at " + client.getTransport();
+  }
+
+  /**
+   * Split 'host:5000/org/repo:tag' into 'host:5000/org/repo' and 'tag'. The tag defaults to 'latest'.
+   */
+  static String[] splitReference(String reference) {
+    int slash = reference.lastIndexOf('/');
+    int colon = reference.lastIndexOf(':');
+    if (colon > slash) {
+      return new String[]{reference.substring(0, colon), reference.substring(colon + 1)};
+    }
+    return new String[]{reference, "latest"};
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static RuntimeException failure(String what, DockerEngineClient.Response response) {
+    return new RuntimeException("AFB: " + what + ": " + DockerEngineClient.errorMessage(response.status, response.text()).get("error"));
+  }
+
+  private interface Call {
+    DockerEngineClient.Response run() throws IOException;
+  }
+
+  private DockerEngineClient.Response call(Call call) {
+    try {
+      return call.run();
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not reach the docker daemon at " + client.getTransport() + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Passes messages on, remembering the first error: the daemon reports a failed build or push in the stream, after an
+   * HTTP 200.
+   */
+  private static class ErrorCapture implements DockerProgressListener {
+    private final DockerProgressListener delegate;
+    private String error;
+
+    ErrorCapture(DockerProgressListener delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void onMessage(Map<String, Object> message) {
+      if (error == null && message.get("error") != null) {
+        error = String.valueOf(message.get("error"));
+      }
+      delegate.onMessage(message);
+    }
+
+    void throwIfFailed(String what) {
+      if (error != null) {
+        throw new RuntimeException(what + ": " + error);
+      }
+    }
+  }
+}
@@ -0,0 +1,367 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import groovy.json.JsonSlurper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A minimal HTTP/1.1 client for the Docker Engine API: one request per connection, request bodies sent with a
+ * Content-Length or chunked, responses read by Content-Length, chunked or up to the end of the stream. Progress
+ * responses (build, push) are read as a stream of JSON objects and handed to a {@link DockerProgressListener} as they
+ * arrive.
+ */
+public class DockerEngineClient {
+
+  private final DockerTransport transport;
+
+  public DockerEngineClient(DockerTransport transport) {
+    this.transport = transport;
+  }
+
+  public DockerTransport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Writes a request body directly to the connection.
+   */
+  public interface Body {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  public static final class Response {
+    public final int status;
+    public final Map<String, String> headers;
+    public final byte[] body;
+
+    Response(int status, Map<String, String> headers, byte[] body) {
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+    }
+
+    public String text() {
+      return new String(body, StandardCharsets.UTF_8);
+    }
+
+    public boolean isSuccess() {
+      return status >= 200 && status < 300;
+    }
+  }
+
+  public Response get(String path) throws IOException {
+    return request("GET", path, new LinkedHashMap<>(), null, null);
+  }
+
+  public Response post(String path, Map<String, String> headers, byte[] body) throws IOException {
+    return request("POST", path, headers, body, null);
+  }
+
+  /**
+   * Send a request with a (possibly large) body streamed with chunked transfer encoding.
+   */
+  public Response post(String path, Map<String, String> headers, Body body) throws IOException {
+    return request("POST", path, headers, null, body);
+  }
+
+  /**
+   * Copy the body of a successful GET response to 'out'.
+   *
+   * @return The response; its body is only read into memory for error statuses.
+   */
+  public Response download(String path, OutputStream out) throws IOException {
+    try (DockerTransport.Connection connection = transport.open()) {
+      BufferedInputStream in = new BufferedInputStream(connection.in);
+      writeRequest(connection.out, "GET", path, new LinkedHashMap<>(), null, null);
+      Map<String, String> responseHeaders = new LinkedHashMap<>();
+      int status = readHead(in, responseHeaders);
+      InputStream content = content(in, responseHeaders);
+      if (status >= 300) {
+        return new Response(status, responseHeaders, content.readAllBytes());
+      }
+      content.transferTo(out);
+      return new Response(status, responseHeaders, new byte[0]);
+    }
+  }
+
+  /**
+   * Send a request and read its response as a stream of JSON objects, passing each to 'listener' as it arrives.
+   *
+   * @return The status of the response. The body of an error status is passed to the listener as an 'error' message.
+   */
+  public int postStream(String path, Map<String, String> headers, Body body, DockerProgressListener listener) throws IOException {
+    try (DockerTransport.Connection connection = transport.open()) {
+      BufferedInputStream in = new BufferedInputStream(connection.in);
+      writeRequest(connection.out, "POST", path, headers, null, body);
+      Map<String, String> responseHeaders = new LinkedHashMap<>();
+      int status = readHead(in, responseHeaders);
+      InputStream content = content(in, responseHeaders);
+      if (status >= 300) {
+        listener.onMessage(errorMessage(status, new String(content.readAllBytes(), StandardCharsets.UTF_8)));
+        return status;
+      }
+      JsonSlurper json = new JsonSlurper();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.trim().isEmpty()) {
+          listener.onMessage(asMap(json.parseText(line)));
+        }
+      }
+      return status;
+    }
+  }
+
+  private Response request(String method, String path, Map<String, String> headers, byte[] body, Body streamedBody) throws IOException {
+    try (DockerTransport.Connection connection = transport.open()) {
+      BufferedInputStream in = new BufferedInputStream(connection.in);
+      writeRequest(connection.out, method, path, headers, body, streamedBody);
+      Map<String, String> responseHeaders = new LinkedHashMap<>();
+      int status = readHead(in, responseHeaders);
+      byte[] content = method.equals("HEAD") ? new byte[0] : content(in, responseHeaders).readAllBytes();
+      return new Response(status, responseHeaders, content);
+    }
+  }
+
+  private static void writeRequest(OutputStream raw, String method, String path, Map<String, String> headers, byte[] body, Body streamedBody)
+    throws IOException {
+    OutputStream out = new BufferedOutputStream(raw, 64 * 1024);
+    StringBuilder head = new StringBuilder();
+    head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+    head.append("Host: docker\r\n");
+    head.append("User-Agent: another-fine-build\r\n");
+    head.append("Connection: close\r\n");
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    if (streamedBody != null) {
+      head.append("Transfer-Encoding: chunked\r\n");
+    } else if (body != null) {
+      head.append("Content-Length: ").append(body.length).append("\r\n");
+    } else if (!method.equals("GET") && !method.equals("HEAD")) {
+      head.append("Content-Length: 0\r\n");
+    }
+    head.append("\r\n");
+    out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+    if (streamedBody != null) {
+      // Buffered, so that a body written a few bytes at a time (tar headers, padding) goes out in 64k chunks rather
+      // than one chunk per write.
+      ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+      OutputStream buffered = new BufferedOutputStream(chunked, 64 * 1024);
+      streamedBody.writeTo(buffered);
+      buffered.flush();
+      chunked.finish();
+    } else if (body != null) {
+      out.write(body);
+    }
+    out.flush();
+  }
+
+  /**
+   * Read the status line and headers. Header names are lower-cased.
+   */
+  private static int readHead(InputStream in, Map<String, String> headers) throws IOException {
+    String statusLine = readLine(in);
+    while (statusLine.startsWith("HTTP/1.1 1")) {
+      // Skip '100 Continue' and other informational responses.
+      while (!readLine(in).isEmpty()) {
+        // headers of the informational response
+      }
+      statusLine = readLine(in);
+    }
+    String[] parts = statusLine.split(" ", 3);
+    if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+      throw new IOException("Not an HTTP response from the docker daemon: '" + statusLine + "'");
+    }
+    String line;
+    while (!(line = readLine(in)).isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+      }
+    }
+    return Integer.parseInt(parts[1]);
+  }
+
+  private static InputStream content(InputStream in, Map<String, String> headers) {
+    if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+      return new ChunkedInputStream(in);
+    }
+    String length = headers.get("content-length");
+    if (length != null) {
+      return new BoundedInputStream(in, Long.parseLong(length));
+    }
+    return in;
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int c;
+    while ((c = in.read()) != '\n') {
+      if (c < 0) {
+        throw new EOFException("The docker daemon closed the connection.");
+      }
+      if (c != '\r') {
+        line.write(c);
+      }
+    }
+    return line.toString(StandardCharsets.ISO_8859_1);
+  }
+
+  static Map<String, Object> errorMessage(int status, String body) {
+    String message = body.trim();
+    try {
+      Object parsed = new JsonSlurper().parseText(message);
+      if (parsed instanceof Map && ((Map<?, ?>) parsed).get("message") != null) {
+        message = String.valueOf(((Map<?, ?>) parsed).get("message"));
+      }
+    } catch (RuntimeException e) {
+      // Not JSON: keep the text.
+    }
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("error", "HTTP " + status + ": " + message);
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> asMap(Object parsed) {
+    if (parsed instanceof Map) {
+      return (Map<String, Object>) parsed;
+    }
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("stream", String.valueOf(parsed));
+    return result;
+  }
+
+  private static final class ChunkedOutputStream extends OutputStream {
+    private final OutputStream out;
+
+    private ChunkedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+      out.write(b, off, len);
+      out.write('\r');
+      out.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    /**
+     * Write the last chunk. The underlying stream stays open, for the response.
+     */
+    void finish() throws IOException {
+      out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+    }
+
+    @Override
+    public void close() {
+      // The connection is closed by its owner.
+    }
+  }
+
+  private static final class ChunkedInputStream extends InputStream {
+    private final InputStream in;
+    private long remaining;
+    private boolean done;
+
+    private ChunkedInputStream(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (done) {
+        return -1;
+      }
+      if (remaining == 0) {
+        String size = readLine(in);
+        int extension = size.indexOf(';');
+        remaining = Long.parseLong((extension < 0 ? size : size.substring(0, extension)).trim(), 16);
+        if (remaining == 0) {
+          while (!readLine(in).isEmpty()) {
+            // trailers
+          }
+          done = true;
+          return -1;
+        }
+      }
+      int read = in.read(b, off, (int) Math.min(len, remaining));
+      if (read < 0) {
+        throw new EOFException("The docker daemon closed the connection in the middle of a chunk.");
+      }
+      remaining -= read;
+      if (remaining == 0) {
+        readLine(in);
+      }
+      return read;
+    }
+  }
+
+  private static final class BoundedInputStream extends FilterInputStream {
+    private long remaining;
+
+    private BoundedInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int c = super.read();
+      if (c >= 0) {
+        remaining--;
+      }
+      return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int read = super.read(b, off, (int) Math.min(len, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import org.gradle.api.logging.Logger;
+
+import java.util.Map;
+
+/**
+ * Receives the JSON messages the Docker Engine streams while it builds or pushes an image, one object at a time, e.g.
+ * '{"stream": "Step 1/4 : FROM ..."}', '{"status": "Pushing", "id": "e39786e", "progress": "..."}' or
+ * '{"error": "...", "errorDetail": {...}}'. The CLI backend reports each line of output as a 'stream' message.
+ */
+public interface DockerProgressListener {
+
+  void onMessage(Map<String, Object> message);
+
+  /**
+   * Build output at lifecycle level, layer status at info level and errors at error level.
+   */
+  static DockerProgressListener logging(Logger logger) {
+    return message -> {
+      Object error = message.get("error");
+      Object stream = message.get("stream");
+      Object status = message.get("status");
+      if (error != null) {
+        logger.error("AFB: docker: " + error);
+      } else if (stream != null) {
+        String text = String.valueOf(stream).trim();
+        if (!text.isEmpty()) {
+          logger.lifecycle(text);
+        }
+      } else if (status != null && logger.isInfoEnabled()) {
+        Object id = message.get("id");
+        Object progress = message.get("progress");
+        logger.info("AFB: docker: " + (id != null ? id + ": " : "") + status + (progress != null ? " " + progress : ""));
+      }
+    };
+  }
+}
@@ -0,0 +1,113 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.util.Objects;
+
+/**
+ * An image reference split the way the registry API needs it: 'registry.example.org:5000/org/app:1.0' is repository
+ * 'org/app' with tag '1.0' on registry 'registry.example.org:5000'. References without a registry are on Docker Hub,
+ * where single-name repositories are under 'library/'.
+ */
+public final class DockerReference {
+
+  public static final String DOCKER_HUB_REGISTRY = "registry-1.docker.io";
+
+  public final String registry;
+  public final String repository;
+  public final String tag;
+  public final String digest;
+
+  private DockerReference(String registry, String repository, String tag, String digest) {
+    this.registry = registry;
+    this.repository = repository;
+    this.tag = tag;
+    this.digest = digest;
+  }
+
+  public static DockerReference parse(String reference) {
+    String rest = reference;
+    String digest = null;
+    int at = rest.indexOf('@');
+    if (at >= 0) {
+      digest = rest.substring(at + 1);
+      rest = rest.substring(0, at);
+    }
+    String tag = null;
+    int slash = rest.lastIndexOf('/');
+    int colon = rest.lastIndexOf(':');
+    if (colon > slash) {
+      tag = rest.substring(colon + 1);
+      rest = rest.substring(0, colon);
+    }
+    String registry = DOCKER_HUB_REGISTRY;
+    int first = rest.indexOf('/');
+    if (first > 0) {
+      String candidate = rest.substring(0, first);
+      // Like docker: the first part names a registry only if it looks like a host.
+      if (candidate.contains(".") || candidate.contains(":") || candidate.equals("localhost")) {
+        registry = candidate;
+        rest = rest.substring(first + 1);
+      }
+    }
+    if (registry.equals("docker.io") || registry.equals("index.docker.io")) {
+      registry = DOCKER_HUB_REGISTRY;
+    }
+    if (registry.equals(DOCKER_HUB_REGISTRY) && !rest.contains("/")) {
+      rest = "library/" + rest;
+    }
+    if (tag == null && digest == null) {
+      tag = "latest";
+    }
+    return new DockerReference(registry, rest, tag, digest);
+  }
+
+  /**
+   * @return The tag, or the digest for references by digest.
+   */
+  public String reference() {
+    return digest != null ? digest : tag;
+  }
+
+  public boolean isDockerHub() {
+    return registry.equals(DOCKER_HUB_REGISTRY);
+  }
+
+  /**
+   * Registries on the local host are spoken to over plain http, as docker does by default.
+   */
+  public boolean isInsecure() {
+    String host = registry.contains(":") ? registry.substring(0, registry.indexOf(':')) : registry;
+    return host.equals("localhost") || host.equals("127.0.0.1");
+  }
+
+  /**
+   * @return True if 'other' names the same repository of the same registry.
+   */
+  public boolean sameRepository(DockerReference other) {
+    return registry.equals(other.registry) && repository.equals(other.repository);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof DockerReference)) {
+      return false;
+    }
+    DockerReference that = (DockerReference) o;
+    return registry.equals(that.registry)
+           && repository.equals(that.repository)
+           && Objects.equals(tag, that.tag)
+           && Objects.equals(digest, that.digest);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(registry, repository, tag, digest);
+  }
+
+  @Override
+  public String toString() {
+    return registry + "/" + repository + (tag != null ? ":" + tag : "") + (digest != null ? "@" + digest : "");
+  }
+}
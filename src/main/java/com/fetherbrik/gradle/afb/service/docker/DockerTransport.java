@@ -0,0 +1,144 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Opens connections to the Docker daemon: a unix domain socket, or a plain TCP socket for 'tcp://' hosts.
+ * <p>
+ * Unix domain sockets need Java 16 or newer. The plugin is built for older runtimes, so they are reached through
+ * reflection; on older runtimes {@link #unsupportedReason()} says so, {@link #open()} fails and the caller falls back to
+ * the docker CLI. Gradle 6 doesn't run on Java 16, so with Gradle 6 only 'tcp://' hosts reach the Engine API.
+ */
+public abstract class DockerTransport {
+
+  public static final String DEFAULT_SOCKET = "/var/run/docker.sock";
+
+  private static final boolean UNIX_SOCKETS = unixSocketsSupported();
+
+  /**
+   * @return The transport for the DOCKER_HOST environment variable, or the default unix socket when it is not set.
+   */
+  public static DockerTransport fromEnvironment(Map<String, String> environment) {
+    String host = environment.get("DOCKER_HOST");
+    if (host == null || host.isEmpty()) {
+      return unix(DEFAULT_SOCKET);
+    }
+    URI uri = URI.create(host);
+    if ("unix".equals(uri.getScheme())) {
+      return unix(uri.getPath());
+    }
+    if ("tcp".equals(uri.getScheme())) {
+      return tcp(uri.getHost(), uri.getPort() < 0 ? 2375 : uri.getPort());
+    }
+    throw new RuntimeException("AFB: Unsupported DOCKER_HOST '" + host + "'. Only 'unix://' and plain 'tcp://' hosts are supported.");
+  }
+
+  public static DockerTransport unix(String path) {
+    return new DockerTransport() {
+      @Override
+      public Optional<String> unsupportedReason() {
+        if (UNIX_SOCKETS) {
+          return Optional.empty();
+        }
+        return Optional.of("The docker socket unix://" + path + " needs Java 16 or newer, and this build runs on Java "
+                           + System.getProperty("java.version") + ". Set DOCKER_HOST to a 'tcp://' address to use the Engine API.");
+      }
+
+      @Override
+      public Connection open() throws IOException {
+        try {
+          Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+          SocketAddress address = (SocketAddress) addressClass.getMethod("of", String.class).invoke(null, path);
+          ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+          SocketChannel channel = (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+          try {
+            channel.connect(address);
+          } catch (IOException e) {
+            channel.close();
+            throw e;
+          }
+          return new Connection(Channels.newInputStream(channel), Channels.newOutputStream(channel), channel);
+        } catch (ClassNotFoundException | IllegalArgumentException | NoSuchMethodException | IllegalAccessException e) {
+          throw new IOException("Unix domain sockets require Java 16 or newer (running " + System.getProperty("java.version") + ").", e);
+        } catch (InvocationTargetException e) {
+          throw new IOException("Could not open unix socket '" + path + "': " + e.getCause().getMessage(), e.getCause());
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "unix://" + path;
+      }
+    };
+  }
+
+  public static DockerTransport tcp(String host, int port) {
+    return new DockerTransport() {
+      @Override
+      public Connection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+          socket.connect(new InetSocketAddress(host, port), 5000);
+        } catch (IOException e) {
+          socket.close();
+          throw e;
+        }
+        return new Connection(socket.getInputStream(), socket.getOutputStream(), socket);
+      }
+
+      @Override
+      public String toString() {
+        return "tcp://" + host + ":" + port;
+      }
+    };
+  }
+
+  public abstract Connection open() throws IOException;
+
+  /**
+   * @return Why this runtime can't open the transport, or empty if it can.
+   */
+  public Optional<String> unsupportedReason() {
+    return Optional.empty();
+  }
+
+  private static boolean unixSocketsSupported() {
+    try {
+      Class.forName("java.net.UnixDomainSocketAddress");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  public static final class Connection implements Closeable {
+    public final InputStream in;
+    public final OutputStream out;
+    private final Closeable resource;
+
+    Connection(InputStream in, OutputStream out, Closeable resource) {
+      this.in = in;
+      this.out = out;
+      this.resource = resource;
+    }
+
+    @Override
+    public void close() throws IOException {
+      resource.close();
+    }
+  }
+}
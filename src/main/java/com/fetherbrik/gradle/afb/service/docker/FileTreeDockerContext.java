@@ -0,0 +1,124 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.file.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A context made of Gradle file trees, each placed under a path of the context. Files are read from where they are,
+ * straight into the tar stream: nothing is copied to an intermediate directory.
+ * <p>
+ * A reproducible context gives every entry the same time, and mode 0755 (directories and executable files) or 0644, so
+ * that the same files give the same context, and the same image layers, whatever their times and umask on disk.
+ */
+public final class FileTreeDockerContext implements DockerContext {
+
+  private final List<Entry> entries;
+  private final Long mtime;
+
+  public FileTreeDockerContext(List<Entry> entries) {
+    this(entries, null);
+  }
+
+  /**
+   * @param mtime The time of every entry, in seconds since the epoch; null to keep those of the files.
+   */
+  public FileTreeDockerContext(List<Entry> entries, Long mtime) {
+    this.entries = new ArrayList<>(entries);
+    this.mtime = mtime;
+  }
+
+  public static final class Entry {
+    public final String into;
+    public final FileTree files;
+
+    /**
+     * @param into The path of the files in the context; '' or '.' for its root.
+     */
+    public Entry(String into, FileTree files) {
+      this.into = normalize(into);
+      this.files = files;
+    }
+
+    private static String normalize(String into) {
+      String path = into.replace('\\', '/');
+      while (path.startsWith("./") || path.startsWith("/")) {
+        path = path.substring(path.indexOf('/') + 1);
+      }
+      if (path.equals(".")) {
+        path = "";
+      }
+      return path.isEmpty() || path.endsWith("/") ? path : path + "/";
+    }
+  }
+
+  @Override
+  public void writeTo(TarWriter tar) throws IOException {
+    Set<String> directories = new HashSet<>();
+    try {
+      for (Entry entry : entries) {
+        addParents(tar, entry.into, directories);
+        entry.files.visit(new FileVisitor() {
+          @Override
+          public void visitDir(FileVisitDetails details) {
+            String name = entry.into + details.getRelativePath().getPathString() + "/";
+            try {
+              if (directories.add(name)) {
+                tar.directory(name, mtime(details), mtime != null ? 0755 : details.getMode());
+              }
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+
+          @Override
+          public void visitFile(FileVisitDetails details) {
+            try {
+              tar.file(entry.into + details.getRelativePath().getPathString(),
+                       details.getFile(),
+                       mtime(details),
+                       mtime != null ? (details.getFile().canExecute() ? 0755 : 0644) : details.getMode());
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+        });
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private long mtime(FileVisitDetails details) {
+    return mtime != null ? mtime : details.getLastModified() / 1000;
+  }
+
+  private void addParents(TarWriter tar, String into, Set<String> directories) throws IOException {
+    int slash = -1;
+    while ((slash = into.indexOf('/', slash + 1)) >= 0) {
+      String parent = into.substring(0, slash + 1);
+      if (directories.add(parent)) {
+        tar.directory(parent, mtime != null ? mtime : 0, 0755);
+      }
+    }
+  }
+
+  @Override
+  public Optional<File> directory() {
+    return Optional.empty();
+  }
+
+  @Override
+  public String toString() {
+    return entries.size() + " file trees";
+  }
+}
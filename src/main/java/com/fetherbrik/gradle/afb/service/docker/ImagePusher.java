@@ -0,0 +1,161 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import org.gradle.api.logging.Logger;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pushes an image only when the registry doesn't already have it.
+ * <p>
+ * The manifest digests an image is known to have in a repository come from the ledger of earlier pushes (image reference
+ * to '&lt;image id&gt; &lt;digest&gt;') and from docker's own RepoDigests. Before pushing, the registry is asked which
+ * manifest the tag points at: if it is one of the image's, there is nothing to push. If the tag is new but the
+ * repository has the image under another tag, the manifest is stored under the tag without sending any layers.
+ * Otherwise the image is pushed, with 'docker push' or with the given {@link Uploader}. Registry errors fall back to a
+ * normal push.
+ */
+public class ImagePusher {
+
+  public enum Action {PUSHED, SKIPPED, TAGGED}
+
+  private static final Pattern PUSHED_DIGEST = Pattern.compile("digest: (sha256:[0-9a-f]{64})");
+
+  private final DockerBackend docker;
+  private final RegistryClient registry;
+  private final Uploader uploader;
+  private final Logger logger;
+
+  /**
+   * @param registry Null to always push.
+   */
+  public ImagePusher(DockerBackend docker, RegistryClient registry, Logger logger) {
+    this(docker, registry, null, logger);
+  }
+
+  /**
+   * @param uploader Null to push with the docker backend.
+   */
+  public ImagePusher(DockerBackend docker, RegistryClient registry, Uploader uploader, Logger logger) {
+    this.docker = docker;
+    this.registry = registry;
+    this.uploader = uploader;
+    this.logger = logger;
+  }
+
+  /**
+   * Pushes an image some other way than 'docker push', e.g. through the registry API.
+   */
+  public interface Uploader {
+    /**
+     * @return The manifest digest of the pushed image.
+     */
+    String upload(String image, String imageId, DockerReference reference);
+  }
+
+  public static final class Outcome {
+    public final Action action;
+    public final String imageId;
+    /**
+     * The manifest digest of the image in the registry, if known.
+     */
+    public final String digest;
+
+    Outcome(Action action, String imageId, String digest) {
+      this.action = action;
+      this.imageId = imageId;
+      this.digest = digest;
+    }
+
+    /**
+     * @return The ledger value for this outcome, or null if the digest is not known.
+     */
+    public String ledgerEntry() {
+      return digest == null ? null : imageId + " " + digest;
+    }
+  }
+
+  public Outcome push(String image, DockerCredentials credentials, Map<String, String> ledger, DockerProgressListener listener) {
+    String imageId = docker.imageId(image).orElseThrow(() -> new RuntimeException("AFB: There is no image '" + image + "' to push."));
+    DockerReference reference = DockerReference.parse(image);
+    if (registry != null) {
+      try {
+        Optional<Outcome> outcome = withoutPush(reference, imageId, knownDigests(reference, imageId, ledger, docker.repoDigests(image)));
+        if (outcome.isPresent()) {
+          return outcome.get();
+        }
+      } catch (RuntimeException e) {
+        logger.info("AFB: Could not check '" + image + "' in the registry, pushing it: " + e.getMessage());
+      }
+    }
+    if (uploader != null) {
+      return new Outcome(Action.PUSHED, imageId, uploader.upload(image, imageId, reference));
+    }
+    String[] pushed = new String[1];
+    docker.push(image, credentials, message -> {
+      Object text = message.get("status") != null ? message.get("status") : message.get("stream");
+      Object aux = message.get("aux");
+      if (aux instanceof Map && ((Map<?, ?>) aux).get("Digest") != null) {
+        pushed[0] = String.valueOf(((Map<?, ?>) aux).get("Digest"));
+      } else if (text != null && pushed[0] == null) {
+        Matcher matcher = PUSHED_DIGEST.matcher(String.valueOf(text));
+        if (matcher.find()) {
+          pushed[0] = matcher.group(1);
+        }
+      }
+      listener.onMessage(message);
+    });
+    if (pushed[0] == null && registry != null) {
+      try {
+        pushed[0] = registry.manifestDigest(reference).orElse(null);
+      } catch (RuntimeException e) {
+        logger.info("AFB: Could not read the digest of '" + image + "' from the registry: " + e.getMessage());
+      }
+    }
+    return new Outcome(Action.PUSHED, imageId, pushed[0]);
+  }
+
+  private Optional<Outcome> withoutPush(DockerReference reference, String imageId, Set<String> known) {
+    if (known.isEmpty()) {
+      return Optional.empty();
+    }
+    Optional<String> current = registry.manifestDigest(reference);
+    if (current.isPresent() && known.contains(current.get())) {
+      return Optional.of(new Outcome(Action.SKIPPED, imageId, current.get()));
+    }
+    for (String digest : known) {
+      DockerReference byDigest = DockerReference.parse(reference.registry + "/" + reference.repository + "@" + digest);
+      if (registry.manifestDigest(byDigest).isPresent()) {
+        RegistryClient.Manifest manifest = registry.getManifest(reference, digest);
+        String tagged = registry.putManifest(reference, manifest);
+        return Optional.of(new Outcome(Action.TAGGED, imageId, tagged));
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * @return The digests of 'imageId' in the repository of 'reference', according to the ledger and docker.
+   */
+  static Set<String> knownDigests(DockerReference reference, String imageId, Map<String, String> ledger, List<String> repoDigests) {
+    Set<String> known = new LinkedHashSet<>();
+    ledger.forEach((image, entry) -> {
+      String[] parts = entry.split(" ");
+      if (parts.length == 2 && parts[0].equals(imageId) && DockerReference.parse(image).sameRepository(reference)) {
+        known.add(parts[1]);
+      }
+    });
+    for (String repoDigest : repoDigests) {
+      DockerReference digestReference = DockerReference.parse(repoDigest);
+      if (digestReference.digest != null && digestReference.sameRepository(reference)) {
+        known.add(digestReference.digest);
+      }
+    }
+    return known;
+  }
+}
@@ -0,0 +1,400 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import groovy.json.JsonSlurper;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads and writes image manifests and blobs through the registry HTTP API (v2), authenticating with the bearer token
+ * or basic challenge the registry answers with.
+ */
+public class RegistryClient {
+
+  public static final String MANIFEST_TYPES = String.join(",",
+                                                          "application/vnd.docker.distribution.manifest.v2+json",
+                                                          "application/vnd.docker.distribution.manifest.list.v2+json",
+                                                          "application/vnd.oci.image.manifest.v1+json",
+                                                          "application/vnd.oci.image.index.v1+json");
+
+  private static final Pattern CHALLENGE_PARAMETER = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+  private final HttpClient http;
+  private final DockerCredentials credentials;
+  private final Map<String, String> authorizations = new ConcurrentHashMap<>();
+
+  /**
+   * @param credentials May be null for anonymous access.
+   */
+  public RegistryClient(DockerCredentials credentials) {
+    this.credentials = credentials;
+    this.http = HttpClient.newBuilder()
+                          .connectTimeout(Duration.ofSeconds(10))
+                          .followRedirects(HttpClient.Redirect.NORMAL)
+                          .build();
+  }
+
+  public static final class Manifest {
+    public final String mediaType;
+    public final String digest;
+    public final byte[] content;
+
+    public Manifest(String mediaType, String digest, byte[] content) {
+      this.mediaType = mediaType;
+      this.digest = digest;
+      this.content = content;
+    }
+  }
+
+  /**
+   * @return The digest of the manifest 'reference' points at, or empty if the registry doesn't have it.
+   */
+  public Optional<String> manifestDigest(DockerReference reference) {
+    HttpResponse<byte[]> response = send(reference, "HEAD", manifestUri(reference, reference.reference()), null, null);
+    if (response.statusCode() == 404) {
+      return Optional.empty();
+    }
+    check(response, "check the manifest of '" + reference + "'");
+    return response.headers().firstValue("Docker-Content-Digest");
+  }
+
+  public Manifest getManifest(DockerReference reference, String tagOrDigest) {
+    HttpResponse<byte[]> response = send(reference, "GET", manifestUri(reference, tagOrDigest), null, null);
+    check(response, "read manifest '" + tagOrDigest + "' of '" + reference.registry + "/" + reference.repository + "'");
+    return new Manifest(response.headers().firstValue("Content-Type").orElse("application/vnd.docker.distribution.manifest.v2+json"),
+                        response.headers().firstValue("Docker-Content-Digest").orElse(tagOrDigest),
+                        response.body());
+  }
+
+  /**
+   * Store 'manifest' under the tag of 'reference': a tag-only 'push' that sends no layers.
+   *
+   * @return The digest of the manifest.
+   */
+  public String putManifest(DockerReference reference, Manifest manifest) {
+    HttpResponse<byte[]> response = send(reference, "PUT", manifestUri(reference, reference.tag), manifest.mediaType, manifest.content);
+    check(response, "tag '" + reference + "'");
+    return response.headers().firstValue("Docker-Content-Digest").orElse(manifest.digest);
+  }
+
+  /**
+   * @return True if the repository of 'reference' has the blob 'digest'.
+   */
+  public boolean hasBlob(DockerReference reference, String digest) {
+    HttpResponse<byte[]> response = send(reference, "HEAD", blobUri(reference, digest), null, null);
+    if (response.statusCode() == 404) {
+      return false;
+    }
+    check(response, "check blob '" + digest + "' of '" + reference.registry + "/" + reference.repository + "'");
+    return true;
+  }
+
+  /**
+   * Download the blob 'digest' to 'target', checking its digest. The blob is written to a temporary file next to
+   * 'target' first, so 'target' only ever holds complete blobs.
+   */
+  public void downloadBlob(DockerReference reference, String digest, File target) {
+    String what = "download blob '" + digest + "' of '" + reference.registry + "/" + reference.repository + "'";
+    File partial = new File(target.getParentFile(), target.getName() + ".part");
+    try {
+      Files.createDirectories(target.getParentFile().toPath());
+      HttpResponse<Path> response = send(reference, scope(reference), "GET", blobUri(reference, digest), Map.of(),
+                                         HttpRequest.BodyPublishers.noBody(), HttpResponse.BodyHandlers.ofFile(partial.toPath()));
+      if (response.statusCode() < 200 || response.statusCode() >= 300) {
+        throw new RuntimeException("AFB: Could not " + what + ": HTTP " + response.statusCode());
+      }
+      String actual = Digests.sha256(partial);
+      if (!actual.equals(digest)) {
+        throw new RuntimeException("AFB: Could not " + what + ": the registry sent '" + actual + "'.");
+      }
+      Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not " + what + ": " + e.getMessage(), e);
+    } finally {
+      partial.delete();
+    }
+  }
+
+  /**
+   * Ask the registry to link the blob 'digest' of repository 'fromRepository' (on the same registry) into the
+   * repository of 'reference', which costs no upload.
+   *
+   * @return True if the blob was mounted; false if the registry couldn't or wouldn't, e.g. as the source repository
+   * doesn't have it or can't be read with our credentials.
+   */
+  public boolean mountBlob(DockerReference reference, String digest, String fromRepository) {
+    URI mount = URI.create(baseUri(reference) + "/blobs/uploads/?mount=" + URLEncoder.encode(digest, StandardCharsets.UTF_8)
+                           + "&from=" + URLEncoder.encode(fromRepository, StandardCharsets.UTF_8));
+    String scope = scope(reference) + " repository:" + fromRepository + ":pull";
+    HttpResponse<byte[]> response = send(reference, scope, "POST", mount, Map.of(), HttpRequest.BodyPublishers.noBody(),
+                                         HttpResponse.BodyHandlers.ofByteArray());
+    if (response.statusCode() == 201) {
+      return true;
+    }
+    if (response.statusCode() == 202) {
+      // The registry started a normal upload instead: drop it.
+      response.headers().firstValue("Location").ifPresent(location -> {
+        try {
+          send(reference, "DELETE", mount.resolve(location), null, null);
+        } catch (RuntimeException e) {
+          // Abandoned uploads expire.
+        }
+      });
+    }
+    return false;
+  }
+
+  /**
+   * Upload 'blob' in chunks of at most 'chunkSize' bytes. A chunk that fails is sent again from where the registry says
+   * the upload stands, so a broken connection only costs that chunk; after 'retries' failures of the same chunk the
+   * upload fails.
+   */
+  public void uploadBlob(DockerReference reference, String digest, File blob, long chunkSize, int retries) {
+    String what = "upload blob '" + digest + "' to '" + reference.registry + "/" + reference.repository + "'";
+    long size = blob.length();
+    Upload upload = startUpload(reference, what);
+    int failures = 0;
+    try (FileChannel channel = FileChannel.open(blob.toPath(), StandardOpenOption.READ)) {
+      while (upload.offset < size) {
+        int length = (int) Math.min(chunkSize, size - upload.offset);
+        try {
+          HttpResponse<byte[]> response = send(reference, scope(reference), "PATCH", upload.location,
+                                               Map.of("Content-Type", "application/octet-stream",
+                                                      "Content-Range", upload.offset + "-" + (upload.offset + length - 1)),
+                                               HttpRequest.BodyPublishers.ofByteArray(read(channel, upload.offset, length)),
+                                               HttpResponse.BodyHandlers.ofByteArray());
+          check(response, what);
+          upload.moved(response, upload.offset + length);
+          failures = 0;
+        } catch (RuntimeException e) {
+          if (++failures > retries) {
+            throw e;
+          }
+          upload = resumeUpload(reference, upload, what);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      throw new RuntimeException("AFB: Could not " + what + ": '" + blob + "' does not exist.", e);
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not " + what + ": " + e.getMessage(), e);
+    }
+    URI location = upload.location;
+    URI done = URI.create(location + (location.getQuery() == null ? "?" : "&") + "digest=" + URLEncoder.encode(digest, StandardCharsets.UTF_8));
+    check(send(reference, "PUT", done, "application/octet-stream", new byte[0]), what);
+  }
+
+  /**
+   * Where an upload session stands: the URI to send the next chunk to, and the number of bytes the registry has.
+   */
+  private static final class Upload {
+    URI location;
+    long offset;
+
+    Upload(URI location, long offset) {
+      this.location = location;
+      this.offset = offset;
+    }
+
+    /**
+     * Follow the Location and Range headers of 'response'; 'expected' is the offset if it has no Range.
+     */
+    void moved(HttpResponse<?> response, long expected) {
+      response.headers().firstValue("Location").ifPresent(next -> location = location.resolve(next));
+      offset = response.headers().firstValue("Range").map(Upload::end).orElse(expected);
+    }
+
+    /**
+     * @return The offset after a range such as '0-1023' (or 'bytes=0-1023'). Registries answer '0-0' for an empty upload.
+     */
+    static long end(String range) {
+      int dash = range.indexOf('-');
+      long end = dash < 0 ? 0 : Long.parseLong(range.substring(dash + 1).trim());
+      return end <= 0 ? 0 : end + 1;
+    }
+  }
+
+  private Upload startUpload(DockerReference reference, String what) {
+    URI start = URI.create(baseUri(reference) + "/blobs/uploads/");
+    HttpResponse<byte[]> started = send(reference, "POST", start, null, null);
+    check(started, what);
+    return new Upload(start.resolve(started.headers().firstValue("Location")
+                                           .orElseThrow(() -> new RuntimeException("AFB: Could not " + what + ": no upload location."))), 0);
+  }
+
+  /**
+   * @return The upload as the registry has it; a new upload if the registry lost it.
+   */
+  private Upload resumeUpload(DockerReference reference, Upload upload, String what) {
+    try {
+      HttpResponse<byte[]> status = send(reference, "GET", upload.location, null, null);
+      if (status.statusCode() == 204 || status.statusCode() == 200) {
+        upload.moved(status, 0);
+        return upload;
+      }
+    } catch (RuntimeException e) {
+      // Start over below.
+    }
+    return startUpload(reference, what);
+  }
+
+  private static byte[] read(FileChannel channel, long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException("The blob is shorter than expected.");
+      }
+    }
+    return buffer.array();
+  }
+
+  private static String baseUri(DockerReference reference) {
+    return (reference.isInsecure() ? "http://" : "https://") + reference.registry + "/v2/" + reference.repository;
+  }
+
+  private static URI blobUri(DockerReference reference, String digest) {
+    return URI.create(baseUri(reference) + "/blobs/" + digest);
+  }
+
+  private static URI manifestUri(DockerReference reference, String tagOrDigest) {
+    return URI.create(baseUri(reference) + "/manifests/" + tagOrDigest);
+  }
+
+  private String scope(DockerReference reference) {
+    return "repository:" + reference.repository + ":" + (credentials != null ? "pull,push" : "pull");
+  }
+
+  private HttpResponse<byte[]> send(DockerReference reference, String method, URI uri, String contentType, byte[] body) {
+    return send(reference, scope(reference), method, uri,
+                contentType == null ? Map.of() : Map.of("Content-Type", contentType),
+                body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body),
+                HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  /**
+   * @param scope The token scopes the request needs, separated by spaces.
+   */
+  private <T> HttpResponse<T> send(DockerReference reference,
+                                   String scope,
+                                   String method,
+                                   URI uri,
+                                   Map<String, String> headers,
+                                   HttpRequest.BodyPublisher body,
+                                   HttpResponse.BodyHandler<T> handler) {
+    String authorization = authorizations.get(reference.registry + " " + scope);
+    HttpResponse<T> response = sendOnce(method, uri, headers, body, handler, authorization);
+    if (response.statusCode() == 401) {
+      Optional<String> challenge = response.headers().firstValue("WWW-Authenticate");
+      if (challenge.isPresent()) {
+        authorization = authorize(challenge.get(), scope);
+        authorizations.put(reference.registry + " " + scope, authorization);
+        response = sendOnce(method, uri, headers, body, handler, authorization);
+      }
+    }
+    return response;
+  }
+
+  private <T> HttpResponse<T> sendOnce(String method,
+                                       URI uri,
+                                       Map<String, String> headers,
+                                       HttpRequest.BodyPublisher body,
+                                       HttpResponse.BodyHandler<T> handler,
+                                       String authorization) {
+    HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                                             .timeout(Duration.ofMinutes(10))
+                                             .header("Accept", MANIFEST_TYPES)
+                                             .method(method, body);
+    headers.forEach(request::header);
+    if (authorization != null) {
+      request.header("Authorization", authorization);
+    }
+    try {
+      return http.send(request.build(), handler);
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not reach the registry at '" + uri.getHost() + "': " + e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("AFB: Interrupted while calling the registry at '" + uri.getHost() + "'.", e);
+    }
+  }
+
+  /**
+   * @return The Authorization header value that answers 'challenge'.
+   */
+  private String authorize(String challenge, String scope) {
+    if (challenge.regionMatches(true, 0, "Basic", 0, 5)) {
+      if (credentials == null) {
+        throw new RuntimeException("AFB: The registry requires credentials.");
+      }
+      return "Basic " + basic();
+    }
+    if (!challenge.regionMatches(true, 0, "Bearer", 0, 6)) {
+      throw new RuntimeException("AFB: Unsupported registry authentication challenge '" + challenge + "'.");
+    }
+    Map<String, String> parameters = new LinkedHashMap<>();
+    Matcher matcher = CHALLENGE_PARAMETER.matcher(challenge);
+    while (matcher.find()) {
+      parameters.put(matcher.group(1), matcher.group(2));
+    }
+    StringBuilder uri = new StringBuilder(parameters.get("realm"));
+    char separator = uri.indexOf("?") < 0 ? '?' : '&';
+    for (String part : scope.split(" ")) {
+      uri.append(separator).append("scope=").append(URLEncoder.encode(part, StandardCharsets.UTF_8));
+      separator = '&';
+    }
+    if (parameters.containsKey("service")) {
+      uri.append("&service=").append(URLEncoder.encode(parameters.get("service"), StandardCharsets.UTF_8));
+    }
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(uri.toString())).timeout(Duration.ofSeconds(60)).GET();
+    if (credentials != null) {
+      request.header("Authorization", "Basic " + basic());
+    }
+    HttpResponse<String> response;
+    try {
+      response = http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    } catch (IOException e) {
+      throw new RuntimeException("AFB: Could not get a registry token from '" + parameters.get("realm") + "': " + e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("AFB: Interrupted while getting a registry token.", e);
+    }
+    if (response.statusCode() != 200) {
+      throw new RuntimeException("AFB: Could not get a registry token from '" + parameters.get("realm") + "': HTTP " + response.statusCode());
+    }
+    Map<?, ?> token = (Map<?, ?>) new JsonSlurper().parseText(response.body());
+    Object value = token.get("token") != null ? token.get("token") : token.get("access_token");
+    return "Bearer " + value;
+  }
+
+  private String basic() {
+    return Base64.getEncoder().encodeToString((credentials.username + ":" + credentials.password).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void check(HttpResponse<byte[]> response, String what) {
+    if (response.statusCode() < 200 || response.statusCode() >= 300) {
+      String body = new String(response.body(), StandardCharsets.UTF_8).trim();
+      throw new RuntimeException("AFB: Could not " + what + ": HTTP " + response.statusCode() + (body.isEmpty() ? "" : " " + body));
+    }
+  }
+}
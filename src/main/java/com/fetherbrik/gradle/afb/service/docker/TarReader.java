@@ -0,0 +1,180 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a tar stream, such as the output of 'docker save', entry by entry. Long names are read from PAX ('x') and GNU
+ * ('L') headers. The content of an entry the caller doesn't read is skipped, which is cheap for file streams.
+ */
+public final class TarReader {
+
+  private static final int BLOCK = 512;
+
+  private final InputStream in;
+  private long remaining;
+  private long padding;
+
+  public TarReader(InputStream in) {
+    this.in = in;
+  }
+
+  public static final class Entry {
+    public final String name;
+    public final long size;
+    public final char type;
+
+    Entry(String name, long size, char type) {
+      this.name = name;
+      this.size = size;
+      this.type = type;
+    }
+
+    public boolean isFile() {
+      return type == '0' || type == '\0';
+    }
+  }
+
+  /**
+   * @return The next entry, or null at the end of the archive.
+   */
+  public Entry next() throws IOException {
+    skipFully(remaining + padding);
+    remaining = 0;
+    padding = 0;
+    String longName = null;
+    while (true) {
+      byte[] header = new byte[BLOCK];
+      if (!readBlock(header) || isZero(header)) {
+        return null;
+      }
+      String name = longName != null ? longName : name(header);
+      long size = octal(header, 124, 12);
+      char type = (char) header[156];
+      if (type == 'x' || type == 'L') {
+        byte[] extension = new byte[(int) size];
+        readFully(extension);
+        skipFully(pad(size));
+        String text = new String(extension, StandardCharsets.UTF_8);
+        longName = type == 'L' ? text.replace("\0", "") : paxPath(text, longName);
+        continue;
+      }
+      remaining = size;
+      padding = pad(size);
+      return new Entry(name, size, type);
+    }
+  }
+
+  /**
+   * @return The content of the current entry. Valid until {@link #next()}.
+   */
+  public InputStream content() {
+    return new FilterInputStream(in) {
+      @Override
+      public int read() throws IOException {
+        if (remaining <= 0) {
+          return -1;
+        }
+        int c = in.read();
+        if (c >= 0) {
+          remaining--;
+        }
+        return c;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+          return -1;
+        }
+        int read = in.read(b, off, (int) Math.min(len, remaining));
+        if (read > 0) {
+          remaining -= read;
+        }
+        return read;
+      }
+
+      @Override
+      public void close() {
+        // The archive stays open for the next entry.
+      }
+    };
+  }
+
+  private static String name(byte[] header) {
+    String name = field(header, 0, 100);
+    String prefix = field(header, 345, 155);
+    return prefix.isEmpty() ? name : prefix + "/" + name;
+  }
+
+  private static String paxPath(String records, String current) {
+    for (String record : records.split("\n")) {
+      int space = record.indexOf(' ');
+      if (space > 0 && record.startsWith("path=", space + 1)) {
+        return record.substring(space + 6);
+      }
+    }
+    return current;
+  }
+
+  private static String field(byte[] header, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      end++;
+    }
+    return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+  }
+
+  private static long octal(byte[] header, int offset, int length) {
+    String text = field(header, offset, length).trim();
+    return text.isEmpty() ? 0 : Long.parseLong(text, 8);
+  }
+
+  private static long pad(long size) {
+    long remainder = size % BLOCK;
+    return remainder == 0 ? 0 : BLOCK - remainder;
+  }
+
+  private static boolean isZero(byte[] block) {
+    for (byte b : block) {
+      if (b != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean readBlock(byte[] block) throws IOException {
+    int read = in.readNBytes(block, 0, BLOCK);
+    if (read == 0) {
+      return false;
+    }
+    if (read < BLOCK) {
+      throw new EOFException("The tar archive ends in the middle of a header.");
+    }
+    return true;
+  }
+
+  private void readFully(byte[] bytes) throws IOException {
+    if (in.readNBytes(bytes, 0, bytes.length) < bytes.length) {
+      throw new EOFException("The tar archive ends in the middle of an entry.");
+    }
+  }
+
+  private void skipFully(long count) throws IOException {
+    long left = count;
+    while (left > 0) {
+      long skipped = in.skip(left);
+      if (skipped <= 0) {
+        if (in.read() < 0) {
+          throw new EOFException("The tar archive ends in the middle of an entry.");
+        }
+        skipped = 1;
+      }
+      left -= skipped;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.fetherbrik.gradle.afb.service.docker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Writes a POSIX (ustar) tar stream, the format of a docker build context. Names that don't fit the ustar header are
+ * written with a PAX extended header. The underlying stream is not closed.
+ * <p>
+ * With a fixed modification time, every entry gets that time instead of its own, so that the stream only depends on
+ * the names, modes and content of the files.
+ */
+public final class TarWriter {
+
+  private static final int BLOCK = 512;
+
+  private final OutputStream out;
+  private final Long fixedMtime;
+  private final byte[] buffer = new byte[64 * 1024];
+
+  public TarWriter(OutputStream out) {
+    this(out, null);
+  }
+
+  /**
+   * @param fixedMtime Seconds since the epoch, or null to keep the times of the entries.
+   */
+  public TarWriter(OutputStream out, Long fixedMtime) {
+    this.out = out;
+    this.fixedMtime = fixedMtime;
+  }
+
+  /**
+   * Add 'dir' and everything below it, as paths relative to 'dir'. Entries are written in name order.
+   */
+  public void addTree(File dir) throws IOException {
+    addChildren(dir, "");
+  }
+
+  /**
+   * Add everything below 'dir', as paths relative to 'dir' under 'prefix' (e.g. 'app/'). Entries are written in name
+   * order.
+   */
+  public void addTree(File dir, String prefix) throws IOException {
+    addChildren(dir, prefix);
+  }
+
+  private void addChildren(File dir, String prefix) throws IOException {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      throw new IOException("Could not list '" + dir + "'.");
+    }
+    Arrays.sort(children);
+    for (File child : children) {
+      String name = prefix + child.getName();
+      long mtime = child.lastModified() / 1000;
+      if (child.isDirectory()) {
+        directory(name, mtime, 0755);
+        addChildren(child, name + "/");
+      } else if (child.isFile()) {
+        file(name, child, mtime, child.canExecute() ? 0755 : 0644);
+      }
+    }
+  }
+
+  public void directory(String name, long mtime, int mode) throws IOException {
+    header(name.endsWith("/") ? name : name + "/", 0, mtime, mode, '5');
+  }
+
+  public void file(String name, File source, long mtime, int mode) throws IOException {
+    long size = source.length();
+    header(name, size, mtime, mode, '0');
+    long written = 0;
+    try (InputStream in = Files.newInputStream(source.toPath())) {
+      int read;
+      while (written < size && (read = in.read(buffer, 0, (int) Math.min(buffer.length, size - written))) > 0) {
+        out.write(buffer, 0, read);
+        written += read;
+      }
+    }
+    if (written != size) {
+      throw new IOException("'" + source + "' changed while it was being added to the docker context.");
+    }
+    pad(size);
+  }
+
+  public void file(String name, byte[] content, long mtime, int mode) throws IOException {
+    header(name, content.length, mtime, mode, '0');
+    out.write(content);
+    pad(content.length);
+  }
+
+  /**
+   * Write the end-of-archive marker: two empty blocks.
+   */
+  public void finish() throws IOException {
+    out.write(new byte[BLOCK * 2]);
+    out.flush();
+  }
+
+  private void header(String name, long size, long mtime, int mode, char type) throws IOException {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    if (nameBytes.length > 100) {
+      byte[] record = paxRecord("path", name);
+      writeHeader(truncate("PaxHeader/" + name), record.length, mtime, 0644, 'x');
+      out.write(record);
+      pad(record.length);
+      nameBytes = truncate(name).getBytes(StandardCharsets.UTF_8);
+    }
+    writeHeader(new String(nameBytes, StandardCharsets.UTF_8), size, mtime, mode, type);
+  }
+
+  private void writeHeader(String name, long size, long entryMtime, int mode, char type) throws IOException {
+    long mtime = fixedMtime != null ? fixedMtime : entryMtime;
+    byte[] header = new byte[BLOCK];
+    put(header, 0, 100, name.getBytes(StandardCharsets.UTF_8));
+    octal(header, 100, 8, mode);
+    octal(header, 108, 8, 0);
+    octal(header, 116, 8, 0);
+    octal(header, 124, 12, size);
+    octal(header, 136, 12, mtime);
+    Arrays.fill(header, 148, 156, (byte) ' ');
+    header[156] = (byte) type;
+    put(header, 257, 6, "ustar\0".getBytes(StandardCharsets.US_ASCII));
+    put(header, 263, 2, "00".getBytes(StandardCharsets.US_ASCII));
+    long checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xff;
+    }
+    octal(header, 148, 7, checksum);
+    out.write(header);
+  }
+
+  /**
+   * A PAX record is '<length> <key>=<value>\n', where the length counts its own digits.
+   */
+  private static byte[] paxRecord(String key, String value) {
+    int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+    int digits = String.valueOf(length).length();
+    if (String.valueOf(length + digits).length() > digits) {
+      digits++;
+    }
+    return ((length + digits) + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String truncate(String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    return bytes.length <= 100 ? name : new String(bytes, bytes.length - 100, 100, StandardCharsets.US_ASCII).replaceAll("[^\\x20-\\x7e]", "_");
+  }
+
+  private static void put(byte[] header, int offset, int length, byte[] value) {
+    System.arraycopy(value, 0, header, offset, Math.min(length, value.length));
+  }
+
+  private static void octal(byte[] header, int offset, int length, long value) {
+    String text = Long.toOctalString(value);
+    if (text.length() > length - 1) {
+      throw new IllegalArgumentException("Value " + value + " does not fit a tar header field.");
+    }
+    StringBuilder padded = new StringBuilder();
+    for (int i = text.length(); i < length - 1; i++) {
+      padded.append('0');
+    }
+    put(header, offset, length, (padded + text + "\0").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private void pad(long size) throws IOException {
+    int remainder = (int) (size % BLOCK);
+    if (remainder != 0) {
+      out.write(new byte[BLOCK - remainder]);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which repositories of a registry are known to have a blob: the mount sources to try before uploading it. Shared by
+ * every push of the build, and kept in a file between builds. Entries may be stale (a blob may have been deleted since),
+ * which only costs a mount request that fails.
+ */
+public final class BlobLedger {
+
+  private final File file;
+  private final Properties entries = new Properties();
+  private final Map<String, Object> locks = new ConcurrentHashMap<>();
+  private boolean changed;
+
+  private BlobLedger(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @param file Where the ledger is kept; may be null, or not exist yet.
+   */
+  public static BlobLedger load(File file) {
+    BlobLedger ledger = new BlobLedger(file);
+    if (file != null && file.isFile()) {
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+        ledger.entries.load(in);
+      } catch (IOException e) {
+        // Start over: the ledger only saves uploads.
+      }
+    }
+    return ledger;
+  }
+
+  /**
+   * @return The repositories of 'registry' known to have the blob 'digest', most recent first.
+   */
+  public synchronized Set<String> repositories(String registry, String digest) {
+    String value = entries.getProperty(key(registry, digest));
+    return value == null ? new LinkedHashSet<>() : new LinkedHashSet<>(Arrays.asList(value.split(" ")));
+  }
+
+  public synchronized void record(String registry, String repository, String digest) {
+    Set<String> repositories = new LinkedHashSet<>();
+    repositories.add(repository);
+    repositories.addAll(repositories(registry, digest));
+    entries.setProperty(key(registry, digest), String.join(" ", repositories));
+    changed = true;
+  }
+
+  /**
+   * @return The object to hold while pushing the blob 'digest' to 'registry': pushes of the same blob take turns, so
+   * that only the first one uploads it, and the others can mount it.
+   */
+  public Object lock(String registry, String digest) {
+    return locks.computeIfAbsent(key(registry, digest), key -> new Object());
+  }
+
+  public synchronized void save() throws IOException {
+    if (file == null || !changed) {
+      return;
+    }
+    Files.createDirectories(file.getParentFile().toPath());
+    try (OutputStream out = Files.newOutputStream(file.toPath())) {
+      entries.store(out, "Registry blobs: <registry>@<digest> = <repositories>");
+    }
+    changed = false;
+  }
+
+  private static String key(String registry, String digest) {
+    return registry + "@" + digest;
+  }
+}
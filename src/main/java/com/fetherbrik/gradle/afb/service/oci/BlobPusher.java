@@ -0,0 +1,129 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import com.fetherbrik.gradle.afb.service.docker.DockerReference;
+import com.fetherbrik.gradle.afb.service.docker.RegistryClient;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Gets blobs into a repository, several at once. For each blob, in order of cost: nothing, if the repository has it;
+ * a cross-repository mount from a repository the {@link BlobLedger} or 'mountFrom' names; else a chunked upload, which
+ * resumes after a failed chunk (see {@link RegistryClient#uploadBlob}). Pushes of the same blob take turns, so when
+ * several images share a base layer it is uploaded once and mounted into the other repositories.
+ */
+public final class BlobPusher {
+
+  public static final int RETRIES = 3;
+
+  private final RegistryClient registry;
+  private final BlobLedger ledger;
+  private final List<String> mountFrom;
+  private final long chunkSize;
+  private final int concurrency;
+  private final Logger logger;
+
+  /**
+   * @param mountFrom Repositories of the target registry, e.g. 'org/base', that likely have the blobs.
+   */
+  public BlobPusher(RegistryClient registry, BlobLedger ledger, List<String> mountFrom, long chunkSize, int concurrency, Logger logger) {
+    this.registry = registry;
+    this.ledger = ledger;
+    this.mountFrom = new ArrayList<>(mountFrom);
+    this.chunkSize = chunkSize;
+    this.concurrency = concurrency;
+    this.logger = logger;
+  }
+
+  public enum Action {EXISTING, MOUNTED, UPLOADED}
+
+  public static final class Result {
+    public int existing;
+    public int mounted;
+    public int uploaded;
+    public long uploadedBytes;
+
+    void add(Action action, OciDescriptor blob) {
+      if (action == Action.EXISTING) {
+        existing++;
+      } else if (action == Action.MOUNTED) {
+        mounted++;
+      } else {
+        uploaded++;
+        uploadedBytes += blob.size;
+      }
+    }
+  }
+
+  /**
+   * @param files The file of each blob, by digest.
+   */
+  public Result push(DockerReference target, List<OciDescriptor> blobs, Function<String, File> files) {
+    Result result = new Result();
+    if (blobs.isEmpty()) {
+      return result;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, blobs.size())), task -> {
+      Thread thread = new Thread(task, "afb-blob-push");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<Action>> actions = new ArrayList<>();
+      for (OciDescriptor blob : blobs) {
+        actions.add(executor.submit(() -> push(target, blob, files.apply(blob.digest))));
+      }
+      for (int i = 0; i < blobs.size(); i++) {
+        result.add(actions.get(i).get(), blobs.get(i));
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException
+            ? (RuntimeException) e.getCause()
+            : new RuntimeException("AFB: Could not push a blob to '" + target.registry + "/" + target.repository + "'.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("AFB: Interrupted while pushing blobs to '" + target.registry + "/" + target.repository + "'.", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    return result;
+  }
+
+  private Action push(DockerReference target, OciDescriptor blob, File file) {
+    String repository = target.registry + "/" + target.repository;
+    synchronized (ledger.lock(target.registry, blob.digest)) {
+      if (registry.hasBlob(target, blob.digest)) {
+        logger.info("AFB: '" + repository + "' already has " + blob + ".");
+        ledger.record(target.registry, target.repository, blob.digest);
+        return Action.EXISTING;
+      }
+      for (String source : mountSources(target, blob.digest)) {
+        if (registry.mountBlob(target, blob.digest, source)) {
+          logger.info("AFB: Mounted " + blob + " into '" + repository + "' from '" + source + "'.");
+          ledger.record(target.registry, target.repository, blob.digest);
+          return Action.MOUNTED;
+        }
+      }
+      logger.info("AFB: Uploading " + blob + " to '" + repository + "'.");
+      registry.uploadBlob(target, blob.digest, file, chunkSize, RETRIES);
+      ledger.record(target.registry, target.repository, blob.digest);
+      return Action.UPLOADED;
+    }
+  }
+
+  private Set<String> mountSources(DockerReference target, String digest) {
+    Set<String> sources = new LinkedHashSet<>(ledger.repositories(target.registry, digest));
+    sources.addAll(mountFrom);
+    sources.remove(target.repository);
+    return sources;
+  }
+}
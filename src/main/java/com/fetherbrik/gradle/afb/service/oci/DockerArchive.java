@@ -0,0 +1,165 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import com.fetherbrik.gradle.afb.service.docker.DockerBackend;
+import com.fetherbrik.gradle.afb.service.docker.Digests;
+import com.fetherbrik.gradle.afb.service.docker.TarReader;
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Turns an image of the docker daemon into an {@link OciLayout}, so that it can be pushed through the registry API: the
+ * image is saved ('docker save'), its config is kept as is (so the image id stays the same), and its layers are
+ * compressed. Compressed layers are cached by diff id, so a base layer shared by many images is only compressed once.
+ */
+public final class DockerArchive {
+
+  private DockerArchive() {
+  }
+
+  /**
+   * Save 'image' from 'docker' and write it to the layout 'layoutDir'.
+   *
+   * @param layerCache Where compressed layers are kept, by diff id.
+   */
+  public static OciLayout save(DockerBackend docker, String image, File layoutDir, File layerCache) throws IOException {
+    Files.createDirectories(layoutDir.getParentFile().toPath());
+    File archive = new File(layoutDir.getParentFile(), layoutDir.getName() + ".tar");
+    try {
+      docker.save(image, archive);
+      OciLayout layout = new OciLayout(layoutDir);
+      convert(archive, layout, layerCache);
+      return layout;
+    } finally {
+      archive.delete();
+    }
+  }
+
+  /**
+   * Write the (first) image of the 'docker save' archive 'archive' to 'layout'.
+   *
+   * @return The descriptor of the image manifest.
+   */
+  public static OciDescriptor convert(File archive, OciLayout layout, File layerCache) throws IOException {
+    // The entries can come in any order, and manifest.json tends to be last: look up what is needed in turn. Skipping
+    // the other entries of a file is cheap.
+    Map<?, ?> image = (Map<?, ?>) ((List<?>) json(entry(archive, "manifest.json"))).get(0);
+    String configPath = String.valueOf(image.get("Config"));
+    byte[] config = entry(archive, configPath);
+    List<?> diffIds = (List<?>) ((Map<?, ?>) ((Map<?, ?>) json(config)).get("rootfs")).get("diff_ids");
+    List<?> layerPaths = (List<?>) image.get("Layers");
+    if (diffIds == null || diffIds.size() != layerPaths.size()) {
+      throw new RuntimeException("AFB: The layers of '" + archive + "' don't match its config.");
+    }
+
+    Map<String, OciLayer> layers = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (int i = 0; i < layerPaths.size(); i++) {
+      File cached = new File(layerCache, Digests.encoded(String.valueOf(diffIds.get(i))));
+      if (new File(cached, OciLayer.DESCRIPTOR_FILE).isFile()) {
+        layers.put(String.valueOf(layerPaths.get(i)), OciLayer.read(cached));
+      } else {
+        missing.add(String.valueOf(layerPaths.get(i)));
+      }
+    }
+    if (!missing.isEmpty()) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(archive.toPath()), 64 * 1024)) {
+        TarReader tar = new TarReader(in);
+        for (TarReader.Entry entry = tar.next(); entry != null; entry = tar.next()) {
+          if (entry.isFile() && missing.contains(entry.name) && !layers.containsKey(entry.name)) {
+            layers.put(entry.name, compress(entry.name, tar.content(), layerCache));
+          }
+        }
+      }
+    }
+
+    OciDescriptor configBlob = layout.writeBlob(OciDescriptor.CONFIG, config);
+    List<Object> layerMaps = new ArrayList<>();
+    for (int i = 0; i < layerPaths.size(); i++) {
+      OciLayer layer = layers.get(String.valueOf(layerPaths.get(i)));
+      File cached = new File(layerCache, Digests.encoded(String.valueOf(diffIds.get(i))));
+      if (layer == null && new File(cached, OciLayer.DESCRIPTOR_FILE).isFile()) {
+        // A link to a layer that is also in the image, under another name.
+        layer = OciLayer.read(cached);
+      }
+      if (layer == null) {
+        throw new RuntimeException("AFB: '" + archive + "' has no layer '" + layerPaths.get(i) + "'.");
+      }
+      if (!layer.diffId.equals(String.valueOf(diffIds.get(i)))) {
+        throw new RuntimeException("AFB: Layer '" + layerPaths.get(i) + "' of '" + archive + "' is not '" + diffIds.get(i) + "'.");
+      }
+      layout.addBlob(layer.digest, new File(cached, OciLayer.LAYER_FILE));
+      layerMaps.add(layer.descriptor().toMap());
+    }
+    Map<String, Object> manifest = new LinkedHashMap<>();
+    manifest.put("schemaVersion", 2);
+    manifest.put("mediaType", OciDescriptor.MANIFEST);
+    manifest.put("config", configBlob.toMap());
+    manifest.put("layers", layerMaps);
+    OciDescriptor manifestBlob = layout.writeBlob(OciDescriptor.MANIFEST, JsonOutput.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+    layout.writeIndex(manifestBlob, new ArrayList<>());
+    return manifestBlob;
+  }
+
+  /**
+   * Compress a layer into the cache, under its diff id. The layer is written to a directory of its own first, so
+   * concurrent conversions of the same layer don't get in each other's way.
+   */
+  private static OciLayer compress(String path, InputStream content, File layerCache) throws IOException {
+    InputStream tar = new BufferedInputStream(content, 64 * 1024);
+    tar.mark(2);
+    boolean gzipped = tar.read() == 0x1f && tar.read() == 0x8b;
+    tar.reset();
+    File partial = new File(layerCache, "tmp-" + UUID.randomUUID());
+    try {
+      OciLayer layer = OciLayer.compress(path, gzipped ? new GZIPInputStream(tar, 64 * 1024) : tar, partial);
+      File cached = new File(layerCache, Digests.encoded(layer.diffId));
+      try {
+        Files.move(partial.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException e) {
+        // Compressed meanwhile by someone else: same diff id, same layer.
+      } catch (IOException e) {
+        if (!new File(cached, OciLayer.DESCRIPTOR_FILE).isFile()) {
+          throw e;
+        }
+      }
+      return OciLayer.read(cached);
+    } finally {
+      for (File file : partial.listFiles() == null ? new File[0] : partial.listFiles()) {
+        file.delete();
+      }
+      partial.delete();
+    }
+  }
+
+  private static byte[] entry(File archive, String name) throws IOException {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(archive.toPath()), 64 * 1024)) {
+      TarReader tar = new TarReader(in);
+      for (TarReader.Entry entry = tar.next(); entry != null; entry = tar.next()) {
+        if (entry.name.equals(name) && entry.isFile()) {
+          return tar.content().readAllBytes();
+        }
+      }
+    }
+    throw new RuntimeException("AFB: '" + archive + "' has no '" + name + "'.");
+  }
+
+  private static Object json(byte[] content) {
+    return new JsonSlurper().parseText(new String(content, StandardCharsets.UTF_8));
+  }
+}
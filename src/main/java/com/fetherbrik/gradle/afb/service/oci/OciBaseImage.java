@@ -0,0 +1,109 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import com.fetherbrik.gradle.afb.service.docker.DockerReference;
+import com.fetherbrik.gradle.afb.service.docker.Digests;
+import com.fetherbrik.gradle.afb.service.docker.RegistryClient;
+import groovy.json.JsonSlurper;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The image an image is built on: its config, and its layers, downloaded into a content-addressed blob cache shared by
+ * every build of the machine. Only blobs that are not in the cache are downloaded.
+ */
+public final class OciBaseImage {
+
+  public static final String SCRATCH = "scratch";
+
+  /**
+   * The base config, as read: e.g. config.Env, rootfs.diff_ids, history.
+   */
+  public final Map<String, Object> config;
+  public final List<OciDescriptor> layers;
+  private final File blobCache;
+
+  private OciBaseImage(Map<String, Object> config, List<OciDescriptor> layers, File blobCache) {
+    this.config = config;
+    this.layers = layers;
+    this.blobCache = blobCache;
+  }
+
+  /**
+   * @param image    A reference such as 'adoptopenjdk/openjdk11:jre', or 'scratch' for no base image.
+   * @param platform e.g. 'linux/amd64': the image to use from a multi-platform base.
+   */
+  public static OciBaseImage pull(RegistryClient registry, String image, String platform, File blobCache, Logger logger) throws IOException {
+    String[] osArch = platform.split("/");
+    if (image.equals(SCRATCH)) {
+      Map<String, Object> config = new LinkedHashMap<>();
+      config.put("architecture", osArch[1]);
+      config.put("os", osArch[0]);
+      config.put("config", new LinkedHashMap<>());
+      Map<String, Object> rootfs = new LinkedHashMap<>();
+      rootfs.put("type", "layers");
+      rootfs.put("diff_ids", new ArrayList<>());
+      config.put("rootfs", rootfs);
+      config.put("history", new ArrayList<>());
+      return new OciBaseImage(config, new ArrayList<>(), blobCache);
+    }
+    DockerReference reference = DockerReference.parse(image);
+    RegistryClient.Manifest manifest = registry.getManifest(reference, reference.reference());
+    Map<?, ?> content = parse(manifest.content);
+    if (manifest.mediaType.startsWith(OciDescriptor.INDEX) || manifest.mediaType.startsWith(OciDescriptor.DOCKER_MANIFEST_LIST)) {
+      String digest = platformManifest(content, osArch, image, platform);
+      manifest = registry.getManifest(reference, digest);
+      content = parse(manifest.content);
+    }
+    OciDescriptor configDescriptor = OciDescriptor.fromMap((Map<?, ?>) content.get("config"));
+    fetch(registry, reference, configDescriptor, blobCache, logger);
+    List<OciDescriptor> layers = new ArrayList<>();
+    for (Object layer : (List<?>) content.get("layers")) {
+      OciDescriptor descriptor = OciDescriptor.fromMap((Map<?, ?>) layer).asOci();
+      fetch(registry, reference, descriptor, blobCache, logger);
+      layers.add(descriptor);
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, Object> config = (Map<String, Object>) parse(Files.readAllBytes(blobFile(blobCache, configDescriptor.digest).toPath()));
+    return new OciBaseImage(config, layers, blobCache);
+  }
+
+  private static String platformManifest(Map<?, ?> index, String[] osArch, String image, String platform) {
+    for (Object entry : (List<?>) index.get("manifests")) {
+      Map<?, ?> manifest = (Map<?, ?>) entry;
+      Map<?, ?> entryPlatform = (Map<?, ?>) manifest.get("platform");
+      if (entryPlatform != null && osArch[0].equals(entryPlatform.get("os")) && osArch[1].equals(entryPlatform.get("architecture"))
+          && (osArch.length < 3 || osArch[2].equals(entryPlatform.get("variant")))) {
+        return String.valueOf(manifest.get("digest"));
+      }
+    }
+    throw new RuntimeException("AFB: The base image '" + image + "' has no '" + platform + "' image.");
+  }
+
+  public File blob(String digest) {
+    return blobFile(blobCache, digest);
+  }
+
+  private static File blobFile(File blobCache, String digest) {
+    return new File(blobCache, "sha256/" + Digests.encoded(digest));
+  }
+
+  private static void fetch(RegistryClient registry, DockerReference reference, OciDescriptor descriptor, File blobCache, Logger logger) {
+    File target = blobFile(blobCache, descriptor.digest);
+    if (!target.isFile()) {
+      logger.info("AFB: Downloading " + descriptor + " of '" + reference + "'.");
+      registry.downloadBlob(reference, descriptor.digest, target);
+    }
+  }
+
+  private static Map<?, ?> parse(byte[] json) {
+    return (Map<?, ?>) new JsonSlurper().parseText(new String(json, StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,56 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A content descriptor: what manifests and indexes use to point at blobs.
+ */
+public final class OciDescriptor {
+
+  public static final String MANIFEST = "application/vnd.oci.image.manifest.v1+json";
+  public static final String INDEX = "application/vnd.oci.image.index.v1+json";
+  public static final String CONFIG = "application/vnd.oci.image.config.v1+json";
+  public static final String LAYER_GZIP = "application/vnd.oci.image.layer.v1.tar+gzip";
+  public static final String DOCKER_MANIFEST = "application/vnd.docker.distribution.manifest.v2+json";
+  public static final String DOCKER_MANIFEST_LIST = "application/vnd.docker.distribution.manifest.list.v2+json";
+  public static final String DOCKER_LAYER_GZIP = "application/vnd.docker.image.rootfs.diff.tar.gzip";
+
+  public final String mediaType;
+  public final String digest;
+  public final long size;
+
+  public OciDescriptor(String mediaType, String digest, long size) {
+    this.mediaType = mediaType;
+    this.digest = digest;
+    this.size = size;
+  }
+
+  public static OciDescriptor fromMap(Map<?, ?> map) {
+    return new OciDescriptor(String.valueOf(map.get("mediaType")), String.valueOf(map.get("digest")), ((Number) map.get("size")).longValue());
+  }
+
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("mediaType", mediaType);
+    map.put("digest", digest);
+    map.put("size", size);
+    return map;
+  }
+
+  /**
+   * @return This descriptor with the OCI media type for the docker media type it has, if any: the content of docker
+   * and OCI gzip layers is the same.
+   */
+  public OciDescriptor asOci() {
+    if (mediaType.equals(DOCKER_LAYER_GZIP)) {
+      return new OciDescriptor(LAYER_GZIP, digest, size);
+    }
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return digest + " (" + size + " bytes)";
+  }
+}
@@ -0,0 +1,120 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import groovy.json.JsonOutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an image to an {@link OciLayout}: the layers of the base image, then the given layers, with a config derived
+ * from the base config. The config and manifest are written in a fixed order with a fixed creation time, so the same
+ * base and layers always give the same image digest.
+ */
+public final class OciImageWriter {
+
+  private final List<String> entrypoint = new ArrayList<>();
+  private final Map<String, String> labels = new LinkedHashMap<>();
+  private String workingDir;
+  private String created = "1970-01-01T00:00:00Z";
+
+  public OciImageWriter entrypoint(List<String> entrypoint) {
+    this.entrypoint.clear();
+    this.entrypoint.addAll(entrypoint);
+    return this;
+  }
+
+  public OciImageWriter workingDir(String workingDir) {
+    this.workingDir = workingDir;
+    return this;
+  }
+
+  public OciImageWriter labels(Map<String, String> labels) {
+    this.labels.putAll(labels);
+    return this;
+  }
+
+  /**
+   * @param created An RFC 3339 time, e.g. '2020-10-01T12:00:00Z'.
+   */
+  public OciImageWriter created(String created) {
+    this.created = created;
+    return this;
+  }
+
+  /**
+   * @param layerDirs Directories written by {@link OciLayer#write}, in image order.
+   * @return The descriptor of the image manifest.
+   */
+  public OciDescriptor write(OciLayout layout, OciBaseImage base, List<File> layerDirs, List<String> refNames) throws IOException {
+    List<OciDescriptor> layers = new ArrayList<>();
+    for (OciDescriptor layer : base.layers) {
+      layout.addBlob(layer.digest, base.blob(layer.digest));
+      layers.add(layer);
+    }
+    Map<String, Object> config = copy(base.config);
+    Map<String, Object> runConfig = child(config, "config");
+    Map<String, Object> rootfs = child(config, "rootfs");
+    List<Object> diffIds = new ArrayList<>((List<?>) rootfs.getOrDefault("diff_ids", new ArrayList<>()));
+    List<Object> history = new ArrayList<>((List<?>) config.getOrDefault("history", new ArrayList<>()));
+    for (File layerDir : layerDirs) {
+      OciLayer layer = OciLayer.read(layerDir);
+      layout.addBlob(layer.digest, new File(layerDir, OciLayer.LAYER_FILE));
+      layers.add(layer.descriptor());
+      diffIds.add(layer.diffId);
+      Map<String, Object> step = new LinkedHashMap<>();
+      step.put("created", created);
+      step.put("created_by", "afb: COPY " + layer.directory);
+      history.add(step);
+    }
+    rootfs.put("type", "layers");
+    rootfs.put("diff_ids", diffIds);
+    config.put("history", history);
+    config.put("created", created);
+    if (!entrypoint.isEmpty()) {
+      runConfig.put("Entrypoint", entrypoint);
+      runConfig.remove("Cmd");
+    }
+    if (workingDir != null) {
+      runConfig.put("WorkingDir", workingDir);
+    }
+    if (!labels.isEmpty()) {
+      Map<String, Object> allLabels = child(runConfig, "Labels");
+      allLabels.putAll(labels);
+    }
+    OciDescriptor configBlob = layout.writeBlob(OciDescriptor.CONFIG, JsonOutput.toJson(config).getBytes(StandardCharsets.UTF_8));
+
+    Map<String, Object> manifest = new LinkedHashMap<>();
+    manifest.put("schemaVersion", 2);
+    manifest.put("mediaType", OciDescriptor.MANIFEST);
+    manifest.put("config", configBlob.toMap());
+    List<Object> layerMaps = new ArrayList<>();
+    for (OciDescriptor layer : layers) {
+      layerMaps.add(layer.toMap());
+    }
+    manifest.put("layers", layerMaps);
+    OciDescriptor manifestBlob = layout.writeBlob(OciDescriptor.MANIFEST, JsonOutput.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+    layout.writeIndex(manifestBlob, refNames);
+    return manifestBlob;
+  }
+
+  private static Map<String, Object> copy(Map<?, ?> map) {
+    Map<String, Object> copy = new LinkedHashMap<>();
+    map.forEach((key, value) -> copy.put(String.valueOf(key), value instanceof Map ? copy((Map<?, ?>) value) : value));
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> child(Map<String, Object> parent, String key) {
+    Object child = parent.get(key);
+    if (!(child instanceof Map)) {
+      child = new LinkedHashMap<String, Object>();
+      parent.put(key, child);
+    }
+    return (Map<String, Object>) child;
+  }
+}
@@ -0,0 +1,130 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import com.fetherbrik.gradle.afb.service.docker.Digests;
+import com.fetherbrik.gradle.afb.service.docker.TarWriter;
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An image layer: a gzipped tar of files placed under one directory of the image, e.g. every jar of 'libs' under
+ * '/app/libs'. Layers are reproducible: entries are sorted by name, and have fixed owners, modes and times, so the same
+ * files always give the same digest.
+ * <p>
+ * A layer is kept in a directory of its own, as the compressed tar ({@link #LAYER_FILE}) and a descriptor
+ * ({@link #DESCRIPTOR_FILE}) with its digest, the digest of the uncompressed tar (its 'diff id') and its size.
+ */
+public final class OciLayer {
+
+  public static final String LAYER_FILE = "layer.tar.gz";
+  public static final String DESCRIPTOR_FILE = "layer.json";
+
+  public final String directory;
+  public final String digest;
+  public final String diffId;
+  public final long size;
+
+  public OciLayer(String directory, String digest, String diffId, long size) {
+    this.directory = directory;
+    this.digest = digest;
+    this.diffId = diffId;
+    this.size = size;
+  }
+
+  /**
+   * Write the layer of 'files' (added by name; directories with their content) under 'directory', e.g. 'app/libs', to
+   * 'layerDir'.
+   *
+   * @param mtime The time of every entry, in seconds since the epoch.
+   */
+  public static OciLayer write(String directory, Collection<File> files, long mtime, File layerDir) throws IOException {
+    List<File> sorted = new ArrayList<>(files);
+    sorted.removeIf(file -> !file.exists());
+    sorted.sort(Comparator.comparing(File::getName));
+    for (int i = 1; i < sorted.size(); i++) {
+      if (sorted.get(i).getName().equals(sorted.get(i - 1).getName())) {
+        throw new RuntimeException("AFB: Both '" + sorted.get(i - 1) + "' and '" + sorted.get(i) + "' would be '" + directory + "/"
+                                   + sorted.get(i).getName() + "' in the image.");
+      }
+    }
+    return write(directory, layerDir, tarOut -> {
+      TarWriter tar = new TarWriter(tarOut, mtime);
+      String path = "";
+      for (String part : directory.split("/")) {
+        path += part + "/";
+        tar.directory(path, mtime, 0755);
+      }
+      for (File source : sorted) {
+        if (source.isDirectory()) {
+          tar.directory(path + source.getName(), mtime, 0755);
+          tar.addTree(source, path + source.getName() + "/");
+        } else {
+          tar.file(path + source.getName(), source, mtime, 0644);
+        }
+      }
+      tar.finish();
+    });
+  }
+
+  /**
+   * Write the layer of the uncompressed tar 'tar' to 'layerDir'.
+   *
+   * @param directory What the layer holds, for the image history.
+   */
+  public static OciLayer compress(String directory, InputStream tar, File layerDir) throws IOException {
+    return write(directory, layerDir, tar::transferTo);
+  }
+
+  private interface TarContent {
+    void writeTo(OutputStream tar) throws IOException;
+  }
+
+  private static OciLayer write(String directory, File layerDir, TarContent content) throws IOException {
+    Files.createDirectories(layerDir.toPath());
+    File layerFile = new File(layerDir, LAYER_FILE);
+    MessageDigest compressed = Digests.newSha256();
+    MessageDigest uncompressed = Digests.newSha256();
+    try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(layerFile.toPath()), 64 * 1024);
+         GZIPOutputStream gzip = new GZIPOutputStream(new DigestOutputStream(file, compressed), 64 * 1024);
+         OutputStream tarOut = new DigestOutputStream(gzip, uncompressed)) {
+      content.writeTo(tarOut);
+    }
+    OciLayer layer = new OciLayer(directory, Digests.of(compressed), Digests.of(uncompressed), layerFile.length());
+    Map<String, Object> descriptor = new LinkedHashMap<>();
+    descriptor.put("directory", layer.directory);
+    descriptor.put("digest", layer.digest);
+    descriptor.put("diffId", layer.diffId);
+    descriptor.put("size", layer.size);
+    Files.write(new File(layerDir, DESCRIPTOR_FILE).toPath(), JsonOutput.toJson(descriptor).getBytes(StandardCharsets.UTF_8));
+    return layer;
+  }
+
+  public static OciLayer read(File layerDir) throws IOException {
+    File descriptorFile = new File(layerDir, DESCRIPTOR_FILE);
+    Map<?, ?> descriptor = (Map<?, ?>) new JsonSlurper().parseText(new String(Files.readAllBytes(descriptorFile.toPath()), StandardCharsets.UTF_8));
+    return new OciLayer(String.valueOf(descriptor.get("directory")),
+                        String.valueOf(descriptor.get("digest")),
+                        String.valueOf(descriptor.get("diffId")),
+                        ((Number) descriptor.get("size")).longValue());
+  }
+
+  public OciDescriptor descriptor() {
+    return new OciDescriptor(OciDescriptor.LAYER_GZIP, digest, size);
+  }
+}
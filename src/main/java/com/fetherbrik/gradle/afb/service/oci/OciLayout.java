@@ -0,0 +1,119 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import com.fetherbrik.gradle.afb.service.docker.Digests;
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An OCI image layout directory: 'oci-layout', 'index.json', and every blob under 'blobs/sha256', named by its digest.
+ * Tools such as skopeo read it directly (e.g. <code>skopeo copy oci:build/afb/ociImage docker://...</code>).
+ */
+public final class OciLayout {
+
+  public static final String REF_NAME = "org.opencontainers.image.ref.name";
+
+  private final File dir;
+
+  public OciLayout(File dir) {
+    this.dir = dir;
+  }
+
+  public File getDir() {
+    return dir;
+  }
+
+  public File blob(String digest) {
+    return new File(dir, "blobs/sha256/" + Digests.encoded(digest));
+  }
+
+  /**
+   * Add the blob 'digest' from 'source': as a hard link where the file system allows it, else as a copy.
+   */
+  public void addBlob(String digest, File source) throws IOException {
+    File target = blob(digest);
+    if (target.exists()) {
+      return;
+    }
+    Files.createDirectories(target.getParentFile().toPath());
+    try {
+      Files.createLink(target.toPath(), source.toPath());
+    } catch (FileAlreadyExistsException e) {
+      // Added by someone else meanwhile: same digest, same content.
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * @return The descriptor of the new blob.
+   */
+  public OciDescriptor writeBlob(String mediaType, byte[] content) throws IOException {
+    String digest = Digests.sha256(content);
+    File target = blob(digest);
+    Files.createDirectories(target.getParentFile().toPath());
+    Files.write(target.toPath(), content);
+    return new OciDescriptor(mediaType, digest, content.length);
+  }
+
+  /**
+   * Write 'oci-layout' and an 'index.json' listing 'manifest' once under each of 'refNames'.
+   */
+  public void writeIndex(OciDescriptor manifest, List<String> refNames) throws IOException {
+    Files.createDirectories(dir.toPath());
+    Files.write(new File(dir, "oci-layout").toPath(), "{\"imageLayoutVersion\":\"1.0.0\"}".getBytes(StandardCharsets.UTF_8));
+    List<Object> manifests = new ArrayList<>();
+    for (String refName : refNames) {
+      Map<String, Object> entry = manifest.toMap();
+      entry.put("annotations", Map.of(REF_NAME, refName));
+      manifests.add(entry);
+    }
+    if (refNames.isEmpty()) {
+      manifests.add(manifest.toMap());
+    }
+    Map<String, Object> index = new LinkedHashMap<>();
+    index.put("schemaVersion", 2);
+    index.put("mediaType", OciDescriptor.INDEX);
+    index.put("manifests", manifests);
+    Files.write(new File(dir, "index.json").toPath(), JsonOutput.prettyPrint(JsonOutput.toJson(index)).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return The descriptor of the (single) image manifest of the index.
+   */
+  public OciDescriptor manifest() throws IOException {
+    Map<?, ?> index = readJson(new File(dir, "index.json"));
+    List<?> manifests = (List<?>) index.get("manifests");
+    if (manifests == null || manifests.isEmpty()) {
+      throw new RuntimeException("AFB: The image layout '" + dir + "' has no manifest.");
+    }
+    return OciDescriptor.fromMap((Map<?, ?>) manifests.get(0));
+  }
+
+  /**
+   * @return The config and the layers of the image manifest.
+   */
+  public List<OciDescriptor> manifestBlobs(OciDescriptor manifest) throws IOException {
+    Map<?, ?> content = readJson(blob(manifest.digest));
+    List<OciDescriptor> blobs = new ArrayList<>();
+    blobs.add(OciDescriptor.fromMap((Map<?, ?>) content.get("config")));
+    for (Object layer : (List<?>) content.get("layers")) {
+      blobs.add(OciDescriptor.fromMap((Map<?, ?>) layer));
+    }
+    return blobs;
+  }
+
+  static Map<?, ?> readJson(File file) throws IOException {
+    return (Map<?, ?>) new JsonSlurper().parseText(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,71 @@
+package com.fetherbrik.gradle.afb.service.oci;
+
+import com.fetherbrik.gradle.afb.service.docker.DockerReference;
+import com.fetherbrik.gradle.afb.service.docker.RegistryClient;
+import org.gradle.api.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pushes the image of an {@link OciLayout} straight to a registry: each blob the repository doesn't have yet (through
+ * a {@link BlobPusher}), then the manifest under every tag. Blobs are checked once per repository, so an unchanged layer
+ * is never uploaded again.
+ */
+public final class OciPusher {
+
+  private final RegistryClient registry;
+  private final BlobPusher blobPusher;
+  private final Logger logger;
+
+  public OciPusher(RegistryClient registry, BlobPusher blobPusher, Logger logger) {
+    this.registry = registry;
+    this.blobPusher = blobPusher;
+    this.logger = logger;
+  }
+
+  public static final class Result {
+    public final int blobs;
+    public final int mounted;
+    public final int uploaded;
+    public final long uploadedBytes;
+    public final String digest;
+
+    Result(int blobs, int mounted, int uploaded, long uploadedBytes, String digest) {
+      this.blobs = blobs;
+      this.mounted = mounted;
+      this.uploaded = uploaded;
+      this.uploadedBytes = uploadedBytes;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * @param images Full references, e.g. 'registry.example.org/org/app:1.0'.
+   */
+  public Result push(OciLayout layout, List<String> images) throws IOException {
+    OciDescriptor manifest = layout.manifest();
+    List<OciDescriptor> blobs = layout.manifestBlobs(manifest);
+    RegistryClient.Manifest content = new RegistryClient.Manifest(manifest.mediaType, manifest.digest,
+                                                                  Files.readAllBytes(layout.blob(manifest.digest).toPath()));
+    Set<String> repositories = new HashSet<>();
+    int mounted = 0;
+    int uploaded = 0;
+    long uploadedBytes = 0;
+    for (String image : images) {
+      DockerReference reference = DockerReference.parse(image);
+      if (repositories.add(reference.registry + "/" + reference.repository)) {
+        BlobPusher.Result pushed = blobPusher.push(reference, blobs, layout::blob);
+        mounted += pushed.mounted;
+        uploaded += pushed.uploaded;
+        uploadedBytes += pushed.uploadedBytes;
+      }
+      registry.putManifest(reference, content);
+      logger.lifecycle("AFB: Pushed " + image + " (" + manifest.digest + ").");
+    }
+    return new Result(blobs.size(), mounted, uploaded, uploadedBytes, manifest.digest);
+  }
+}
@@ -0,0 +1,111 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.domain.BuildInfo;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Writes the build info (version, git commit, date stamp, ...) to '{@value #RESOURCE}' under 'outputDirectory', for
+ * the jar to pick up. The file has no timestamp and its entries are sorted, so the same build info always gives the
+ * same bytes.
+ * <p>
+ * The date stamp is only written when it comes from the commit (AnotherFineBuildConfig.dateStampMode 'commit'): a
+ * 'clock' stamp changes every build, and would rerun this task and the jar every time.
+ */
+@CacheableTask
+public class BuildInfoResourceTask extends DefaultTask {
+    public static final String RESOURCE = "META-INF/afb/build-info.properties";
+    public static final List<String> MANIFEST_ATTRIBUTES = Arrays.asList("Implementation-Version", "AFB-Git-Hash", "AFB-Git-Branch", "AFB-Date-Stamp");
+
+    private final MapProperty<String, String> properties;
+    private final DirectoryProperty outputDirectory;
+
+    public BuildInfoResourceTask() {
+        properties = getProject().getObjects().mapProperty(String.class, String.class);
+        outputDirectory = getProject().getObjects().directoryProperty()
+            .convention(getProject().getLayout().getBuildDirectory().dir("afb/" + getName()));
+    }
+
+    /**
+     * @param withDateStamp Whether to include the date stamp of 'info'.
+     * @return The entries of the build info resource for 'info'.
+     */
+    public static Map<String, String> properties(BuildInfo info, boolean withDateStamp) {
+        Map<String, String> result = new LinkedHashMap<>();
+        result.put("version", info.version.full);
+        result.put("version.maven", info.version.maven);
+        result.put("version.semver", info.version.semver);
+        result.put("target", info.target.getName());
+        result.put("dateStamp", withDateStamp ? info.dateStamp : null);
+        result.put("git.hash", info.git.hash);
+        result.put("git.branch", info.git.branchName);
+        result.put("git.dirty", String.valueOf(info.git.isDirty));
+        result.values().removeIf(value -> value == null);
+        return result;
+    }
+
+    /**
+     * @param withDateStamp Whether to include the date stamp of 'info'.
+     * @return The {@link #MANIFEST_ATTRIBUTES} for 'info': its version, git commit and branch, and date stamp.
+     */
+    public static Map<String, String> manifestAttributes(BuildInfo info, boolean withDateStamp) {
+        Map<String, String> result = new LinkedHashMap<>();
+        List<String> values = Arrays.asList(info.version.full, info.git.hash, info.git.branchName, withDateStamp ? info.dateStamp : null);
+        for (int i = 0; i < MANIFEST_ATTRIBUTES.size(); i++) {
+            result.put(MANIFEST_ATTRIBUTES.get(i), values.get(i));
+        }
+        result.values().removeIf(value -> value == null);
+        return result;
+    }
+
+    @Input
+    public MapProperty<String, String> getProperties() {
+        return properties;
+    }
+
+    @OutputDirectory
+    public DirectoryProperty getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    @TaskAction
+    public void generate() {
+        Properties values = new Properties();
+        values.putAll(properties.get());
+        File file = new File(outputDirectory.get().getAsFile(), RESOURCE);
+        try {
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            values.store(text, null);
+            // Drop the date comment, and fix the order.
+            List<String> lines = new ArrayList<>();
+            for (String line : new String(text.toByteArray(), StandardCharsets.ISO_8859_1).split("\\R")) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+            Collections.sort(lines);
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), (String.join("\n", lines) + "\n").getBytes(StandardCharsets.ISO_8859_1));
+        } catch (IOException e) {
+            throw new RuntimeException("AFB: Could not write the build info '" + file + "'.", e);
+        }
+    }
+}
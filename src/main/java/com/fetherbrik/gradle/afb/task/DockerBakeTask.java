@@ -0,0 +1,282 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.docker.BuildKitCache;
+import com.fetherbrik.gradle.afb.service.docker.DockerBuildRequest;
+import com.fetherbrik.gradle.afb.service.docker.DockerCliBackend;
+import com.fetherbrik.gradle.afb.service.docker.DockerProgressListener;
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the images of every project with a Dockerfile in one 'docker buildx bake' run, so that BuildKit builds them in
+ * parallel, and builds the stages they share (e.g. a common JDK base) only once.
+ * <p>
+ * Each project adds its image with {@link #target} as it is configured. The bake file is written to 'bakeFile', with a
+ * target per project (see {@link #targetName}) carrying all the tags of the current release target. Bake reads each
+ * context from disk, so images whose context is streamed (DockerConfig.streamContext) can't be baked: the task fails
+ * when it has any. The images are loaded into the daemon, and the id of each is written where that project's
+ * 'dockerBuild' keeps it. Each image is labelled with the fingerprint 'dockerBuild' would give it, so a later
+ * 'dockerBuild' re-uses it instead of building it again. 'dockerBuild' is skipped in builds that run this task, so e.g.
+ * <code>gradle dockerBake dockerPushTags</code> bakes everything, then pushes.
+ * <p>
+ * Each target imports and exports the BuildKit cache its 'dockerBuild' would (DockerConfig.buildCache), so baking and
+ * building one image at a time share the cache.
+ */
+public class DockerBakeTask extends DefaultTask {
+    private final ExecOperations execOperations;
+    private final List<Target> targets = new ArrayList<>();
+    private final List<String> streamedProjects = new ArrayList<>();
+    private final RegularFileProperty bakeFile;
+    private final Property<String> builder;
+
+    @Inject
+    public DockerBakeTask(ExecOperations execOperations) {
+        this.execOperations = execOperations;
+        bakeFile = getProject().getObjects().fileProperty()
+            .convention(getProject().getLayout().getBuildDirectory().file("afb/" + getName() + "/docker-bake.json"));
+        builder = getProject().getObjects().property(String.class);
+        // The images are checked by each project's dockerBuild, not here.
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    /**
+     * Add a project's image. The task depends on the tasks that prepare its context.
+     */
+    public void target(Target target) {
+        for (Target existing : targets) {
+            if (existing.name.equals(target.name) && !existing.projectPath.equals(target.projectPath)) {
+                throw new RuntimeException("AFB: The projects '" + existing.projectPath + "' and '" + target.projectPath
+                                           + "' would both be the bake target '" + target.name + "'. Rename one of them.");
+            }
+        }
+        targets.removeIf(t -> t.projectPath.equals(target.projectPath));
+        targets.add(target);
+        dependsOn(target.contextTasks);
+    }
+
+    /**
+     * Note a project whose image has a streamed context, which bake can't build.
+     */
+    public void streamedTarget(String projectPath) {
+        streamedProjects.add(projectPath);
+    }
+
+    /**
+     * @return The targets, by name.
+     */
+    @Internal
+    public List<Target> getTargets() {
+        List<Target> sorted = new ArrayList<>(targets);
+        sorted.sort(Comparator.comparing(t -> t.name));
+        return sorted;
+    }
+
+    @Internal
+    public RegularFileProperty getBakeFile() {
+        return bakeFile;
+    }
+
+    /**
+     * The buildx builder to bake with, created if it doesn't exist. Defaults to the current builder.
+     */
+    @Internal
+    public Property<String> getBuilder() {
+        return builder;
+    }
+
+    @TaskAction
+    public void bake() {
+        if (!streamedProjects.isEmpty()) {
+            throw new RuntimeException("AFB: Can't bake the docker images of " + streamedProjects + ": their context is streamed"
+                                       + " (docker.streamContext), and 'docker buildx bake' reads contexts from disk. Turn off"
+                                       + " streamContext to bake them, or run their 'dockerBuild' tasks instead.");
+        }
+        List<Target> targets = new ArrayList<>();
+        for (Target target : getTargets()) {
+            if (target.enabled.get()) {
+                targets.add(target);
+            }
+        }
+        if (targets.isEmpty()) {
+            getLogger().lifecycle("AFB: No docker images to bake.");
+            return;
+        }
+        File file = bakeFile.get().getAsFile();
+        File metadataFile = new File(file.getParentFile(), "metadata.json");
+        List<String> names = new ArrayList<>();
+        for (Target target : targets) {
+            names.add(target.name);
+        }
+        write(file, JsonOutput.prettyPrint(JsonOutput.toJson(bakeDefinition(targets))));
+        long start = System.currentTimeMillis();
+        new DockerCliBackend(execOperations).bake(file, names, builder.getOrNull(), metadataFile, DockerProgressListener.logging(getLogger()));
+        Map<String, String> imageIds = imageIds(metadataFile, names);
+        for (Target target : targets) {
+            if (target.cache.isPresent()) {
+                target.cache.get().exported();
+            }
+            String imageId = imageIds.get(target.name);
+            write(target.imageIdFile.get().getAsFile(), imageId);
+            getLogger().lifecycle("AFB: Baked image " + imageId + " " + target.tags.get() + ".");
+        }
+        getLogger().lifecycle("AFB: Baked " + targets.size() + " images in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * @return The bake file, e.g. <code>{"group": {"default": {"targets": ["api"]}}, "target": {"api": {...}}}</code>.
+     */
+    static Map<String, Object> bakeDefinition(List<Target> targets) {
+        Map<String, Object> definitions = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>();
+        Map<File, String> localCacheTargets = new HashMap<>();
+        for (Target target : targets) {
+            Map<String, Object> definition = new LinkedHashMap<>();
+            definition.put("context", target.context.get().getAbsolutePath());
+            definition.put("dockerfile", target.dockerFile);
+            definition.put("tags", target.tags.get());
+            definition.put("args", target.buildArgs.get());
+            definition.put("labels", Map.of(DockerBuildRequest.FINGERPRINT_LABEL, fingerprint(target)));
+            if (target.cache.isPresent()) {
+                BuildKitCache cache = target.cache.get();
+                if (cache.isLocal() && cache.export) {
+                    String other = localCacheTargets.put(cache.dir, target.name);
+                    if (other != null) {
+                        throw new RuntimeException("AFB: The bake targets '" + other + "' and '" + target.name + "' would both export"
+                                                   + " their build cache to '" + cache.dir + "'. Give each project its own"
+                                                   + " docker.buildCacheDir.");
+                    }
+                }
+                definition.put("cache-from", cache.cacheFrom());
+                if (cache.cacheTo() != null) {
+                    definition.put("cache-to", List.of(cache.cacheTo()));
+                }
+            }
+            definitions.put(target.name, definition);
+            names.add(target.name);
+        }
+        Map<String, Object> group = new LinkedHashMap<>();
+        group.put("default", Map.of("targets", names));
+        Map<String, Object> bake = new LinkedHashMap<>();
+        bake.put("group", group);
+        bake.put("target", definitions);
+        return bake;
+    }
+
+    /**
+     * @return The fingerprint 'dockerBuild' gives the same image (see DockerBuildRequest.fingerprint), so that it finds
+     * and re-uses the baked image instead of building it again, e.g. when it reruns as bake wrote its image id.
+     */
+    static String fingerprint(Target target) {
+        return new DockerBuildRequest.Builder()
+            .contextDir(target.context.get())
+            .dockerFile(target.dockerFile)
+            .buildArgs(target.buildArgs.get())
+            .build()
+            .fingerprint();
+    }
+
+    /**
+     * @return The image id of each of 'names', from the metadata file buildx writes.
+     */
+    static Map<String, String> imageIds(File metadataFile, List<String> names) {
+        Map<?, ?> metadata;
+        try {
+            Object parsed = new JsonSlurper().parseText(new String(Files.readAllBytes(metadataFile.toPath()), StandardCharsets.UTF_8));
+            metadata = parsed instanceof Map ? (Map<?, ?>) parsed : Map.of();
+        } catch (IOException e) {
+            throw new RuntimeException("AFB: Could not read the bake metadata '" + metadataFile + "'.", e);
+        }
+        Map<String, String> imageIds = new LinkedHashMap<>();
+        for (String name : names) {
+            Object result = metadata.get(name);
+            Object imageId = result instanceof Map ? ((Map<?, ?>) result).get("containerimage.config.digest") : null;
+            if (imageId == null) {
+                throw new RuntimeException("AFB: 'docker buildx bake' did not report the image of target '" + name + "'.");
+            }
+            imageIds.put(name, String.valueOf(imageId));
+        }
+        return imageIds;
+    }
+
+    private static void write(File file, String text) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("AFB: Could not write '" + file + "'.", e);
+        }
+    }
+
+    /**
+     * @return A bake target name for the project, e.g. 'services-api' for ':services:api'; the root project is named
+     * after the build.
+     */
+    public static String targetName(String projectPath, String rootName) {
+        String name = projectPath.equals(":") ? rootName : projectPath.substring(1).replace(':', '-');
+        return name.replaceAll("[^a-zA-Z0-9_-]", "_");
+    }
+
+    public static final class Target {
+        public final String projectPath;
+        public final String name;
+        /**
+         * The context directory; the Dockerfile path is relative to it.
+         */
+        public final Provider<File> context;
+        public final String dockerFile;
+        public final Provider<List<String>> tags;
+        public final Provider<Map<String, String>> buildArgs;
+        public final Provider<Boolean> enabled;
+        /**
+         * Where the project's dockerBuild task keeps the id of its image, so later tasks see the baked image.
+         */
+        public final Provider<RegularFile> imageIdFile;
+        /**
+         * The project's BuildKit cache; no value when it has none.
+         */
+        public final Provider<BuildKitCache> cache;
+        public final List<String> contextTasks;
+
+        public Target(String projectPath,
+                      String name,
+                      Provider<File> context,
+                      String dockerFile,
+                      Provider<List<String>> tags,
+                      Provider<Map<String, String>> buildArgs,
+                      Provider<Boolean> enabled,
+                      Provider<RegularFile> imageIdFile,
+                      Provider<BuildKitCache> cache,
+                      List<String> contextTasks) {
+            this.projectPath = projectPath;
+            this.name = name;
+            this.context = context;
+            this.dockerFile = dockerFile;
+            this.tags = tags;
+            this.buildArgs = buildArgs;
+            this.enabled = enabled;
+            this.imageIdFile = imageIdFile;
+            this.cache = cache;
+            this.contextTasks = contextTasks;
+        }
+    }
+}
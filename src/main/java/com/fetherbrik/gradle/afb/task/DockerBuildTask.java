@@ -0,0 +1,419 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.docker.BuildCacheStats;
+import com.fetherbrik.gradle.afb.service.docker.BuildKitCache;
+import com.fetherbrik.gradle.afb.service.docker.DockerBackend;
+import com.fetherbrik.gradle.afb.service.docker.DockerBackends;
+import com.fetherbrik.gradle.afb.service.docker.DockerBuildRequest;
+import com.fetherbrik.gradle.afb.service.docker.DockerCliBackend;
+import com.fetherbrik.gradle.afb.service.docker.DockerContext;
+import com.fetherbrik.gradle.afb.service.docker.DockerProgressListener;
+import com.fetherbrik.gradle.afb.service.docker.FileTreeDockerContext;
+import org.gradle.api.Action;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.bundling.AbstractArchiveTask;
+import org.gradle.process.ExecOperations;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Builds an image through the configured docker backend (see DockerConfig.backend). The build output is logged as it
+ * arrives.
+ * <p>
+ * The build context is either the 'contextDir' directory, or, once anything has been added with {@link #context}, a tar
+ * stream written straight from the added files: e.g. <code>context('build/distributions', distTar)</code> sends the
+ * distribution archive without first copying it under build/docker.
+ * <p>
+ * The context files, the Dockerfile path and the build args are the task's inputs, and the id of the image it built is
+ * its output ('imageIdFile'). The task is up to date while the inputs are unchanged and the daemon still has that image
+ * under every tag. When it does run, it labels the image with a fingerprint of its inputs, and re-uses a local image with
+ * the same fingerprint, or one saved in 'archiveDir', instead of building again. The fingerprint does not cover the
+ * base images (see {@link #getArchiveDir}).
+ * <p>
+ * With a 'buildCache', the image is built by BuildKit ('docker buildx build') so that its layers can be imported from,
+ * and exported to, a local directory or a registry. The share of steps served from the cache is logged after each
+ * build.
+ */
+public class DockerBuildTask extends DefaultTask {
+    private final ExecOperations execOperations;
+    private final Property<String> backend;
+    private final DirectoryProperty contextDir;
+    private final Property<String> dockerFile;
+    private final ListProperty<String> tags;
+    private final MapProperty<String, String> buildArgs;
+    private final RegularFileProperty imageIdFile;
+    private final DirectoryProperty archiveDir;
+    private final Property<String> buildCache;
+    private final DirectoryProperty buildCacheDir;
+    private final Property<Boolean> exportBuildCache;
+    private final Property<String> buildxBuilder;
+    private final Property<Long> contextTime;
+    private final List<ContextEntry> contextEntries = new ArrayList<>();
+    private final List<Object> contextTasks = new ArrayList<>();
+    private final List<Action<? super AbstractArchiveTask>> contextArchiveActions = new ArrayList<>();
+
+    @Inject
+    public DockerBuildTask(ExecOperations execOperations) {
+        this.execOperations = execOperations;
+        backend = getProject().getObjects().property(String.class).convention(DockerBackends.AUTO);
+        contextDir = getProject().getObjects().directoryProperty();
+        dockerFile = getProject().getObjects().property(String.class).convention("Dockerfile");
+        tags = getProject().getObjects().listProperty(String.class);
+        buildArgs = getProject().getObjects().mapProperty(String.class, String.class);
+        imageIdFile = getProject().getObjects().fileProperty()
+            .convention(getProject().getLayout().getBuildDirectory().file("afb/" + getName() + "/image-id"));
+        archiveDir = getProject().getObjects().directoryProperty();
+        buildCache = getProject().getObjects().property(String.class);
+        buildCacheDir = getProject().getObjects().directoryProperty();
+        exportBuildCache = getProject().getObjects().property(Boolean.class).convention(true);
+        buildxBuilder = getProject().getObjects().property(String.class).convention("afb");
+        contextTime = getProject().getObjects().property(Long.class);
+        getOutputs().upToDateWhen(task -> imageIsCurrent());
+    }
+
+    /**
+     * 'auto', 'engine' or 'cli'.
+     */
+    @Internal
+    public Property<String> getBackend() {
+        return backend;
+    }
+
+    @Internal
+    public DirectoryProperty getContextDir() {
+        return contextDir;
+    }
+
+    /**
+     * The path of the Dockerfile, relative to the context directory.
+     */
+    @Input
+    public Property<String> getDockerFile() {
+        return dockerFile;
+    }
+
+    @Input
+    public ListProperty<String> getTags() {
+        return tags;
+    }
+
+    @Input
+    public MapProperty<String, String> getBuildArgs() {
+        return buildArgs;
+    }
+
+    /**
+     * The id of the image, e.g. 'sha256:e39786e...'.
+     */
+    @OutputFile
+    public RegularFileProperty getImageIdFile() {
+        return imageIdFile;
+    }
+
+    /**
+     * When set, each built image is saved here (as with 'docker save'), and loaded from here when the daemon doesn't
+     * have it: e.g. a directory that CI caches between builds. Only the latest image of each task is kept.
+     * <p>
+     * The fingerprint an image is found by doesn't cover the images the Dockerfile starts FROM: when a base image
+     * changes under the same tag, a saved (or still labelled) image built on the old one is re-used. Delete the saved
+     * images (and the local image) to build on the new base, or pin base images by digest.
+     */
+    @Internal
+    public DirectoryProperty getArchiveDir() {
+        return archiveDir;
+    }
+
+    /**
+     * 'local' to use the BuildKit cache in 'buildCacheDir', or the registry reference of the cache, e.g.
+     * 'registry.example.org/org/app:buildcache'. Not set by default: the build does not use a BuildKit cache.
+     */
+    @Internal
+    public Property<String> getBuildCache() {
+        return buildCache;
+    }
+
+    @Internal
+    public DirectoryProperty getBuildCacheDir() {
+        return buildCacheDir;
+    }
+
+    /**
+     * When false, the cache is only imported: e.g. for pull request builds, which should not replace the cache of the
+     * main branch.
+     */
+    @Internal
+    public Property<Boolean> getExportBuildCache() {
+        return exportBuildCache;
+    }
+
+    /**
+     * @return The BuildKit cache set by 'buildCache', 'buildCacheDir' and 'exportBuildCache'; no value without a
+     * 'buildCache'.
+     */
+    @Internal
+    public Provider<BuildKitCache> getBuildKitCache() {
+        return buildCache.map(ref -> new BuildKitCache(ref, buildCacheDir.get().getAsFile(), exportBuildCache.get()));
+    }
+
+    @Internal
+    public Property<String> getBuildxBuilder() {
+        return buildxBuilder;
+    }
+
+    /**
+     * When set, the files added with {@link #context} are sent with this time (in seconds since the epoch) and with
+     * normalized modes, so that the same files always give the same layers. See DockerConfig.reproducibleContext.
+     */
+    @Input
+    @org.gradle.api.tasks.Optional
+    public Property<Long> getContextTime() {
+        return contextTime;
+    }
+
+    /**
+     * Add files to the build context, under 'into' ('.' for its root). 'sources' are resolved as for
+     * Project.files(Object...): files are added by name, and directories with their contents. The task depends on the
+     * tasks that build them.
+     */
+    public void context(String into, Object... sources) {
+        ConfigurableFileCollection files = getProject().files(sources);
+        contextEntries.add(new ContextEntry(into, files));
+        dependsOn(files);
+        for (Object source : sources) {
+            if (source instanceof Task || source instanceof TaskProvider) {
+                contextTasks.add(source);
+                contextArchiveActions.forEach(action -> configureArchive(source, action));
+            }
+        }
+    }
+
+    /**
+     * Run 'action' on each archive task (e.g. 'distTar') added to the context with {@link #context}, whether it was
+     * added before or after. Only tasks passed to {@link #context} directly count.
+     */
+    public void eachContextArchive(Action<? super AbstractArchiveTask> action) {
+        contextArchiveActions.add(action);
+        contextTasks.forEach(task -> configureArchive(task, action));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void configureArchive(Object task, Action<? super AbstractArchiveTask> action) {
+        Action<Task> ifArchive = t -> {
+            if (t instanceof AbstractArchiveTask) {
+                action.execute((AbstractArchiveTask) t);
+            }
+        };
+        if (task instanceof TaskProvider) {
+            ((TaskProvider<Task>) task).configure(ifArchive);
+        } else {
+            ifArchive.execute((Task) task);
+        }
+    }
+
+    @Internal
+    public List<ContextEntry> getContextEntries() {
+        return contextEntries;
+    }
+
+    /**
+     * Every file of the context, by its path relative to the directory or tree it was added from.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileCollection getContextFiles() {
+        if (contextEntries.isEmpty()) {
+            return getProject().files(contextDir);
+        }
+        List<FileCollection> files = new ArrayList<>();
+        for (ContextEntry entry : contextEntries) {
+            files.add(entry.files);
+        }
+        return getProject().files(files);
+    }
+
+    /**
+     * Where each of the 'contextFiles' trees is placed in the context.
+     */
+    @Input
+    public List<String> getContextPaths() {
+        List<String> paths = new ArrayList<>();
+        for (ContextEntry entry : contextEntries) {
+            paths.add(entry.into);
+        }
+        return paths;
+    }
+
+    private DockerContext buildContext() {
+        if (contextEntries.isEmpty()) {
+            return DockerContext.directory(contextDir.get().getAsFile());
+        }
+        List<FileTreeDockerContext.Entry> entries = new ArrayList<>();
+        for (ContextEntry entry : contextEntries) {
+            entries.add(new FileTreeDockerContext.Entry(entry.into, entry.files.getAsFileTree()));
+        }
+        return new FileTreeDockerContext(entries, contextTime.getOrNull());
+    }
+
+    @TaskAction
+    public void build() {
+        DockerBackend docker = docker();
+        DockerBuildRequest request = new DockerBuildRequest.Builder()
+            .context(buildContext())
+            .dockerFile(dockerFile.get())
+            .tags(tags.get())
+            .buildArgs(buildArgs.get())
+            .build();
+        String fingerprint = request.fingerprint();
+        Optional<String> restored = restore(docker, request, fingerprint);
+        String imageId = restored.isPresent() ? restored.get() : build(docker, request, fingerprint);
+        writeImageId(imageId);
+    }
+
+    /**
+     * Re-use an image built from the same inputs: one the daemon still has, else one saved in 'archiveDir'. Either way,
+     * apply the current tags to it.
+     */
+    private Optional<String> restore(DockerBackend docker, DockerBuildRequest request, String fingerprint) {
+        Optional<String> existing = docker.findImage(DockerBuildRequest.FINGERPRINT_LABEL, fingerprint);
+        if (existing.isPresent()) {
+            docker.tag(existing.get(), request.tags);
+            getLogger().lifecycle("AFB: Re-used image " + existing.get() + " " + request.tags + ", built from the same inputs.");
+            return existing;
+        }
+        Optional<File> archive = archive(fingerprint).filter(File::isFile);
+        if (archive.isPresent()) {
+            String loaded = docker.load(archive.get(), DockerProgressListener.logging(getLogger()));
+            docker.tag(loaded, request.tags);
+            getLogger().lifecycle("AFB: Loaded image " + loaded + " " + request.tags + " from '" + archive.get() + "'.");
+            return Optional.of(loaded);
+        }
+        return Optional.empty();
+    }
+
+    private String build(DockerBackend docker, DockerBuildRequest request, String fingerprint) {
+        DockerBuildRequest.Builder labelled = new DockerBuildRequest.Builder().from(request)
+            .label(DockerBuildRequest.FINGERPRINT_LABEL, fingerprint);
+        DockerBackend builder = docker;
+        Optional<BuildKitCache> cache = Optional.ofNullable(getBuildKitCache().getOrNull());
+        if (cache.isPresent()) {
+            labelled.builder(buildxBuilder.get())
+                .cacheFrom(cache.get().cacheFrom())
+                .cacheTo(cache.get().cacheTo());
+            builder = new DockerCliBackend(execOperations);
+        }
+        BuildCacheStats stats = new BuildCacheStats(DockerProgressListener.logging(getLogger()));
+        String imageId = builder.build(labelled.build(), stats);
+        getLogger().lifecycle("AFB: Built image " + imageId + " " + request.tags + " with the " + builder.describe() + ".");
+        if (stats.steps() > 0) {
+            getLogger().lifecycle("AFB: Build cache: " + stats.summary() + ".");
+        }
+        cache.ifPresent(BuildKitCache::exported);
+        Optional<File> archive = archive(fingerprint);
+        if (archive.isPresent()) {
+            deleteArchives(archive.get().getParentFile());
+            archive.get().getParentFile().mkdirs();
+            docker.save(imageId, archive.get());
+            getLogger().info("AFB: Saved image " + imageId + " to '" + archive.get() + "'.");
+        }
+        return imageId;
+    }
+
+    /**
+     * @return The archive of the image built from inputs with 'fingerprint', if 'archiveDir' is set.
+     */
+    private Optional<File> archive(String fingerprint) {
+        if (!archiveDir.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(new File(archiveDir.get().getAsFile(), archivePrefix() + fingerprint + ".tar"));
+    }
+
+    /**
+     * Archives are named after the task path, so that a directory can be shared by every project of the build.
+     */
+    private String archivePrefix() {
+        return getPath().substring(1).replace(':', '-') + "-";
+    }
+
+    private void deleteArchives(File dir) {
+        File[] archives = dir.listFiles((d, name) -> name.startsWith(archivePrefix()) && name.endsWith(".tar"));
+        if (archives != null) {
+            for (File archive : archives) {
+                archive.delete();
+            }
+        }
+    }
+
+    private void writeImageId(String imageId) {
+        File idFile = imageIdFile.get().getAsFile();
+        try {
+            Files.createDirectories(idFile.getParentFile().toPath());
+            Files.write(idFile.toPath(), imageId.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("AFB: Could not write the image id to '" + idFile + "'.", e);
+        }
+    }
+
+    protected DockerBackend docker() {
+        return DockerBackends.create(backend.get(), execOperations, getLogger());
+    }
+
+    /**
+     * @return True if the daemon has the image of the last build under each of the tags.
+     */
+    boolean imageIsCurrent() {
+        File idFile = imageIdFile.get().getAsFile();
+        if (!idFile.isFile()) {
+            return false;
+        }
+        try {
+            String imageId = new String(Files.readAllBytes(idFile.toPath()), StandardCharsets.UTF_8).trim();
+            DockerBackend docker = docker();
+            List<String> expected = tags.get().isEmpty() ? List.of(imageId) : tags.get();
+            for (String tag : expected) {
+                if (!docker.imageId(tag).equals(Optional.of(imageId))) {
+                    getLogger().info("AFB: '" + tag + "' is not image " + imageId + ", so " + getPath() + " is out of date.");
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            getLogger().info("AFB: Could not check the image of the last build, so " + getPath() + " is out of date: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public static final class ContextEntry {
+        public final String into;
+        public final ConfigurableFileCollection files;
+
+        ContextEntry(String into, ConfigurableFileCollection files) {
+            this.into = into;
+            this.files = files;
+        }
+    }
+}
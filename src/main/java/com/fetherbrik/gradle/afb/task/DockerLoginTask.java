@@ -0,0 +1,69 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.docker.DockerBackend;
+import com.fetherbrik.gradle.afb.service.docker.DockerBackends;
+import com.fetherbrik.gradle.afb.service.docker.DockerCredentials;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+import javax.inject.Inject;
+
+/**
+ * Logs in to the docker registry, once per build. The CLI stores the credentials for later pushes; the Engine API only
+ * checks them, as each push sends its own credentials.
+ */
+public class DockerLoginTask extends DefaultTask {
+    private static final String HAS_RUN = "afb.dockerLoginHasRun";
+
+    private final ExecOperations execOperations;
+    private final Property<String> backend;
+    private final Property<String> serverAddress;
+    private final Property<String> username;
+    private final Property<String> apiToken;
+
+    @Inject
+    public DockerLoginTask(ExecOperations execOperations) {
+        this.execOperations = execOperations;
+        backend = getProject().getObjects().property(String.class).convention(DockerBackends.AUTO);
+        serverAddress = getProject().getObjects().property(String.class);
+        username = getProject().getObjects().property(String.class);
+        apiToken = getProject().getObjects().property(String.class);
+    }
+
+    @Internal
+    public Property<String> getBackend() {
+        return backend;
+    }
+
+    @Internal
+    public Property<String> getServerAddress() {
+        return serverAddress;
+    }
+
+    @Internal
+    public Property<String> getUsername() {
+        return username;
+    }
+
+    @Internal
+    public Property<String> getApiToken() {
+        return apiToken;
+    }
+
+    @TaskAction
+    public void login() {
+        ExtraPropertiesExtension extra = getProject().getRootProject().getExtensions().getExtraProperties();
+        if (extra.has(HAS_RUN)) {
+            return;
+        }
+        DockerBackend docker = DockerBackends.create(backend.get(), execOperations, getLogger());
+        DockerCredentials credentials = new DockerCredentials(username.get(), apiToken.get(), serverAddress.get());
+        docker.login(credentials);
+        getLogger().lifecycle("AFB: Logged in to docker as " + credentials + ".");
+        extra.set(HAS_RUN, true);
+    }
+}
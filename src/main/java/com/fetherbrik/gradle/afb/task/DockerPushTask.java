@@ -0,0 +1,304 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.DockerPushService;
+import com.fetherbrik.gradle.afb.service.DockerPushWorkAction;
+import com.fetherbrik.gradle.afb.service.docker.DockerBackends;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes every image in 'images' concurrently, through the Worker API: 'pushConcurrency' workers take the images from
+ * the {@link DockerPushService} one at a time, so that no worker waits for a push slot. All pushes are attempted; the
+ * task then logs the time each one took and fails if any of them failed.
+ * <p>
+ * The manifest digest of each pushed image is recorded in 'digestLedger'. With 'checkRegistry', images the registry
+ * already has are not pushed again, and new tags of an image the registry already has are added without sending layers.
+ * <p>
+ * With 'nativePush', images are pushed through the registry API rather than by the docker daemon: layers are mounted from
+ * other repositories of the registry where possible ('mountFrom', and wherever earlier pushes put them), else uploaded
+ * 'uploadConcurrency' at a time, in chunks of 'uploadChunkSize' bytes that are retried on their own when they fail.
+ */
+public class DockerPushTask extends DefaultTask {
+    private final WorkerExecutor workerExecutor;
+    private final ListProperty<String> images;
+    private final Property<DockerPushService> pushService;
+    private final Property<Integer> pushConcurrency;
+    private final Property<String> backend;
+    private final Property<String> serverAddress;
+    private final Property<String> username;
+    private final Property<String> apiToken;
+    private final Property<Boolean> checkRegistry;
+    private final RegularFileProperty digestLedger;
+    private final Property<Boolean> nativePush;
+    private final ListProperty<String> mountFrom;
+    private final Property<Long> uploadChunkSize;
+    private final Property<Integer> uploadConcurrency;
+    private final DirectoryProperty workDir;
+    private final DirectoryProperty layerCacheDir;
+
+    @Inject
+    public DockerPushTask(WorkerExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+        images = getProject().getObjects().listProperty(String.class);
+        pushService = getProject().getObjects().property(DockerPushService.class);
+        pushConcurrency = getProject().getObjects().property(Integer.class).convention(4);
+        backend = getProject().getObjects().property(String.class).convention(DockerBackends.AUTO);
+        serverAddress = getProject().getObjects().property(String.class);
+        username = getProject().getObjects().property(String.class);
+        apiToken = getProject().getObjects().property(String.class);
+        checkRegistry = getProject().getObjects().property(Boolean.class).convention(true);
+        digestLedger = getProject().getObjects().fileProperty()
+            .convention(getProject().getLayout().getBuildDirectory().file("afb/" + getName() + "/pushed-digests.properties"));
+        nativePush = getProject().getObjects().property(Boolean.class).convention(false);
+        mountFrom = getProject().getObjects().listProperty(String.class);
+        uploadChunkSize = getProject().getObjects().property(Long.class).convention(8L * 1024 * 1024);
+        uploadConcurrency = getProject().getObjects().property(Integer.class).convention(4);
+        workDir = getProject().getObjects().directoryProperty()
+            .convention(getProject().getLayout().getBuildDirectory().dir("afb/" + getName() + "/oci"));
+        layerCacheDir = getProject().getObjects().directoryProperty();
+    }
+
+    /**
+     * Full image references, e.g. 'registry.example.org/org/repo:tag'.
+     */
+    @Input
+    public ListProperty<String> getImages() {
+        return images;
+    }
+
+    @Internal
+    public Property<DockerPushService> getPushService() {
+        return pushService;
+    }
+
+    /**
+     * The most images to push at once.
+     */
+    @Internal
+    public Property<Integer> getPushConcurrency() {
+        return pushConcurrency;
+    }
+
+    /**
+     * 'auto', 'engine' or 'cli'.
+     */
+    @Internal
+    public Property<String> getBackend() {
+        return backend;
+    }
+
+    /**
+     * The registry credentials, sent with each push by the Engine API backend. The CLI uses those stored by 'docker
+     * login'.
+     */
+    @Internal
+    public Property<String> getServerAddress() {
+        return serverAddress;
+    }
+
+    @Internal
+    public Property<String> getUsername() {
+        return username;
+    }
+
+    @Internal
+    public Property<String> getApiToken() {
+        return apiToken;
+    }
+
+    @Internal
+    public Property<Boolean> getCheckRegistry() {
+        return checkRegistry;
+    }
+
+    /**
+     * Image reference to '&lt;image id&gt; &lt;manifest digest&gt;', for each image this task has pushed.
+     */
+    @Internal
+    public RegularFileProperty getDigestLedger() {
+        return digestLedger;
+    }
+
+    @Internal
+    public Property<Boolean> getNativePush() {
+        return nativePush;
+    }
+
+    /**
+     * Repositories of the registry that likely have the layers, e.g. 'org/base'; used by native pushes.
+     */
+    @Internal
+    public ListProperty<String> getMountFrom() {
+        return mountFrom;
+    }
+
+    @Internal
+    public Property<Long> getUploadChunkSize() {
+        return uploadChunkSize;
+    }
+
+    @Internal
+    public Property<Integer> getUploadConcurrency() {
+        return uploadConcurrency;
+    }
+
+    /**
+     * Where native pushes keep the OCI layouts of the images.
+     */
+    @Internal
+    public DirectoryProperty getWorkDir() {
+        return workDir;
+    }
+
+    /**
+     * Where native pushes keep compressed layers; shared by all projects.
+     */
+    @Internal
+    public DirectoryProperty getLayerCacheDir() {
+        return layerCacheDir;
+    }
+
+    @TaskAction
+    public void push() {
+        List<String> toPush = images.get();
+        if (toPush.isEmpty()) {
+            getLogger().quiet("AFB: No docker images to push.");
+            return;
+        }
+        String taskPath = getPath();
+        Map<String, String> ledger = readLedger();
+        DockerPushService service = pushService.get();
+        service.start(taskPath, toPush);
+        long start = System.nanoTime();
+        WorkQueue queue = workerExecutor.noIsolation();
+        int workers = Math.max(1, Math.min(pushConcurrency.get(), toPush.size()));
+        for (int i = 0; i < workers; i++) {
+            queue.submit(DockerPushWorkAction.class, parameters -> {
+                parameters.getTaskPath().set(taskPath);
+                parameters.getSubmitted().set(start);
+                parameters.getPushService().set(pushService);
+                parameters.getBackend().set(backend);
+                parameters.getServerAddress().set(serverAddress);
+                parameters.getUsername().set(username);
+                parameters.getApiToken().set(apiToken);
+                parameters.getCheckRegistry().set(checkRegistry);
+                parameters.getLedger().set(ledger);
+                parameters.getNativePush().set(nativePush);
+                parameters.getMountFrom().set(mountFrom);
+                parameters.getUploadChunkSize().set(uploadChunkSize);
+                parameters.getUploadConcurrency().set(uploadConcurrency);
+                parameters.getWorkDir().set(workDir);
+                parameters.getLayerCacheDir().set(layerCacheDir);
+            });
+        }
+        queue.await();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        List<DockerPushService.PushResult> results = service.results(taskPath);
+        int failed = 0;
+        int unchanged = 0;
+        for (DockerPushService.PushResult result : results) {
+            getLogger().quiet(String.format("AFB: %s '%s' in %dms (queued for %dms).",
+                                            describe(result),
+                                            result.image,
+                                            result.millis,
+                                            result.queuedMillis));
+            if (result.failed()) {
+                failed++;
+            } else if (result.ledgerEntry != null) {
+                ledger.put(result.image, result.ledgerEntry);
+            }
+            if (!result.failed() && !"PUSHED".equals(result.action)) {
+                unchanged++;
+            }
+        }
+        writeLedger(ledger);
+        getLogger().quiet(String.format("AFB: Pushed %d of %d images in %dms (%d already in the registry).",
+                                        results.size() - failed,
+                                        toPush.size(),
+                                        elapsed,
+                                        unchanged));
+        String failure = failureMessage(results, toPush.size());
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * @return A message naming every failed push with its output, or null when none failed.
+     */
+    static String failureMessage(List<DockerPushService.PushResult> results, int images) {
+        StringBuilder failures = new StringBuilder();
+        int failed = 0;
+        for (DockerPushService.PushResult result : results) {
+            if (result.failed()) {
+                failed++;
+                failures.append(String.format("%n'%s':%n%s", result.image, result.output.trim()));
+            }
+        }
+        return failed == 0 ? null : String.format("AFB: Failed to push %d of %d images:%s", failed, images, failures);
+    }
+
+    private static String describe(DockerPushService.PushResult result) {
+        if (result.failed()) {
+            return "Failed to push";
+        }
+        if ("SKIPPED".equals(result.action)) {
+            return "Registry already has";
+        }
+        if ("TAGGED".equals(result.action)) {
+            return "Tagged (no layers sent)";
+        }
+        return "Pushed";
+    }
+
+    private Map<String, String> readLedger() {
+        Map<String, String> ledger = new HashMap<>();
+        File file = digestLedger.get().getAsFile();
+        if (file.isFile()) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                properties.load(in);
+            } catch (IOException e) {
+                getLogger().info("AFB: Could not read '" + file + "', pushing every image: " + e.getMessage());
+                return ledger;
+            }
+            properties.stringPropertyNames().forEach(image -> ledger.put(image, properties.getProperty(image)));
+        }
+        return ledger;
+    }
+
+    private void writeLedger(Map<String, String> ledger) {
+        File file = digestLedger.get().getAsFile();
+        Properties properties = new Properties();
+        properties.putAll(ledger);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                properties.store(out, "Pushed images: <image id> <manifest digest>");
+            }
+        } catch (IOException e) {
+            getLogger().warn("AFB: Could not write '" + file + "': " + e.getMessage());
+        }
+    }
+}
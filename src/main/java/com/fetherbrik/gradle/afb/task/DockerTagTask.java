@@ -0,0 +1,62 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.docker.DockerBackend;
+import com.fetherbrik.gradle.afb.service.docker.DockerBackends;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+import javax.inject.Inject;
+import java.util.List;
+
+/**
+ * Applies every tag in 'targets' to 'image', in a single task.
+ */
+public class DockerTagTask extends DefaultTask {
+    private final ExecOperations execOperations;
+    private final Property<String> backend;
+    private final Property<String> image;
+    private final ListProperty<String> targets;
+
+    @Inject
+    public DockerTagTask(ExecOperations execOperations) {
+        this.execOperations = execOperations;
+        backend = getProject().getObjects().property(String.class).convention(DockerBackends.AUTO);
+        image = getProject().getObjects().property(String.class);
+        targets = getProject().getObjects().listProperty(String.class);
+    }
+
+    @Internal
+    public Property<String> getBackend() {
+        return backend;
+    }
+
+    @Input
+    public Property<String> getImage() {
+        return image;
+    }
+
+    /**
+     * Full image references, e.g. 'registry.example.org/org/repo:tag'.
+     */
+    @Input
+    public ListProperty<String> getTargets() {
+        return targets;
+    }
+
+    @TaskAction
+    public void tag() {
+        List<String> toApply = targets.get();
+        if (toApply.isEmpty()) {
+            getLogger().info("AFB: No docker tags to apply.");
+            return;
+        }
+        DockerBackend docker = DockerBackends.create(backend.get(), execOperations, getLogger());
+        docker.tag(image.get(), toApply);
+        getLogger().lifecycle("AFB: Tagged '" + image.get() + "' as " + toApply + ".");
+    }
+}
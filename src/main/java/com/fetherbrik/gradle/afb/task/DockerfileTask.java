@@ -0,0 +1,106 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.ApplicationLayers;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a Dockerfile for an application: each of 'layers' is copied into its own image layer, in order, and the main
+ * class is run with every layer on the classpath. Layers that change least should come first: e.g. with 'libs',
+ * 'snapshot-libs', 'app', a code change only rebuilds (and pushes) the small 'app' layer.
+ */
+public class DockerfileTask extends DefaultTask {
+    public static final String APP_DIR = "/app";
+
+    private final Property<String> baseImage;
+    private final Property<String> mainClass;
+    private final ListProperty<String> jvmArgs;
+    private final ListProperty<String> layers;
+    private final ListProperty<String> instructions;
+    private final RegularFileProperty dockerFile;
+
+    public DockerfileTask() {
+        baseImage = getProject().getObjects().property(String.class);
+        mainClass = getProject().getObjects().property(String.class);
+        jvmArgs = getProject().getObjects().listProperty(String.class);
+        layers = getProject().getObjects().listProperty(String.class);
+        instructions = getProject().getObjects().listProperty(String.class);
+        dockerFile = getProject().getObjects().fileProperty()
+            .convention(getProject().getLayout().getBuildDirectory().file("afb/" + getName() + "/Dockerfile"));
+    }
+
+    @Input
+    public Property<String> getBaseImage() {
+        return baseImage;
+    }
+
+    @Input
+    public Property<String> getMainClass() {
+        return mainClass;
+    }
+
+    @Input
+    public ListProperty<String> getJvmArgs() {
+        return jvmArgs;
+    }
+
+    /**
+     * The directories of the build context to copy, each into its own layer under /app.
+     */
+    @Input
+    public ListProperty<String> getLayers() {
+        return layers;
+    }
+
+    /**
+     * More Dockerfile instructions, e.g. 'EXPOSE 8080', added after the layers.
+     */
+    @Input
+    public ListProperty<String> getInstructions() {
+        return instructions;
+    }
+
+    @OutputFile
+    public RegularFileProperty getDockerFile() {
+        return dockerFile;
+    }
+
+    @TaskAction
+    public void generate() {
+        List<String> lines = new ArrayList<>();
+        lines.add("FROM " + baseImage.get());
+        lines.add("WORKDIR " + APP_DIR);
+        for (String layer : layers.get()) {
+            lines.add("COPY " + layer + "/ " + APP_DIR + "/" + layer + "/");
+        }
+        lines.addAll(instructions.get());
+        lines.add("ENTRYPOINT " + jsonArray(ApplicationLayers.javaCommand(jvmArgs.get(), APP_DIR, layers.get(), mainClass.get())));
+        File file = dockerFile.get().getAsFile();
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("AFB: Could not write the Dockerfile '" + file + "'.", e);
+        }
+    }
+
+    private static String jsonArray(List<String> values) {
+        List<String> quoted = new ArrayList<>();
+        for (String value : values) {
+            quoted.add("\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        }
+        return "[" + String.join(", ", quoted) + "]";
+    }
+}
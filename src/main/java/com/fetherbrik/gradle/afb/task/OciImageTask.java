@@ -0,0 +1,128 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.docker.RegistryClient;
+import com.fetherbrik.gradle.afb.service.oci.OciBaseImage;
+import com.fetherbrik.gradle.afb.service.oci.OciDescriptor;
+import com.fetherbrik.gradle.afb.service.oci.OciImageWriter;
+import com.fetherbrik.gradle.afb.service.oci.OciLayout;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Writes an OCI image layout to 'layoutDir', without a docker daemon: the layers of 'baseImage', pulled from its
+ * registry into 'blobCacheDir', then the layers written by {@link OciLayerTask}s ('layers'), run with 'entrypoint'.
+ * <p>
+ * 'baseImage' is an input by name: pin it by digest (e.g. 'adoptopenjdk/openjdk11@sha256:...') to rebuild only when it
+ * changes.
+ */
+public class OciImageTask extends DefaultTask {
+    private final ConfigurableFileCollection layers;
+    private final Property<String> baseImage;
+    private final Property<String> platform;
+    private final ListProperty<String> entrypoint;
+    private final Property<String> workingDir;
+    private final MapProperty<String, String> labels;
+    private final ListProperty<String> tags;
+    private final DirectoryProperty layoutDir;
+    private final DirectoryProperty blobCacheDir;
+
+    public OciImageTask() {
+        layers = getProject().getObjects().fileCollection();
+        baseImage = getProject().getObjects().property(String.class);
+        platform = getProject().getObjects().property(String.class).convention("linux/amd64");
+        entrypoint = getProject().getObjects().listProperty(String.class);
+        workingDir = getProject().getObjects().property(String.class);
+        labels = getProject().getObjects().mapProperty(String.class, String.class);
+        tags = getProject().getObjects().listProperty(String.class);
+        layoutDir = getProject().getObjects().directoryProperty()
+            .convention(getProject().getLayout().getBuildDirectory().dir("afb/" + getName()));
+        blobCacheDir = getProject().getObjects().directoryProperty();
+    }
+
+    /**
+     * The layer directories, in image order.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getLayers() {
+        return layers;
+    }
+
+    /**
+     * e.g. 'adoptopenjdk/openjdk11:jre', or 'scratch'.
+     */
+    @Input
+    public Property<String> getBaseImage() {
+        return baseImage;
+    }
+
+    /**
+     * The platform to take from a multi-platform base image, e.g. 'linux/arm64'. Defaults to 'linux/amd64'.
+     */
+    @Input
+    public Property<String> getPlatform() {
+        return platform;
+    }
+
+    @Input
+    public ListProperty<String> getEntrypoint() {
+        return entrypoint;
+    }
+
+    @Input
+    public Property<String> getWorkingDir() {
+        return workingDir;
+    }
+
+    @Input
+    public MapProperty<String, String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * The references the image is listed under in the layout's index.
+     */
+    @Input
+    public ListProperty<String> getTags() {
+        return tags;
+    }
+
+    @OutputDirectory
+    public DirectoryProperty getLayoutDir() {
+        return layoutDir;
+    }
+
+    @Internal
+    public DirectoryProperty getBlobCacheDir() {
+        return blobCacheDir;
+    }
+
+    @TaskAction
+    public void write() throws IOException {
+        File dir = layoutDir.get().getAsFile();
+        getProject().delete(dir);
+        OciBaseImage base = OciBaseImage.pull(new RegistryClient(null), baseImage.get(), platform.get(),
+                                              blobCacheDir.get().getAsFile(), getLogger());
+        OciDescriptor manifest = new OciImageWriter()
+            .entrypoint(entrypoint.get())
+            .workingDir(workingDir.getOrNull())
+            .labels(labels.get())
+            .write(new OciLayout(dir), base, new ArrayList<>(layers.getFiles()), tags.get());
+        getLogger().lifecycle("AFB: Wrote image " + manifest.digest + " " + tags.get() + " to '" + dir + "'.");
+    }
+}
@@ -0,0 +1,83 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.OciLayerWorkAction;
+import com.fetherbrik.gradle.afb.service.oci.OciLayer;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+
+/**
+ * Writes one reproducible image layer (see {@link OciLayer}) from 'files', placed under 'directory' in the image. The
+ * layer only depends on the names and content of the files, so it is up to date, or taken from the build cache, as long
+ * as they don't change.
+ */
+@CacheableTask
+public class OciLayerTask extends DefaultTask {
+    private final WorkerExecutor workerExecutor;
+    private final ConfigurableFileCollection files;
+    private final Property<String> directory;
+    private final Property<Long> modificationTime;
+    private final DirectoryProperty layerDir;
+
+    @Inject
+    public OciLayerTask(WorkerExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+        files = getProject().getObjects().fileCollection();
+        directory = getProject().getObjects().property(String.class);
+        // Some tools read a time of zero as 'not set'.
+        modificationTime = getProject().getObjects().property(Long.class).convention(1L);
+        layerDir = getProject().getObjects().directoryProperty()
+            .convention(getProject().getLayout().getBuildDirectory().dir("afb/oci/" + getName()));
+    }
+
+    /**
+     * Files are added by name; directories with their content.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getFiles() {
+        return files;
+    }
+
+    /**
+     * Where the files go in the image, without the leading '/': e.g. 'app/libs'.
+     */
+    @Input
+    public Property<String> getDirectory() {
+        return directory;
+    }
+
+    /**
+     * The time of every entry, in seconds since the epoch.
+     */
+    @Input
+    public Property<Long> getModificationTime() {
+        return modificationTime;
+    }
+
+    @OutputDirectory
+    public DirectoryProperty getLayerDir() {
+        return layerDir;
+    }
+
+    @TaskAction
+    public void write() {
+        workerExecutor.noIsolation().submit(OciLayerWorkAction.class, parameters -> {
+            parameters.getFiles().from(files);
+            parameters.getDirectory().set(directory);
+            parameters.getModificationTime().set(modificationTime);
+            parameters.getLayerDir().set(layerDir);
+        });
+    }
+}
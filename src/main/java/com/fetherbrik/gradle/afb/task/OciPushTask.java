@@ -0,0 +1,120 @@
+package com.fetherbrik.gradle.afb.task;
+
+import com.fetherbrik.gradle.afb.service.DockerPushService;
+import com.fetherbrik.gradle.afb.service.docker.DockerCredentials;
+import com.fetherbrik.gradle.afb.service.docker.RegistryClient;
+import com.fetherbrik.gradle.afb.service.oci.BlobLedger;
+import com.fetherbrik.gradle.afb.service.oci.BlobPusher;
+import com.fetherbrik.gradle.afb.service.oci.OciLayout;
+import com.fetherbrik.gradle.afb.service.oci.OciPusher;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.IOException;
+
+/**
+ * Pushes the image of an OCI layout (see {@link OciImageTask}) to a registry under each of 'images', through the
+ * registry API: no docker daemon is needed. Only the blobs the registry doesn't have are sent: mounted from another
+ * repository where possible, else uploaded in parallel, resumable chunks (see {@link BlobPusher}). A registry on
+ * localhost (e.g. <code>docker run -p 5000:5000 registry:2</code>) is spoken to over plain http, which makes a handy
+ * stand-in for trying the pipeline out.
+ */
+public class OciPushTask extends DefaultTask {
+    private final DirectoryProperty layoutDir;
+    private final ListProperty<String> images;
+    private final Property<String> username;
+    private final Property<String> apiToken;
+    private final Property<DockerPushService> pushService;
+    private final ListProperty<String> mountFrom;
+    private final Property<Long> uploadChunkSize;
+    private final Property<Integer> uploadConcurrency;
+
+    public OciPushTask() {
+        layoutDir = getProject().getObjects().directoryProperty();
+        images = getProject().getObjects().listProperty(String.class);
+        username = getProject().getObjects().property(String.class);
+        apiToken = getProject().getObjects().property(String.class);
+        pushService = getProject().getObjects().property(DockerPushService.class);
+        mountFrom = getProject().getObjects().listProperty(String.class);
+        uploadChunkSize = getProject().getObjects().property(Long.class).convention(8L * 1024 * 1024);
+        uploadConcurrency = getProject().getObjects().property(Integer.class).convention(4);
+    }
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public DirectoryProperty getLayoutDir() {
+        return layoutDir;
+    }
+
+    /**
+     * Full image references, e.g. 'registry.example.org/org/repo:tag'.
+     */
+    @Input
+    public ListProperty<String> getImages() {
+        return images;
+    }
+
+    /**
+     * Unset for registries that don't authenticate.
+     */
+    @Internal
+    public Property<String> getUsername() {
+        return username;
+    }
+
+    @Internal
+    public Property<String> getApiToken() {
+        return apiToken;
+    }
+
+    /**
+     * Shares what pushes learn about the blobs of the registry (see {@link BlobLedger}).
+     */
+    @Internal
+    public Property<DockerPushService> getPushService() {
+        return pushService;
+    }
+
+    /**
+     * Repositories of the registry that likely have the layers, e.g. 'org/base'.
+     */
+    @Internal
+    public ListProperty<String> getMountFrom() {
+        return mountFrom;
+    }
+
+    @Internal
+    public Property<Long> getUploadChunkSize() {
+        return uploadChunkSize;
+    }
+
+    @Internal
+    public Property<Integer> getUploadConcurrency() {
+        return uploadConcurrency;
+    }
+
+    @TaskAction
+    public void push() throws IOException {
+        DockerCredentials credentials = username.isPresent() ? new DockerCredentials(username.get(), apiToken.getOrNull(), null) : null;
+        RegistryClient registry = new RegistryClient(credentials);
+        BlobPusher blobPusher = new BlobPusher(registry,
+                                               pushService.get().blobLedger(),
+                                               mountFrom.get(),
+                                               uploadChunkSize.get(),
+                                               uploadConcurrency.get(),
+                                               getLogger());
+        long start = System.currentTimeMillis();
+        OciPusher.Result result = new OciPusher(registry, blobPusher, getLogger())
+            .push(new OciLayout(layoutDir.get().getAsFile()), images.get());
+        getLogger().lifecycle("AFB: Uploaded " + result.uploaded + " of " + result.blobs + " blobs (" + result.uploadedBytes + " bytes), mounted "
+                              + result.mounted + ", in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+}
@@ -0,0 +1,59 @@
+package com.fetherbrik.gradle.afb.domain
+
+import com.fetherbrik.gradle.afb.service.BuildInfoTransform
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.regex.Matcher
+
+class SemverParserSpec extends Specification {
+
+  private static final List<String> ALPHABET = ['0', '1', '.', '-', '+', 'a', 'v']
+
+  @Unroll
+  def "'#text' is parsed just as SEMVER_REGEX matches it"() {
+    expect:
+    agreesWithRegex(text)
+
+    where:
+    text << ['v1.2.3', '=1.2.3', '1.2.3', 'V1.2.3', 'vv1.2.3', '1.2', '1.2.3.4', '01.2.3', '1.02.3', '1.2.03', '0.0.0',
+             '1.2.3-', '1.2.3+', '1.2.3-RC.4+103', '1.2.3-RC..4', '1.2.3-RC.04', '1.2.3-RC.0a', '1.2.3-0', '1.2.3--',
+             '1.2.3-a-b.c-d', '1.2.3+001', '1.2.3+a+b', '1.2.3-a_b', '1.2.3 ', ' 1.2.3', '1.2.3-DEV+20210130T0830',
+             'v1.2.3-alpha.1.7', '1.2.3+.', '1.2.3-.a', '']
+  }
+
+  def "every short string over the version alphabet, alone and after 'v1.2.', is parsed just as SEMVER_REGEX matches it"() {
+    given:
+    List<String> texts = ['']
+    List<String> previous = ['']
+    6.times {
+      previous = previous.collectMany { String prefix -> ALPHABET.collect { prefix + it } }
+      texts.addAll(previous)
+    }
+
+    expect:
+    texts.findAll { !agreesWithRegex(it) || !agreesWithRegex('v1.2.' + it) }.isEmpty()
+  }
+
+  def "numbers too large for an int are the one place the parser is stricter than the pattern"() {
+    expect:
+    BuildInfoTransform.SEMVER_PATTERN.matcher('1.2.2147483648').matches()
+    SemverParser.tryParse('1.2.2147483648') == null
+    SemverParser.tryParse('1.2.2147483647').patch == Integer.MAX_VALUE
+  }
+
+  private static boolean agreesWithRegex(String text) {
+    Matcher matcher = BuildInfoTransform.SEMVER_PATTERN.matcher(text)
+    VersionInfo version = SemverParser.tryParse(text)
+    if (!matcher.matches()) {
+      return version == null
+    }
+    return version != null
+        && version.prefix.orElse('') == matcher.group(1)
+        && version.major == matcher.group(2) as int
+        && version.minor == matcher.group(3) as int
+        && version.patch == matcher.group(4) as int
+        && version.preRelease.orElse(null) == matcher.group(5)
+        && version.meta.orElse(null) == matcher.group(6)
+  }
+}
@@ -0,0 +1,112 @@
+package com.fetherbrik.gradle.afb.domain
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class VersionInfoSpec extends Specification {
+
+  @Unroll
+  def "#version renders build metadata after '-' in full and maven, and after '+' in semver"() {
+    when:
+    VersionInfo info = SemverParser.parse(version)
+
+    then:
+    info.full == full
+    info.maven == full.substring(1)
+    info.semver == semver
+
+    where:
+    version                     | full                        | semver
+    'v1.2.3'                    | 'v1.2.3'                    | 'v1.2.3'
+    'v1.2.3-RC.4'               | 'v1.2.3-RC.4'               | 'v1.2.3-RC.4'
+    'v1.2.3+103'                | 'v1.2.3-103'                | 'v1.2.3+103'
+    'v1.2.3-DEV+20210130T0830'  | 'v1.2.3-DEV-20210130T0830'  | 'v1.2.3-DEV+20210130T0830'
+  }
+
+  def "a version bump drops the build metadata"() {
+    expect:
+    SemverParser.parse('v1.2.3+RELEASE').nextPatch().semver == 'v1.2.4'
+  }
+
+  @Unroll
+  def "the next pre-release of #version is #expected"() {
+    expect:
+    SemverParser.parse(version).nextPreRelease().build().full == expected
+
+    where:
+    version            | expected
+    'v1.2.3-RC.4'      | 'v1.2.3-RC.5'
+    'v1.2.3-beta-12'   | 'v1.2.3-beta-13'
+    'v1.2.3-RC.9'      | 'v1.2.3-RC.10'
+    'v1.2.3-alpha.1.7' | 'v1.2.3-alpha.1.8'
+  }
+
+  @Unroll
+  def "the next '#preId' pre-release of #version is #expected"() {
+    expect:
+    SemverParser.parse(version).nextPreRelease(preId).build().full == expected
+
+    where:
+    version            | preId     | expected
+    'v1.2.3'           | 'RC'      | 'v1.2.3-RC.1'
+    'v1.2.3-RC.4'      | 'RC'      | 'v1.2.3-RC.5'
+    'v1.2.3-RC.4'      | 'RC-'     | 'v1.2.3-RC-5'
+    'v1.2.3-alpha.7'   | 'RC'      | 'v1.2.3-RC.1'
+    'v1.2.3-RC.4'      | 'rc'      | 'v1.2.3-rc.1'
+    'v1.2.3-RC.4'      | 'RC.1.'   | 'v1.2.3-RC.1.1'
+    'v1.2.3-alpha.1.7' | 'alpha.1' | 'v1.2.3-alpha.1.8'
+    'v1.2.3-DEV'       | 'RC'      | 'v1.2.3-RC.1'
+  }
+
+  @Unroll
+  def "#lower has lower precedence than #higher"() {
+    given:
+    VersionInfo low = SemverParser.parse(lower)
+    VersionInfo high = SemverParser.parse(higher)
+
+    expect:
+    low < high
+    high > low
+
+    where:
+    lower              | higher
+    '1.0.0-alpha'      | '1.0.0-alpha.1'
+    '1.0.0-alpha.1'    | '1.0.0-alpha.beta'
+    '1.0.0-alpha.beta' | '1.0.0-beta'
+    '1.0.0-beta'       | '1.0.0-beta.2'
+    '1.0.0-beta.2'     | '1.0.0-beta.11'
+    '1.0.0-beta.11'    | '1.0.0-rc.1'
+    '1.0.0-rc.1'       | '1.0.0'
+    '1.0.0'            | '1.0.1-alpha'
+    '1.9.0'            | '1.10.0'
+    '1.0.0-RC.1'       | '1.0.0-rc.1'
+  }
+
+  @Unroll
+  def "build metadata doesn't count for precedence: #left equals #right"() {
+    expect:
+    SemverParser.parse(left).compareTo(SemverParser.parse(right)) == 0
+
+    where:
+    left                  | right
+    '1.0.0+build.1'       | '1.0.0+build.2'
+    '1.0.0-alpha+001'     | '1.0.0-alpha'
+    'v1.0.0-rc.1+exp.sha' | '=1.0.0-rc.1'
+  }
+
+  def "sorting puts versions in semver precedence order"() {
+    given:
+    List<String> ordered = ['v1.0.0-alpha', 'v1.0.0-alpha.1', 'v1.0.0-alpha.beta', 'v1.0.0-beta', 'v1.0.0-beta.2',
+                            'v1.0.0-beta.11', 'v1.0.0-rc.1', 'v1.0.0']
+    List<VersionInfo> shuffled = ordered.collect { SemverParser.parse(it) }
+    Collections.shuffle(shuffled, new Random(11))
+
+    expect:
+    shuffled.sort(false)*.semver == ordered
+  }
+
+  def "a counter too large for an int starts over"() {
+    expect:
+    SemverParser.parse('v1.2.3-build.9999999999').nextPreRelease('build').build().full == 'v1.2.3-build.1'
+  }
+}
@@ -0,0 +1,92 @@
+package com.fetherbrik.gradle.afb.service
+
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+
+class ApplicationLayersSpec extends Specification {
+
+  File dir
+  File repo
+  Project root
+  Project app
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-layers').toFile()
+    repo = new File(dir, 'repo')
+    publish('com.example', 'lib', '1.0')
+    publish('com.example', 'tool', '2.0-SNAPSHOT')
+    root = ProjectBuilder.builder().withProjectDir(dir).withName('shop').build()
+    Project core = ProjectBuilder.builder().withParent(root).withProjectDir(new File(dir, 'core')).withName('core').build()
+    core.pluginManager.apply('java')
+    app = ProjectBuilder.builder().withParent(root).withProjectDir(new File(dir, 'app')).withName('app').build()
+    app.pluginManager.apply('java')
+    app.repositories.maven { it.url = repo.toURI() }
+  }
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  def "puts released jars in libs, snapshot jars in snapshot-libs, and the project's own jars in app"() {
+    given:
+    app.dependencies.add('implementation', 'com.example:lib:1.0')
+    app.dependencies.add('implementation', 'com.example:tool:2.0-SNAPSHOT')
+    app.dependencies.add('implementation', app.dependencies.project(path: ':core'))
+
+    when:
+    ApplicationLayers layers = new ApplicationLayers(app)
+
+    then:
+    layers.layers().keySet() as List == [ApplicationLayers.LIBS, ApplicationLayers.SNAPSHOT_LIBS, ApplicationLayers.APP]
+    layers.layers()[ApplicationLayers.LIBS]*.name == ['lib-1.0.jar']
+    layers.layers()[ApplicationLayers.SNAPSHOT_LIBS]*.name == ['tool-2.0-SNAPSHOT.jar']
+    layers.layers()[ApplicationLayers.APP]*.name as Set == ['app.jar', 'core.jar'] as Set
+    layers.nonEmpty() == ['libs', 'snapshot-libs', 'app']
+  }
+
+  def "leaves out the layers that have no jars"() {
+    given:
+    app.dependencies.add('implementation', 'com.example:lib:1.0')
+
+    expect:
+    new ApplicationLayers(app).nonEmpty() == ['libs', 'app']
+  }
+
+  def "the app layer carries the task that builds the project's jar"() {
+    expect:
+    new ApplicationLayers(app).layers()[ApplicationLayers.APP].buildDependencies.getDependencies(null)*.name.contains('jar')
+  }
+
+  @Unroll
+  def "the java command puts later layers first on the classpath: #layers"() {
+    expect:
+    ApplicationLayers.javaCommand(jvmArgs, '/app', layers, 'com.example.Main') == command
+
+    where:
+    jvmArgs             | layers                           | command
+    []                  | ['libs', 'snapshot-libs', 'app'] | ['java', '-cp', '/app/app/*:/app/snapshot-libs/*:/app/libs/*', 'com.example.Main']
+    ['-Xmx1g', '-Dx=y'] | ['libs', 'app']                  | ['java', '-Xmx1g', '-Dx=y', '-cp', '/app/app/*:/app/libs/*', 'com.example.Main']
+    []                  | ['app']                          | ['java', '-cp', '/app/app/*', 'com.example.Main']
+  }
+
+  /**
+   * Write a jar and its pom to the file repository, in the Maven layout.
+   */
+  private void publish(String group, String name, String version) {
+    File versionDir = new File(repo, "${group.replace('.', '/')}/${name}/${version}")
+    versionDir.mkdirs()
+    new File(versionDir, "${name}-${version}.pom").text = """\
+<project xmlns="http://maven.apache.org/POM/4.0.0">
+  <modelVersion>4.0.0</modelVersion>
+  <groupId>${group}</groupId>
+  <artifactId>${name}</artifactId>
+  <version>${version}</version>
+</project>
+"""
+    new File(versionDir, "${name}-${version}.jar").text = name
+  }
+}
@@ -0,0 +1,61 @@
+package com.fetherbrik.gradle.afb.service
+
+import com.fetherbrik.gradle.afb.domain.GitInfo
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.Instant
+
+class BuildInfoTransformSpec extends Specification {
+
+  static final Instant NOW = Instant.parse('2021-01-30T08:30:15.750Z')
+  // 2020-10-01T12:00:00Z
+  static final long COMMIT_TIME = 1601553600L
+
+  @Unroll
+  def "a '#mode' date stamp of a #state working copy with the suffix #suffix is #expected"() {
+    given:
+    GitInfo git = git(state == 'dirty')
+
+    expect:
+    BuildInfoTransform.dateStamp(mode, suffix, git, NOW) == expected
+
+    where:
+    mode     | state   | suffix   | expected
+    null     | 'clean' | null     | '20210130T083015z'
+    'clock'  | 'clean' | null     | '20210130T083015z'
+    'clock'  | 'dirty' | '-dirty' | '20210130T083015z'
+    'commit' | 'clean' | null     | '20201001T120000z'
+    'commit' | 'clean' | '-dirty' | '20201001T120000z'
+    'commit' | 'dirty' | null     | '20201001T120000z'
+    'commit' | 'dirty' | '-dirty' | '20201001T120000z-dirty'
+  }
+
+  def "a 'commit' date stamp doesn't depend on the time of the build"() {
+    expect:
+    BuildInfoTransform.dateStamp('commit', null, git(false), NOW) ==
+      BuildInfoTransform.dateStamp('commit', null, git(false), NOW.plusSeconds(3600))
+  }
+
+  @Unroll
+  def "'#mode' is not a date stamp mode"() {
+    when:
+    BuildInfoTransform.dateStamp(mode, null, git(false), NOW)
+
+    then:
+    RuntimeException e = thrown()
+    e.message == "AFB: Unknown dateStampMode '${mode}': use 'clock' or 'commit'."
+
+    where:
+    mode << ['Commit', 'tag', '']
+  }
+
+  private static GitInfo git(boolean dirty) {
+    return new GitInfo.Builder()
+      .describe('v1.2.3-0-g01234567')
+      .hash('0123456789abcdef0123456789abcdef01234567')
+      .commitTime(COMMIT_TIME)
+      .isDirty(dirty)
+      .build()
+  }
+}
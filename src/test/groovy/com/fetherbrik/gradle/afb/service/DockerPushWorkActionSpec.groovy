@@ -0,0 +1,186 @@
+package com.fetherbrik.gradle.afb.service
+
+import com.fetherbrik.gradle.afb.service.docker.Digests
+import com.fetherbrik.gradle.afb.service.docker.DockerBackend
+import com.fetherbrik.gradle.afb.service.docker.DockerBuildRequest
+import com.fetherbrik.gradle.afb.service.docker.DockerCredentials
+import com.fetherbrik.gradle.afb.service.docker.DockerProgressListener
+import com.fetherbrik.gradle.afb.task.DockerPushTask
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs the workers of a push task on threads of their own, as the Worker API would, against a fake docker backend.
+ */
+class DockerPushWorkActionSpec extends Specification {
+
+  static final String TASK = ':app:dockerPushTags'
+
+  Project project = ProjectBuilder.builder().build()
+  DockerPushService service = new DockerPushService() {
+    @Override
+    DockerPushService.Parameters getParameters() {
+      return null
+    }
+  }
+  FakeBackend docker = new FakeBackend()
+
+  def "pushes every image exactly once, with no more pushes at once than there are workers"() {
+    given:
+    List<String> images = (1..12).collect { "registry.example.org/org/app:${it}".toString() }
+    service.start(TASK, images)
+
+    when:
+    runWorkers(3)
+    List<DockerPushService.PushResult> results = service.results(TASK)
+
+    then:
+    docker.pushed.sort() == images.sort()
+    docker.maxActive.get() <= 3
+    results*.image.sort() == images.sort()
+    results.every { !it.failed() && it.action == 'PUSHED' && it.output == FakeBackend.digest(it.image) }
+    service.nextImage(TASK) == null
+  }
+
+  def "records failed pushes and goes on with the others"() {
+    given:
+    List<String> images = ['registry.example.org/org/app:1', 'registry.example.org/org/broken:1',
+                           'registry.example.org/org/app:2', 'registry.example.org/org/broken:2']
+    service.start(TASK, images)
+
+    when:
+    runWorkers(2)
+    List<DockerPushService.PushResult> results = service.results(TASK)
+
+    then:
+    docker.pushed.sort() == images.sort()
+    results.findAll { it.failed() }*.image.sort() == ['registry.example.org/org/broken:1', 'registry.example.org/org/broken:2']
+    DockerPushTask.failureMessage(results, images.size()) == String.format(
+      "AFB: Failed to push 2 of 4 images:%n'registry.example.org/org/broken:%s':%nAFB: denied%n'registry.example.org/org/broken:%s':%nAFB: denied",
+      *results.findAll { it.failed() }*.image.collect { it[-1] })
+    DockerPushTask.failureMessage(results.findAll { !it.failed() }, 2) == null
+  }
+
+  def "reports how long each image was queued before a worker took it"() {
+    given:
+    service.start(TASK, ['registry.example.org/org/app:1', 'registry.example.org/org/app:2'])
+
+    when:
+    runWorkers(1)
+    List<DockerPushService.PushResult> results = service.results(TASK)
+
+    then:
+    results[0].queuedMillis < FakeBackend.PUSH_MILLIS
+    results[1].queuedMillis >= FakeBackend.PUSH_MILLIS
+  }
+
+  def "forgets the queue and results of a task once they are collected"() {
+    given:
+    service.start(TASK, ['registry.example.org/org/app:1'])
+    service.record(TASK, new DockerPushService.PushResult('registry.example.org/org/app:0', 1, 0, 0, ''))
+
+    expect:
+    service.results(TASK)*.image == ['registry.example.org/org/app:0']
+    service.nextImage(TASK) == null
+    service.results(TASK).isEmpty()
+  }
+
+  private void runWorkers(int workers) {
+    long submitted = System.nanoTime()
+    List<Thread> threads = (1..workers).collect {
+      Thread.start {
+        TestAction action = new TestAction(project.objects.newInstance(DockerPushWorkAction.Parameters), docker)
+        action.parameters.taskPath.set(TASK)
+        action.parameters.submitted.set(submitted)
+        action.parameters.pushService.set(service)
+        action.parameters.checkRegistry.set(false)
+        action.execute()
+      }
+    }
+    threads*.join()
+  }
+
+  static class TestAction extends DockerPushWorkAction {
+    final DockerPushWorkAction.Parameters parameters
+    final DockerBackend docker
+
+    TestAction(DockerPushWorkAction.Parameters parameters, DockerBackend docker) {
+      super(null)
+      this.parameters = parameters
+      this.docker = docker
+    }
+
+    @Override
+    DockerPushWorkAction.Parameters getParameters() {
+      return parameters
+    }
+
+    @Override
+    protected DockerBackend backend() {
+      return docker
+    }
+  }
+
+  /**
+   * Pushes take PUSH_MILLIS; images of repositories named 'broken' are refused.
+   */
+  static class FakeBackend implements DockerBackend {
+    static final long PUSH_MILLIS = 100
+
+    final List<String> pushed = Collections.synchronizedList([])
+    final AtomicInteger active = new AtomicInteger()
+    final AtomicInteger maxActive = new AtomicInteger()
+
+    @Override
+    void push(String image, DockerCredentials credentials, DockerProgressListener listener) {
+      pushed << image
+      maxActive.accumulateAndGet(active.incrementAndGet(), Math.&max)
+      try {
+        Thread.sleep(PUSH_MILLIS)
+        if (image.contains('/broken:')) {
+          throw new RuntimeException('AFB: denied')
+        }
+        listener.onMessage([status: "${image.split(':')[-1]}: digest: ${digest(image)} size: 528".toString()])
+      } finally {
+        active.decrementAndGet()
+      }
+    }
+
+    static String digest(String image) {
+      return Digests.sha256(image.getBytes(StandardCharsets.UTF_8))
+    }
+
+    @Override
+    Optional<String> imageId(String image) {
+      return Optional.of('sha256:' + 'a' * 64)
+    }
+
+    @Override
+    String build(DockerBuildRequest request, DockerProgressListener listener) { throw new UnsupportedOperationException() }
+
+    @Override
+    void tag(String image, List<String> targets) { throw new UnsupportedOperationException() }
+
+    @Override
+    void login(DockerCredentials credentials) { throw new UnsupportedOperationException() }
+
+    @Override
+    List<String> repoDigests(String image) { return [] }
+
+    @Override
+    Optional<String> findImage(String label, String value) { return Optional.empty() }
+
+    @Override
+    void save(String image, File archive) { throw new UnsupportedOperationException() }
+
+    @Override
+    String load(File archive, DockerProgressListener listener) { throw new UnsupportedOperationException() }
+
+    @Override
+    String describe() { return 'fake docker' }
+  }
+}
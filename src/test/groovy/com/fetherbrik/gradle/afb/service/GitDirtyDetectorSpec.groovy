@@ -0,0 +1,143 @@
+package com.fetherbrik.gradle.afb.service
+
+import org.eclipse.jgit.api.Git
+import org.eclipse.jgit.api.MergeResult
+import org.eclipse.jgit.api.Status
+import org.eclipse.jgit.submodule.SubmoduleWalk
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+
+/**
+ * Compares GitDirtyDetector with JGit's full status, on a working copy with tracked files, a directory, a .gitignore
+ * and a submodule, each changed in one way.
+ */
+class GitDirtyDetectorSpec extends Specification {
+
+  File dir
+  File work
+  Git git
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-dirty').toFile()
+    Git library = Git.init().setDirectory(new File(dir, 'library')).call()
+    new File(dir, 'library/lib.txt').text = 'lib'
+    library.add().addFilepattern('.').call()
+    library.commit().setMessage('library').setSign(false).call()
+    library.close()
+
+    work = new File(dir, 'work')
+    git = Git.init().setDirectory(work).call()
+    file('README.md').text = 'readme'
+    file('src/Main.java').text = 'class Main {}'
+    file('bin/run.sh').text = '#!/bin/sh'
+    file('.gitignore').text = 'build/\n*.log\n'
+    git.add().addFilepattern('.').call()
+    git.submoduleAdd().setPath('library').setURI(new File(dir, 'library').toURI().toString()).call().close()
+    git.commit().setMessage('initial').setSign(false).call()
+  }
+
+  def cleanup() {
+    git.close()
+    dir.deleteDir()
+  }
+
+  @Unroll
+  def "agrees with git status when #change (untracked ignored: #ignoreUntracked, submodules ignored: #ignoreSubmodules)"() {
+    given:
+    changes[change].call()
+
+    expect:
+    new GitDirtyDetector(ignoreUntracked, ignoreSubmodules).isDirty(git.repository) == isDirty(ignoreUntracked, ignoreSubmodules)
+    isDirty(ignoreUntracked, ignoreSubmodules) == dirty
+
+    where:
+    [change, ignoreUntracked, ignoreSubmodules, dirty] << [
+      ['nothing changed', false, false, false],
+      ['a file is only touched', false, false, false],
+      ['a file is modified', false, false, true],
+      ['a file is modified to the same size', false, false, true],
+      ['a file is made executable', false, false, true],
+      ['a file is deleted', false, false, true],
+      ['a new file is staged', false, false, true],
+      ['a change is staged, then undone in the working tree', false, false, true],
+      ['a deletion is staged', false, false, true],
+      ['a file is untracked', false, false, true],
+      ['a file is untracked', true, false, false],
+      ['a directory is untracked', false, false, true],
+      ['a directory is untracked', true, false, false],
+      ['files are ignored', false, false, false],
+      ['a merge is unresolved', false, false, true],
+      ['the submodule is at another commit', false, false, true],
+      ['the submodule is at another commit', false, true, false],
+      ['the submodule is staged at another commit', false, false, true],
+      ['the submodule is staged at another commit', false, true, false],
+    ]
+  }
+
+  private Map<String, Closure> getChanges() {
+    return [
+      'nothing changed'                                    : {},
+      'a file is only touched'                             : { file('README.md').lastModified = System.currentTimeMillis() + 60_000 },
+      'a file is modified'                                 : { file('src/Main.java').text = 'class Main { int x; }' },
+      'a file is modified to the same size'                : {
+        file('README.md').text = 'README'
+        file('README.md').lastModified = System.currentTimeMillis() + 60_000
+      },
+      'a file is made executable'                          : { file('bin/run.sh').executable = true },
+      'a file is deleted'                                  : { file('README.md').delete() },
+      'a new file is staged'                               : {
+        file('NEW.md').text = 'new'
+        git.add().addFilepattern('NEW.md').call()
+      },
+      'a change is staged, then undone in the working tree': {
+        file('README.md').text = 'changed'
+        git.add().addFilepattern('README.md').call()
+        file('README.md').text = 'readme'
+      },
+      'a deletion is staged'                               : { git.rm().addFilepattern('README.md').call() },
+      'a file is untracked'                                : { file('NOTES.md').text = 'notes' },
+      'a directory is untracked'                           : { file('docs/guide/intro.md').text = 'intro' },
+      'files are ignored'                                  : {
+        file('build/classes/Main.class').text = 'class'
+        file('src/debug.log').text = 'log'
+      },
+      'a merge is unresolved'                              : {
+        git.checkout().setCreateBranch(true).setName('other').call()
+        file('README.md').text = 'other'
+        git.commit().setAll(true).setMessage('other').setSign(false).call()
+        git.checkout().setName('master').call()
+        file('README.md').text = 'master'
+        git.commit().setAll(true).setMessage('master').setSign(false).call()
+        MergeResult result = git.merge().include(git.repository.resolve('other')).call()
+        assert result.mergeStatus == MergeResult.MergeStatus.CONFLICTING
+      },
+      'the submodule is at another commit'                 : { commitInSubmodule() },
+      'the submodule is staged at another commit'          : {
+        commitInSubmodule()
+        git.add().addFilepattern('library').call()
+      },
+    ]
+  }
+
+  private boolean isDirty(boolean ignoreUntracked, boolean ignoreSubmodules) {
+    Status status = git.status()
+                       .setIgnoreSubmodules(ignoreSubmodules ? SubmoduleWalk.IgnoreSubmoduleMode.ALL : SubmoduleWalk.IgnoreSubmoduleMode.DIRTY)
+                       .call()
+    return ignoreUntracked ? status.hasUncommittedChanges() : !status.isClean()
+  }
+
+  private void commitInSubmodule() {
+    Git library = Git.wrap(SubmoduleWalk.getSubmoduleRepository(git.repository, 'library'))
+    new File(file('library'), 'lib.txt').text = 'lib 2'
+    library.commit().setAll(true).setMessage('library 2').setSign(false).call()
+    library.close()
+  }
+
+  private File file(String path) {
+    File file = new File(work, path)
+    file.parentFile.mkdirs()
+    return file
+  }
+}
@@ -0,0 +1,233 @@
+package com.fetherbrik.gradle.afb.service
+
+import org.eclipse.jgit.api.Git
+import org.eclipse.jgit.lib.CommitBuilder
+import org.eclipse.jgit.lib.Constants
+import org.eclipse.jgit.lib.ObjectId
+import org.eclipse.jgit.lib.ObjectInserter
+import org.eclipse.jgit.lib.PersonIdent
+import org.eclipse.jgit.lib.RefUpdate
+import org.eclipse.jgit.lib.Repository
+import org.eclipse.jgit.lib.TagBuilder
+import org.eclipse.jgit.lib.TreeFormatter
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+
+/**
+ * Compares GitTagIndex with JGit's describe on synthetic repositories: commits are written straight through an
+ * ObjectInserter, one minute apart, with annotated semver tags.
+ */
+class GitTagIndexSpec extends Specification {
+
+  static final long START_MILLIS = 1_600_000_000_000L
+
+  File dir
+  File indexFile
+  Repository repository
+  int clock
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-tag-index').toFile()
+    indexFile = new File(dir, 'index/tags.bin')
+    repository = new FileRepositoryBuilder().setGitDir(new File(dir, 'repo.git')).build()
+    repository.create(true)
+  }
+
+  def cleanup() {
+    repository.close()
+    dir.deleteDir()
+  }
+
+  @Unroll
+  def "describes every commit of a history with merges as JGit does (seed #seed)"() {
+    given:
+    Random random = new Random(seed)
+    List<ObjectId> commits = history(random, 120)
+
+    when:
+    GitTagIndex index = GitTagIndex.load(indexFile, repository)
+    List<ObjectId> order = new ArrayList<>(commits)
+    Collections.shuffle(order, random)
+
+    then:
+    order.each { ObjectId commit -> assert index.describe(repository, commit) == jgitDescribe(commit) }
+
+    when: 'more history is added, a tag is deleted and another one moved, and the saved index is loaded again'
+    index.save()
+    commits.addAll(history(random, 60, commits))
+    List<String> tags = repository.refDatabase.getRefsByPrefix(Constants.R_TAGS)*.name
+    deleteRef(tags[1])
+    tag(Repository.shortenRefName(tags[2]), commits[commits.size() - 30])
+    index = GitTagIndex.load(indexFile, repository)
+    order = new ArrayList<>(commits)
+    Collections.shuffle(order, random)
+
+    then:
+    order.each { ObjectId commit -> assert index.describe(repository, commit) == jgitDescribe(commit) }
+
+    where:
+    seed << [1, 2, 3, 4, 5]
+  }
+
+  def "a new tag only drops the remembered results of commits that reach it"() {
+    given:
+    ObjectId c1 = commit(null)
+    tag('v1.0.0', c1)
+    ObjectId c2 = commit(c1)
+    ObjectId c3 = commit(c2)
+    ObjectId c4 = commit(c3)
+    ObjectId c5 = commit(c4)
+    GitTagIndex index = GitTagIndex.load(indexFile, repository)
+    index.describe(repository, c3)
+    index.describe(repository, c5)
+    index.save()
+
+    when:
+    tag('v1.1.0', c4)
+    index = GitTagIndex.load(indexFile, repository)
+
+    then:
+    index.@described.keySet() == [c3] as Set
+    index.describe(repository, c3) == jgitDescribe(c3)
+    index.describe(repository, c5) == jgitDescribe(c5)
+    index.describe(repository, c5).startsWith('v1.1.0-1-g')
+  }
+
+  def "a removed tag drops the remembered results that name it"() {
+    given:
+    ObjectId c1 = commit(null)
+    tag('v1.0.0', c1)
+    ObjectId c2 = commit(c1)
+    tag('v1.1.0', c2)
+    ObjectId c3 = commit(c2)
+    ObjectId c4 = commit(c1)
+    GitTagIndex index = GitTagIndex.load(indexFile, repository)
+    index.describe(repository, c3)
+    index.describe(repository, c4)
+    index.save()
+
+    when:
+    deleteRef(Constants.R_TAGS + 'v1.1.0')
+    index = GitTagIndex.load(indexFile, repository)
+
+    then:
+    index.@described.keySet() == [c4] as Set
+    index.describe(repository, c3) == jgitDescribe(c3)
+    index.describe(repository, c3).startsWith('v1.0.0-2-g')
+  }
+
+  def "a describe across a merge reuses the remembered result of a merged commit"() {
+    given:
+    ObjectId c1 = commit(null)
+    tag('v1.0.0', c1)
+    ObjectId main = commit(commit(c1))
+    ObjectId feature = commit(commit(c1))
+    GitTagIndex index = GitTagIndex.load(indexFile, repository)
+    index.describe(repository, main)
+    ObjectId merge = commit(main, feature)
+    ObjectId head = commit(merge)
+
+    when:
+    String described = index.describe(repository, head)
+
+    then:
+    described == jgitDescribe(head)
+    described.startsWith('v1.0.0-6-g')
+    index.@described.keySet() == [main, merge, head] as Set
+  }
+
+  /**
+   * A random history of 'size' more commits: work on the main line and on feature branches, merges both ways, and
+   * semver tags along the main line and on release branches.
+   */
+  private List<ObjectId> history(Random random, int size, List<ObjectId> existing = []) {
+    List<ObjectId> commits = []
+    List<ObjectId> branches = existing ? [existing.last()] : [commit(null)]
+    if (!existing) {
+      commits << branches[0]
+    }
+    int tags = repository.refDatabase.getRefsByPrefix(Constants.R_TAGS).size()
+    while (commits.size() < size) {
+      int action = random.nextInt(10)
+      ObjectId created
+      if (action < 4 || branches.size() == 1 && action < 6) {
+        int branch = random.nextInt(branches.size())
+        created = commit(branches[branch])
+        branches[branch] = created
+      } else if (action < 6) {
+        // Merge a branch into another, and sometimes retire it.
+        int from = random.nextInt(branches.size())
+        int into = (from + 1 + random.nextInt(branches.size() - 1)) % branches.size()
+        created = commit(branches[into], branches[from])
+        branches[into] = created
+        if (random.nextBoolean() && from != 0) {
+          branches.remove(from)
+        }
+      } else if (action < 8 && branches.size() < 5) {
+        // A new branch off a recent commit.
+        created = commit(commits ? commits[Math.max(0, commits.size() - 1 - random.nextInt(10))] : branches[0])
+        branches << created
+      } else {
+        created = commit(branches[random.nextInt(branches.size())])
+        tag("v1.${tags / 10 as int}.${tags % 10}", created)
+        tags++
+      }
+      commits << created
+    }
+    return commits
+  }
+
+  private ObjectId commit(ObjectId... parents) {
+    ObjectInserter inserter = repository.newObjectInserter()
+    try {
+      CommitBuilder commit = new CommitBuilder()
+      commit.setTreeId(inserter.insert(new TreeFormatter()))
+      commit.setParentIds(parents.findAll { it != null })
+      commit.setAuthor(ident())
+      commit.setCommitter(commit.author)
+      commit.setMessage("Commit ${clock}\n")
+      ObjectId id = inserter.insert(commit)
+      inserter.flush()
+      return id
+    } finally {
+      inserter.close()
+    }
+  }
+
+  private void tag(String name, ObjectId commit) {
+    ObjectInserter inserter = repository.newObjectInserter()
+    try {
+      TagBuilder tag = new TagBuilder()
+      tag.setTag(name)
+      tag.setObjectId(commit, Constants.OBJ_COMMIT)
+      tag.setTagger(ident())
+      tag.setMessage("Release ${name}\n")
+      ObjectId id = inserter.insert(tag)
+      inserter.flush()
+      RefUpdate update = repository.updateRef(Constants.R_TAGS + name)
+      update.setNewObjectId(id)
+      update.setForceUpdate(true)
+      update.update()
+    } finally {
+      inserter.close()
+    }
+  }
+
+  private void deleteRef(String name) {
+    RefUpdate update = repository.updateRef(name)
+    update.setForceUpdate(true)
+    update.delete()
+  }
+
+  private PersonIdent ident() {
+    clock++
+    return new PersonIdent('AFB Test', 'test@example.com', new Date(START_MILLIS + clock * 60_000L), TimeZone.getTimeZone('UTC'))
+  }
+
+  private String jgitDescribe(ObjectId commit) {
+    return new Git(repository).describe().setTarget(commit).setLong(true).setAlways(true).call()
+  }
+}
@@ -0,0 +1,53 @@
+package com.fetherbrik.gradle.afb.service
+
+import com.fetherbrik.gradle.afb.domain.SemverParser
+import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ReleaseTargetMatcherSpec extends Specification {
+
+  Map<String, ReleaseTarget> targets = [
+      pr        : target('pr', 'v.*', 'PR'),
+      production: target('production', 'v.*-RELEASE$', 'CICD'),
+      stage     : target('stage', 'v.*-RC[\\d]*', null),
+      dev       : target('dev', 'v.*', null),
+  ]
+
+  @Unroll
+  def "#version with build type #buildType goes to #expected, as the targets themselves say"() {
+    given:
+    ReleaseTargetMatcher matcher = ReleaseTargetMatcher.of(targets)
+
+    expect:
+    matcher.match(buildType, version).get().name == expected
+    targets.values().find { it.matches(buildType, version) }.name == expected
+
+    where:
+    version          | buildType | expected
+    'v1.2.3'         | 'PR'      | 'pr'
+    'v1.2.3-RELEASE' | 'CICD'    | 'production'
+    'v1.2.3-RELEASE' | null      | 'dev'
+    'v1.2.3-RC4'     | null      | 'stage'
+    'v1.2.3'         | null      | 'dev'
+  }
+
+  def "resolveAll keys the targets by full version"() {
+    given:
+    ReleaseTargetMatcher matcher = ReleaseTargetMatcher.of(targets)
+    def versions = ['v1.2.3-RC4', 'v1.2.3', 'v1.2.3-RC4'].collect { SemverParser.parse(it) }
+
+    when:
+    Map<String, ReleaseTarget> resolved = matcher.resolveAll('CICD', versions)
+
+    then:
+    resolved.collectEntries { [(it.key): it.value.name] } == ['v1.2.3-RC4': 'stage', 'v1.2.3': 'dev']
+  }
+
+  private static ReleaseTarget target(String name, String versionMatches, String buildTypeMatches) {
+    ReleaseTarget target = new ReleaseTarget(name)
+    target.versionMatches = versionMatches
+    target.buildTypeMatches = buildTypeMatches
+    return target
+  }
+}
@@ -0,0 +1,104 @@
+package com.fetherbrik.gradle.afb.service
+
+import com.fetherbrik.gradle.afb.domain.VersionInfo
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class VersionTagIndexSpec extends Specification {
+
+  VersionTagIndex index = VersionTagIndex.of([
+      'v2.0.0-RCX', 'v1.4.2', 'release-candidate', 'v1.4.3-RC.2', 'v1.0.0', 'latest', 'v1.4.10', 'v1.4',
+      'v1.5.0-beta.1', 'v01.2.3', 'v2.0.0-RC1', 'v1.4.3-RC.1', 'v1.4.0'
+  ])
+
+  def "skips the tags that are not semver versions and sorts the rest by precedence"() {
+    expect:
+    index.all()*.full == ['v1.0.0', 'v1.4.0', 'v1.4.2', 'v1.4.3-RC.1', 'v1.4.3-RC.2', 'v1.4.10', 'v1.5.0-beta.1',
+                          'v2.0.0-RC1', 'v2.0.0-RCX']
+  }
+
+  def "latest() is the highest release, passing over later pre-releases"() {
+    expect:
+    full(index.latest()) == 'v1.4.10'
+    !VersionTagIndex.of(['v1.0.0-RC.1', 'nightly']).latest().isPresent()
+  }
+
+  @Unroll
+  def "the latest release in '#range' is #expected"() {
+    expect:
+    full(index.latest(range)) == expected
+
+    where:
+    range   | expected
+    '1.4.x' | 'v1.4.10'
+    '1.4.*' | 'v1.4.10'
+    '1.4'   | 'v1.4.10'
+    'v1.4'  | 'v1.4.10'
+    '1.x'   | 'v1.4.10'
+    '1.4.2' | 'v1.4.2'
+    '1.4.3' | null
+    '1.5.x' | null
+    '2.x'   | null
+    'x'     | 'v1.4.10'
+  }
+
+  @Unroll
+  def "latest(#args) is #expected"() {
+    expect:
+    full(index.latest(args)) == expected
+
+    where:
+    args                                  | expected
+    [:]                                   | 'v1.4.10'
+    [preRelease: true]                    | 'v2.0.0-RCX'
+    [matching: '1.4.x']                   | 'v1.4.10'
+    [matching: '1.4.3', preRelease: true] | 'v1.4.3-RC.2'
+    [matching: '1.5', preRelease: true]   | 'v1.5.0-beta.1'
+    [matching: '1.5']                     | null
+    [matching: '2.x', preRelease: false]  | null
+  }
+
+  @Unroll
+  def "the latest '#preId' pre-release is #expected"() {
+    expect:
+    full(index.latestPreRelease(preId)) == expected
+
+    where:
+    preId   | expected
+    'RC'    | 'v2.0.0-RC1'
+    'RC.'   | 'v1.4.3-RC.2'
+    'RCX'   | 'v2.0.0-RCX'
+    'R'     | null
+    'beta'  | 'v1.5.0-beta.1'
+    'alpha' | null
+  }
+
+  @Unroll
+  def "matching('#range') includes pre-releases, lowest first"() {
+    expect:
+    index.matching(range)*.full == expected
+
+    where:
+    range   | expected
+    '1.4'   | ['v1.4.0', 'v1.4.2', 'v1.4.3-RC.1', 'v1.4.3-RC.2', 'v1.4.10']
+    '1.4.3' | ['v1.4.3-RC.1', 'v1.4.3-RC.2']
+    '2'     | ['v2.0.0-RC1', 'v2.0.0-RCX']
+    '3.x'   | []
+  }
+
+  @Unroll
+  def "'#range' is not a version range"() {
+    when:
+    index.matching(range)
+
+    then:
+    thrown(IllegalArgumentException)
+
+    where:
+    range << ['1.4.x.1', '1.y', 'latest']
+  }
+
+  private static String full(Optional<VersionInfo> version) {
+    return version.map { it.full }.orElse(null)
+  }
+}
@@ -0,0 +1,149 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import spock.lang.Specification
+
+class BuildCacheStatsSpec extends Specification {
+
+  /**
+   * 'docker buildx build --progress plain' of a layered application image, with the libraries unchanged. The CLI
+   * backend passes each line on as a 'stream' message.
+   */
+  static final String BUILDKIT = '''\
+#0 building with "afb" instance using docker-container driver
+
+#1 [internal] load build definition from Dockerfile
+#1 transferring dockerfile: 214B done
+#1 DONE 0.0s
+
+#2 [internal] load metadata for docker.io/library/eclipse-temurin:11-jre
+#2 DONE 0.9s
+
+#3 [internal] load .dockerignore
+#3 transferring context: 2B done
+#3 DONE 0.0s
+
+#4 [1/5] FROM docker.io/library/eclipse-temurin:11-jre@sha256:6d0f31ab3ef4e3d6c1f1c9b4a5e9e2f5a0a6f7d3c3c2b1a0f9e8d7c6b5a4f3e2
+#4 resolve docker.io/library/eclipse-temurin:11-jre@sha256:6d0f31ab3ef4e3d6c1f1c9b4a5e9e2f5a0a6f7d3c3c2b1a0f9e8d7c6b5a4f3e2 done
+#4 CACHED
+
+#5 importing cache manifest from local:2279468342416735106
+#5 DONE 0.0s
+
+#6 [internal] load build context
+#6 transferring context: 1.32MB 0.1s done
+#6 DONE 0.1s
+
+#7 [2/5] WORKDIR /app
+#7 CACHED
+
+#8 [3/5] COPY libs/ /app/libs/
+#8 CACHED
+
+#9 [4/5] COPY snapshot-libs/ /app/snapshot-libs/
+#9 DONE 0.1s
+
+#10 [5/5] COPY app/ /app/
+#10 DONE 0.1s
+
+#11 exporting to docker image format
+#11 exporting layers 0.2s done
+#11 DONE 0.4s
+
+#12 exporting cache to client directory
+#12 preparing build cache for export 0.1s done
+#12 DONE 0.2s
+'''
+
+  /**
+   * The same build by the classic builder through the Engine API: each message holds a line or two of the output.
+   */
+  static final List<String> CLASSIC = [
+    'Step 1/5 : FROM eclipse-temurin:11-jre\n',
+    ' ---> 3a5c1ee7d2b4\n',
+    'Step 2/5 : WORKDIR /app\n',
+    ' ---> Using cache\n ---> 1b2c3d4e5f60\n',
+    'Step 3/5 : COPY libs/ /app/libs/\n',
+    ' ---> Using cache\n',
+    ' ---> 2c3d4e5f6071\n',
+    'Step 4/5 : COPY snapshot-libs/ /app/snapshot-libs/\n',
+    ' ---> 4e5f60718293\n',
+    'Step 5/5 : COPY app/ /app/\n',
+    ' ---> 5f6071829304\n',
+    'Successfully built 5f6071829304\n',
+  ]
+
+  def "counts BuildKit's CACHED steps, but not FROM or [internal] steps"() {
+    given:
+    BuildCacheStats stats = new BuildCacheStats({ } as DockerProgressListener)
+
+    when:
+    BUILDKIT.readLines().each { stats.onMessage([stream: it]) }
+
+    then:
+    stats.steps() == 4
+    stats.cachedSteps() == 2
+    stats.summary() == '2 of 4 steps cached (50%)'
+  }
+
+  def "counts BuildKit steps by their number, however the lines of parallel steps and stages interleave"() {
+    given:
+    BuildCacheStats stats = new BuildCacheStats({ } as DockerProgressListener)
+    String output = '''\
+#5 [build 1/3] FROM docker.io/library/gradle:6.6.1-jdk11
+#6 [stage-1 1/2] FROM docker.io/library/eclipse-temurin:11-jre
+#7 [build 2/3] COPY . /src
+#8 [internal] load build context
+#8 CACHED
+#9 [build 3/3] RUN gradle installDist
+#7 CACHED
+#10 [stage-1 2/2] COPY --from=build /src/build/install/app /app
+#9 DONE 41.2s
+#10 DONE 0.3s
+'''
+
+    when:
+    stats.onMessage([stream: output])
+
+    then:
+    stats.summary() == '1 of 3 steps cached (33%)'
+  }
+
+  def "counts the classic builder's 'Using cache' steps, but not FROM"() {
+    given:
+    BuildCacheStats stats = new BuildCacheStats({ } as DockerProgressListener)
+
+    when:
+    CLASSIC.each { stats.onMessage([stream: it]) }
+
+    then:
+    stats.steps() == 4
+    stats.cachedSteps() == 2
+    stats.summary() == '2 of 4 steps cached (50%)'
+  }
+
+  def "passes every message on"() {
+    given:
+    DockerProgressListener delegate = Mock()
+    BuildCacheStats stats = new BuildCacheStats(delegate)
+
+    when:
+    stats.onMessage([stream: 'Step 2/5 : WORKDIR /app\n'])
+    stats.onMessage([aux: [ID: 'sha256:abc']])
+
+    then:
+    1 * delegate.onMessage([stream: 'Step 2/5 : WORKDIR /app\n'])
+    1 * delegate.onMessage([aux: [ID: 'sha256:abc']])
+  }
+
+  def "has no steps when the output has none, e.g. an image that only has FROM"() {
+    given:
+    BuildCacheStats stats = new BuildCacheStats({ } as DockerProgressListener)
+
+    when:
+    stats.onMessage([stream: 'Step 1/1 : FROM eclipse-temurin:11-jre\n ---> 3a5c1ee7d2b4\n'])
+
+    then:
+    stats.steps() == 0
+    stats.summary() == '0 of 0 steps cached (0%)'
+  }
+}
@@ -0,0 +1,70 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+
+class BuildKitCacheSpec extends Specification {
+
+  File dir = Files.createTempDirectory('afb-buildkit').toFile()
+  File cacheDir = new File(dir, 'app')
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  def "imports a local cache only once it has been exported"() {
+    given:
+    BuildKitCache cache = new BuildKitCache('local', cacheDir, true)
+
+    expect:
+    cache.cacheFrom() == []
+    cache.cacheTo() == "type=local,dest=${new File(dir, 'app.new')},mode=max".toString()
+
+    when:
+    new File(cacheDir, 'index.json').with { parentFile.mkdirs(); text = '{}' }
+
+    then:
+    cache.cacheFrom() == ["type=local,src=${cacheDir}".toString()]
+  }
+
+  @Unroll
+  def "imports a registry cache by its reference, and exports it when export is #export"() {
+    given:
+    BuildKitCache cache = new BuildKitCache('registry.example.org/org/app:buildcache', cacheDir, export)
+
+    expect:
+    cache.cacheFrom() == ['type=registry,ref=registry.example.org/org/app:buildcache']
+    cache.cacheTo() == cacheTo
+
+    where:
+    export | cacheTo
+    true   | 'type=registry,ref=registry.example.org/org/app:buildcache,mode=max'
+    false  | null
+  }
+
+  def "replaces a local cache with the one just exported"() {
+    given:
+    new File(cacheDir, 'blobs/old').with { parentFile.mkdirs(); text = 'old' }
+    new File(dir, 'app.new/blobs/new').with { parentFile.mkdirs(); text = 'new' }
+
+    when:
+    new BuildKitCache('local', cacheDir, true).exported()
+
+    then:
+    new File(cacheDir, 'blobs').list() as List == ['new']
+    !new File(dir, 'app.new').exists()
+  }
+
+  def "leaves a local cache that is only imported alone"() {
+    given:
+    new File(cacheDir, 'blobs/old').with { parentFile.mkdirs(); text = 'old' }
+
+    when:
+    new BuildKitCache('local', cacheDir, false).exported()
+
+    then:
+    new File(cacheDir, 'blobs').list() as List == ['old']
+  }
+}
@@ -0,0 +1,95 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+
+class DockerBuildRequestSpec extends Specification {
+
+  File dir
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-fingerprint').toFile()
+  }
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  def "gives the same files the same fingerprint, whatever their times"() {
+    given:
+    File first = context('first')
+    File second = context('second')
+    new File(second, 'app.jar').lastModified = 0
+    new File(second, 'lib').lastModified = 0
+
+    expect:
+    request(first).fingerprint() == request(second).fingerprint()
+  }
+
+  def "leaves tags out of the fingerprint"() {
+    given:
+    File context = context('context')
+
+    expect:
+    request(context).fingerprint() == new DockerBuildRequest.Builder().from(request(context)).tags(['org/app:2.0']).build().fingerprint()
+  }
+
+  @Unroll
+  def "changes the fingerprint when #change"() {
+    given:
+    File first = context('first')
+    File second = context('second')
+    Map<String, String> args = [VERSION: '1.0']
+    String dockerFile = 'Dockerfile'
+    switch (change) {
+      case 'a file changes':
+        new File(second, 'app.jar').text = 'jar 2'
+        break
+      case 'a file becomes executable':
+        new File(second, 'app.jar').executable = true
+        break
+      case 'a file moves':
+        new File(second, 'app.jar').renameTo(new File(second, 'lib/app.jar'))
+        break
+      case 'a file is added':
+        new File(second, 'lib/extra.jar').text = 'extra'
+        break
+      case 'a build arg changes':
+        args = [VERSION: '1.1']
+        break
+      case 'a build arg is added':
+        args = [VERSION: '1.0', DEBUG: 'true']
+        break
+      case 'the Dockerfile path changes':
+        dockerFile = 'lib/Dockerfile'
+        break
+    }
+
+    expect:
+    request(first).fingerprint() != new DockerBuildRequest.Builder().from(request(second)).buildArgs(args).dockerFile(dockerFile).build().fingerprint()
+
+    where:
+    change << ['a file changes', 'a file becomes executable', 'a file moves', 'a file is added', 'a build arg changes',
+               'a build arg is added', 'the Dockerfile path changes']
+  }
+
+  private File context(String name) {
+    File context = new File(dir, name)
+    new File(context, 'lib').mkdirs()
+    new File(context, 'Dockerfile').text = 'FROM scratch\nCOPY . /app/\n'
+    new File(context, 'app.jar').text = 'jar'
+    new File(context, 'lib/lib.jar').text = 'lib'
+    return context
+  }
+
+  private static DockerBuildRequest request(File context) {
+    return new DockerBuildRequest.Builder()
+      .contextDir(context)
+      .dockerFile('Dockerfile')
+      .tag('org/app:1.0')
+      .buildArgs([VERSION: '1.0'])
+      .build()
+  }
+}
@@ -0,0 +1,141 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import org.gradle.api.logging.Logging
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+import static com.fetherbrik.gradle.afb.service.docker.FakeDockerDaemon.chunked
+import static com.fetherbrik.gradle.afb.service.docker.FakeDockerDaemon.response
+
+class DockerEngineBackendSpec extends Specification {
+
+  FakeDockerDaemon daemon
+  File contextDir
+
+  def setup() {
+    contextDir = Files.createTempDirectory('afb-docker-context').toFile()
+    new File(contextDir, 'Dockerfile').text = 'FROM scratch\nCOPY app.jar /app/\n'
+    new File(contextDir, 'app.jar').text = 'jar'
+  }
+
+  def cleanup() {
+    daemon?.close()
+    contextDir.deleteDir()
+  }
+
+  def "builds by posting the context as a tar, and returns the id the daemon reports"() {
+    given:
+    daemon = new FakeDockerDaemon({ chunked(200, ['{"stream":"Step 1/2 : FROM scratch\\n"}\n', '{"aux":{"ID":"sha256:abc"}}\n']) })
+    DockerBuildRequest request = new DockerBuildRequest.Builder()
+      .contextDir(contextDir)
+      .dockerFile('Dockerfile')
+      .tag('registry.example.org/org/app:1.0')
+      .buildArgs([VERSION: '1.0'])
+      .build()
+
+    when:
+    String imageId = new DockerEngineBackend(daemon.client()).build(request, { } as DockerProgressListener)
+
+    then:
+    imageId == 'sha256:abc'
+    daemon.requests.size() == 1
+    with(daemon.requests[0]) {
+      method == 'POST'
+      path == '/build?rm=1&dockerfile=Dockerfile&t=registry.example.org%2Forg%2Fapp%3A1.0&buildargs=%7B%22VERSION%22%3A%221.0%22%7D'
+      headers['content-type'] == 'application/x-tar'
+      entries(body) == ['Dockerfile', 'app.jar']
+    }
+  }
+
+  def "fails a build that reports an error inside a successful stream"() {
+    given:
+    daemon = new FakeDockerDaemon({ chunked(200, ['{"stream":"Step 1/2 : FROM scratch\\n"}\n', '{"error":"COPY failed: no app.jar"}\n']) })
+    DockerBuildRequest request = new DockerBuildRequest.Builder().contextDir(contextDir).dockerFile('Dockerfile').tag('app:1.0').build()
+
+    when:
+    new DockerEngineBackend(daemon.client()).build(request, { } as DockerProgressListener)
+
+    then:
+    RuntimeException e = thrown()
+    e.message == 'AFB: Docker build failed: COPY failed: no app.jar'
+  }
+
+  def "tags an image once per target"() {
+    given:
+    daemon = new FakeDockerDaemon({ response(201, '') })
+
+    when:
+    new DockerEngineBackend(daemon.client()).tag('sha256:abc', ['registry.example.org:5000/org/app:1.0', 'org/app'])
+
+    then:
+    daemon.requests*.method == ['POST', 'POST']
+    daemon.requests*.path == ['/images/sha256:abc/tag?repo=registry.example.org%3A5000%2Forg%2Fapp&tag=1.0',
+                              '/images/sha256:abc/tag?repo=org%2Fapp&tag=latest']
+  }
+
+  def "fails a tag the daemon refuses"() {
+    given:
+    daemon = new FakeDockerDaemon({ response(404, '{"message":"No such image: sha256:abc"}') })
+
+    when:
+    new DockerEngineBackend(daemon.client()).tag('sha256:abc', ['org/app:1.0'])
+
+    then:
+    RuntimeException e = thrown()
+    e.message == "AFB: Could not tag 'sha256:abc' as 'org/app:1.0': HTTP 404: No such image: sha256:abc"
+  }
+
+  def "pushes with the registry credentials, or an empty auth header without them"() {
+    given:
+    daemon = new FakeDockerDaemon({ chunked(200, ['{"status":"Pushed","id":"e39786e"}\n', '{"status":"1.0: digest: sha256:def size: 528"}\n']) })
+    DockerEngineBackend backend = new DockerEngineBackend(daemon.client())
+    List<Map<String, Object>> messages = []
+
+    when:
+    backend.push('registry.example.org/org/app:1.0', new DockerCredentials('user', 'token', 'registry.example.org'), { messages << it } as DockerProgressListener)
+    backend.push('registry.example.org/org/app:1.0', null, { } as DockerProgressListener)
+
+    then:
+    daemon.requests*.path == ['/images/registry.example.org/org/app/push?tag=1.0'] * 2
+    daemon.requests[0].headers['x-registry-auth'] == new DockerCredentials('user', 'token', 'registry.example.org').registryAuthHeader()
+    daemon.requests[1].headers['x-registry-auth'] == 'e30='
+    messages*.status == ['Pushed', '1.0: digest: sha256:def size: 528']
+  }
+
+  def "fails a push that reports an error inside a successful stream"() {
+    given:
+    daemon = new FakeDockerDaemon({ chunked(200, ['{"status":"Preparing","id":"e39786e"}\n', '{"error":"denied: requested access to the resource is denied"}\n']) })
+
+    when:
+    new DockerEngineBackend(daemon.client()).push('org/app:1.0', null, { } as DockerProgressListener)
+
+    then:
+    RuntimeException e = thrown()
+    e.message == "AFB: Could not push 'org/app:1.0': denied: requested access to the resource is denied"
+  }
+
+  def "'auto' uses the Engine API of a tcp DOCKER_HOST that answers"() {
+    given:
+    daemon = new FakeDockerDaemon({ response(200, 'OK') })
+    String host = daemon.transport().toString()
+
+    when:
+    DockerBackend backend = DockerBackends.create(DockerBackends.AUTO, [DOCKER_HOST: host], null, Logging.getLogger(DockerEngineBackendSpec))
+
+    then:
+    backend instanceof DockerEngineBackend
+    backend.describe() == 'Docker Engine API at ' + host
+    daemon.requests*.path == ['/_ping']
+  }
+
+  private static List<String> entries(byte[] tar) {
+    TarReader reader = new TarReader(new ByteArrayInputStream(tar))
+    List<String> names = []
+    TarReader.Entry entry
+    while ((entry = reader.next()) != null) {
+      names << entry.name
+    }
+    return names
+  }
+}
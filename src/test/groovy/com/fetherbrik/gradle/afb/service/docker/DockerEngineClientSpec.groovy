@@ -0,0 +1,110 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+import static com.fetherbrik.gradle.afb.service.docker.FakeDockerDaemon.chunked
+import static com.fetherbrik.gradle.afb.service.docker.FakeDockerDaemon.response
+import static com.fetherbrik.gradle.afb.service.docker.FakeDockerDaemon.untilEof
+
+class DockerEngineClientSpec extends Specification {
+
+  FakeDockerDaemon daemon
+
+  def cleanup() {
+    daemon?.close()
+  }
+
+  def "reads a response body by its Content-Length"() {
+    given:
+    daemon = new FakeDockerDaemon({ response(200, 'OK', ['Api-Version': '1.41']) })
+
+    when:
+    DockerEngineClient.Response response = daemon.client().get('/_ping')
+
+    then:
+    response.status == 200
+    response.text() == 'OK'
+    response.headers['api-version'] == '1.41'
+    daemon.requests*.path == ['/_ping']
+    daemon.requests[0].method == 'GET'
+  }
+
+  def "reads a chunked response body"() {
+    given:
+    daemon = new FakeDockerDaemon({ chunked(200, ['[{"Id":', '"sha256:abc"}', ']']) })
+
+    expect:
+    daemon.client().get('/images/json').text() == '[{"Id":"sha256:abc"}]'
+  }
+
+  def "reads a response with neither a length nor chunks up to the end of the stream"() {
+    given:
+    daemon = new FakeDockerDaemon({ untilEof(200, '{"Id":"sha256:abc"}') })
+
+    expect:
+    daemon.client().get('/images/app/json').text() == '{"Id":"sha256:abc"}'
+  }
+
+  def "streams JSON messages split across chunks, and sends a streamed body chunked"() {
+    given:
+    daemon = new FakeDockerDaemon({ chunked(200, ['{"stream":"Step 1/2"}\n{"str', 'eam":"Step 2/2"}\n', '\n{"aux":{"ID":"sha256:abc"}}\n']) })
+    List<Map<String, Object>> messages = []
+
+    when:
+    int status = daemon.client().postStream('/build', ['Content-Type': 'application/x-tar'], { OutputStream out ->
+      out.write('first '.getBytes(StandardCharsets.UTF_8))
+      out.write('second'.getBytes(StandardCharsets.UTF_8))
+    } as DockerEngineClient.Body, { messages << it } as DockerProgressListener)
+
+    then:
+    status == 200
+    messages == [[stream: 'Step 1/2'], [stream: 'Step 2/2'], [aux: [ID: 'sha256:abc']]]
+    daemon.requests[0].headers['transfer-encoding'] == 'chunked'
+    daemon.requests[0].headers['content-type'] == 'application/x-tar'
+    daemon.requests[0].text() == 'first second'
+  }
+
+  def "buffers a streamed body written a byte at a time into a few large chunks"() {
+    given:
+    daemon = new FakeDockerDaemon({ chunked(200, ['{"aux":{"ID":"sha256:abc"}}\n']) })
+    byte[] content = new byte[100 * 1024]
+    new Random(7).nextBytes(content)
+
+    when:
+    daemon.client().postStream('/build', ['Content-Type': 'application/x-tar'], { OutputStream out ->
+      content.each { byte b -> out.write(b) }
+    } as DockerEngineClient.Body, { } as DockerProgressListener)
+
+    then:
+    daemon.requests[0].body == content
+    daemon.requests[0].chunks == 2
+  }
+
+  def "passes an error status of a stream to the listener as an error message"() {
+    given:
+    daemon = new FakeDockerDaemon({ response(404, '{"message":"No such image: app:1.0"}') })
+    List<Map<String, Object>> messages = []
+
+    when:
+    int status = daemon.client().postStream('/images/app/push?tag=1.0', [:], null, { messages << it } as DockerProgressListener)
+
+    then:
+    status == 404
+    messages == [[error: 'HTTP 404: No such image: app:1.0']]
+  }
+
+  def "passes on an error reported inside a successful stream"() {
+    given:
+    daemon = new FakeDockerDaemon({ chunked(200, ['{"status":"Pushing"}\n', '{"error":"denied","errorDetail":{"message":"denied"}}\n']) })
+    List<Map<String, Object>> messages = []
+
+    when:
+    int status = daemon.client().postStream('/images/app/push?tag=1.0', [:], null, { messages << it } as DockerProgressListener)
+
+    then:
+    status == 200
+    messages*.error == [null, 'denied']
+  }
+}
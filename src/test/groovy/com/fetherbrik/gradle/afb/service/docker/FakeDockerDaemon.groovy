@@ -0,0 +1,151 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * An in-process stand-in for the docker daemon, on a TCP port of the loopback interface: it reads one HTTP/1.1 request
+ * per connection (bodies by Content-Length or chunked), records it, and writes the raw bytes 'respond' returns for it.
+ */
+class FakeDockerDaemon implements Closeable {
+
+  static class Request {
+    String method
+    String path
+    Map<String, String> headers
+    byte[] body
+    int chunks
+
+    String text() {
+      return new String(body, StandardCharsets.UTF_8)
+    }
+  }
+
+  final List<Request> requests = Collections.synchronizedList([])
+  private final ServerSocket server = new ServerSocket(0, 50, InetAddress.loopbackAddress)
+  private final Closure<byte[]> respond
+  private final Thread thread
+
+  FakeDockerDaemon(Closure<byte[]> respond) {
+    this.respond = respond
+    thread = Thread.start('fake-docker-daemon') {
+      while (!server.closed) {
+        Socket socket
+        try {
+          socket = server.accept()
+        } catch (SocketException ignored) {
+          return
+        }
+        socket.withCloseable { serve(it) }
+      }
+    }
+  }
+
+  DockerTransport transport() {
+    return DockerTransport.tcp('127.0.0.1', server.localPort)
+  }
+
+  DockerEngineClient client() {
+    return new DockerEngineClient(transport())
+  }
+
+  @Override
+  void close() {
+    server.close()
+    thread.join(5000)
+  }
+
+  private void serve(Socket socket) {
+    InputStream input = new BufferedInputStream(socket.inputStream)
+    String[] requestLine = readLine(input).split(' ')
+    Map<String, String> headers = [:]
+    String line
+    while (!(line = readLine(input)).isEmpty()) {
+      int colon = line.indexOf(':')
+      headers[line.substring(0, colon).trim().toLowerCase()] = line.substring(colon + 1).trim()
+    }
+    byte[] body
+    int chunks = 0
+    if (headers['transfer-encoding'] == 'chunked') {
+      ByteArrayOutputStream content = new ByteArrayOutputStream()
+      int size
+      while ((size = Integer.parseInt(readLine(input), 16)) > 0) {
+        content.write(readFully(input, size))
+        readLine(input)
+        chunks++
+      }
+      readLine(input)
+      body = content.toByteArray()
+    } else {
+      body = readFully(input, (headers['content-length'] ?: '0') as int)
+    }
+    Request request = new Request(method: requestLine[0], path: requestLine[1], headers: headers, body: body, chunks: chunks)
+    requests << request
+    socket.outputStream.write(respond(request))
+    socket.outputStream.flush()
+  }
+
+  private static String readLine(InputStream input) {
+    ByteArrayOutputStream line = new ByteArrayOutputStream()
+    int c
+    while ((c = input.read()) != '\n' as char) {
+      if (c < 0) {
+        throw new EOFException()
+      }
+      if (c != '\r' as char) {
+        line.write(c)
+      }
+    }
+    return line.toString('ISO-8859-1')
+  }
+
+  private static byte[] readFully(InputStream input, int size) {
+    byte[] bytes = new byte[size]
+    new DataInputStream(input).readFully(bytes)
+    return bytes
+  }
+
+  /**
+   * A response with a Content-Length.
+   */
+  static byte[] response(int status, String body, Map<String, String> headers = [:]) {
+    byte[] content = body.getBytes(StandardCharsets.UTF_8)
+    return concat(head(status, headers + ['Content-Length': content.length as String]), content)
+  }
+
+  /**
+   * A chunked response, one chunk per element of 'chunks'.
+   */
+  static byte[] chunked(int status, List<String> chunks) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream()
+    out.write(head(status, ['Transfer-Encoding': 'chunked']))
+    chunks.each { String chunk ->
+      byte[] content = chunk.getBytes(StandardCharsets.UTF_8)
+      out.write("${Integer.toHexString(content.length)}\r\n".getBytes(StandardCharsets.US_ASCII))
+      out.write(content)
+      out.write('\r\n'.getBytes(StandardCharsets.US_ASCII))
+    }
+    out.write('0\r\n\r\n'.getBytes(StandardCharsets.US_ASCII))
+    return out.toByteArray()
+  }
+
+  /**
+   * A response with neither a length nor chunks: its body ends where the connection does.
+   */
+  static byte[] untilEof(int status, String body) {
+    return concat(head(status, [:]), body.getBytes(StandardCharsets.UTF_8))
+  }
+
+  private static byte[] concat(byte[] head, byte[] body) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream()
+    out.write(head)
+    out.write(body)
+    return out.toByteArray()
+  }
+
+  private static byte[] head(int status, Map<String, String> headers) {
+    StringBuilder head = new StringBuilder("HTTP/1.1 ${status} Status\r\n")
+    headers.each { name, value -> head.append(name).append(': ').append(value).append('\r\n') }
+    head.append('Connection: close\r\n\r\n')
+    return head.toString().getBytes(StandardCharsets.US_ASCII)
+  }
+}
@@ -0,0 +1,222 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import groovy.json.JsonOutput
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * An in-process registry (HTTP API v2) on a loopback port, which RegistryClient reaches over plain HTTP: manifests by
+ * tag and digest, blobs, cross-repository mounts and chunked uploads. With a 'token', every request must carry it as a
+ * bearer token, which '/token' hands out after a 401 challenge. Each request is logged as 'METHOD path?query'.
+ * <p>
+ * The PATCH requests of uploads are numbered from 1 across the registry; those in 'failedPatches' are answered with
+ * HTTP 500 and their chunk is dropped, as after a broken connection.
+ */
+class FakeRegistry implements Closeable {
+
+  static final String MANIFEST_TYPE = 'application/vnd.docker.distribution.manifest.v2+json'
+
+  final String host
+  final List<String> requests = Collections.synchronizedList([])
+  final List<String> tokenScopes = Collections.synchronizedList([])
+  /**
+   * 'repository@digest' to content.
+   */
+  final Map<String, byte[]> blobs = new ConcurrentHashMap<>()
+  /**
+   * 'repository:tag' or 'repository@digest' to [media type, content].
+   */
+  final Map<String, List<Object>> manifests = new ConcurrentHashMap<>()
+  /**
+   * The Content-Range of each PATCH, including the failed ones.
+   */
+  final List<String> patchRanges = Collections.synchronizedList([])
+  final Set<Integer> failedPatches = Collections.synchronizedSet([] as Set)
+  String token
+
+  private final Map<String, ByteArrayOutputStream> uploads = new ConcurrentHashMap<>()
+  private final HttpServer server
+  private final AtomicInteger uploadCount = new AtomicInteger()
+  private final AtomicInteger patchCount = new AtomicInteger()
+
+  FakeRegistry() {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.loopbackAddress, 0), 0)
+    server.executor = Executors.newCachedThreadPool()
+    server.createContext('/') { HttpExchange exchange ->
+      try {
+        handle(exchange)
+      } catch (Throwable e) {
+        e.printStackTrace()
+        exchange.sendResponseHeaders(500, -1)
+      } finally {
+        exchange.close()
+      }
+    }
+    server.start()
+    host = "127.0.0.1:${server.address.port}"
+  }
+
+  @Override
+  void close() {
+    server.stop(0)
+    server.executor.shutdownNow()
+  }
+
+  /**
+   * @return The digest of the stored manifest.
+   */
+  String putManifest(String repository, String tag, String json) {
+    byte[] content = json.getBytes(StandardCharsets.UTF_8)
+    String digest = Digests.sha256(content)
+    manifests["${repository}:${tag}" as String] = [MANIFEST_TYPE, content]
+    manifests["${repository}@${digest}" as String] = [MANIFEST_TYPE, content]
+    return digest
+  }
+
+  /**
+   * @return The digest of the stored blob.
+   */
+  String putBlob(String repository, byte[] content) {
+    String digest = Digests.sha256(content)
+    blobs["${repository}@${digest}" as String] = content
+    return digest
+  }
+
+  /**
+   * @return The logged requests, but for those for tokens.
+   */
+  List<String> calls() {
+    return new ArrayList<>(requests).findAll { !it.startsWith('GET /token') }
+  }
+
+  protected void handle(HttpExchange exchange) {
+    String method = exchange.requestMethod
+    String path = exchange.requestURI.path
+    String query = exchange.requestURI.rawQuery
+    byte[] body = exchange.requestBody.bytes
+    requests << "${method} ${path}${query == null ? '' : '?' + query}".toString()
+    if (path == '/token') {
+      tokenScopes << URLDecoder.decode(query, 'UTF-8')
+      sendJson(exchange, [token: token])
+      return
+    }
+    if (token != null && exchange.requestHeaders.getFirst('Authorization') != "Bearer ${token}".toString()) {
+      exchange.responseHeaders.add('WWW-Authenticate', "Bearer realm=\"http://${host}/token\",service=\"fake-registry\"")
+      exchange.sendResponseHeaders(401, -1)
+      return
+    }
+    String rest = path.substring('/v2/'.length())
+    int manifestsAt = rest.indexOf('/manifests/')
+    int uploadsAt = rest.indexOf('/blobs/uploads/')
+    int blobsAt = rest.indexOf('/blobs/')
+    if (manifestsAt >= 0) {
+      manifest(exchange, rest.substring(0, manifestsAt), rest.substring(manifestsAt + '/manifests/'.length()), body)
+    } else if (uploadsAt >= 0) {
+      upload(exchange, rest.substring(0, uploadsAt), rest.substring(uploadsAt + '/blobs/uploads/'.length()), parameters(query), body)
+    } else if (blobsAt >= 0) {
+      byte[] blob = blobs["${rest.substring(0, blobsAt)}@${rest.substring(blobsAt + '/blobs/'.length())}" as String]
+      send(exchange, blob == null ? 404 : 200, method == 'GET' ? blob : null)
+    } else {
+      exchange.sendResponseHeaders(404, -1)
+    }
+  }
+
+  private void manifest(HttpExchange exchange, String repository, String reference, byte[] body) {
+    if (exchange.requestMethod == 'PUT') {
+      String digest = Digests.sha256(body)
+      List<Object> manifest = [exchange.requestHeaders.getFirst('Content-Type'), body]
+      manifests["${repository}:${reference}" as String] = manifest
+      manifests["${repository}@${digest}" as String] = manifest
+      exchange.responseHeaders.add('Docker-Content-Digest', digest)
+      exchange.sendResponseHeaders(201, -1)
+      return
+    }
+    List<Object> manifest = manifests["${repository}${reference.startsWith('sha256:') ? '@' : ':'}${reference}" as String]
+    if (manifest == null) {
+      exchange.sendResponseHeaders(404, -1)
+      return
+    }
+    exchange.responseHeaders.add('Content-Type', manifest[0] as String)
+    exchange.responseHeaders.add('Docker-Content-Digest', Digests.sha256(manifest[1] as byte[]))
+    send(exchange, 200, exchange.requestMethod == 'GET' ? manifest[1] as byte[] : null)
+  }
+
+  private void upload(HttpExchange exchange, String repository, String id, Map<String, String> parameters, byte[] body) {
+    String method = exchange.requestMethod
+    if (method == 'POST') {
+      byte[] mounted = parameters.mount ? blobs["${parameters.from}@${parameters.mount}" as String] : null
+      if (mounted != null) {
+        blobs["${repository}@${parameters.mount}" as String] = mounted
+        exchange.responseHeaders.add('Location', "/v2/${repository}/blobs/${parameters.mount}")
+        exchange.sendResponseHeaders(201, -1)
+        return
+      }
+      String started = "upload-${uploadCount.incrementAndGet()}"
+      uploads[started] = new ByteArrayOutputStream()
+      exchange.responseHeaders.add('Location', "/v2/${repository}/blobs/uploads/${started}?_state=0")
+      exchange.responseHeaders.add('Range', '0-0')
+      exchange.sendResponseHeaders(202, -1)
+      return
+    }
+    ByteArrayOutputStream upload = uploads[id]
+    if (upload == null) {
+      exchange.sendResponseHeaders(404, -1)
+      return
+    }
+    if (method == 'DELETE') {
+      uploads.remove(id)
+      exchange.sendResponseHeaders(204, -1)
+      return
+    }
+    if (method == 'PATCH') {
+      patchRanges << exchange.requestHeaders.getFirst('Content-Range')
+      if (failedPatches.contains(patchCount.incrementAndGet())) {
+        exchange.sendResponseHeaders(500, -1)
+        return
+      }
+      upload.write(body)
+    }
+    if (method == 'PUT') {
+      upload.write(body)
+      String digest = parameters.digest
+      if (Digests.sha256(upload.toByteArray()) != digest) {
+        exchange.sendResponseHeaders(400, -1)
+        return
+      }
+      blobs["${repository}@${digest}" as String] = upload.toByteArray()
+      uploads.remove(id)
+      exchange.responseHeaders.add('Docker-Content-Digest', digest)
+      exchange.sendResponseHeaders(201, -1)
+      return
+    }
+    exchange.responseHeaders.add('Location', "/v2/${repository}/blobs/uploads/${id}?_state=${upload.size()}")
+    exchange.responseHeaders.add('Range', "0-${Math.max(0, upload.size() - 1)}")
+    exchange.sendResponseHeaders(method == 'GET' ? 204 : 202, -1)
+  }
+
+  private static Map<String, String> parameters(String query) {
+    Map<String, String> parameters = [:]
+    query?.split('&')?.each { String parameter ->
+      int equals = parameter.indexOf('=')
+      parameters[parameter.substring(0, equals)] = URLDecoder.decode(parameter.substring(equals + 1), 'UTF-8')
+    }
+    return parameters
+  }
+
+  private static void send(HttpExchange exchange, int status, byte[] body) {
+    exchange.sendResponseHeaders(status, body == null ? -1 : body.length)
+    if (body != null) {
+      exchange.responseBody.write(body)
+    }
+  }
+
+  private static void sendJson(HttpExchange exchange, Object value) {
+    exchange.responseHeaders.add('Content-Type', 'application/json')
+    send(exchange, 200, JsonOutput.toJson(value).getBytes(StandardCharsets.UTF_8))
+  }
+}
@@ -0,0 +1,110 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import org.gradle.api.logging.Logging
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ImagePusherSpec extends Specification {
+
+  static final String IMAGE_ID = 'sha256:' + 'a' * 64
+
+  FakeRegistry registry = new FakeRegistry()
+  DockerBackend docker = Mock()
+  String manifestDigest
+
+  def setup() {
+    manifestDigest = registry.putManifest('org/app', '1.0', '{"schemaVersion":2,"layers":[]}')
+    docker.imageId(_) >> Optional.of(IMAGE_ID)
+    docker.repoDigests(_) >> []
+  }
+
+  def cleanup() {
+    registry.close()
+  }
+
+  def "skips an image whose tag already points at one of its manifests"() {
+    when:
+    ImagePusher.Outcome outcome = pusher().push(image('1.0'), null, [(image('1.0')): "${IMAGE_ID} ${manifestDigest}".toString()], { } as DockerProgressListener)
+
+    then:
+    outcome.action == ImagePusher.Action.SKIPPED
+    outcome.digest == manifestDigest
+    outcome.ledgerEntry() == "${IMAGE_ID} ${manifestDigest}"
+    0 * docker.push(*_)
+    registry.calls() == ["HEAD /v2/org/app/manifests/1.0"]
+  }
+
+  def "tags a repository that has the image under another tag without sending layers"() {
+    when:
+    ImagePusher.Outcome outcome = pusher().push(image('2.0'), null, [(image('1.0')): "${IMAGE_ID} ${manifestDigest}".toString()], { } as DockerProgressListener)
+
+    then:
+    outcome.action == ImagePusher.Action.TAGGED
+    outcome.digest == manifestDigest
+    0 * docker.push(*_)
+    registry.manifests['org/app:2.0'][1] == registry.manifests['org/app:1.0'][1]
+    registry.calls() == ["HEAD /v2/org/app/manifests/2.0",
+                         "HEAD /v2/org/app/manifests/${manifestDigest}",
+                         "GET /v2/org/app/manifests/${manifestDigest}",
+                         "PUT /v2/org/app/manifests/2.0"]
+  }
+
+  def "uses the digests docker knows for the image in the same repository"() {
+    when:
+    ImagePusher.Outcome outcome = pusher().push(image('2.0'), null, [:], { } as DockerProgressListener)
+
+    then:
+    docker.repoDigests(image('2.0')) >> ["${registry.host}/org/app@${manifestDigest}".toString()]
+    outcome.action == ImagePusher.Action.TAGGED
+    0 * docker.push(*_)
+  }
+
+  @Unroll
+  def "pushes when no known digest is of the same image and repository (#known)"() {
+    given:
+    String pushedDigest = 'sha256:' + 'b' * 64
+    Map<String, String> ledger = [
+      'of another image'      : [(image('1.0')): "sha256:${'c' * 64} ${manifestDigest}".toString()],
+      'in another repository' : [("${registry.host}/org/other:1.0".toString()): "${IMAGE_ID} ${manifestDigest}".toString()],
+      'from no earlier pushes': [:],
+    ][known]
+
+    when:
+    ImagePusher.Outcome outcome = pusher().push(image('2.0'), null, ledger, { } as DockerProgressListener)
+
+    then:
+    1 * docker.push(image('2.0'), null, _) >> { String image, DockerCredentials credentials, DockerProgressListener listener ->
+      listener.onMessage([status: "2.0: digest: ${pushedDigest} size: 528".toString()])
+    }
+    outcome.action == ImagePusher.Action.PUSHED
+    outcome.digest == pushedDigest
+    outcome.ledgerEntry() == "${IMAGE_ID} ${pushedDigest}"
+    registry.calls().isEmpty()
+
+    where:
+    known << ['of another image', 'in another repository', 'from no earlier pushes']
+  }
+
+  def "knownDigests matches ledger entries by image id and repository, and docker's digests by repository"() {
+    given:
+    DockerReference reference = DockerReference.parse('registry.example.org/org/app:2.0')
+    Map<String, String> ledger = [
+      'registry.example.org/org/app:1.0'  : "${IMAGE_ID} sha256:1".toString(),
+      'registry.example.org/org/app:0.9'  : 'sha256:other sha256:2',
+      'registry.example.org/org/other:1.0': "${IMAGE_ID} sha256:3".toString(),
+      'other.example.org/org/app:1.0'     : "${IMAGE_ID} sha256:4".toString(),
+    ]
+    List<String> repoDigests = ['registry.example.org/org/app@sha256:5', 'registry.example.org/org/other@sha256:6']
+
+    expect:
+    ImagePusher.knownDigests(reference, IMAGE_ID, ledger, repoDigests) == ['sha256:1', 'sha256:5'] as Set
+  }
+
+  private ImagePusher pusher() {
+    return new ImagePusher(docker, new RegistryClient(null), Logging.getLogger(ImagePusherSpec))
+  }
+
+  private String image(String tag) {
+    return "${registry.host}/org/app:${tag}"
+  }
+}
@@ -0,0 +1,124 @@
+package com.fetherbrik.gradle.afb.service.docker
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+class RegistryClientSpec extends Specification {
+
+  static final String MANIFEST = '{"schemaVersion":2,"layers":[]}'
+
+  FakeRegistry registry = new FakeRegistry()
+
+  def cleanup() {
+    registry.close()
+  }
+
+  def "reads the digest of a tag, or nothing for a tag the registry doesn't have"() {
+    given:
+    String digest = registry.putManifest('org/app', '1.0', MANIFEST)
+    RegistryClient client = new RegistryClient(null)
+
+    expect:
+    client.manifestDigest(reference('org/app:1.0')) == Optional.of(digest)
+    client.manifestDigest(reference("org/app@${digest}")) == Optional.of(digest)
+    client.manifestDigest(reference('org/app:2.0')) == Optional.empty()
+  }
+
+  def "stores a manifest read by digest under a new tag"() {
+    given:
+    String digest = registry.putManifest('org/app', '1.0', MANIFEST)
+    RegistryClient client = new RegistryClient(null)
+
+    when:
+    RegistryClient.Manifest manifest = client.getManifest(reference('org/app:2.0'), digest)
+    String tagged = client.putManifest(reference('org/app:2.0'), manifest)
+
+    then:
+    manifest.mediaType == FakeRegistry.MANIFEST_TYPE
+    manifest.digest == digest
+    new String(manifest.content, StandardCharsets.UTF_8) == MANIFEST
+    tagged == digest
+    registry.manifests['org/app:2.0'][0] == FakeRegistry.MANIFEST_TYPE
+    client.manifestDigest(reference('org/app:2.0')) == Optional.of(digest)
+  }
+
+  def "fails on an error status"() {
+    when:
+    new RegistryClient(null).getManifest(reference('org/app:1.0'), '1.0')
+
+    then:
+    RuntimeException e = thrown()
+    e.message == "AFB: Could not read manifest '1.0' of '${registry.host}/org/app': HTTP 404"
+  }
+
+  def "answers a bearer challenge with a token for the repository, then reuses it"() {
+    given:
+    registry.token = 'secret'
+    String digest = registry.putManifest('org/app', '1.0', MANIFEST)
+    RegistryClient client = new RegistryClient(new DockerCredentials('user', 'token', registry.host))
+
+    when:
+    Optional<String> first = client.manifestDigest(reference('org/app:1.0'))
+    Optional<String> second = client.manifestDigest(reference('org/app:1.0'))
+
+    then:
+    first == Optional.of(digest)
+    second == Optional.of(digest)
+    registry.tokenScopes == ['scope=repository:org/app:pull,push&service=fake-registry']
+    registry.requests == ['HEAD /v2/org/app/manifests/1.0',
+                          'GET /token?scope=repository%3Aorg%2Fapp%3Apull%2Cpush&service=fake-registry',
+                          'HEAD /v2/org/app/manifests/1.0',
+                          'HEAD /v2/org/app/manifests/1.0']
+  }
+
+  @Unroll
+  def "sends only a dropped chunk again (#failed failed)"() {
+    given:
+    byte[] content = (0..<100).collect { it as byte } as byte[]
+    File blob = Files.createTempFile('afb-blob', '.bin').toFile()
+    blob.bytes = content
+    registry.failedPatches.addAll(failed)
+
+    when:
+    new RegistryClient(null).uploadBlob(reference('org/app:1.0'), Digests.sha256(content), blob, 32, 1)
+
+    then:
+    registry.patchRanges == ranges
+    registry.blobs["org/app@${Digests.sha256(content)}".toString()] == content
+
+    cleanup:
+    blob.delete()
+
+    where:
+    failed | ranges
+    []     | ['0-31', '32-63', '64-95', '96-99']
+    [2]    | ['0-31', '32-63', '32-63', '64-95', '96-99']
+    [2, 4] | ['0-31', '32-63', '32-63', '64-95', '64-95', '96-99']
+  }
+
+  def "fails an upload when the same chunk fails more than 'retries' times"() {
+    given:
+    byte[] content = new byte[100]
+    File blob = Files.createTempFile('afb-blob', '.bin').toFile()
+    blob.bytes = content
+    registry.failedPatches.addAll([2, 3])
+
+    when:
+    new RegistryClient(null).uploadBlob(reference('org/app:1.0'), Digests.sha256(content), blob, 32, 1)
+
+    then:
+    RuntimeException e = thrown()
+    e.message.startsWith("AFB: Could not upload blob '${Digests.sha256(content)}' to '${registry.host}/org/app'")
+    registry.patchRanges == ['0-31', '32-63', '32-63']
+
+    cleanup:
+    blob.delete()
+  }
+
+  private DockerReference reference(String image) {
+    return DockerReference.parse("${registry.host}/${image}")
+  }
+}
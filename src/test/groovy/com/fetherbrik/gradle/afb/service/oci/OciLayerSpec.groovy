@@ -0,0 +1,87 @@
+package com.fetherbrik.gradle.afb.service.oci
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+class OciLayerSpec extends Specification {
+
+  static final long MTIME = 1600000000L
+
+  File dir
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-oci-layer').toFile()
+  }
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  def "writes the same layer for the same files, whatever their order and times on disk"() {
+    given:
+    File first = sources('first')
+    File second = sources('second')
+    new File(second, 'b.jar').lastModified = 0
+    new File(second, 'conf/app.yml').lastModified = 0
+
+    when:
+    OciLayer one = OciLayer.write('app/libs', [new File(first, 'a.jar'), new File(first, 'b.jar'), new File(first, 'conf')], MTIME, new File(dir, 'one'))
+    OciLayer two = OciLayer.write('app/libs', [new File(second, 'conf'), new File(second, 'b.jar'), new File(second, 'a.jar')], MTIME, new File(dir, 'two'))
+
+    then:
+    one.digest == two.digest
+    one.diffId == two.diffId
+    one.size == two.size
+    new File(dir, "one/${OciLayer.LAYER_FILE}").bytes == new File(dir, "two/${OciLayer.LAYER_FILE}").bytes
+  }
+
+  def "gives the layer another digest when a file changes"() {
+    given:
+    File first = sources('first')
+    File second = sources('second')
+    new File(second, 'b.jar').text = 'b2'
+
+    expect:
+    OciLayer.write('app/libs', [new File(first, 'b.jar')], MTIME, new File(dir, 'one')).digest !=
+    OciLayer.write('app/libs', [new File(second, 'b.jar')], MTIME, new File(dir, 'two')).digest
+  }
+
+  def "reads back the descriptor it wrote"() {
+    given:
+    File sources = sources('first')
+    File layerDir = new File(dir, 'layer')
+    OciLayer written = OciLayer.write('app/libs', [new File(sources, 'a.jar')], MTIME, layerDir)
+
+    when:
+    OciLayer read = OciLayer.read(layerDir)
+
+    then:
+    read.directory == 'app/libs'
+    read.digest == written.digest
+    read.diffId == written.diffId
+    read.size == new File(layerDir, OciLayer.LAYER_FILE).length()
+  }
+
+  def "fails when two files would have the same path in the image"() {
+    given:
+    File first = sources('first')
+    File second = sources('second')
+
+    when:
+    OciLayer.write('app/libs', [new File(first, 'a.jar'), new File(second, 'a.jar')], MTIME, new File(dir, 'layer'))
+
+    then:
+    RuntimeException e = thrown()
+    e.message.endsWith("would be 'app/libs/a.jar' in the image.")
+  }
+
+  private File sources(String name) {
+    File sources = new File(dir, name)
+    new File(sources, 'conf').mkdirs()
+    new File(sources, 'a.jar').text = 'a'
+    new File(sources, 'b.jar').text = 'b'
+    new File(sources, 'conf/app.yml').text = 'port: 8080'
+    return sources
+  }
+}
@@ -0,0 +1,137 @@
+package com.fetherbrik.gradle.afb.service.oci
+
+import com.fetherbrik.gradle.afb.service.docker.DockerReference
+import com.fetherbrik.gradle.afb.service.docker.FakeRegistry
+import com.fetherbrik.gradle.afb.service.docker.RegistryClient
+import groovy.json.JsonOutput
+import org.gradle.api.logging.Logging
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
+class OciPusherSpec extends Specification {
+
+  static final long CHUNK_SIZE = 64
+
+  FakeRegistry registry = new FakeRegistry()
+  File dir
+  OciLayout layout
+  OciDescriptor config
+  OciDescriptor layer
+  OciDescriptor manifest
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-oci-push').toFile()
+    File jar = new File(dir, 'app.jar')
+    jar.text = (1..100).join(',')
+    OciLayer written = OciLayer.write('app/libs', [jar], 1600000000L, new File(dir, 'layer'))
+    layout = new OciLayout(new File(dir, 'image'))
+    layout.addBlob(written.digest, new File(dir, "layer/${OciLayer.LAYER_FILE}"))
+    layer = written.descriptor()
+    config = layout.writeBlob(OciDescriptor.CONFIG, json([rootfs: [type: 'layers', diff_ids: [written.diffId]]]))
+    manifest = layout.writeBlob(OciDescriptor.MANIFEST, json([schemaVersion: 2, mediaType: OciDescriptor.MANIFEST,
+                                                              config       : config.toMap(), layers: [layer.toMap()]]))
+    layout.writeIndex(manifest, ['1.0'])
+  }
+
+  def cleanup() {
+    registry.close()
+    dir.deleteDir()
+  }
+
+  def "uploads each blob once, mounts it into the other repositories, and tags every image"() {
+    when:
+    OciPusher.Result result = pusher(BlobLedger.load(null), []).push(layout, [image('org/app:1.0'), image('org/app:latest'), image('org/other:1.0')])
+
+    then:
+    result.digest == manifest.digest
+    result.blobs == 2
+    result.uploaded == 2
+    result.uploadedBytes == config.size + layer.size
+    result.mounted == 2
+    registry.blobs.keySet() == ["org/app@${config.digest}", "org/app@${layer.digest}",
+                                "org/other@${config.digest}", "org/other@${layer.digest}"].collect { it.toString() } as Set
+    registry.blobs["org/other@${layer.digest}".toString()] == layout.blob(layer.digest).bytes
+    ['org/app:1.0', 'org/app:latest', 'org/other:1.0'].every { registry.manifests[it][1] == layout.blob(manifest.digest).bytes }
+    registry.manifests['org/app:1.0'][0] == OciDescriptor.MANIFEST
+    registry.calls().count { it.startsWith('PATCH ') } == chunks(config.size) + chunks(layer.size)
+  }
+
+  def "pushes no blob again to a repository that has it"() {
+    given:
+    pusher(BlobLedger.load(null), []).push(layout, [image('org/app:1.0')])
+    registry.requests.clear()
+
+    when:
+    OciPusher.Result result = pusher(BlobLedger.load(null), []).push(layout, [image('org/app:1.1')])
+
+    then:
+    result.uploaded == 0
+    result.mounted == 0
+    registry.calls().sort() == ["HEAD /v2/org/app/blobs/${config.digest}", "HEAD /v2/org/app/blobs/${layer.digest}",
+                                'PUT /v2/org/app/manifests/1.1'].collect { it.toString() }.sort()
+  }
+
+  def "mounts a blob from a 'mountFrom' repository that has it"() {
+    given:
+    registry.putBlob('org/base', layout.blob(layer.digest).bytes)
+    BlobLedger ledger = BlobLedger.load(null)
+
+    when:
+    BlobPusher.Result result = blobPusher(ledger, ['org/missing', 'org/base']).push(reference('org/app:1.0'), [layer], layout.&blob)
+
+    then:
+    result.mounted == 1
+    result.uploaded == 0
+    registry.blobs.containsKey("org/app@${layer.digest}".toString())
+    ledger.repositories(registry.host, layer.digest) == ['org/app'] as Set
+    // The registry starts an upload for the mount it can't do, which is dropped.
+    registry.calls().findAll { it.startsWith('POST ') || it.startsWith('DELETE ') } == [
+      "POST /v2/org/app/blobs/uploads/?mount=${encode(layer.digest)}&from=org%2Fmissing",
+      'DELETE /v2/org/app/blobs/uploads/upload-1?_state=0',
+      "POST /v2/org/app/blobs/uploads/?mount=${encode(layer.digest)}&from=org%2Fbase"].collect { it.toString() }
+  }
+
+  def "mounts a blob from a repository the ledger knows has it"() {
+    given:
+    registry.putBlob('org/base', layout.blob(layer.digest).bytes)
+    BlobLedger ledger = BlobLedger.load(null)
+    ledger.record(registry.host, 'org/base', layer.digest)
+
+    when:
+    BlobPusher.Result result = blobPusher(ledger, []).push(reference('org/app:1.0'), [layer], layout.&blob)
+
+    then:
+    result.mounted == 1
+    ledger.repositories(registry.host, layer.digest) == ['org/app', 'org/base'] as Set
+  }
+
+  private OciPusher pusher(BlobLedger ledger, List<String> mountFrom) {
+    return new OciPusher(new RegistryClient(null), blobPusher(ledger, mountFrom), Logging.getLogger(OciPusherSpec))
+  }
+
+  private BlobPusher blobPusher(BlobLedger ledger, List<String> mountFrom) {
+    return new BlobPusher(new RegistryClient(null), ledger, mountFrom, CHUNK_SIZE, 2, Logging.getLogger(OciPusherSpec))
+  }
+
+  private String image(String image) {
+    return "${registry.host}/${image}"
+  }
+
+  private DockerReference reference(String name) {
+    return DockerReference.parse(image(name))
+  }
+
+  private static long chunks(long size) {
+    return (size + CHUNK_SIZE - 1).intdiv(CHUNK_SIZE)
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, 'UTF-8')
+  }
+
+  private static byte[] json(Object value) {
+    return JsonOutput.toJson(value).getBytes(StandardCharsets.UTF_8)
+  }
+}
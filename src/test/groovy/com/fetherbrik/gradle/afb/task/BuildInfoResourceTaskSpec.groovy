@@ -0,0 +1,123 @@
+package com.fetherbrik.gradle.afb.task
+
+import com.fetherbrik.gradle.afb.domain.BuildInfo
+import com.fetherbrik.gradle.afb.domain.GitInfo
+import com.fetherbrik.gradle.afb.domain.SemverParser
+import com.fetherbrik.gradle.afb.domain.configuration.ReleaseTarget
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+class BuildInfoResourceTaskSpec extends Specification {
+
+  static final String HASH = '0123456789abcdef0123456789abcdef01234567'
+
+  File dir
+  Project project
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-build-info').toFile()
+    project = ProjectBuilder.builder().withProjectDir(dir).build()
+  }
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  def "writes the version, target and git commit, and the date stamp only when asked to"() {
+    given:
+    BuildInfo info = info('v1.2.3-RC.4+103', '20201001T120000z')
+
+    expect:
+    BuildInfoResourceTask.properties(info, true) == [
+      'version'       : 'v1.2.3-RC.4-103',
+      'version.maven' : '1.2.3-RC.4-103',
+      'version.semver': 'v1.2.3-RC.4+103',
+      'target'        : 'stage',
+      'dateStamp'     : '20201001T120000z',
+      'git.hash'      : HASH,
+      'git.branch'    : 'main',
+      'git.dirty'     : 'false',
+    ]
+    BuildInfoResourceTask.properties(info, false) == BuildInfoResourceTask.properties(info, true).findAll { it.key != 'dateStamp' }
+  }
+
+  def "without the date stamp, builds at different times have the same properties and manifest attributes"() {
+    given:
+    BuildInfo first = info('v1.2.3', '20201001T120000z')
+    BuildInfo second = info('v1.2.3', '20201001T120731z')
+
+    expect:
+    BuildInfoResourceTask.properties(first, false) == BuildInfoResourceTask.properties(second, false)
+    BuildInfoResourceTask.manifestAttributes(first, false) == BuildInfoResourceTask.manifestAttributes(second, false)
+    BuildInfoResourceTask.properties(first, true) != BuildInfoResourceTask.properties(second, true)
+  }
+
+  def "gives the manifest the version, git commit and branch, and date stamp"() {
+    given:
+    BuildInfo info = info('v1.2.3', '20201001T120000z')
+
+    expect:
+    BuildInfoResourceTask.manifestAttributes(info, true) == [
+      'Implementation-Version': 'v1.2.3',
+      'AFB-Git-Hash'          : HASH,
+      'AFB-Git-Branch'        : 'main',
+      'AFB-Date-Stamp'        : '20201001T120000z',
+    ]
+    BuildInfoResourceTask.manifestAttributes(info, false).keySet() as List ==
+      ['Implementation-Version', 'AFB-Git-Hash', 'AFB-Git-Branch']
+  }
+
+  def "leaves out the values the build info doesn't have"() {
+    given:
+    BuildInfo info = new BuildInfo.Builder()
+      .version(SemverParser.parse('v1.2.3'))
+      .target(new ReleaseTarget('dev'))
+      .git(new GitInfo.Builder().describe('0123456').hash(HASH).build())
+      .build()
+
+    expect:
+    !BuildInfoResourceTask.properties(info, true).containsKey('git.branch')
+    !BuildInfoResourceTask.properties(info, true).containsKey('dateStamp')
+    BuildInfoResourceTask.manifestAttributes(info, true).keySet() as List == ['Implementation-Version', 'AFB-Git-Hash']
+  }
+
+  def "writes the same bytes for the same properties: sorted, escaped and without the date comment"() {
+    given:
+    BuildInfoResourceTask task = project.tasks.create('generateBuildInfo', BuildInfoResourceTask)
+    File resource = new File(dir, "build/afb/generateBuildInfo/${BuildInfoResourceTask.RESOURCE}")
+    Map<String, String> properties = BuildInfoResourceTask.properties(info('v1.2.3', '20201001T120000z'), true)
+    properties['git.branch'] = 'feature/a:b=c'
+
+    when:
+    task.getProperties().set(properties)
+    task.generate()
+    byte[] first = resource.bytes
+    task.getProperties().set(properties.collectEntries { it }.sort { -it.key.length() } as Map<String, String>)
+    task.generate()
+
+    then:
+    resource.bytes == first
+    resource.getText('ISO-8859-1') == """\
+dateStamp=20201001T120000z
+git.branch=feature/a\\:b\\=c
+git.dirty=false
+git.hash=${HASH}
+target=stage
+version.maven=1.2.3
+version.semver=v1.2.3
+version=v1.2.3
+"""
+  }
+
+  private static BuildInfo info(String version, String dateStamp) {
+    return new BuildInfo.Builder()
+      .version(SemverParser.parse(version))
+      .target(new ReleaseTarget('stage'))
+      .git(new GitInfo.Builder().describe('v1.2.3-0-g01234567').hash(HASH).branchName('main').build())
+      .dateStamp(dateStamp)
+      .build()
+  }
+}
@@ -0,0 +1,158 @@
+package com.fetherbrik.gradle.afb.task
+
+import com.fetherbrik.gradle.afb.service.docker.BuildKitCache
+import com.fetherbrik.gradle.afb.service.docker.DockerBuildRequest
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+
+class DockerBakeTaskSpec extends Specification {
+
+  File dir
+  Project project
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-bake').toFile()
+    project = ProjectBuilder.builder().withProjectDir(dir).withName('shop').build()
+    new File(dir, 'api').mkdirs()
+    new File(dir, 'api/Dockerfile').text = 'FROM scratch\nCOPY app.jar /app/\n'
+    new File(dir, 'api/app.jar').text = 'jar'
+  }
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  @Unroll
+  def "names the bake target of '#path' '#name'"() {
+    expect:
+    DockerBakeTask.targetName(path, 'shop') == name
+
+    where:
+    path               | name
+    ':'                | 'shop'
+    ':api'             | 'api'
+    ':services:api'    | 'services-api'
+    ':services:api.v2' | 'services-api_v2'
+  }
+
+  def "writes a target per image, labelled with the fingerprint dockerBuild gives the same build"() {
+    given:
+    DockerBakeTask.Target api = target(':api', 'api', new File(dir, 'api'))
+
+    when:
+    Map<String, Object> definition = DockerBakeTask.bakeDefinition([api])
+
+    then:
+    definition.group == [default: [targets: ['api']]]
+    definition.target.api.context == new File(dir, 'api').absolutePath
+    definition.target.api.dockerfile == 'Dockerfile'
+    definition.target.api.tags == ['registry.example.org/shop/api:1.0']
+    definition.target.api.args == [VERSION: '1.0']
+    definition.target.api.labels == [(DockerBuildRequest.FINGERPRINT_LABEL): new DockerBuildRequest.Builder()
+      .contextDir(new File(dir, 'api'))
+      .dockerFile('Dockerfile')
+      .tag('registry.example.org/shop/api:1.0')
+      .buildArgs([VERSION: '1.0'])
+      .build()
+      .fingerprint()]
+    !definition.target.api.containsKey('cache-from')
+    !definition.target.api.containsKey('cache-to')
+  }
+
+  def "imports and exports each target's build cache as its dockerBuild would"() {
+    given:
+    File apiCache = new File(dir, 'caches/api')
+    new File(apiCache, 'index.json').with { parentFile.mkdirs(); text = '{}' }
+    DockerBakeTask.Target api = target(':api', 'api', new File(dir, 'api'), new BuildKitCache('local', apiCache, true))
+    DockerBakeTask.Target web = target(':web', 'web', new File(dir, 'api'),
+                                       new BuildKitCache('registry.example.org/shop/web:buildcache', null, false))
+
+    when:
+    Map<String, Object> definition = DockerBakeTask.bakeDefinition([api, web])
+
+    then:
+    definition.target.api['cache-from'] == ["type=local,src=${apiCache}".toString()]
+    definition.target.api['cache-to'] == ["type=local,dest=${new File(dir, 'caches/api.new')},mode=max".toString()]
+    definition.target.web['cache-from'] == ['type=registry,ref=registry.example.org/shop/web:buildcache']
+    !definition.target.web.containsKey('cache-to')
+  }
+
+  def "fails when two targets would export to the same local cache"() {
+    given:
+    File cache = new File(dir, 'caches/shared')
+    DockerBakeTask.Target api = target(':api', 'api', new File(dir, 'api'), new BuildKitCache('local', cache, true))
+    DockerBakeTask.Target web = target(':web', 'web', new File(dir, 'api'), new BuildKitCache('local', cache, true))
+
+    when:
+    DockerBakeTask.bakeDefinition([api, web])
+
+    then:
+    RuntimeException e = thrown()
+    e.message == "AFB: The bake targets 'api' and 'web' would both export their build cache to '${cache}'. Give each" +
+                 " project its own docker.buildCacheDir."
+  }
+
+  def "fails when two projects would have the same target name"() {
+    given:
+    DockerBakeTask bake = project.tasks.create('dockerBake', DockerBakeTask)
+    bake.target(target(':a-b', 'a-b', new File(dir, 'api')))
+
+    when:
+    bake.target(target(':a:b', 'a-b', new File(dir, 'api')))
+
+    then:
+    RuntimeException e = thrown()
+    e.message == "AFB: The projects ':a-b' and ':a:b' would both be the bake target 'a-b'. Rename one of them."
+  }
+
+  def "replaces the target of a project that adds it again"() {
+    given:
+    DockerBakeTask bake = project.tasks.create('dockerBake', DockerBakeTask)
+
+    when:
+    bake.target(target(':api', 'api', new File(dir, 'api')))
+    bake.target(target(':api', 'api', dir))
+
+    then:
+    bake.targets*.context*.get() == [dir]
+  }
+
+  def "reads the image id of each target from the metadata buildx writes"() {
+    given:
+    File metadata = new File(dir, 'metadata.json')
+    metadata.text = '''{
+      "api": {"buildx.build.ref": "afb/afb0/x1", "containerimage.config.digest": "sha256:aaa", "containerimage.digest": "sha256:bbb"},
+      "web": {"containerimage.config.digest": "sha256:ccc"}
+    }'''
+
+    expect:
+    DockerBakeTask.imageIds(metadata, ['api', 'web']) == [api: 'sha256:aaa', web: 'sha256:ccc']
+  }
+
+  def "fails when buildx doesn't report the image of a target"() {
+    given:
+    File metadata = new File(dir, 'metadata.json')
+    metadata.text = '{"api": {"buildx.build.ref": "afb/afb0/x1"}}'
+
+    when:
+    DockerBakeTask.imageIds(metadata, ['api'])
+
+    then:
+    RuntimeException e = thrown()
+    e.message == "AFB: 'docker buildx bake' did not report the image of target 'api'."
+  }
+
+  private DockerBakeTask.Target target(String path, String name, File context, BuildKitCache cache = null) {
+    return new DockerBakeTask.Target(path, name, project.provider { context }, 'Dockerfile',
+                                     project.provider { ['registry.example.org/shop/api:1.0'] },
+                                     project.provider { [VERSION: '1.0'] },
+                                     project.provider { true },
+                                     project.layout.buildDirectory.file('afb/dockerBuild/image-id'),
+                                     project.provider { cache },
+                                     [])
+  }
+}
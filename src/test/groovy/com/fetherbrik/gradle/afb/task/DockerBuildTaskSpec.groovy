@@ -0,0 +1,136 @@
+package com.fetherbrik.gradle.afb.task
+
+import com.fetherbrik.gradle.afb.service.docker.DockerBackend
+import com.fetherbrik.gradle.afb.service.docker.DockerBuildRequest
+import org.gradle.api.Project
+import org.gradle.process.ExecOperations
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+
+import javax.inject.Inject
+import java.nio.file.Files
+
+class DockerBuildTaskSpec extends Specification {
+
+  static final List<String> TAGS = ['registry.example.org/org/app:1.0', 'registry.example.org/org/app:latest']
+
+  File dir
+  Project project
+  TestBuildTask task
+  DockerBackend docker = Mock()
+  String fingerprint
+
+  def setup() {
+    dir = Files.createTempDirectory('afb-docker-build').toFile()
+    project = ProjectBuilder.builder().withProjectDir(dir).build()
+    File context = new File(dir, 'build/docker')
+    context.mkdirs()
+    new File(context, 'Dockerfile').text = 'FROM scratch\nCOPY app.jar /app/\n'
+    new File(context, 'app.jar').text = 'jar'
+    task = project.tasks.create('dockerBuild', TestBuildTask)
+    task.docker = docker
+    task.contextDir.set(context)
+    task.tags.set(TAGS)
+    task.buildArgs.set([VERSION: '1.0'])
+    fingerprint = new DockerBuildRequest.Builder().contextDir(context).dockerFile('Dockerfile').buildArgs([VERSION: '1.0']).build().fingerprint()
+  }
+
+  def cleanup() {
+    dir.deleteDir()
+  }
+
+  def "re-uses and tags an image the daemon has from the same inputs"() {
+    when:
+    task.build()
+
+    then:
+    1 * docker.findImage(DockerBuildRequest.FINGERPRINT_LABEL, fingerprint) >> Optional.of('sha256:old')
+    1 * docker.tag('sha256:old', TAGS)
+    0 * docker.build(*_)
+    imageId() == 'sha256:old'
+  }
+
+  def "loads a saved image of the same inputs when the daemon doesn't have one"() {
+    given:
+    File archives = new File(dir, 'archives')
+    archives.mkdirs()
+    File archive = new File(archives, "dockerBuild-${fingerprint}.tar")
+    archive.text = 'tar'
+    task.archiveDir.set(archives)
+
+    when:
+    task.build()
+
+    then:
+    1 * docker.findImage(DockerBuildRequest.FINGERPRINT_LABEL, fingerprint) >> Optional.empty()
+    1 * docker.load(archive, _) >> 'sha256:saved'
+    1 * docker.tag('sha256:saved', TAGS)
+    0 * docker.build(*_)
+    imageId() == 'sha256:saved'
+  }
+
+  def "builds an image labelled with the fingerprint, and saves it in place of the older one"() {
+    given:
+    File archives = new File(dir, 'archives')
+    archives.mkdirs()
+    new File(archives, 'dockerBuild-older.tar').text = 'older'
+    new File(archives, 'other-older.tar').text = 'other project'
+    task.archiveDir.set(archives)
+
+    when:
+    task.build()
+
+    then:
+    1 * docker.findImage(DockerBuildRequest.FINGERPRINT_LABEL, fingerprint) >> Optional.empty()
+    1 * docker.build({ DockerBuildRequest request ->
+      request.labels == [(DockerBuildRequest.FINGERPRINT_LABEL): fingerprint] && request.tags == TAGS
+    }, _) >> 'sha256:new'
+    1 * docker.save('sha256:new', new File(archives, "dockerBuild-${fingerprint}.tar"))
+    imageId() == 'sha256:new'
+    archives.list().sort() == ['other-older.tar']
+  }
+
+  def "is up to date while the daemon has the last image under every tag"() {
+    given:
+    File idFile = task.imageIdFile.get().asFile
+    idFile.parentFile.mkdirs()
+    idFile.text = 'sha256:last'
+
+    when:
+    boolean current = task.imageIsCurrent()
+
+    then:
+    docker.imageId(TAGS[0]) >> Optional.of('sha256:last')
+    docker.imageId(TAGS[1]) >> tagged
+    current == expected
+
+    where:
+    tagged                      | expected
+    Optional.of('sha256:last')  | true
+    Optional.of('sha256:other') | false
+    Optional.empty()            | false
+  }
+
+  def "is out of date without the id of a last image"() {
+    expect:
+    !task.imageIsCurrent()
+  }
+
+  private String imageId() {
+    return task.imageIdFile.get().asFile.text
+  }
+
+  static class TestBuildTask extends DockerBuildTask {
+    DockerBackend docker
+
+    @Inject
+    TestBuildTask(ExecOperations execOperations) {
+      super(execOperations)
+    }
+
+    @Override
+    protected DockerBackend docker() {
+      return docker
+    }
+  }
+}